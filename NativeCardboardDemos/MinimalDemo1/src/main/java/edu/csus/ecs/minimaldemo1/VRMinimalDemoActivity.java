@@ -18,7 +18,6 @@
 package edu.csus.ecs.minimaldemo1;
 
 import android.opengl.GLES20;
-import android.opengl.Matrix;
 import android.os.Bundle;
 import android.util.Log;
 import com.google.vr.sdk.base.AndroidCompat;
@@ -27,13 +26,16 @@ import com.google.vr.sdk.base.GvrActivity;
 import com.google.vr.sdk.base.GvrView;
 import com.google.vr.sdk.base.HeadTransform;
 import com.google.vr.sdk.base.Viewport;
+import edu.csus.ecs.core.math.Mat4;
+import edu.csus.ecs.shared.FrameProfiler;
+import edu.csus.ecs.shared.GLCapabilities;
+import edu.csus.ecs.shared.GLStateCache;
+import edu.csus.ecs.shared.GpuBufferManager;
+import edu.csus.ecs.shared.IndexedMesh;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
 
 import javax.microedition.khronos.egl.EGLConfig;
 
@@ -49,17 +51,20 @@ public class VRMinimalDemoActivity extends GvrActivity implements GvrView.Stereo
     private static final float Z_FAR = 100.0f;
     private static final float CAMERA_Z = 0.01f;
     private static final float TIME_DELTA = 0.3f;
-    private static final int COORDS_PER_VERTEX = 3;
     private static final float MAX_MODEL_DISTANCE = 7.0f;
 
-    // VBO ids
-    private int cubeVerticesVbo, cubeColorsVbo;
+    // one interleaved mesh (VBO + IBO) per color scheme
+    private IndexedMesh cubeMesh;
 
     private int shaderProgram;      // shader program ID
     private int positionLoc;        // location of position shader attr
     private int colorLoc;           // location of color shader attr
     private int mvpLoc;             // location of mvp uniform
 
+    private final GLStateCache glState = new GLStateCache(); // skips redundant GL calls
+    private final GpuBufferManager buffers = new GpuBufferManager(glState); // owns our VBOs/IBOs
+    private final FrameProfiler profiler = new FrameProfiler(FrameProfiler.BUDGET_60HZ_NANOS);
+
     private float cameraPosition[];
     private float[] cameraMatrix;   // matrix to move camera around
     private float[] viewMatrix;     // view matrix from each eye
@@ -68,7 +73,6 @@ public class VRMinimalDemoActivity extends GvrActivity implements GvrView.Stereo
     private float[] cubePosition;   // Position (vector)
 
     private float[] modelViewProj;
-    private float[] modelView;
 
     /**
      * Converts a raw text file, saved as a resource, into an OpenGL ES shader.
@@ -128,7 +132,6 @@ public class VRMinimalDemoActivity extends GvrActivity implements GvrView.Stereo
         cameraMatrix = new float[16];
         viewMatrix = new float[16];
         modelViewProj = new float[16];
-        modelView = new float[16];
         // cube first appears directly in front of user.
         cubePosition = new float[]{0.0f, 0.0f, -MAX_MODEL_DISTANCE};
         // cameraMatrix
@@ -158,6 +161,8 @@ public class VRMinimalDemoActivity extends GvrActivity implements GvrView.Stereo
     @Override
     public void onRendererShutdown() {
         Log.i(TAG, "onRendererShutdown");
+        buffers.releaseAll();
+        profiler.release();
     }
 
     // required method
@@ -168,6 +173,7 @@ public class VRMinimalDemoActivity extends GvrActivity implements GvrView.Stereo
 
     @Override
     public void onPause() {
+        profiler.dump(TAG); // frame timing so far, safe while the GL thread is still recording
         super.onPause();
     }
 
@@ -188,28 +194,10 @@ public class VRMinimalDemoActivity extends GvrActivity implements GvrView.Stereo
     public void onSurfaceCreated(EGLConfig config) {
         Log.i(TAG, "onSurfaceCreated");
         GLES20.glClearColor(0.1f, 0.1f, 0.1f, 0.5f); // Dark background so text shows up well.
-
-        FloatBuffer cubeVertices, cubeColors;
-
-        // google stuff
-        ByteBuffer bbVertices = ByteBuffer.allocateDirect(WorldLayoutData.CUBE_COORDS.length * 4);
-        bbVertices.order(ByteOrder.nativeOrder()); // don't forget this--won't render if you do!
-        cubeVertices = bbVertices.asFloatBuffer();
-        cubeVertices.put(WorldLayoutData.CUBE_COORDS);
-        cubeVertices.position(0); // prep for reading later
-
-        ByteBuffer bbColors = ByteBuffer.allocateDirect(WorldLayoutData.CUBE_COLORS.length * 4);
-        bbColors.order(ByteOrder.nativeOrder()); // don't forget this--won't render if you do!
-        cubeColors = bbColors.asFloatBuffer();
-        cubeColors.put(WorldLayoutData.CUBE_COLORS);
-        cubeColors.position(0); // prep for reading later
-        // end google stuff
-
-        // set up VBOs for cube AND reticule (they share geometry)
-        int vbo[] = new int[2];
-        GLES20.glGenBuffers(2, vbo, 0);
-        cubeVerticesVbo = vbo[0];
-        cubeColorsVbo = vbo[1];
+        glState.reset(); // new context, nothing we remember is valid anymore
+        GLCapabilities capabilities = GLCapabilities.query();
+        buffers.onSurfaceCreated(capabilities);
+        profiler.onSurfaceCreated(capabilities);
 
         int vertexShader = loadGLShader(GLES20.GL_VERTEX_SHADER, R.raw.light_vertex);
         int passthroughShader = loadGLShader(GLES20.GL_FRAGMENT_SHADER, R.raw.passthrough_fragment);
@@ -227,22 +215,14 @@ public class VRMinimalDemoActivity extends GvrActivity implements GvrView.Stereo
         mvpLoc = GLES20.glGetUniformLocation(shaderProgram, "u_MVP");
         checkGLError("Cube program params");
 
-        // buffer the data
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, cubeVerticesVbo);
-        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, WorldLayoutData.CUBE_COORDS.length * 4, cubeVertices, GLES20.GL_STATIC_DRAW);
-
-        // do the same for the colors
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, cubeColorsVbo);
-        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, WorldLayoutData.CUBE_COLORS.length * 4, cubeColors, GLES20.GL_STATIC_DRAW);
-
-        // reset
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        // the cube's interleaved vertices and 16-bit indices, mapped from the assets
+        cubeMesh = loadMesh("cube.mesh");
+        cubeMesh.upload(buffers);
 
         checkGLError("Buffering data");
 
         // move the cube
-        Matrix.setIdentityM(cubeMatrix, 0);
-        Matrix.translateM(cubeMatrix, 0, cubePosition[0], cubePosition[1], cubePosition[2]);
+        Mat4.setTranslation(cubeMatrix, 0, cubePosition[0], cubePosition[1], cubePosition[2]);
 
         checkGLError("onSurfaceCreated");
     }
@@ -271,6 +251,14 @@ public class VRMinimalDemoActivity extends GvrActivity implements GvrView.Stereo
         return null;
     }
 
+    private IndexedMesh loadMesh(String name) {
+        try {
+            return IndexedMesh.fromAsset(getAssets(), name);
+        } catch (IOException e) {
+            throw new RuntimeException("Can't load " + name, e);
+        }
+    }
+
     /**
      * Prepares OpenGL ES before we draw a frame.
      *
@@ -279,16 +267,21 @@ public class VRMinimalDemoActivity extends GvrActivity implements GvrView.Stereo
      */
     @Override
     public void onNewFrame(HeadTransform headTransform) {
+        profiler.begin(FrameProfiler.NEW_FRAME);
+        glState.beginFrame();
+
         // rotate cube
-        Matrix.rotateM(cubeMatrix, 0, TIME_DELTA, 0.5f, 0.5f, 1.0f);
+        Mat4.rotate(cubeMatrix, 0, TIME_DELTA, 0.5f, 0.5f, 1.0f);
 
         // Build the cameraMatrix matrix and apply it to the ModelView for cube
         // You can apply position here to move cameraMatrix
         // note that we're always looking at the point in front of the camera (camera z - 1)
         // (rotation is handled by the HeadTransform/EyeView)
-        Matrix.setLookAtM(cameraMatrix, 0, cameraPosition[0], cameraPosition[1], cameraPosition[2],
+        Mat4.setLookAt(cameraMatrix, 0, cameraPosition[0], cameraPosition[1], cameraPosition[2],
                 cameraPosition[0], cameraPosition[1], cameraPosition[2] - 1, 0.0f, 1.0f, 0.0f);
         checkGLError("onReadyToDraw");
+
+        profiler.end(FrameProfiler.NEW_FRAME);
     }
 
     /**
@@ -300,23 +293,29 @@ public class VRMinimalDemoActivity extends GvrActivity implements GvrView.Stereo
      */
     @Override
     public void onDrawEye(Eye eye) {
+        profiler.begin(FrameProfiler.eyePhase(eye));
         GLES20.glEnable(GLES20.GL_DEPTH_TEST);
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
         checkGLError("colorParam");
 
         // Apply the eye transformation to the cameraMatrix (this rotates it to match HMD)
-        Matrix.multiplyMM(viewMatrix, 0, eye.getEyeView(), 0, cameraMatrix, 0);
+        Mat4.multiply(viewMatrix, 0, eye.getEyeView(), 0, cameraMatrix, 0);
         float[] perspective = eye.getPerspective(Z_NEAR, Z_FAR);
 
         // set up MVP for cube
-        Matrix.multiplyMM(modelView, 0, viewMatrix, 0, cubeMatrix, 0);
-        Matrix.multiplyMM(modelViewProj, 0, perspective, 0, modelView, 0);
+        Mat4.multiplyMVP(modelViewProj, 0, perspective, 0, viewMatrix, 0, cubeMatrix, 0);
         drawCube(); // draw cube
+        buffers.unbindVertexArray(); // leave the default vertex array for GVR
+        profiler.end(FrameProfiler.eyePhase(eye));
     }
 
     // required method
     @Override
-    public void onFinishFrame(Viewport viewport) {}
+    public void onFinishFrame(Viewport viewport) {
+        // nothing to do yet, timed anyway so work added here shows up
+        profiler.begin(FrameProfiler.FINISH_FRAME);
+        profiler.end(FrameProfiler.FINISH_FRAME);
+    }
 
     /**
      * Draw the cube.
@@ -324,25 +323,14 @@ public class VRMinimalDemoActivity extends GvrActivity implements GvrView.Stereo
      * Code provided Cody Jackson
      */
     public void drawCube() {
-        GLES20.glUseProgram(shaderProgram);
+        glState.useProgram(shaderProgram);
         // Set the ModelViewProjection matrix in the shader.
-        GLES20.glUniformMatrix4fv(mvpLoc, 1, false, modelViewProj, 0);
-
-        // bind the buffers
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, cubeVerticesVbo);
-        GLES20.glVertexAttribPointer(positionLoc, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, 0);
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, cubeColorsVbo);
-        GLES20.glVertexAttribPointer(colorLoc, 4, GLES20.GL_FLOAT, false, 0, 0);
+        glState.uniformMatrix4fv(mvpLoc, 1, false, modelViewProj, 0);
 
-        // enable the two VBOs
-        GLES20.glEnableVertexAttribArray(positionLoc);
-        GLES20.glEnableVertexAttribArray(colorLoc);
+        cubeMesh.bind(glState, positionLoc, -1, colorLoc);
         // draw cube
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, 36);
-        // unbind VBO (good habit)
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
-        GLES20.glDisableVertexAttribArray(positionLoc);
-        GLES20.glDisableVertexAttribArray(positionLoc);
+        cubeMesh.draw();
+        // no unbinding here: the next draw binds the same buffers and the cache can skip them
         checkGLError("Drawing cube");
     }
 }
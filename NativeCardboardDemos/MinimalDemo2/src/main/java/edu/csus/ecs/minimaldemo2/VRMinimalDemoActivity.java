@@ -18,7 +18,6 @@
 package edu.csus.ecs.minimaldemo2;
 
 import android.opengl.GLES20;
-import android.opengl.Matrix;
 import android.os.Bundle;
 import android.util.Log;
 import com.google.vr.sdk.base.AndroidCompat;
@@ -27,13 +26,17 @@ import com.google.vr.sdk.base.GvrActivity;
 import com.google.vr.sdk.base.GvrView;
 import com.google.vr.sdk.base.HeadTransform;
 import com.google.vr.sdk.base.Viewport;
+import edu.csus.ecs.core.math.Mat4;
+import edu.csus.ecs.core.math.Quat;
+import edu.csus.ecs.shared.FrameProfiler;
+import edu.csus.ecs.shared.GLCapabilities;
+import edu.csus.ecs.shared.GLStateCache;
+import edu.csus.ecs.shared.GpuBufferManager;
+import edu.csus.ecs.shared.IndexedMesh;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
 
 import javax.microedition.khronos.egl.EGLConfig;
 
@@ -49,19 +52,22 @@ public class VRMinimalDemoActivity extends GvrActivity implements GvrView.Stereo
     private static final float Z_FAR = 100.0f;
     private static final float CAMERA_Z = 0.01f;
     private static final float TIME_DELTA = 0.3f;
-    private static final int COORDS_PER_VERTEX = 3;
     private static final float MAX_MODEL_DISTANCE = 7.0f;
     private static final float RETICULE_DISTANCE = 7f;
     private static final float RETICULE_SIZE = 0.06f;
 
-    // VBO ids
-    private int cubeVerticesVbo, cubeColorsVbo, retColorsVbo;
+    // one interleaved mesh (VBO + IBO) per color scheme
+    private IndexedMesh cubeMesh, retMesh;
 
     private int shaderProgram;      // shader program ID
     private int positionLoc;        // location of position shader attr
     private int colorLoc;           // location of color shader attr
     private int mvpLoc;             // location of mvp uniform
 
+    private final GLStateCache glState = new GLStateCache(); // skips redundant GL calls
+    private final GpuBufferManager buffers = new GpuBufferManager(glState); // owns our VBOs/IBOs
+    private final FrameProfiler profiler = new FrameProfiler(FrameProfiler.BUDGET_60HZ_NANOS);
+
     private float cameraPosition[];
     private float[] cameraMatrix;   // matrix to move camera around
     private float[] viewMatrix;     // view matrix from each eye
@@ -70,12 +76,11 @@ public class VRMinimalDemoActivity extends GvrActivity implements GvrView.Stereo
     private float[] cubePosition;   // Position (vector)
 
     private float[] modelViewProj;
-    private float[] modelView;
 
-    private float[] reticuleMatrix, reticuleRotMatrix, reticuleTransMatrix, reticuleScaleMatrix;
+    private float[] reticuleMatrix;
     private float[] reticulePosition;
-    private float[] reticuleAngles; // stores the rotational angles from the headTransform
-    private float[] tempMatrix;
+    private float[] reticuleRotation; // head rotation quaternion from the headTransform
+    private float[] reticuleOffset; // reticulePosition turned with the head
 
     /**
      * Converts a raw text file, saved as a resource, into an OpenGL ES shader.
@@ -135,7 +140,6 @@ public class VRMinimalDemoActivity extends GvrActivity implements GvrView.Stereo
         cameraMatrix = new float[16];
         viewMatrix = new float[16];
         modelViewProj = new float[16];
-        modelView = new float[16];
         // cube first appears directly in front of user.
         cubePosition = new float[]{0.0f, 0.0f, -MAX_MODEL_DISTANCE};
         // cameraMatrix
@@ -145,12 +149,9 @@ public class VRMinimalDemoActivity extends GvrActivity implements GvrView.Stereo
         cameraPosition[2] = CAMERA_Z;
         // reticule
         reticuleMatrix = new float[16];
-        reticuleScaleMatrix = new float[16];
-        reticuleTransMatrix = new float[16];
-        reticuleRotMatrix = new float[16];
         reticulePosition = new float[]{0f, 0f, -RETICULE_DISTANCE}; // directly in front of user
-        reticuleAngles = new float[3];
-        tempMatrix = new float[16];
+        reticuleRotation = new float[4];
+        reticuleOffset = new float[3];
     }
 
     /**
@@ -173,6 +174,8 @@ public class VRMinimalDemoActivity extends GvrActivity implements GvrView.Stereo
     @Override
     public void onRendererShutdown() {
         Log.i(TAG, "onRendererShutdown");
+        buffers.releaseAll();
+        profiler.release();
     }
 
     // required method
@@ -183,6 +186,7 @@ public class VRMinimalDemoActivity extends GvrActivity implements GvrView.Stereo
 
     @Override
     public void onPause() {
+        profiler.dump(TAG); // frame timing so far, safe while the GL thread is still recording
         super.onPause();
     }
 
@@ -203,29 +207,10 @@ public class VRMinimalDemoActivity extends GvrActivity implements GvrView.Stereo
     public void onSurfaceCreated(EGLConfig config) {
         Log.i(TAG, "onSurfaceCreated");
         GLES20.glClearColor(0.1f, 0.1f, 0.1f, 0.5f); // Dark background so text shows up well.
-
-        FloatBuffer cubeVertices, cubeColors;
-
-        // google stuff
-        ByteBuffer bbVertices = ByteBuffer.allocateDirect(WorldLayoutData.CUBE_COORDS.length * 4);
-        bbVertices.order(ByteOrder.nativeOrder()); // don't forget this--won't render if you do!
-        cubeVertices = bbVertices.asFloatBuffer();
-        cubeVertices.put(WorldLayoutData.CUBE_COORDS);
-        cubeVertices.position(0); // prep for reading later
-
-        ByteBuffer bbColors = ByteBuffer.allocateDirect(WorldLayoutData.CUBE_COLORS.length * 4);
-        bbColors.order(ByteOrder.nativeOrder()); // don't forget this--won't render if you do!
-        cubeColors = bbColors.asFloatBuffer();
-        cubeColors.put(WorldLayoutData.CUBE_COLORS);
-        cubeColors.position(0); // prep for reading later
-        // end google stuff
-
-        // set up VBOs for cube AND reticule (they share geometry)
-        int vbo[] = new int[3];
-        GLES20.glGenBuffers(3, vbo, 0);
-        cubeVerticesVbo = vbo[0];
-        cubeColorsVbo = vbo[1];
-        retColorsVbo = vbo[2];
+        glState.reset(); // new context, nothing we remember is valid anymore
+        GLCapabilities capabilities = GLCapabilities.query();
+        buffers.onSurfaceCreated(capabilities);
+        profiler.onSurfaceCreated(capabilities);
 
         int vertexShader = loadGLShader(GLES20.GL_VERTEX_SHADER, R.raw.light_vertex);
         int passthroughShader = loadGLShader(GLES20.GL_FRAGMENT_SHADER, R.raw.passthrough_fragment);
@@ -243,29 +228,16 @@ public class VRMinimalDemoActivity extends GvrActivity implements GvrView.Stereo
         mvpLoc = GLES20.glGetUniformLocation(shaderProgram, "u_MVP");
         checkGLError("Cube program params");
 
-        // buffer the data
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, cubeVerticesVbo);
-        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, WorldLayoutData.CUBE_COORDS.length * 4, cubeVertices, GLES20.GL_STATIC_DRAW);
-
-        // do the same for the colors
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, cubeColorsVbo);
-        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, WorldLayoutData.CUBE_COLORS.length * 4, cubeColors, GLES20.GL_STATIC_DRAW);
-
-        // do it again for the reticule (uses same model) but use white instead
-        cubeColors.clear(); // reset to beginning for write
-        cubeColors.put(WorldLayoutData.CUBE_COLORS_CROSSHAIR);
-        cubeColors.position(0);
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, retColorsVbo);
-        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, WorldLayoutData.CUBE_COLORS.length * 4, cubeColors, GLES20.GL_STATIC_DRAW);
-
-        // reset
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        // the cubes' interleaved vertices and 16-bit indices, mapped from the assets
+        cubeMesh = loadMesh("cube.mesh");
+        retMesh = loadMesh("cube_crosshair.mesh");
+        cubeMesh.upload(buffers);
+        retMesh.upload(buffers);
 
         checkGLError("Buffering data");
 
         // move the cube
-        Matrix.setIdentityM(cubeMatrix, 0);
-        Matrix.translateM(cubeMatrix, 0, cubePosition[0], cubePosition[1], cubePosition[2]);
+        Mat4.setTranslation(cubeMatrix, 0, cubePosition[0], cubePosition[1], cubePosition[2]);
 
         checkGLError("onSurfaceCreated");
     }
@@ -294,6 +266,14 @@ public class VRMinimalDemoActivity extends GvrActivity implements GvrView.Stereo
         return null;
     }
 
+    private IndexedMesh loadMesh(String name) {
+        try {
+            return IndexedMesh.fromAsset(getAssets(), name);
+        } catch (IOException e) {
+            throw new RuntimeException("Can't load " + name, e);
+        }
+    }
+
     /**
      * Prepares OpenGL ES before we draw a frame.
      *
@@ -302,42 +282,30 @@ public class VRMinimalDemoActivity extends GvrActivity implements GvrView.Stereo
      */
     @Override
     public void onNewFrame(HeadTransform headTransform) {
+        profiler.begin(FrameProfiler.NEW_FRAME);
+        glState.beginFrame();
+
         // rotate cube
-        Matrix.rotateM(cubeMatrix, 0, TIME_DELTA, 0.5f, 0.5f, 1.0f);
-
-        // set up reticule transforms
-        Matrix.setIdentityM(reticuleMatrix, 0);
-        Matrix.setIdentityM(reticuleTransMatrix, 0);
-        Matrix.setIdentityM(reticuleRotMatrix, 0);
-        Matrix.setIdentityM(reticuleScaleMatrix, 0);
-        Matrix.setIdentityM(tempMatrix, 0);
-
-        // scale it (this happens first, note careful order of LHS/RHS)
-        Matrix.scaleM(reticuleScaleMatrix, 0, RETICULE_SIZE, RETICULE_SIZE, RETICULE_SIZE); // make it smaller
-        Matrix.multiplyMM(reticuleMatrix, 0, reticuleScaleMatrix, 0, tempMatrix, 0);
-
-        // translate it
-        Matrix.translateM(reticuleTransMatrix, 0, reticulePosition[0], reticulePosition[1], reticulePosition[2]);
-        Matrix.multiplyMM(tempMatrix, 0, reticuleTransMatrix, 0, reticuleMatrix, 0);
-
-        // rotate it (this happens last)
-        headTransform.getEulerAngles(reticuleAngles, 0);
-        reticuleAngles[0] = (float)(reticuleAngles[0] * 180 / Math.PI); // convert to degrees
-        reticuleAngles[1] = (float)(reticuleAngles[1] * 180 / Math.PI);
-        reticuleAngles[2] = (float)(reticuleAngles[2] * 180 / Math.PI);
-        Matrix.rotateM(reticuleRotMatrix, 0, reticuleAngles[1], 0f, 1f, 0f); // apply yaw 1st as per GVR docs
-        Matrix.rotateM(reticuleRotMatrix, 0, reticuleAngles[0], 1f, 0f, 0f); // apply pitch 2nd
-        Matrix.rotateM(reticuleRotMatrix, 0, reticuleAngles[2], 0f, 0f, 1f); // roll last
-
-        Matrix.multiplyMM(reticuleMatrix, 0, reticuleRotMatrix, 0, tempMatrix, 0);
+        Mat4.rotate(cubeMatrix, 0, TIME_DELTA, 0.5f, 0.5f, 1.0f);
+
+        // set up reticule transform: scale it, move it out in front of the user, then turn it with
+        // the head. Turning the offset by the head rotation first gives the same matrix as
+        // rotation * translation * scale, built in one pass and without going through Euler angles
+        headTransform.getQuaternion(reticuleRotation, 0);
+        Quat.rotateVector(reticuleOffset, 0, reticuleRotation, 0, reticulePosition, 0);
+        Mat4.setRotationTranslationScale(reticuleMatrix, 0, reticuleRotation, 0,
+                reticuleOffset[0], reticuleOffset[1], reticuleOffset[2],
+                RETICULE_SIZE, RETICULE_SIZE, RETICULE_SIZE);
 
         // Build the cameraMatrix matrix and apply it to the ModelView for cube
         // You can apply position here to move cameraMatrix
         // note that we're always looking at the point in front of the camera (camera z - 1)
         // (rotation is handled by the HeadTransform/EyeView)
-        Matrix.setLookAtM(cameraMatrix, 0, cameraPosition[0], cameraPosition[1], cameraPosition[2],
+        Mat4.setLookAt(cameraMatrix, 0, cameraPosition[0], cameraPosition[1], cameraPosition[2],
                 cameraPosition[0], cameraPosition[1], cameraPosition[2] - 1, 0.0f, 1.0f, 0.0f);
         checkGLError("onReadyToDraw");
+
+        profiler.end(FrameProfiler.NEW_FRAME);
     }
 
     /**
@@ -349,30 +317,35 @@ public class VRMinimalDemoActivity extends GvrActivity implements GvrView.Stereo
      */
     @Override
     public void onDrawEye(Eye eye) {
+        profiler.begin(FrameProfiler.eyePhase(eye));
         GLES20.glEnable(GLES20.GL_DEPTH_TEST);
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
         checkGLError("colorParam");
 
         // Apply the eye transformation to the cameraMatrix (this rotates it to match HMD)
-        Matrix.multiplyMM(viewMatrix, 0, eye.getEyeView(), 0, cameraMatrix, 0);
+        Mat4.multiply(viewMatrix, 0, eye.getEyeView(), 0, cameraMatrix, 0);
         float[] perspective = eye.getPerspective(Z_NEAR, Z_FAR);
 
         // set up MVP for cube
-        Matrix.multiplyMM(modelView, 0, viewMatrix, 0, cubeMatrix, 0);
-        Matrix.multiplyMM(modelViewProj, 0, perspective, 0, modelView, 0);
+        Mat4.multiplyMVP(modelViewProj, 0, perspective, 0, viewMatrix, 0, cubeMatrix, 0);
         drawCube(false); // draw cube
 
         // reticule goes on top of everything else
         GLES20.glClear(GLES20.GL_DEPTH_BUFFER_BIT);
         // set up MVP for reticule
-        Matrix.multiplyMM(modelView, 0, viewMatrix, 0, reticuleMatrix, 0);
-        Matrix.multiplyMM(modelViewProj, 0, perspective, 0, modelView, 0);
+        Mat4.multiplyMVP(modelViewProj, 0, perspective, 0, viewMatrix, 0, reticuleMatrix, 0);
         drawCube(true); // draw crosshair
+        buffers.unbindVertexArray(); // leave the default vertex array for GVR
+        profiler.end(FrameProfiler.eyePhase(eye));
     }
 
     // required method
     @Override
-    public void onFinishFrame(Viewport viewport) {}
+    public void onFinishFrame(Viewport viewport) {
+        // nothing to do yet, timed anyway so work added here shows up
+        profiler.begin(FrameProfiler.FINISH_FRAME);
+        profiler.end(FrameProfiler.FINISH_FRAME);
+    }
 
     /**
      * Draw the cube.
@@ -381,29 +354,20 @@ public class VRMinimalDemoActivity extends GvrActivity implements GvrView.Stereo
      * @param crosshair should we draw the crosshair or the cube? true is for crosshair
      */
     public void drawCube(boolean crosshair) {
-        GLES20.glUseProgram(shaderProgram);
+        glState.useProgram(shaderProgram);
         // Set the ModelViewProjection matrix in the shader.
-        GLES20.glUniformMatrix4fv(mvpLoc, 1, false, modelViewProj, 0);
-
-        // bind the buffers
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, cubeVerticesVbo);
-        GLES20.glVertexAttribPointer(positionLoc, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, 0);
+        glState.uniformMatrix4fv(mvpLoc, 1, false, modelViewProj, 0);
 
-        if (crosshair) { // choose which VBO to use for vert colors
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, retColorsVbo);
+        IndexedMesh mesh;
+        if (crosshair) { // choose which color scheme to use
+            mesh = retMesh;
         } else {
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, cubeColorsVbo);
+            mesh = cubeMesh;
         }
-        GLES20.glVertexAttribPointer(colorLoc, 4, GLES20.GL_FLOAT, false, 0, 0);
-        // enable the two VBOs
-        GLES20.glEnableVertexAttribArray(positionLoc);
-        GLES20.glEnableVertexAttribArray(colorLoc);
+        mesh.bind(glState, positionLoc, -1, colorLoc);
         // draw cube
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, 36);
-        // unbind VBO (good habit)
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
-        GLES20.glDisableVertexAttribArray(positionLoc);
-        GLES20.glDisableVertexAttribArray(positionLoc);
+        mesh.draw();
+        // no unbinding here: the next draw binds the same buffers and the cache can skip them
         checkGLError("Drawing cube");
     }
 }
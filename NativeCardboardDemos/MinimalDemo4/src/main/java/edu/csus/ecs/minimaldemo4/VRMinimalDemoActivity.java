@@ -19,7 +19,6 @@ package edu.csus.ecs.minimaldemo4;
 
 import android.content.Context;
 import android.opengl.GLES20;
-import android.opengl.Matrix;
 import android.os.Bundle;
 import android.os.Vibrator;
 import android.util.Log;
@@ -30,14 +29,21 @@ import com.google.vr.sdk.base.GvrActivity;
 import com.google.vr.sdk.base.GvrView;
 import com.google.vr.sdk.base.HeadTransform;
 import com.google.vr.sdk.base.Viewport;
-import com.google.vr.sdk.base.sensors.internal.Vector3d;
+import edu.csus.ecs.core.math.Mat4;
+import edu.csus.ecs.core.mesh.MeshFile;
+import edu.csus.ecs.core.picking.MeshBvh;
+import edu.csus.ecs.core.scene.MinimalDemoFrame;
+import edu.csus.ecs.shared.FrameProfiler;
+import edu.csus.ecs.shared.GLCapabilities;
+import edu.csus.ecs.shared.GLStateCache;
+import edu.csus.ecs.shared.GpuBufferManager;
+import edu.csus.ecs.shared.IdBufferPicker;
+import edu.csus.ecs.shared.IndexedMesh;
+import edu.csus.ecs.shared.SoundBank;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
 import java.util.Random;
 
 import javax.microedition.khronos.egl.EGLConfig;
@@ -52,40 +58,42 @@ public class VRMinimalDemoActivity extends GvrActivity implements GvrView.Stereo
 
     private static final float Z_NEAR = 0.1f;
     private static final float Z_FAR = 100.0f;
-    private static final float CAMERA_Z = 0.01f;
-    private static final float TIME_DELTA = 0.3f;
-    private static final int COORDS_PER_VERTEX = 3;
-    private static final float MAX_MODEL_DISTANCE = 7.0f;
-    private static final float RETICULE_DISTANCE = 7f;
-    private static final float RETICULE_SIZE = 0.06f;
-    private static final float RADIUS = 1.25f; // bounding sphere radius
 
-    // VBO ids
-    private int cubeVerticesVbo, cubeColorsVbo, retColorsVbo, selectedColorsVbo;
+    // one interleaved mesh (VBO + IBO) per color scheme
+    private IndexedMesh cubeMesh, retMesh, selectedMesh;
 
     private int shaderProgram;      // shader program ID
     private int positionLoc;        // location of position shader attr
     private int colorLoc;           // location of color shader attr
     private int mvpLoc;             // location of mvp uniform
 
-    private float cameraPosition[];
-    private float[] cameraMatrix;   // matrix to move camera around
-    private float[] viewMatrix;     // view matrix from each eye
+    private final GLStateCache glState = new GLStateCache(); // skips redundant GL calls
+    private final GpuBufferManager buffers = new GpuBufferManager(glState); // owns our VBOs/IBOs
+    private final FrameProfiler profiler = new FrameProfiler(FrameProfiler.BUDGET_60HZ_NANOS);
 
-    private float[] cubeMatrix;     // Model matrix for cube
-    private float[] cubePosition;   // Position (vector)
+    private float[] viewMatrix;     // view matrix from each eye
 
     private float[] modelViewProj;
-    private float[] modelView;
 
-    private float[] reticuleMatrix, reticuleRotMatrix, reticuleTransMatrix, reticuleScaleMatrix;
-    private float[] reticulePosition;
-    private float[] reticuleAngles; // stores the rotational angles from the headTransform
-    private float[] tempMatrix;
+    private float[] headForward;    // gaze direction, reused every frame by isIntersecting
+    private MeshFile cubeFile;  // mapped from the assets, drawn and picked against
+    // the spinning cube, the reticle and the gaze ray against the cube's triangles
+    private MinimalDemoFrame demoFrame;
+
+    // on ES 3.0 the cube is picked by drawing its ID around the reticle and reading it back later
+    private static final int CUBE_ID = 0;
+    private static final int MAX_PICK_AGE_FRAMES = 3; // older readbacks don't count as looking
+    private static final float RETICULE_DEGREES = (float) Math.toDegrees(2.0
+            * Math.atan(MinimalDemoFrame.RETICLE_SIZE / MinimalDemoFrame.RETICLE_DISTANCE));
+    private final IdBufferPicker idPicker = new IdBufferPicker(buffers, 5, RETICULE_DEGREES);
+    private final float[] headView = new float[16];
+    private final float[] gazeView = new float[16];
+    private long frame;
 
     private boolean intersecting = false;
 
     private GvrAudioEngine gvrAudioEngine;
+    private SoundBank sounds; // decodes the sounds off the GL thread
     private volatile int sourceId = GvrAudioEngine.INVALID_ID;
     private volatile int successSourceId = GvrAudioEngine.INVALID_ID;
 
@@ -152,31 +160,33 @@ public class VRMinimalDemoActivity extends GvrActivity implements GvrView.Stereo
         super.onCreate(savedInstanceState);
         initializeGvrView();
 
-        cubeMatrix = new float[16];
-        cameraMatrix = new float[16];
         viewMatrix = new float[16];
         modelViewProj = new float[16];
-        modelView = new float[16];
-        // cube first appears directly in front of user.
-        cubePosition = new float[]{0.0f, 0.0f, -MAX_MODEL_DISTANCE};
-        // cameraMatrix
-        cameraPosition = new float[4];
-        cameraPosition[0] = 0;
-        cameraPosition[1] = 0;
-        cameraPosition[2] = CAMERA_Z;
-        // reticule
-        reticuleMatrix = new float[16];
-        reticuleScaleMatrix = new float[16];
-        reticuleTransMatrix = new float[16];
-        reticuleRotMatrix = new float[16];
-        reticulePosition = new float[]{0f, 0f, -RETICULE_DISTANCE}; // directly in front of user
-        reticuleAngles = new float[3];
-        tempMatrix = new float[16];
+        headForward = new float[3];
+        cubeFile = loadMeshFile("cube.mesh");
+        // the cube first appears directly in front of the user
+        demoFrame = new MinimalDemoFrame(MeshBvh.fromMeshFile(cubeFile));
 
         // Initialize buzzer motor
         vibrator = (Vibrator) getSystemService(Context.VIBRATOR_SERVICE);
         // Initialize 3D audio engine.
         gvrAudioEngine = new GvrAudioEngine(this, GvrAudioEngine.RenderingMode.BINAURAL_HIGH_QUALITY);
+        sounds = new SoundBank(gvrAudioEngine, getAssets(), 1, 16L * 1024 * 1024);
+        // start the cube's sound once it's decoded, the first frames don't wait for it
+        sounds.preload(OBJECT_SOUND_FILE).whenDone(new Runnable() {
+            @Override
+            public void run() {
+                int id = sounds.createSoundObject(OBJECT_SOUND_FILE);
+                if (id != GvrAudioEngine.INVALID_ID) {
+                    float[] cube = demoFrame.getCubeModel();
+                    gvrAudioEngine.setSoundObjectPosition(id, cube[12], cube[13], cube[14]);
+                    gvrAudioEngine.playSound(id, true /* looped playback */);
+                    sourceId = id;
+                }
+            }
+        });
+        // Preload an unspatialized sound to be played on a successful trigger on the cube.
+        sounds.preload(SUCCESS_SOUND_FILE);
         random = new Random();
     }
 
@@ -187,6 +197,10 @@ public class VRMinimalDemoActivity extends GvrActivity implements GvrView.Stereo
         setContentView(R.layout.common_ui);
         GvrView gvrView = (GvrView) findViewById(R.id.gvr_view);
         gvrView.setEGLConfigChooser(8, 8, 8, 8, 16, 8);
+        if (GLCapabilities.deviceSupportsGLES3(this)) {
+            // the ID buffer picker needs ES 3.0, ES 2.0 shaders still run unchanged on it
+            gvrView.setEGLContextClientVersion(3);
+        }
         gvrView.setRenderer(this);
         gvrView.setTransitionViewEnabled(true);
         // lowers CPU/GPU temp if possible
@@ -200,6 +214,9 @@ public class VRMinimalDemoActivity extends GvrActivity implements GvrView.Stereo
     @Override
     public void onRendererShutdown() {
         Log.i(TAG, "onRendererShutdown");
+        idPicker.release();
+        buffers.releaseAll();
+        profiler.release();
     }
 
     // required method
@@ -210,6 +227,7 @@ public class VRMinimalDemoActivity extends GvrActivity implements GvrView.Stereo
 
     @Override
     public void onPause() {
+        profiler.dump(TAG); // frame timing so far, safe while the GL thread is still recording
         super.onPause();
         gvrAudioEngine.pause();
     }
@@ -220,6 +238,12 @@ public class VRMinimalDemoActivity extends GvrActivity implements GvrView.Stereo
         gvrAudioEngine.resume();
     }
 
+    @Override
+    public void onDestroy() {
+        sounds.shutdown();
+        super.onDestroy();
+    }
+
     /**
      * Creates the buffers we use to store information about the 3D world.
      *
@@ -232,30 +256,11 @@ public class VRMinimalDemoActivity extends GvrActivity implements GvrView.Stereo
     public void onSurfaceCreated(EGLConfig config) {
         Log.i(TAG, "onSurfaceCreated");
         GLES20.glClearColor(0.1f, 0.1f, 0.1f, 0.5f); // Dark background so text shows up well.
-
-        FloatBuffer cubeVertices, cubeColors;
-
-        // google stuff
-        ByteBuffer bbVertices = ByteBuffer.allocateDirect(WorldLayoutData.CUBE_COORDS.length * 4);
-        bbVertices.order(ByteOrder.nativeOrder()); // don't forget this--won't render if you do!
-        cubeVertices = bbVertices.asFloatBuffer();
-        cubeVertices.put(WorldLayoutData.CUBE_COORDS);
-        cubeVertices.position(0); // prep for reading later
-
-        ByteBuffer bbColors = ByteBuffer.allocateDirect(WorldLayoutData.CUBE_COLORS.length * 4);
-        bbColors.order(ByteOrder.nativeOrder()); // don't forget this--won't render if you do!
-        cubeColors = bbColors.asFloatBuffer();
-        cubeColors.put(WorldLayoutData.CUBE_COLORS);
-        cubeColors.position(0); // prep for reading later
-        // end google stuff
-
-        // set up VBOs for cube AND reticule (they share geometry)
-        int vbo[] = new int[4];
-        GLES20.glGenBuffers(4, vbo, 0);
-        cubeVerticesVbo = vbo[0];
-        cubeColorsVbo = vbo[1];
-        retColorsVbo = vbo[2];
-        selectedColorsVbo = vbo[3];
+        glState.reset(); // new context, nothing we remember is valid anymore
+        GLCapabilities capabilities = GLCapabilities.query();
+        buffers.onSurfaceCreated(capabilities);
+        profiler.onSurfaceCreated(capabilities);
+        idPicker.onSurfaceCreated(capabilities);
 
         int vertexShader = loadGLShader(GLES20.GL_VERTEX_SHADER, R.raw.light_vertex);
         int passthroughShader = loadGLShader(GLES20.GL_FRAGMENT_SHADER, R.raw.passthrough_fragment);
@@ -273,48 +278,17 @@ public class VRMinimalDemoActivity extends GvrActivity implements GvrView.Stereo
         mvpLoc = GLES20.glGetUniformLocation(shaderProgram, "u_MVP");
         checkGLError("Cube program params");
 
-        // buffer the data
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, cubeVerticesVbo);
-        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, WorldLayoutData.CUBE_COORDS.length * 4, cubeVertices, GLES20.GL_STATIC_DRAW);
-
-        // do the same for the colors
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, cubeColorsVbo);
-        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, WorldLayoutData.CUBE_COLORS.length * 4, cubeColors, GLES20.GL_STATIC_DRAW);
-
-        // do it again for the reticule (uses same model) but use white instead
-        cubeColors.clear(); // reset to beginning for write
-        cubeColors.put(WorldLayoutData.CUBE_COLORS_CROSSHAIR);
-        cubeColors.position(0);
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, retColorsVbo);
-        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, WorldLayoutData.CUBE_COLORS.length * 4, cubeColors, GLES20.GL_STATIC_DRAW);
-
-        // and finally for purple selected color
-        cubeColors.clear();
-        cubeColors.put(WorldLayoutData.CUBE_COLORS_SELECTED);
-        cubeColors.position(0);
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, selectedColorsVbo);
-        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, WorldLayoutData.CUBE_COLORS.length * 4, cubeColors, GLES20.GL_STATIC_DRAW);
-
-        // reset
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        // the cubes' interleaved vertices and 16-bit indices, mapped from the assets
+        cubeMesh = IndexedMesh.fromMeshFile(cubeFile);
+        retMesh = IndexedMesh.fromMeshFile(loadMeshFile("cube_crosshair.mesh"));
+        selectedMesh = IndexedMesh.fromMeshFile(loadMeshFile("cube_selected.mesh"));
+        cubeMesh.upload(buffers);
+        retMesh.upload(buffers);
+        selectedMesh.upload(buffers);
 
         checkGLError("Buffering data");
 
-        // move the cube
-        Matrix.setIdentityM(cubeMatrix, 0);
-        Matrix.translateM(cubeMatrix, 0, cubePosition[0], cubePosition[1], cubePosition[2]);
-
         checkGLError("onSurfaceCreated");
-
-        // google stuff
-        gvrAudioEngine.preloadSoundFile(OBJECT_SOUND_FILE);
-        sourceId = gvrAudioEngine.createSoundObject(OBJECT_SOUND_FILE);
-        gvrAudioEngine.setSoundObjectPosition(
-                sourceId, cubePosition[0], cubePosition[1], cubePosition[2]);
-        gvrAudioEngine.playSound(sourceId, true /* looped playback */);
-        // Preload an unspatialized sound to be played on a successful trigger on the cube.
-        gvrAudioEngine.preloadSoundFile(SUCCESS_SOUND_FILE);
-        // end google stuff
     }
 
     /**
@@ -341,6 +315,14 @@ public class VRMinimalDemoActivity extends GvrActivity implements GvrView.Stereo
         return null;
     }
 
+    private MeshFile loadMeshFile(String name) {
+        try {
+            return IndexedMesh.readAsset(getAssets(), name);
+        } catch (IOException e) {
+            throw new RuntimeException("Can't load " + name, e);
+        }
+    }
+
     /**
      * Prepares OpenGL ES before we draw a frame.
      *
@@ -349,94 +331,58 @@ public class VRMinimalDemoActivity extends GvrActivity implements GvrView.Stereo
      */
     @Override
     public void onNewFrame(HeadTransform headTransform) {
+        profiler.begin(FrameProfiler.NEW_FRAME);
+        glState.beginFrame();
+
         // rotate cube
-        Matrix.rotateM(cubeMatrix, 0, TIME_DELTA, 0.5f, 0.5f, 1.0f);
-
-        // set up reticule transforms
-        Matrix.setIdentityM(reticuleMatrix, 0);
-        Matrix.setIdentityM(reticuleTransMatrix, 0);
-        Matrix.setIdentityM(reticuleRotMatrix, 0);
-        Matrix.setIdentityM(reticuleScaleMatrix, 0);
-        Matrix.setIdentityM(tempMatrix, 0);
-
-        // scale it (this happens first, note careful order of LHS/RHS)
-        Matrix.scaleM(reticuleScaleMatrix, 0, RETICULE_SIZE, RETICULE_SIZE, RETICULE_SIZE); // make it smaller
-        Matrix.multiplyMM(reticuleMatrix, 0, reticuleScaleMatrix, 0, tempMatrix, 0);
-
-        // translate it
-        Matrix.translateM(reticuleTransMatrix, 0, reticulePosition[0], reticulePosition[1], reticulePosition[2]);
-        Matrix.multiplyMM(tempMatrix, 0, reticuleTransMatrix, 0, reticuleMatrix, 0);
-
-        // rotate it (this happens last)
-        headTransform.getEulerAngles(reticuleAngles, 0);
-        reticuleAngles[0] = (float)(reticuleAngles[0] * 180 / Math.PI); // convert to degrees
-        reticuleAngles[1] = (float)(reticuleAngles[1] * 180 / Math.PI);
-        reticuleAngles[2] = (float)(reticuleAngles[2] * 180 / Math.PI);
-        Matrix.rotateM(reticuleRotMatrix, 0, reticuleAngles[1], 0f, 1f, 0f); // apply yaw 1st as per GVR docs
-        Matrix.rotateM(reticuleRotMatrix, 0, reticuleAngles[0], 1f, 0f, 0f); // apply pitch 2nd
-        Matrix.rotateM(reticuleRotMatrix, 0, reticuleAngles[2], 0f, 0f, 1f); // roll last
-
-        Matrix.multiplyMM(reticuleMatrix, 0, reticuleRotMatrix, 0, tempMatrix, 0);
-
-        // Build the cameraMatrix matrix and apply it to the ModelView for cube
-        // You can apply position here to move cameraMatrix
-        // note that we're always looking at the point in front of the camera (camera z - 1)
-        // (rotation is handled by the HeadTransform/EyeView)
-        Matrix.setLookAtM(cameraMatrix, 0, cameraPosition[0], cameraPosition[1], cameraPosition[2],
-                cameraPosition[0], cameraPosition[1], cameraPosition[2] - 1, 0.0f, 1.0f, 0.0f);
+        demoFrame.spin();
+
+        // the reticule turns with the head, out in front of the user
+        headTransform.getQuaternion(headRotation, 0);
+        demoFrame.placeReticle(headRotation, 0);
         checkGLError("onReadyToDraw");
 
         intersecting = isIntersecting(headTransform);
 
         // Update the 3d audio engine with the most recent head rotation (google code)
-        headTransform.getQuaternion(headRotation, 0);
         gvrAudioEngine.setHeadRotation(
                 headRotation[0], headRotation[1], headRotation[2], headRotation[3]);
         // Regular update call to GVR audio engine.
         gvrAudioEngine.update();
         // end google code
+
+        profiler.end(FrameProfiler.NEW_FRAME);
     }
 
     /**
-     * Check to see if a ray cast from the camera hits a bounding sphere.
+     * Checks whether the user is looking at the cube.
      *
-     * Source (node.js): MIT Licensed https://github.com/stackgl/gl-vec3/blob/master/scaleAndAdd.js
+     * On ES 3.0 the cube is drawn in its ID color into the picker's small target around the gaze,
+     * and the answer is the readback that came in last, as long as it is at most
+     * MAX_PICK_AGE_FRAMES old. Without ES 3.0 the gaze ray is cast on the CPU against the cube's
+     * triangle BVH, see {@link MinimalDemoFrame#pick}.
      *
-     * Translated into Java by Cody Jackson
-     * @return whether or not the ray intersects the bounding sphere for the cube
+     * @return whether the cube is under the reticle
      */
     private boolean isIntersecting(HeadTransform headTransform) {
-        boolean result = false;
-
-        float diff[] = new float[3];
-        diff[0] = cubePosition[0] - cameraPosition[0];
-        diff[1] = cubePosition[1] - cameraPosition[1];
-        diff[2] = cubePosition[2] - cameraPosition[2];
-
-        // get heading (normalized already)
-        float headdir[] = new float[3];
-        headTransform.getForwardVector(headdir, 0);
-
-        float temp[] = new float[3];
-        // get projection along heading
-        float len = (float)Vector3d.dot(new Vector3d(headdir[0], headdir[1], headdir[2]), new Vector3d(diff[0], diff[1], diff[2]));
-
-        if (len >= 0 ) { // possibly an intersection!
-            // walk along ray to closest point to sphere
-            temp[0] = cameraPosition[0] + len * headdir[0];
-            temp[1] = cameraPosition[1] + len * headdir[1];
-            temp[2] = cameraPosition[2] + len * headdir[2];
-
-            float squardedDist = (temp[0] - cubePosition[0]) * (temp[0] - cubePosition[0]) +
-                    (temp[1] - cubePosition[1]) * (temp[1] - cubePosition[1]) +
-                    (temp[2] - cubePosition[2]) * (temp[2] - cubePosition[2]);
-            float squaredRadius = RADIUS * RADIUS;
-
-            if (squardedDist <= squaredRadius) {
-                result = true;
+        frame++;
+        if (idPicker.isSupported()) {
+            // draw from the head, looking where the reticle is
+            headTransform.getHeadView(headView, 0);
+            Mat4.multiply(gazeView, 0, headView, 0, demoFrame.getCamera(), 0);
+            if (idPicker.begin(frame, gazeView, 0, Z_NEAR, Z_FAR)) {
+                idPicker.draw(CUBE_ID, cubeMesh, demoFrame.getCubeModel(), 0);
+                idPicker.end();
             }
+            idPicker.poll();
+            return idPicker.getObject() == CUBE_ID
+                    && idPicker.getAge(frame) <= MAX_PICK_AGE_FRAMES;
         }
-        return result;
+
+        // get heading (normalized already)
+        headTransform.getForwardVector(headForward, 0);
+
+        return demoFrame.pick(headForward, 0);
     }
 
     /**
@@ -448,30 +394,37 @@ public class VRMinimalDemoActivity extends GvrActivity implements GvrView.Stereo
      */
     @Override
     public void onDrawEye(Eye eye) {
+        profiler.begin(FrameProfiler.eyePhase(eye));
         GLES20.glEnable(GLES20.GL_DEPTH_TEST);
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
         checkGLError("colorParam");
 
         // Apply the eye transformation to the cameraMatrix (this rotates it to match HMD)
-        Matrix.multiplyMM(viewMatrix, 0, eye.getEyeView(), 0, cameraMatrix, 0);
+        Mat4.multiply(viewMatrix, 0, eye.getEyeView(), 0, demoFrame.getCamera(), 0);
         float[] perspective = eye.getPerspective(Z_NEAR, Z_FAR);
 
         // set up MVP for cube
-        Matrix.multiplyMM(modelView, 0, viewMatrix, 0, cubeMatrix, 0);
-        Matrix.multiplyMM(modelViewProj, 0, perspective, 0, modelView, 0);
+        Mat4.multiplyMVP(modelViewProj, 0, perspective, 0, viewMatrix, 0,
+                demoFrame.getCubeModel(), 0);
         drawCube(false); // draw cube
 
         // reticule goes on top of everything else
         GLES20.glClear(GLES20.GL_DEPTH_BUFFER_BIT);
         // set up MVP for reticule
-        Matrix.multiplyMM(modelView, 0, viewMatrix, 0, reticuleMatrix, 0);
-        Matrix.multiplyMM(modelViewProj, 0, perspective, 0, modelView, 0);
+        Mat4.multiplyMVP(modelViewProj, 0, perspective, 0, viewMatrix, 0,
+                demoFrame.getReticle(), 0);
         drawCube(true); // draw crosshair
+        buffers.unbindVertexArray(); // leave the default vertex array for GVR
+        profiler.end(FrameProfiler.eyePhase(eye));
     }
 
     // required method
     @Override
-    public void onFinishFrame(Viewport viewport) {}
+    public void onFinishFrame(Viewport viewport) {
+        // nothing to do yet, timed anyway so work added here shows up
+        profiler.begin(FrameProfiler.FINISH_FRAME);
+        profiler.end(FrameProfiler.FINISH_FRAME);
+    }
 
     /**
      * Draw the cube.
@@ -480,31 +433,22 @@ public class VRMinimalDemoActivity extends GvrActivity implements GvrView.Stereo
      * @param crosshair should we draw the crosshair or the cube? true is for crosshair
      */
     public void drawCube(boolean crosshair) {
-        GLES20.glUseProgram(shaderProgram);
+        glState.useProgram(shaderProgram);
         // Set the ModelViewProjection matrix in the shader.
-        GLES20.glUniformMatrix4fv(mvpLoc, 1, false, modelViewProj, 0);
+        glState.uniformMatrix4fv(mvpLoc, 1, false, modelViewProj, 0);
 
-        // bind the buffers
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, cubeVerticesVbo);
-        GLES20.glVertexAttribPointer(positionLoc, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, 0);
-
-        if (crosshair) { // choose which VBO to use for vert colors
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, retColorsVbo);
+        IndexedMesh mesh;
+        if (crosshair) { // choose which color scheme to use
+            mesh = retMesh;
         } else if (intersecting) {
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, selectedColorsVbo);
+            mesh = selectedMesh;
         } else {
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, cubeColorsVbo);
+            mesh = cubeMesh;
         }
-        GLES20.glVertexAttribPointer(colorLoc, 4, GLES20.GL_FLOAT, false, 0, 0);
-        // enable the two VBOs
-        GLES20.glEnableVertexAttribArray(positionLoc);
-        GLES20.glEnableVertexAttribArray(colorLoc);
+        mesh.bind(glState, positionLoc, -1, colorLoc);
         // draw cube
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, 36);
-        // unbind VBO (good habit)
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
-        GLES20.glDisableVertexAttribArray(positionLoc);
-        GLES20.glDisableVertexAttribArray(positionLoc);
+        mesh.draw();
+        // no unbinding here: the next draw binds the same buffers and the cache can skip them
         checkGLError("Drawing cube");
     }
 
@@ -518,12 +462,12 @@ public class VRMinimalDemoActivity extends GvrActivity implements GvrView.Stereo
     public void onCardboardTrigger() {
         Log.i(TAG, "onCardboardTrigger");
         if (intersecting) { // looking at cube?
-            successSourceId = gvrAudioEngine.createStereoSound(SUCCESS_SOUND_FILE);
-            gvrAudioEngine.playSound(successSourceId, false);
+            successSourceId = sounds.createStereoSound(SUCCESS_SOUND_FILE);
+            if (successSourceId != GvrAudioEngine.INVALID_ID) { // not decoded yet otherwise
+                gvrAudioEngine.playSound(successSourceId, false);
+            }
             // move the cube some random amount back and forth
-            cubePosition[0] = random.nextInt(11) - 5;
-            Matrix.setIdentityM(cubeMatrix, 0);
-            Matrix.translateM(cubeMatrix, 0, cubePosition[0], cubePosition[1], cubePosition[2]);
+            demoFrame.moveCube(random.nextInt(11) - 5);
         }
         vibrator.vibrate(50); // Always give user feedback.
     }
@@ -1,223 +0,0 @@
-/*
- * Copyright 2014 Google Inc. All Rights Reserved.
- * Modifications Copyright 2017 Cody Jackson
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *   http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-
-package edu.csus.ecs.minimaldemo4;
-
-/**
- * Contains vertex and color data.
- */
-public final class WorldLayoutData {
-    public static final float[] CUBE_COORDS = new float[]{
-            // Front face
-            -1.0f, 1.0f, 1.0f,
-            -1.0f, -1.0f, 1.0f,
-            1.0f, 1.0f, 1.0f,
-            -1.0f, -1.0f, 1.0f,
-            1.0f, -1.0f, 1.0f,
-            1.0f, 1.0f, 1.0f,
-
-            // Right face
-            1.0f, 1.0f, 1.0f,
-            1.0f, -1.0f, 1.0f,
-            1.0f, 1.0f, -1.0f,
-            1.0f, -1.0f, 1.0f,
-            1.0f, -1.0f, -1.0f,
-            1.0f, 1.0f, -1.0f,
-
-            // Back face
-            1.0f, 1.0f, -1.0f,
-            1.0f, -1.0f, -1.0f,
-            -1.0f, 1.0f, -1.0f,
-            1.0f, -1.0f, -1.0f,
-            -1.0f, -1.0f, -1.0f,
-            -1.0f, 1.0f, -1.0f,
-
-            // Left face
-            -1.0f, 1.0f, -1.0f,
-            -1.0f, -1.0f, -1.0f,
-            -1.0f, 1.0f, 1.0f,
-            -1.0f, -1.0f, -1.0f,
-            -1.0f, -1.0f, 1.0f,
-            -1.0f, 1.0f, 1.0f,
-
-            // Top face
-            -1.0f, 1.0f, -1.0f,
-            -1.0f, 1.0f, 1.0f,
-            1.0f, 1.0f, -1.0f,
-            -1.0f, 1.0f, 1.0f,
-            1.0f, 1.0f, 1.0f,
-            1.0f, 1.0f, -1.0f,
-
-            // Bottom face
-            1.0f, -1.0f, -1.0f,
-            1.0f, -1.0f, 1.0f,
-            -1.0f, -1.0f, -1.0f,
-            1.0f, -1.0f, 1.0f,
-            -1.0f, -1.0f, 1.0f,
-            -1.0f, -1.0f, -1.0f,
-    };
-
-    public static final float[] CUBE_COLORS = new float[]{
-            // front, green
-            0f, 0.5273f, 0.2656f, 1.0f,
-            0f, 0.5273f, 0.2656f, 1.0f,
-            0f, 0.5273f, 0.2656f, 1.0f,
-            0f, 0.5273f, 0.2656f, 1.0f,
-            0f, 0.5273f, 0.2656f, 1.0f,
-            0f, 0.5273f, 0.2656f, 1.0f,
-
-            // right, blue
-            0.0f, 0.3398f, 0.9023f, 1.0f,
-            0.0f, 0.3398f, 0.9023f, 1.0f,
-            0.0f, 0.3398f, 0.9023f, 1.0f,
-            0.0f, 0.3398f, 0.9023f, 1.0f,
-            0.0f, 0.3398f, 0.9023f, 1.0f,
-            0.0f, 0.3398f, 0.9023f, 1.0f,
-
-            // back, also green
-            0f, 0.5273f, 0.2656f, 1.0f,
-            0f, 0.5273f, 0.2656f, 1.0f,
-            0f, 0.5273f, 0.2656f, 1.0f,
-            0f, 0.5273f, 0.2656f, 1.0f,
-            0f, 0.5273f, 0.2656f, 1.0f,
-            0f, 0.5273f, 0.2656f, 1.0f,
-
-            // left, also blue
-            0.0f, 0.3398f, 0.9023f, 1.0f,
-            0.0f, 0.3398f, 0.9023f, 1.0f,
-            0.0f, 0.3398f, 0.9023f, 1.0f,
-            0.0f, 0.3398f, 0.9023f, 1.0f,
-            0.0f, 0.3398f, 0.9023f, 1.0f,
-            0.0f, 0.3398f, 0.9023f, 1.0f,
-
-            // top, red
-            0.8359375f, 0.17578125f, 0.125f, 1.0f,
-            0.8359375f, 0.17578125f, 0.125f, 1.0f,
-            0.8359375f, 0.17578125f, 0.125f, 1.0f,
-            0.8359375f, 0.17578125f, 0.125f, 1.0f,
-            0.8359375f, 0.17578125f, 0.125f, 1.0f,
-            0.8359375f, 0.17578125f, 0.125f, 1.0f,
-
-            // bottom, also red
-            0.8359375f, 0.17578125f, 0.125f, 1.0f,
-            0.8359375f, 0.17578125f, 0.125f, 1.0f,
-            0.8359375f, 0.17578125f, 0.125f, 1.0f,
-            0.8359375f, 0.17578125f, 0.125f, 1.0f,
-            0.8359375f, 0.17578125f, 0.125f, 1.0f,
-            0.8359375f, 0.17578125f, 0.125f, 1.0f,
-    };
-
-    public static final float[] CUBE_COLORS_CROSSHAIR = new float[]{
-            // front, white
-            1f, 1f, 1f, 1f,
-            1f, 1f, 1f, 1f,
-            1f, 1f, 1f, 1f,
-            1f, 1f, 1f, 1f,
-            1f, 1f, 1f, 1f,
-            1f, 1f, 1f, 1f,
-
-            // right, white
-            1f, 1f, 1f, 1f,
-            1f, 1f, 1f, 1f,
-            1f, 1f, 1f, 1f,
-            1f, 1f, 1f, 1f,
-            1f, 1f, 1f, 1f,
-            1f, 1f, 1f, 1f,
-
-            // back, white
-            1f, 1f, 1f, 1f,
-            1f, 1f, 1f, 1f,
-            1f, 1f, 1f, 1f,
-            1f, 1f, 1f, 1f,
-            1f, 1f, 1f, 1f,
-            1f, 1f, 1f, 1f,
-
-            // left, white
-            1f, 1f, 1f, 1f,
-            1f, 1f, 1f, 1f,
-            1f, 1f, 1f, 1f,
-            1f, 1f, 1f, 1f,
-            1f, 1f, 1f, 1f,
-            1f, 1f, 1f, 1f,
-
-            // top, white
-            1f, 1f, 1f, 1f,
-            1f, 1f, 1f, 1f,
-            1f, 1f, 1f, 1f,
-            1f, 1f, 1f, 1f,
-            1f, 1f, 1f, 1f,
-            1f, 1f, 1f, 1f,
-
-            // bottom, white
-            1f, 1f, 1f, 1f,
-            1f, 1f, 1f, 1f,
-            1f, 1f, 1f, 1f,
-            1f, 1f, 1f, 1f,
-            1f, 1f, 1f, 1f,
-            1f, 1f, 1f, 1f
-    };
-
-    public static final float[] CUBE_COLORS_SELECTED = new float[]{
-            // front, purple
-            1f, 0f, 1f, 1f,
-            1f, 0f, 1f, 1f,
-            1f, 0f, 1f, 1f,
-            1f, 0f, 1f, 1f,
-            1f, 0f, 1f, 1f,
-            1f, 0f, 1f, 1f,
-
-            // right, purple
-            1f, 0f, 1f, 1f,
-            1f, 0f, 1f, 1f,
-            1f, 0f, 1f, 1f,
-            1f, 0f, 1f, 1f,
-            1f, 0f, 1f, 1f,
-            1f, 0f, 1f, 1f,
-
-            // back, purple
-            1f, 0f, 1f, 1f,
-            1f, 0f, 1f, 1f,
-            1f, 0f, 1f, 1f,
-            1f, 0f, 1f, 1f,
-            1f, 0f, 1f, 1f,
-            1f, 0f, 1f, 1f,
-
-            // left, purple
-            1f, 0f, 1f, 1f,
-            1f, 0f, 1f, 1f,
-            1f, 0f, 1f, 1f,
-            1f, 0f, 1f, 1f,
-            1f, 0f, 1f, 1f,
-            1f, 0f, 1f, 1f,
-
-            // top, purple
-            1f, 0f, 1f, 1f,
-            1f, 0f, 1f, 1f,
-            1f, 0f, 1f, 1f,
-            1f, 0f, 1f, 1f,
-            1f, 0f, 1f, 1f,
-            1f, 0f, 1f, 1f,
-
-            // bottom, purple
-            1f, 0f, 1f, 1f,
-            1f, 0f, 1f, 1f,
-            1f, 0f, 1f, 1f,
-            1f, 0f, 1f, 1f,
-            1f, 0f, 1f, 1f,
-            1f, 0f, 1f, 1f
-    };
-}
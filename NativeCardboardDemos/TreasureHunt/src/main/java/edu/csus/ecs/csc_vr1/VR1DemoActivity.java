@@ -29,13 +29,36 @@ import com.google.vr.sdk.base.GvrActivity;
 import com.google.vr.sdk.base.GvrView;
 import com.google.vr.sdk.base.HeadTransform;
 import com.google.vr.sdk.base.Viewport;
+import edu.csus.ecs.core.picking.AsyncGazePicker;
+import edu.csus.ecs.core.picking.GazeResult;
+import edu.csus.ecs.core.scene.TreasureHuntFrame;
+import edu.csus.ecs.core.shader.ShaderPreprocessor;
+import edu.csus.ecs.core.trace.PoseTraceWriter;
+import edu.csus.ecs.shared.FrameProfiler;
+import edu.csus.ecs.shared.GLCapabilities;
+import edu.csus.ecs.shared.GLStateCache;
+import edu.csus.ecs.shared.GpuBufferManager;
+import edu.csus.ecs.shared.IndexedMesh;
+import edu.csus.ecs.shared.InstanceBuffer;
+import edu.csus.ecs.shared.LodMesh;
+import edu.csus.ecs.shared.ProgramCache;
+import edu.csus.ecs.shared.SceneLoader;
+import edu.csus.ecs.shared.ShaderVariants;
+import edu.csus.ecs.shared.SoundBank;
+import edu.csus.ecs.shared.StereoEyes;
+import edu.csus.ecs.shared.StreamedTexture;
+import edu.csus.ecs.shared.TextureStreamer;
+import edu.csus.ecs.shared.UploadQueue;
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.microedition.khronos.egl.EGLConfig;
 
 /**
@@ -44,118 +67,162 @@ import javax.microedition.khronos.egl.EGLConfig;
  * The TreasureHunt scene consists of a planar ground grid and a floating
  * "treasure" cube. When the user looks at the cube, the cube will turn gold.
  * While gold, the user can activate the Cardboard trigger, which will in turn
- * randomly reposition the cube.
+ * randomly reposition the cube. A field of smaller decoy cubes surrounds the user; all cubes are
+ * drawn with one instanced draw call when the device has ES 3.0.
+ * </p><p>
+ * Both eyes are rendered from one {@link GvrView.Renderer#onDrawFrame} call. All per-frame work
+ * (animation, picking, both eyes' matrices and their uniform uploads) happens once. On ES 3.0
+ * both eyes are drawn in one pass: every draw is instanced once per eye and the stereo shaders
+ * place each instance in its eye's half of one viewport, see {@link StereoEyes}. On ES 2.0 each
+ * eye pass sets its viewport and an eye index before re-submitting the same draws.
  */
-public class VR1DemoActivity extends GvrActivity implements GvrView.StereoRenderer {
-
-  protected float[] modelCube;
-  protected float[] modelPosition;
+public class VR1DemoActivity extends GvrActivity implements GvrView.Renderer {
 
   private static final String TAG = "VR1DemoActivity";
 
-  private static final float Z_NEAR = 0.1f;
-  private static final float Z_FAR = 100.0f;
-
-  private static final float CAMERA_Z = 0.01f;
-  private static final float TIME_DELTA = 0.3f;
-
-  private static final float YAW_LIMIT = 0.12f;
-  private static final float PITCH_LIMIT = 0.12f;
-
-  private static final int COORDS_PER_VERTEX = 3;
-
   // We keep the light always position just above the user.
   private static final float[] LIGHT_POS_IN_WORLD_SPACE = new float[] {0.0f, 2.0f, 0.0f, 1.0f};
 
-  // Convenience vector for extracting the position from a matrix via multiplication.
-  private static final float[] POS_MATRIX_MULTIPLY_VEC = {0, 0, 0, 1.0f};
-
-  private static final float MIN_MODEL_DISTANCE = 3.0f;
-  private static final float MAX_MODEL_DISTANCE = 7.0f;
+  // Fixed attribute locations, so the instanced attributes never overlap the floor's.
+  private static final int POSITION_LOCATION = 0;
+  private static final int NORMAL_LOCATION = 1;
+  private static final int COLOR_LOCATION = 2;
+  private static final int INSTANCE_MODEL_LOCATION = 3; // mat4, takes 3 to 6
+  private static final int INSTANCE_COLOR_LOCATION = 7;
+  // Bound in both programs before linking
+  private static final String[] ATTRIBUTES =
+      {"a_Position", "a_Normal", "a_Color", "a_Model", "a_InstanceColor"};
+  private static final int[] ATTRIBUTE_LOCATIONS = {POSITION_LOCATION, NORMAL_LOCATION,
+      COLOR_LOCATION, INSTANCE_MODEL_LOCATION, INSTANCE_COLOR_LOCATION};
 
   private static final String OBJECT_SOUND_FILE = "cube_sound.wav";
   private static final String SUCCESS_SOUND_FILE = "success.wav";
 
-  private final float[] lightPosInEyeSpace = new float[4];
-
-  private FloatBuffer floorVertices;
-  private FloatBuffer floorColors;
-  private FloatBuffer floorNormals;
-
-  private FloatBuffer cubeVertices;
-  private FloatBuffer cubeColors;
-  private FloatBuffer cubeFoundColors;
-  private FloatBuffer cubeNormals;
+  // Interleaved, indexed copies of the WorldLayoutData meshes, built once in onCreate. The cube
+  // has a single level of detail for now; models with coarser levels from the tools module's
+  // SimplifyMesh plug in here with their switch sizes.
+  private LodMesh cubeLods;
+  private IndexedMesh floorMesh;
+
+  // Programs, scenery and texture levels go to the GPU through one queue, drained at the start of
+  // each frame within this budget, so nothing that shows up later costs a frame of its own.
+  private static final long UPLOAD_BUDGET_MICROS = 3000L;
+  private final UploadQueue uploads = new UploadQueue(UPLOAD_BUDGET_MICROS);
+
+  // Optional glTF scenery, decoded in the background and uploaded a little every frame so the
+  // view never freezes while it streams in. Nothing is loaded unless the assets have a scene.glb.
+  private static final String SCENE_ASSET = "scene.glb";
+  private final ExecutorService sceneExecutor = Executors.newSingleThreadExecutor();
+  private SceneLoader sceneLoader;
+
+  // Optional floor texture, in the best compressed format the device has; nothing is loaded
+  // unless the assets have one, see TextureStreamer. It repeats once per grid cell, and finer mip
+  // levels load as the nearest cells grow on screen.
+  private static final String FLOOR_TEXTURE = "floor";
+  private static final float GRID_CELL_SIZE = 10.0f; // world units, see lit_fragment
+  private TextureStreamer textures;
+  private StreamedTexture floorTexture;
+
+  // The treasure, the decoys and everything the CPU does with them each frame, shared with the
+  // benchmarks module's TraceReplay. The treasure is always object 0.
+  private TreasureHuntFrame treasureHunt;
+
+  // The cubes each eye can see, culled every frame and stored back to back, left eye first.
+  private final InstanceBuffer treasureInstances =
+      new InstanceBuffer(StereoEyes.MAX_EYES * TreasureHuntFrame.MAX_CUBES);
+
+  // Each eye's cubes are further grouped by level of detail, so one draw covers every cube an eye
+  // sees at a level. A cube changes level only 10% past a switch size, so it doesn't flicker.
+  private static final float LOD_HYSTERESIS = 0.1f;
+  private int[][] levelFirstCube;
+  private int[][] levelCubeCount;
+  // How many of each level's cubes, at the end of its range, reach past an eye's edges and need
+  // the clipping cube program; only ever nonzero when the eyes are drawn together.
+  private int[][] levelCrossingCount;
+  private boolean instancingSupported;
+  // Both eyes in the same draw calls, ES 3.0 only; the levels above are then all kept as eye 0's.
+  private boolean eyesTogether;
+  private volatile boolean lookingAtObject; // read by the trigger handler on the UI thread
+  // Set by the trigger handler, the treasure moves at the start of the next frame.
+  private final AtomicBoolean hideRequested = new AtomicBoolean();
+
+  // Picking runs on its own thread against a copy of each frame's gaze and cube bounds.
+  private final AsyncGazePicker gazePicker = new AsyncGazePicker(TreasureHuntFrame.MAX_CUBES,
+      TreasureHuntFrame.PITCH_LIMIT, TreasureHuntFrame.YAW_LIMIT);
+  private final GazeResult gazeResult = new GazeResult();
+  private final float[] gazeDirection = new float[3];
+  private long frame;
+
+  // Start with --ez recordTrace true to record every frame's head pose for replay on a desktop,
+  // see the benchmarks module. Traces go to the app's external files directory.
+  private static final String EXTRA_RECORD_TRACE = "recordTrace";
+  private volatile PoseTraceWriter traceWriter;
 
   private int cubeProgram;
+  // The cube program that clips to the eye when the eyes are drawn together, the same program
+  // otherwise. Its discard costs early depth testing, so only cubes crossing an eye's edges, the
+  // scenery and the floor use it.
+  private int cubeClipProgram;
   private int floorProgram;
 
-  private int cubePositionParam;
-  private int cubeNormalParam;
-  private int cubeColorParam;
-  private int cubeModelParam;
-  private int cubeModelViewParam;
-  private int cubeModelViewProjectionParam;
+  // Skips GL calls that would not change anything, the second eye mostly re-binds the same state.
+  private final GLStateCache glState = new GLStateCache();
+  // Owns every buffer and vertex array; geometry is uploaded once per surface.
+  private final GpuBufferManager buffers = new GpuBufferManager(glState);
+  private final FrameProfiler profiler = new FrameProfiler(FrameProfiler.BUDGET_60HZ_NANOS);
+  // Linked programs kept on disk, so a restart or a new surface skips compiling the shaders.
+  private ProgramCache programCache;
+  // Every program is a permutation of the lit shaders, linked from the upload queue over the first
+  // frames while the transition screen is still up.
+  private ShaderVariants shaders;
+  private int cubeShader;
+  private int cubeClipShader;
+  private int floorShader;
+  private boolean programsReady;
+
+  private int cubeViewParam;
+  private int cubeViewProjectionParam;
+  private int cubeEyeParam;
+  private int cubeEyeRectParam;
+  private int cubeEyeCountParam;
   private int cubeLightPosParam;
 
-  private int floorPositionParam;
-  private int floorNormalParam;
-  private int floorColorParam;
+  private int cubeClipViewParam;
+  private int cubeClipViewProjectionParam;
+  private int cubeClipEyeParam;
+  private int cubeClipEyeRectParam;
+  private int cubeClipEyeCountParam;
+  private int cubeClipLightPosParam;
+
   private int floorModelParam;
-  private int floorModelViewParam;
-  private int floorModelViewProjectionParam;
+  private int floorViewParam;
+  private int floorViewProjectionParam;
+  private int floorEyeParam;
+  private int floorEyeRectParam;
+  private int floorEyeCountParam;
   private int floorLightPosParam;
+  private int floorTextureParam;
 
-  private float[] camera;
-  private float[] view;
   private float[] headView;
-  private float[] modelViewProjection;
-  private float[] modelView;
   private float[] modelFloor;
 
-  private float[] tempPosition;
+  private final StereoEyes stereoEyes = new StereoEyes();
+
   private float[] headRotation;
 
-  private float objectDistance = MAX_MODEL_DISTANCE / 2.0f;
   private float floorDepth = 20f;
 
   private Vibrator vibrator;
 
   private GvrAudioEngine gvrAudioEngine;
+  // Sounds are decoded one at a time off the GL thread; this much stays decoded for sounds
+  // nothing uses anymore, so they can come back without decoding again.
+  private static final int SOUND_DECODE_THREADS = 1;
+  private static final long SOUND_CACHE_BYTES = 16L * 1024 * 1024;
+  private SoundBank sounds;
   private volatile int sourceId = GvrAudioEngine.INVALID_ID;
   private volatile int successSourceId = GvrAudioEngine.INVALID_ID;
 
-  /**
-   * Converts a raw text file, saved as a resource, into an OpenGL ES shader.
-   *
-   * @param type The type of shader we will be creating.
-   * @param resId The resource ID of the raw text file about to be turned into a shader.
-   * @return The shader object handler.
-   */
-  private int loadGLShader(int type, int resId) {
-    String code = readRawTextFile(resId);
-    int shader = GLES20.glCreateShader(type);
-    GLES20.glShaderSource(shader, code);
-    GLES20.glCompileShader(shader);
-
-    // Get the compilation status.
-    final int[] compileStatus = new int[1];
-    GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compileStatus, 0);
-
-    // If the compilation failed, delete the shader.
-    if (compileStatus[0] == 0) {
-      Log.e(TAG, "Error compiling shader: " + GLES20.glGetShaderInfoLog(shader));
-      GLES20.glDeleteShader(shader);
-      shader = 0;
-    }
-
-    if (shader == 0) {
-      throw new RuntimeException("Error creating shader.");
-    }
-
-    return shader;
-  }
-
   /**
    * Checks if we've had an error inside of OpenGL ES, and if so what that error is.
    *
@@ -179,21 +246,62 @@ public class VR1DemoActivity extends GvrActivity implements GvrView.StereoRender
 
     initializeGvrView();
 
-    modelCube = new float[16];
-    camera = new float[16];
-    view = new float[16];
-    modelViewProjection = new float[16];
-    modelView = new float[16];
     modelFloor = new float[16];
-    tempPosition = new float[4];
-    // Model first appears directly in front of user.
-    modelPosition = new float[] {0.0f, 0.0f, -MAX_MODEL_DISTANCE / 2.0f};
     headRotation = new float[4];
     headView = new float[16];
+    cubeLods = new LodMesh(loadMesh("cube.mesh"));
+    // The treasure first appears directly in front of the user.
+    treasureHunt = new TreasureHuntFrame(cubeLods.createSelector(LOD_HYSTERESIS,
+        TreasureHuntFrame.MAX_CUBES, StereoEyes.MAX_EYES), new Random());
+    levelFirstCube = new int[StereoEyes.MAX_EYES][cubeLods.getLevelCount()];
+    levelCubeCount = new int[StereoEyes.MAX_EYES][cubeLods.getLevelCount()];
+    levelCrossingCount = new int[StereoEyes.MAX_EYES][cubeLods.getLevelCount()];
+    floorMesh = loadMesh("floor.mesh");
+    sceneLoader = new SceneLoader(sceneExecutor, uploads, buffers);
+    textures = new TextureStreamer(getAssets(), uploads);
+    if (hasAsset(SCENE_ASSET)) {
+      sceneLoader.load(getAssets(), SCENE_ASSET);
+    }
     vibrator = (Vibrator) getSystemService(Context.VIBRATOR_SERVICE);
+    programCache = new ProgramCache(new File(getCacheDir(), "programs"), glState);
+    ShaderPreprocessor preprocessor = new ShaderPreprocessor(
+        new ShaderPreprocessor.SourceLoader() {
+          @Override
+          public String load(String name) {
+            int resId = getResources().getIdentifier(name, "raw", getPackageName());
+            return resId == 0 ? null : readRawTextFile(resId);
+          }
+        });
+    shaders = new ShaderVariants(preprocessor, programCache, ATTRIBUTES, ATTRIBUTE_LOCATIONS);
 
     // Initialize 3D audio engine.
     gvrAudioEngine = new GvrAudioEngine(this, GvrAudioEngine.RenderingMode.BINAURAL_HIGH_QUALITY);
+    sounds = new SoundBank(gvrAudioEngine, getAssets(), SOUND_DECODE_THREADS, SOUND_CACHE_BYTES);
+    sounds.preload(OBJECT_SOUND_FILE).whenDone(
+        new Runnable() {
+          @Override
+          public void run() {
+            startObjectSound();
+          }
+        });
+    // An unspatialized sound to be played on a successful trigger on the cube.
+    sounds.preload(SUCCESS_SOUND_FILE);
+  }
+
+  /**
+   * Starts spatial audio playback of OBJECT_SOUND_FILE at the model position once it's decoded.
+   * The returned sourceId handle is stored and allows for repositioning the sound object
+   * whenever the cube position changes.
+   */
+  private void startObjectSound() {
+    int id = sounds.createSoundObject(OBJECT_SOUND_FILE);
+    if (id == GvrAudioEngine.INVALID_ID) {
+      return; // didn't decode, see the log
+    }
+    float[] position = treasureHunt.getTreasurePosition();
+    gvrAudioEngine.setSoundObjectPosition(id, position[0], position[1], position[2]);
+    gvrAudioEngine.playSound(id, true /* looped playback */);
+    sourceId = id;
   }
 
   public void initializeGvrView() {
@@ -201,6 +309,10 @@ public class VR1DemoActivity extends GvrActivity implements GvrView.StereoRender
 
     GvrView gvrView = (GvrView) findViewById(R.id.gvr_view);
     gvrView.setEGLConfigChooser(8, 8, 8, 8, 16, 8);
+    if (GLCapabilities.deviceSupportsGLES3(this)) {
+      // ES 3.0 gives us instanced draws, ES 2.0 shaders still run unchanged on it.
+      gvrView.setEGLContextClientVersion(3);
+    }
 
     gvrView.setRenderer(this);
     gvrView.setTransitionViewEnabled(true);
@@ -217,19 +329,46 @@ public class VR1DemoActivity extends GvrActivity implements GvrView.StereoRender
 
   @Override
   public void onPause() {
+    // Frame timing so far; safe while the GL thread is still recording.
+    profiler.dump(TAG);
+    uploads.dump(TAG);
+    gazePicker.stop();
     gvrAudioEngine.pause();
     super.onPause();
+    // the GL thread is paused now, nothing is recording
+    stopTrace();
   }
 
   @Override
   public void onResume() {
+    if (getIntent().getBooleanExtra(EXTRA_RECORD_TRACE, false)) {
+      File file = new File(getExternalFilesDir(null), "pose-" + System.currentTimeMillis()
+          + ".trace");
+      try {
+        traceWriter = new PoseTraceWriter(file);
+        Log.i(TAG, "Recording pose trace to " + file);
+      } catch (IOException e) {
+        Log.e(TAG, "Can't record pose trace to " + file, e);
+      }
+    }
     super.onResume();
+    gazePicker.start();
     gvrAudioEngine.resume();
   }
 
+  @Override
+  public void onDestroy() {
+    sceneExecutor.shutdownNow();
+    sounds.shutdown();
+    super.onDestroy();
+  }
+
   @Override
   public void onRendererShutdown() {
     Log.i(TAG, "onRendererShutdown");
+    buffers.releaseAll();
+    textures.destroy();
+    profiler.release();
   }
 
   @Override
@@ -249,133 +388,133 @@ public class VR1DemoActivity extends GvrActivity implements GvrView.StereoRender
   public void onSurfaceCreated(EGLConfig config) {
     Log.i(TAG, "onSurfaceCreated");
     GLES20.glClearColor(0.1f, 0.1f, 0.1f, 0.5f); // Dark background so text shows up well.
+    glState.reset();
+
+    GLCapabilities capabilities = GLCapabilities.query();
+    buffers.onSurfaceCreated(capabilities);
+    profiler.onSurfaceCreated(capabilities);
+    programCache.onSurfaceCreated(capabilities);
+    textures.onSurfaceCreated(capabilities);
+    floorTexture = loadTexture(FLOOR_TEXTURE);
+
+    // One VBO and one IBO per mesh, plus a vertex array object on ES 3.0
+    cubeLods.upload(buffers);
+    floorMesh.upload(buffers);
+    // The scenery goes up again over the next frames, see onNewFrame
+    sceneLoader.onSurfaceCreated();
+
+    // Without ES 3.0 every cube is its own draw call, so only the real treasure is shown.
+    instancingSupported = capabilities.isGLES3();
+    eyesTogether = capabilities.isGLES3();
+    treasureHunt.setUp(instancingSupported);
+    treasureInstances.create(buffers);
+
+    // Only preprocessed here, see linkPrograms
+    shaders.onSurfaceCreated();
+    String vertexShader = eyesTogether ? "stereo_vertex" : "lit_vertex";
+    String fragmentShader = eyesTogether ? "stereo_fragment" : "lit_fragment";
+    // The lit shaders ignore EYE_CLIP, so without the stereo ones both cube shaders are the same.
+    cubeShader = shaders.add(vertexShader, fragmentShader, "INSTANCED");
+    cubeClipShader = shaders.add(vertexShader, fragmentShader, "INSTANCED", "EYE_CLIP");
+    floorShader = floorTexture != null
+        ? shaders.add(vertexShader, fragmentShader, "GRID", "TEXTURED", "EYE_CLIP")
+        : shaders.add(vertexShader, fragmentShader, "GRID", "EYE_CLIP");
+    shaders.queueLinks(uploads);
+    programsReady = false;
+
+    Matrix.setIdentityM(modelFloor, 0);
+    Matrix.translateM(modelFloor, 0, 0, -floorDepth, 0); // Floor appears below user.
 
-    ByteBuffer bbVertices = ByteBuffer.allocateDirect(WorldLayoutData.CUBE_COORDS.length * 4);
-    bbVertices.order(ByteOrder.nativeOrder());
-    cubeVertices = bbVertices.asFloatBuffer();
-    cubeVertices.put(WorldLayoutData.CUBE_COORDS);
-    cubeVertices.position(0);
-
-    ByteBuffer bbColors = ByteBuffer.allocateDirect(WorldLayoutData.CUBE_COLORS.length * 4);
-    bbColors.order(ByteOrder.nativeOrder());
-    cubeColors = bbColors.asFloatBuffer();
-    cubeColors.put(WorldLayoutData.CUBE_COLORS);
-    cubeColors.position(0);
-
-    ByteBuffer bbFoundColors =
-        ByteBuffer.allocateDirect(WorldLayoutData.CUBE_FOUND_COLORS.length * 4);
-    bbFoundColors.order(ByteOrder.nativeOrder());
-    cubeFoundColors = bbFoundColors.asFloatBuffer();
-    cubeFoundColors.put(WorldLayoutData.CUBE_FOUND_COLORS);
-    cubeFoundColors.position(0);
-
-    ByteBuffer bbNormals = ByteBuffer.allocateDirect(WorldLayoutData.CUBE_NORMALS.length * 4);
-    bbNormals.order(ByteOrder.nativeOrder());
-    cubeNormals = bbNormals.asFloatBuffer();
-    cubeNormals.put(WorldLayoutData.CUBE_NORMALS);
-    cubeNormals.position(0);
-
-    // make a floor
-    ByteBuffer bbFloorVertices = ByteBuffer.allocateDirect(WorldLayoutData.FLOOR_COORDS.length * 4);
-    bbFloorVertices.order(ByteOrder.nativeOrder());
-    floorVertices = bbFloorVertices.asFloatBuffer();
-    floorVertices.put(WorldLayoutData.FLOOR_COORDS);
-    floorVertices.position(0);
-
-    ByteBuffer bbFloorNormals = ByteBuffer.allocateDirect(WorldLayoutData.FLOOR_NORMALS.length * 4);
-    bbFloorNormals.order(ByteOrder.nativeOrder());
-    floorNormals = bbFloorNormals.asFloatBuffer();
-    floorNormals.put(WorldLayoutData.FLOOR_NORMALS);
-    floorNormals.position(0);
-
-    ByteBuffer bbFloorColors = ByteBuffer.allocateDirect(WorldLayoutData.FLOOR_COLORS.length * 4);
-    bbFloorColors.order(ByteOrder.nativeOrder());
-    floorColors = bbFloorColors.asFloatBuffer();
-    floorColors.put(WorldLayoutData.FLOOR_COLORS);
-    floorColors.position(0);
-
-    int vertexShader = loadGLShader(GLES20.GL_VERTEX_SHADER, R.raw.light_vertex);
-    int gridShader = loadGLShader(GLES20.GL_FRAGMENT_SHADER, R.raw.grid_fragment);
-    int passthroughShader = loadGLShader(GLES20.GL_FRAGMENT_SHADER, R.raw.passthrough_fragment);
-
-    cubeProgram = GLES20.glCreateProgram();
-    GLES20.glAttachShader(cubeProgram, vertexShader);
-    GLES20.glAttachShader(cubeProgram, passthroughShader);
-    GLES20.glLinkProgram(cubeProgram);
-    GLES20.glUseProgram(cubeProgram);
+    checkGLError("onSurfaceCreated");
+  }
 
-    checkGLError("Cube program");
+  /**
+   * Looks up the programs' uniforms once the upload queue has linked them all. The programs are
+   * bound through {@link #glState} only, so it never loses track of which is current.
+   *
+   * @return Whether both programs are ready to draw with.
+   */
+  private boolean linkPrograms() {
+    if (!shaders.isAllLinked()) {
+      return false;
+    }
+    cubeProgram = shaders.getProgram(cubeShader);
 
-    cubePositionParam = GLES20.glGetAttribLocation(cubeProgram, "a_Position");
-    cubeNormalParam = GLES20.glGetAttribLocation(cubeProgram, "a_Normal");
-    cubeColorParam = GLES20.glGetAttribLocation(cubeProgram, "a_Color");
+    checkGLError("Cube program");
 
-    cubeModelParam = GLES20.glGetUniformLocation(cubeProgram, "u_Model");
-    cubeModelViewParam = GLES20.glGetUniformLocation(cubeProgram, "u_MVMatrix");
-    cubeModelViewProjectionParam = GLES20.glGetUniformLocation(cubeProgram, "u_MVP");
+    cubeViewParam = GLES20.glGetUniformLocation(cubeProgram, "u_View");
+    cubeViewProjectionParam = GLES20.glGetUniformLocation(cubeProgram, "u_VP");
+    cubeEyeParam = GLES20.glGetUniformLocation(cubeProgram, "u_Eye");
+    cubeEyeRectParam = GLES20.glGetUniformLocation(cubeProgram, "u_EyeRect");
+    cubeEyeCountParam = GLES20.glGetUniformLocation(cubeProgram, "u_EyeCount");
     cubeLightPosParam = GLES20.glGetUniformLocation(cubeProgram, "u_LightPos");
 
+    cubeClipProgram = shaders.getProgram(cubeClipShader);
+    cubeClipViewParam = GLES20.glGetUniformLocation(cubeClipProgram, "u_View");
+    cubeClipViewProjectionParam = GLES20.glGetUniformLocation(cubeClipProgram, "u_VP");
+    cubeClipEyeParam = GLES20.glGetUniformLocation(cubeClipProgram, "u_Eye");
+    cubeClipEyeRectParam = GLES20.glGetUniformLocation(cubeClipProgram, "u_EyeRect");
+    cubeClipEyeCountParam = GLES20.glGetUniformLocation(cubeClipProgram, "u_EyeCount");
+    cubeClipLightPosParam = GLES20.glGetUniformLocation(cubeClipProgram, "u_LightPos");
+
     checkGLError("Cube program params");
 
-    floorProgram = GLES20.glCreateProgram();
-    GLES20.glAttachShader(floorProgram, vertexShader);
-    GLES20.glAttachShader(floorProgram, gridShader);
-    GLES20.glLinkProgram(floorProgram);
-    GLES20.glUseProgram(floorProgram);
+    floorProgram = shaders.getProgram(floorShader);
 
     checkGLError("Floor program");
 
     floorModelParam = GLES20.glGetUniformLocation(floorProgram, "u_Model");
-    floorModelViewParam = GLES20.glGetUniformLocation(floorProgram, "u_MVMatrix");
-    floorModelViewProjectionParam = GLES20.glGetUniformLocation(floorProgram, "u_MVP");
+    floorViewParam = GLES20.glGetUniformLocation(floorProgram, "u_View");
+    floorViewProjectionParam = GLES20.glGetUniformLocation(floorProgram, "u_VP");
+    floorEyeParam = GLES20.glGetUniformLocation(floorProgram, "u_Eye");
+    floorEyeRectParam = GLES20.glGetUniformLocation(floorProgram, "u_EyeRect");
+    floorEyeCountParam = GLES20.glGetUniformLocation(floorProgram, "u_EyeCount");
     floorLightPosParam = GLES20.glGetUniformLocation(floorProgram, "u_LightPos");
-
-    floorPositionParam = GLES20.glGetAttribLocation(floorProgram, "a_Position");
-    floorNormalParam = GLES20.glGetAttribLocation(floorProgram, "a_Normal");
-    floorColorParam = GLES20.glGetAttribLocation(floorProgram, "a_Color");
+    floorTextureParam = GLES20.glGetUniformLocation(floorProgram, "u_Texture");
 
     checkGLError("Floor program params");
+    programsReady = true;
+    return true;
+  }
 
-    Matrix.setIdentityM(modelFloor, 0);
-    Matrix.translateM(modelFloor, 0, 0, -floorDepth, 0); // Floor appears below user.
+  /**
+   * Moves the sound to the treasure's new position.
+   */
+  private void updateSoundPosition() {
+    int id = sourceId;
+    if (id != GvrAudioEngine.INVALID_ID) {
+      float[] position = treasureHunt.getTreasurePosition();
+      gvrAudioEngine.setSoundObjectPosition(id, position[0], position[1], position[2]);
+    }
+  }
 
-    // Avoid any delays during start-up due to decoding of sound files.
-    new Thread(
-            new Runnable() {
-              @Override
-              public void run() {
-                // Start spatial audio playback of OBJECT_SOUND_FILE at the model position. The
-                // returned sourceId handle is stored and allows for repositioning the sound object
-                // whenever the cube position changes.
-                gvrAudioEngine.preloadSoundFile(OBJECT_SOUND_FILE);
-                sourceId = gvrAudioEngine.createSoundObject(OBJECT_SOUND_FILE);
-                gvrAudioEngine.setSoundObjectPosition(
-                    sourceId, modelPosition[0], modelPosition[1], modelPosition[2]);
-                gvrAudioEngine.playSound(sourceId, true /* looped playback */);
-                // Preload an unspatialized sound to be played on a successful trigger on the cube.
-                gvrAudioEngine.preloadSoundFile(SUCCESS_SOUND_FILE);
-              }
-            })
-        .start();
-
-    updateModelPosition();
+  private StreamedTexture loadTexture(String name) {
+    try {
+      return textures.load(name);
+    } catch (IOException e) {
+      Log.e(TAG, "Can't load texture " + name, e);
+      return null;
+    }
+  }
 
-    checkGLError("onSurfaceCreated");
+  private boolean hasAsset(String name) {
+    try {
+      return Arrays.asList(getAssets().list("")).contains(name);
+    } catch (IOException e) {
+      return false;
+    }
   }
 
   /**
-   * Updates the cube model position.
+   * Maps a mesh converted with the tools module's ConvertMesh from the assets. The models it was
+   * made from are in the module's models directory.
    */
-  protected void updateModelPosition() {
-    Matrix.setIdentityM(modelCube, 0);
-    Matrix.translateM(modelCube, 0, modelPosition[0], modelPosition[1], modelPosition[2]);
-
-    // Update the sound location to match it with the new cube position.
-    if (sourceId != GvrAudioEngine.INVALID_ID) {
-      gvrAudioEngine.setSoundObjectPosition(
-          sourceId, modelPosition[0], modelPosition[1], modelPosition[2]);
+  private IndexedMesh loadMesh(String name) {
+    try {
+      return IndexedMesh.fromAsset(getAssets(), name);
+    } catch (IOException e) {
+      throw new RuntimeException("Can't load " + name, e);
     }
-    checkGLError("updateCubePosition");
   }
 
   /**
@@ -402,21 +541,74 @@ public class VR1DemoActivity extends GvrActivity implements GvrView.StereoRender
   }
 
   /**
-   * Prepares OpenGL ES before we draw a frame.
+   * Draws both eyes of a frame.
    *
    * @param headTransform The head transformation in the new frame.
+   * @param leftEye The left eye, or the only eye when stereo mode is off.
+   * @param rightEye The right eye, null when stereo mode is off.
    */
   @Override
-  public void onNewFrame(HeadTransform headTransform) {
-    setCubeRotation();
+  public void onDrawFrame(HeadTransform headTransform, Eye leftEye, Eye rightEye) {
+    profiler.begin(FrameProfiler.NEW_FRAME);
+    onNewFrame(headTransform);
+
+    // Both eyes' matrices are computed once and uploaded as arrays by the first eye's draws.
+    stereoEyes.update(leftEye, rightEye, treasureHunt.getCamera(), TreasureHuntFrame.Z_NEAR,
+        TreasureHuntFrame.Z_FAR);
+    cullCubes();
+    requestFloorDetail();
+    profiler.end(FrameProfiler.NEW_FRAME);
+
+    if (!programsReady && !linkPrograms()) {
+      // Still linking behind the transition screen; an empty frame beats a stalled one.
+      GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+      return;
+    }
+
+    GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+    GLES20.glEnable(GLES20.GL_SCISSOR_TEST);
+    if (eyesTogether) {
+      profiler.begin(FrameProfiler.BOTH_EYES);
+      stereoEyes.beginEyes();
+      onDrawEye(0);
+      profiler.end(FrameProfiler.BOTH_EYES);
+    } else {
+      for (int i = 0; i < stereoEyes.getEyeCount(); i++) {
+        profiler.begin(FrameProfiler.eyePhase(i));
+        stereoEyes.beginEye(i);
+        onDrawEye(i);
+        profiler.end(FrameProfiler.eyePhase(i));
+      }
+    }
+    GLES20.glDisable(GLES20.GL_SCISSOR_TEST);
+    buffers.unbindVertexArray();
+  }
 
-    // Build the camera matrix and apply it to the ModelView.
-    Matrix.setLookAtM(camera, 0, 0.0f, 0.0f, CAMERA_Z, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f);
+  /**
+   * Prepares OpenGL ES before we draw a frame.
+   *
+   * @param headTransform The head transformation in the new frame.
+   */
+  private void onNewFrame(HeadTransform headTransform) {
+    glState.beginFrame();
+    // Whatever is waiting for the GPU goes first, within its slice of the frame: programs, then
+    // scenery that finished decoding, then the texture levels requested last frame.
+    textures.update();
+    uploads.drain();
+    if (hideRequested.getAndSet(false)) {
+      treasureHunt.hideTreasure();
+      updateSoundPosition();
+    }
+    treasureHunt.spin();
 
     headTransform.getHeadView(headView, 0);
 
+    frame++;
+    updateGaze(headTransform);
+
     // Update the 3d audio engine with the most recent head rotation.
     headTransform.getQuaternion(headRotation, 0);
+    recordPose();
     gvrAudioEngine.setHeadRotation(
         headRotation[0], headRotation[1], headRotation[2], headRotation[3]);
     // Regular update call to GVR audio engine.
@@ -425,79 +617,204 @@ public class VR1DemoActivity extends GvrActivity implements GvrView.StereoRender
     checkGLError("onReadyToDraw");
   }
 
-  protected void setCubeRotation() {
-    Matrix.rotateM(modelCube, 0, TIME_DELTA, 0.5f, 0.5f, 1.0f);
+  /**
+   * Appends this frame's head pose to the trace, if one is being recorded.
+   */
+  private void recordPose() {
+    PoseTraceWriter writer = traceWriter;
+    if (writer == null) {
+      return;
+    }
+    try {
+      writer.record(System.nanoTime(), headView, 0, headRotation, 0, gazeDirection, 0);
+    } catch (IOException e) {
+      Log.e(TAG, "Pose trace stopped", e);
+      stopTrace();
+    }
+  }
+
+  private void stopTrace() {
+    PoseTraceWriter writer = traceWriter;
+    traceWriter = null;
+    if (writer == null) {
+      return;
+    }
+    try {
+      writer.close();
+      Log.i(TAG, "Recorded " + writer.getFrameCount() + " frames of pose trace");
+    } catch (IOException e) {
+      Log.e(TAG, "Can't finish pose trace", e);
+    }
+  }
+
+  /**
+   * Uploads the cubes inside each eye's frustum, see {@link TreasureHuntFrame#cull}. The instances
+   * are stored per eye, then per level of detail, so each level is one contiguous range. When
+   * both eyes are drawn together, the cubes either eye sees are stored once, as eye 0's.
+   */
+  private void cullCubes() {
+    int instance = 0;
+    if (eyesTogether) {
+      int visible = treasureHunt.cullEyes(stereoEyes.getEyeCount(), stereoEyes.getViews(),
+          stereoEyes.getProjections(), stereoEyes.getViewProjections());
+      instance = storeVisibleCubes(0, instance, visible);
+    } else {
+      for (int eye = 0; eye < stereoEyes.getEyeCount(); eye++) {
+        int visible = treasureHunt.cull(eye, stereoEyes.getViews(), eye * 16,
+            stereoEyes.getProjections(), eye * 16, stereoEyes.getViewProjections(), eye * 16);
+        instance = storeVisibleCubes(eye, instance, visible);
+      }
+    }
+    treasureInstances.setCount(instance);
+    treasureInstances.upload(buffers);
   }
 
   /**
-   * Draws a frame for an eye.
+   * Copies the cubes the last cull found into the instance buffer from the given instance on.
    *
-   * @param eye The eye to render. Includes all required transformations.
+   * @return The instance after the last one stored.
    */
-  @Override
-  public void onDrawEye(Eye eye) {
-    GLES20.glEnable(GLES20.GL_DEPTH_TEST);
-    GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+  private int storeVisibleCubes(int eye, int instance, int visible) {
+    float[] models = treasureHunt.getScene().getModels();
+    int[] visibleCubes = treasureHunt.getVisibleCubes();
+    for (int level = 0; level < levelCubeCount[eye].length; level++) {
+      levelFirstCube[eye][level] = instance + treasureHunt.getLevelStart(level);
+      levelCubeCount[eye][level] = treasureHunt.getLevelSize(level);
+      levelCrossingCount[eye][level] = treasureHunt.getLevelCrossing(level);
+    }
 
-    checkGLError("colorParam");
+    for (int i = 0; i < visible; i++) {
+      int cube = visibleCubes[i];
+      int slot = instance + i;
+      treasureInstances.setModel(slot, models, cube * 16);
+      if (cube == TreasureHuntFrame.TREASURE && lookingAtObject) {
+        // The treasure turns gold while the user is looking at it.
+        treasureInstances.setColor(slot, WorldLayoutData.CUBE_FOUND_COLORS[0],
+            WorldLayoutData.CUBE_FOUND_COLORS[1], WorldLayoutData.CUBE_FOUND_COLORS[2], 1.0f);
+      } else {
+        treasureInstances.setColor(slot, 0f, 0f, 0f, 0f); // keep the face colors
+      }
+    }
+    return instance + visible;
+  }
 
-    // Apply the eye transformation to the camera.
-    Matrix.multiplyMM(view, 0, eye.getEyeView(), 0, camera, 0);
+  /**
+   * Asks for the floor texture level that matches the grid cell right below the user, the
+   * nearest and so the biggest on screen. The level streams in over the next frames.
+   */
+  private void requestFloorDetail() {
+    if (floorTexture == null) {
+      return;
+    }
+    // Something h units tall at distance d covers h * p[5] / d of the 2 units of NDC height.
+    float ndcHeight = GRID_CELL_SIZE * stereoEyes.getProjections()[5] / floorDepth;
+    floorTexture.requestPixels(ndcHeight * 0.5f * stereoEyes.getEye(0).getViewport().height);
+  }
 
-    // Set the position of the light
-    Matrix.multiplyMV(lightPosInEyeSpace, 0, view, 0, LIGHT_POS_IN_WORLD_SPACE, 0);
+  /**
+   * Draws a frame for an eye. Viewport and scissor are already set to the eye, or to both eyes
+   * when they are drawn together.
+   *
+   * @param eye Index of the eye in {@link #stereoEyes}, 0 when the eyes are drawn together.
+   */
+  private void onDrawEye(int eye) {
+    GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
 
-    // Build the ModelView and ModelViewProjection matrices
-    // for calculating cube position and light.
-    float[] perspective = eye.getPerspective(Z_NEAR, Z_FAR);
-    Matrix.multiplyMM(modelView, 0, view, 0, modelCube, 0);
-    Matrix.multiplyMM(modelViewProjection, 0, perspective, 0, modelView, 0);
-    drawCube();
+    checkGLError("colorParam");
 
-    // Set modelView for the floor, so we draw floor in the correct location
-    Matrix.multiplyMM(modelView, 0, view, 0, modelFloor, 0);
-    Matrix.multiplyMM(modelViewProjection, 0, perspective, 0, modelView, 0);
-    drawFloor();
+    drawCube(eye);
+    drawScenery(eye);
+    drawFloor(eye);
   }
 
   @Override
-  public void onFinishFrame(Viewport viewport) {}
+  public void onFinishFrame(Viewport viewport) {
+    // Nothing to do yet; timed anyway so work added here shows up.
+    profiler.begin(FrameProfiler.FINISH_FRAME);
+    profiler.end(FrameProfiler.FINISH_FRAME);
+  }
 
   /**
-   * Draw the cube.
+   * Draw the treasure and the decoys.
+   *
+   * <p>The model matrices and colors of the cubes this eye can see are already in the instance
+   * buffer, see {@link #cullCubes()}. The view matrices of both eyes only go to the GPU for the
+   * first eye; the state cache skips them for the second, which only changes the eye index.
+   *
+   * <p>Cubes wholly inside every eye's view go first, with the program that never discards so
+   * the GPU can depth test them early; the few crossing an eye's edges follow with the clipping
+   * one, which stays current for the scenery.
    *
-   * <p>We've set all of our transformation matrices. Now we simply pass them into the shader.
+   * @param eye Index of the eye being drawn, 0 when the eyes are drawn together.
    */
-  public void drawCube() {
-    GLES20.glUseProgram(cubeProgram);
-
-    GLES20.glUniform3fv(cubeLightPosParam, 1, lightPosInEyeSpace, 0);
-
-    // Set the Model in the shader, used to calculate lighting
-    GLES20.glUniformMatrix4fv(cubeModelParam, 1, false, modelCube, 0);
-
-    // Set the ModelView in the shader, used to calculate lighting
-    GLES20.glUniformMatrix4fv(cubeModelViewParam, 1, false, modelView, 0);
-
-    // Set the position of the cube
-    GLES20.glVertexAttribPointer(
-        cubePositionParam, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, cubeVertices);
-
-    // Set the ModelViewProjection matrix in the shader.
-    GLES20.glUniformMatrix4fv(cubeModelViewProjectionParam, 1, false, modelViewProjection, 0);
+  public void drawCube(int eye) {
+    useCubeProgram(cubeProgram, cubeLightPosParam, cubeViewParam, cubeViewProjectionParam,
+        cubeEyeParam, cubeEyeRectParam, cubeEyeCountParam, eye);
+    drawCubeLevels(eye, false);
+    useCubeProgram(cubeClipProgram, cubeClipLightPosParam, cubeClipViewParam,
+        cubeClipViewProjectionParam, cubeClipEyeParam, cubeClipEyeRectParam,
+        cubeClipEyeCountParam, eye);
+    drawCubeLevels(eye, true);
+    checkGLError("Drawing cube");
+  }
 
-    // Set the normal positions of the cube, again for shading
-    GLES20.glVertexAttribPointer(cubeNormalParam, 3, GLES20.GL_FLOAT, false, 0, cubeNormals);
-    GLES20.glVertexAttribPointer(cubeColorParam, 4, GLES20.GL_FLOAT, false, 0,
-        isLookingAtObject() ? cubeFoundColors : cubeColors);
+  private void useCubeProgram(int program, int lightPosParam, int viewParam,
+      int viewProjectionParam, int eyeParam, int eyeRectParam, int eyeCountParam, int eye) {
+    glState.useProgram(program);
+    glState.uniform3fv(lightPosParam, 1, LIGHT_POS_IN_WORLD_SPACE, 0);
+    glState.uniformMatrix4fv(viewParam, StereoEyes.MAX_EYES, false, stereoEyes.getViews(), 0);
+    glState.uniformMatrix4fv(viewProjectionParam, StereoEyes.MAX_EYES, false,
+        stereoEyes.getViewProjections(), 0);
+    setEye(eyeParam, eyeRectParam, eyeCountParam, eye);
+  }
 
-    // Enable vertex arrays
-    GLES20.glEnableVertexAttribArray(cubePositionParam);
-    GLES20.glEnableVertexAttribArray(cubeNormalParam);
-    GLES20.glEnableVertexAttribArray(cubeColorParam);
+  /**
+   * One call per level of detail for every cube this eye, or either eye, can see at that level
+   * on ES 3.0; either the cubes inside every eye's view or the ones crossing an eye's edges.
+   */
+  private void drawCubeLevels(int eye, boolean crossing) {
+    for (int level = 0; level < cubeLods.getLevelCount(); level++) {
+      int first = levelFirstCube[eye][level];
+      int count = levelCubeCount[eye][level] - levelCrossingCount[eye][level];
+      if (crossing) {
+        first += count;
+        count = levelCrossingCount[eye][level];
+      }
+      if (count == 0) {
+        continue;
+      }
+      IndexedMesh mesh = cubeLods.getLevel(level);
+      mesh.bind(glState, POSITION_LOCATION, NORMAL_LOCATION, COLOR_LOCATION);
+      if (eyesTogether) {
+        treasureInstances.drawForEyes(glState, INSTANCE_MODEL_LOCATION, INSTANCE_COLOR_LOCATION,
+            mesh, first, count, stereoEyes.getEyeCount());
+      } else {
+        treasureInstances.draw(glState, instancingSupported, INSTANCE_MODEL_LOCATION,
+            INSTANCE_COLOR_LOCATION, mesh, first, count);
+      }
+    }
+  }
 
-    GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, 36);
-    checkGLError("Drawing cube");
+  /**
+   * Draws whatever part of the glTF scenery is on the GPU so far. It uses the clipping cube
+   * program, since nothing bounds the scenery's parts, whose uniforms {@link #drawCube} has
+   * already set for this eye.
+   *
+   * @param eye Index of the eye being drawn, 0 when the eyes are drawn together.
+   */
+  private void drawScenery(int eye) {
+    if (sceneLoader.getPartCount() == 0) {
+      return;
+    }
+    glState.useProgram(cubeClipProgram);
+    if (eyesTogether) {
+      sceneLoader.drawForEyes(glState, stereoEyes.getEyeCount(), POSITION_LOCATION,
+          NORMAL_LOCATION, COLOR_LOCATION, INSTANCE_MODEL_LOCATION, INSTANCE_COLOR_LOCATION);
+    } else {
+      sceneLoader.draw(glState, instancingSupported, POSITION_LOCATION, NORMAL_LOCATION,
+          COLOR_LOCATION, INSTANCE_MODEL_LOCATION, INSTANCE_COLOR_LOCATION);
+    }
+    checkGLError("Drawing scenery");
   }
 
   /**
@@ -506,40 +823,65 @@ public class VR1DemoActivity extends GvrActivity implements GvrView.StereoRender
    * <p>This feeds in data for the floor into the shader. Note that this doesn't feed in data about
    * position of the light, so if we rewrite our code to draw the floor first, the lighting might
    * look strange.
+   *
+   * @param eye Index of the eye being drawn, 0 when the eyes are drawn together.
    */
-  public void drawFloor() {
-    GLES20.glUseProgram(floorProgram);
-
-    // Set ModelView, MVP, position, normals, and color.
-    GLES20.glUniform3fv(floorLightPosParam, 1, lightPosInEyeSpace, 0);
-    GLES20.glUniformMatrix4fv(floorModelParam, 1, false, modelFloor, 0);
-    GLES20.glUniformMatrix4fv(floorModelViewParam, 1, false, modelView, 0);
-    GLES20.glUniformMatrix4fv(floorModelViewProjectionParam, 1, false, modelViewProjection, 0);
-    GLES20.glVertexAttribPointer(
-        floorPositionParam, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, floorVertices);
-    GLES20.glVertexAttribPointer(floorNormalParam, 3, GLES20.GL_FLOAT, false, 0, floorNormals);
-    GLES20.glVertexAttribPointer(floorColorParam, 4, GLES20.GL_FLOAT, false, 0, floorColors);
-
-    GLES20.glEnableVertexAttribArray(floorPositionParam);
-    GLES20.glEnableVertexAttribArray(floorNormalParam);
-    GLES20.glEnableVertexAttribArray(floorColorParam);
+  public void drawFloor(int eye) {
+    glState.useProgram(floorProgram);
+
+    // Set model, both eyes' view matrices, eye index, position, normals, and color.
+    glState.uniform3fv(floorLightPosParam, 1, LIGHT_POS_IN_WORLD_SPACE, 0);
+    glState.uniformMatrix4fv(floorModelParam, 1, false, modelFloor, 0);
+    glState.uniformMatrix4fv(floorViewParam, StereoEyes.MAX_EYES, false,
+        stereoEyes.getViews(), 0);
+    glState.uniformMatrix4fv(floorViewProjectionParam, StereoEyes.MAX_EYES, false,
+        stereoEyes.getViewProjections(), 0);
+    setEye(floorEyeParam, floorEyeRectParam, floorEyeCountParam, eye);
+    if (floorTexture != null) {
+      floorTexture.bind(0);
+      glState.uniform1i(floorTextureParam, 0);
+    }
 
-    GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, 24);
+    floorMesh.bind(glState, POSITION_LOCATION, NORMAL_LOCATION, COLOR_LOCATION);
+    if (eyesTogether) {
+      floorMesh.drawInstanced(stereoEyes.getEyeCount());
+    } else {
+      floorMesh.draw();
+    }
 
     checkGLError("drawing floor");
   }
 
+  /**
+   * Tells the current program which eye it draws, or where each eye goes when the stereo shaders
+   * draw them together.
+   */
+  private void setEye(int eyeParam, int eyeRectParam, int eyeCountParam, int eye) {
+    if (eyesTogether) {
+      glState.uniform4fv(eyeRectParam, StereoEyes.MAX_EYES, stereoEyes.getEyeRects(), 0);
+      glState.uniform1i(eyeCountParam, stereoEyes.getEyeCount());
+    } else {
+      glState.uniform1i(eyeParam, eye);
+    }
+  }
+
   /**
    * Called when the Cardboard trigger is pulled.
    */
   @Override
   public void onCardboardTrigger() {
     Log.i(TAG, "onCardboardTrigger");
+    PoseTraceWriter writer = traceWriter;
+    if (writer != null) {
+      writer.markTrigger();
+    }
 
-    if (isLookingAtObject()) {
-      successSourceId = gvrAudioEngine.createStereoSound(SUCCESS_SOUND_FILE);
-      gvrAudioEngine.playSound(successSourceId, false /* looping disabled */);
-      hideObject();
+    if (lookingAtObject) {
+      successSourceId = sounds.createStereoSound(SUCCESS_SOUND_FILE);
+      if (successSourceId != GvrAudioEngine.INVALID_ID) {
+        gvrAudioEngine.playSound(successSourceId, false /* looping disabled */);
+      }
+      hideRequested.set(true);
     }
 
     // Always give user feedback.
@@ -547,49 +889,16 @@ public class VR1DemoActivity extends GvrActivity implements GvrView.StereoRender
   }
 
   /**
-   * Find a new random position for the object.
-   *
-   * <p>We'll rotate it around the Y-axis so it's out of sight, and then up or down by a little bit.
-   */
-  protected void hideObject() {
-    float[] rotationMatrix = new float[16];
-    float[] posVec = new float[4];
-
-    // First rotate in XZ plane, between 90 and 270 deg away, and scale so that we vary
-    // the object's distance from the user.
-    float angleXZ = (float) Math.random() * 180 + 90;
-    Matrix.setRotateM(rotationMatrix, 0, angleXZ, 0f, 1f, 0f);
-    float oldObjectDistance = objectDistance;
-    objectDistance =
-        (float) Math.random() * (MAX_MODEL_DISTANCE - MIN_MODEL_DISTANCE) + MIN_MODEL_DISTANCE;
-    float objectScalingFactor = objectDistance / oldObjectDistance;
-    Matrix.scaleM(rotationMatrix, 0, objectScalingFactor, objectScalingFactor, objectScalingFactor);
-    Matrix.multiplyMV(posVec, 0, rotationMatrix, 0, modelCube, 12);
-
-    float angleY = (float) Math.random() * 80 - 40; // Angle in Y plane, between -40 and 40.
-    angleY = (float) Math.toRadians(angleY);
-    float newY = (float) Math.tan(angleY) * objectDistance;
-
-    modelPosition[0] = posVec[0];
-    modelPosition[1] = newY;
-    modelPosition[2] = posVec[2];
-
-    updateModelPosition();
-  }
-
-  /**
-   * Check if user is looking at object by calculating where the object is in eye-space.
-   *
-   * @return true if the user is looking at the object.
+   * Hands this frame's gaze and cube bounds to the picker, then takes the newest pick it
+   * finished. That pick is usually from a frame or two ago, so it is ignored once it gets too old.
    */
-  private boolean isLookingAtObject() {
-    // Convert object space to camera space. Use the headView from onNewFrame.
-    Matrix.multiplyMM(modelView, 0, headView, 0, modelCube, 0);
-    Matrix.multiplyMV(tempPosition, 0, modelView, 0, POS_MATRIX_MULTIPLY_VEC, 0);
-
-    float pitch = (float) Math.atan2(tempPosition[1], -tempPosition[2]);
-    float yaw = (float) Math.atan2(tempPosition[0], -tempPosition[2]);
-
-    return Math.abs(pitch) < PITCH_LIMIT && Math.abs(yaw) < YAW_LIMIT;
+  private void updateGaze(HeadTransform headTransform) {
+    headTransform.getForwardVector(gazeDirection, 0);
+    treasureHunt.fillSnapshot(gazePicker.beginSnapshot(), frame, headView, 0, gazeDirection, 0);
+    gazePicker.publishSnapshot();
+
+    gazePicker.getLatest(gazeResult);
+    treasureHunt.setGaze(gazeResult, frame);
+    lookingAtObject = treasureHunt.isLookingAtTreasure();
   }
 }
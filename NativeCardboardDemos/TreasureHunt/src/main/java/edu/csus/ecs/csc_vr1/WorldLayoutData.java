@@ -17,110 +17,11 @@
 package edu.csus.ecs.csc_vr1;
 
 /**
- * Contains vertex, normal and color data.
+ * Contains color data. The cube and floor geometry is in assets/cube.mesh and assets/floor.mesh,
+ * converted from the models directory.
  */
 public final class WorldLayoutData {
 
-  public static final float[] CUBE_COORDS = new float[] {
-      // Front face
-      -1.0f, 1.0f, 1.0f,
-      -1.0f, -1.0f, 1.0f,
-      1.0f, 1.0f, 1.0f,
-      -1.0f, -1.0f, 1.0f,
-      1.0f, -1.0f, 1.0f,
-      1.0f, 1.0f, 1.0f,
-
-      // Right face
-      1.0f, 1.0f, 1.0f,
-      1.0f, -1.0f, 1.0f,
-      1.0f, 1.0f, -1.0f,
-      1.0f, -1.0f, 1.0f,
-      1.0f, -1.0f, -1.0f,
-      1.0f, 1.0f, -1.0f,
-
-      // Back face
-      1.0f, 1.0f, -1.0f,
-      1.0f, -1.0f, -1.0f,
-      -1.0f, 1.0f, -1.0f,
-      1.0f, -1.0f, -1.0f,
-      -1.0f, -1.0f, -1.0f,
-      -1.0f, 1.0f, -1.0f,
-
-      // Left face
-      -1.0f, 1.0f, -1.0f,
-      -1.0f, -1.0f, -1.0f,
-      -1.0f, 1.0f, 1.0f,
-      -1.0f, -1.0f, -1.0f,
-      -1.0f, -1.0f, 1.0f,
-      -1.0f, 1.0f, 1.0f,
-
-      // Top face
-      -1.0f, 1.0f, -1.0f,
-      -1.0f, 1.0f, 1.0f,
-      1.0f, 1.0f, -1.0f,
-      -1.0f, 1.0f, 1.0f,
-      1.0f, 1.0f, 1.0f,
-      1.0f, 1.0f, -1.0f,
-
-      // Bottom face
-      1.0f, -1.0f, -1.0f,
-      1.0f, -1.0f, 1.0f,
-      -1.0f, -1.0f, -1.0f,
-      1.0f, -1.0f, 1.0f,
-      -1.0f, -1.0f, 1.0f,
-      -1.0f, -1.0f, -1.0f,
-  };
-
-  public static final float[] CUBE_COLORS = new float[] {
-      // front, green
-      0f, 0.5273f, 0.2656f, 1.0f,
-      0f, 0.5273f, 0.2656f, 1.0f,
-      0f, 0.5273f, 0.2656f, 1.0f,
-      0f, 0.5273f, 0.2656f, 1.0f,
-      0f, 0.5273f, 0.2656f, 1.0f,
-      0f, 0.5273f, 0.2656f, 1.0f,
-
-      // right, blue
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-
-      // back, also green
-      0f, 0.5273f, 0.2656f, 1.0f,
-      0f, 0.5273f, 0.2656f, 1.0f,
-      0f, 0.5273f, 0.2656f, 1.0f,
-      0f, 0.5273f, 0.2656f, 1.0f,
-      0f, 0.5273f, 0.2656f, 1.0f,
-      0f, 0.5273f, 0.2656f, 1.0f,
-
-      // left, also blue
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-
-      // top, red
-      0.8359375f,  0.17578125f,  0.125f, 1.0f,
-      0.8359375f,  0.17578125f,  0.125f, 1.0f,
-      0.8359375f,  0.17578125f,  0.125f, 1.0f,
-      0.8359375f,  0.17578125f,  0.125f, 1.0f,
-      0.8359375f,  0.17578125f,  0.125f, 1.0f,
-      0.8359375f,  0.17578125f,  0.125f, 1.0f,
-
-      // bottom, also red
-      0.8359375f,  0.17578125f,  0.125f, 1.0f,
-      0.8359375f,  0.17578125f,  0.125f, 1.0f,
-      0.8359375f,  0.17578125f,  0.125f, 1.0f,
-      0.8359375f,  0.17578125f,  0.125f, 1.0f,
-      0.8359375f,  0.17578125f,  0.125f, 1.0f,
-      0.8359375f,  0.17578125f,  0.125f, 1.0f,
-  };
-
   public static final float[] CUBE_FOUND_COLORS = new float[] {
       // front, yellow
       1.0f,  0.6523f, 0.0f, 1.0f,
@@ -170,144 +71,4 @@ public final class WorldLayoutData {
       1.0f,  0.6523f, 0.0f, 1.0f,
       1.0f,  0.6523f, 0.0f, 1.0f,
   };
-
-  public static final float[] CUBE_NORMALS = new float[] {
-      // Front face
-      0.0f, 0.0f, 1.0f,
-      0.0f, 0.0f, 1.0f,
-      0.0f, 0.0f, 1.0f,
-      0.0f, 0.0f, 1.0f,
-      0.0f, 0.0f, 1.0f,
-      0.0f, 0.0f, 1.0f,
-
-      // Right face
-      1.0f, 0.0f, 0.0f,
-      1.0f, 0.0f, 0.0f,
-      1.0f, 0.0f, 0.0f,
-      1.0f, 0.0f, 0.0f,
-      1.0f, 0.0f, 0.0f,
-      1.0f, 0.0f, 0.0f,
-
-      // Back face
-      0.0f, 0.0f, -1.0f,
-      0.0f, 0.0f, -1.0f,
-      0.0f, 0.0f, -1.0f,
-      0.0f, 0.0f, -1.0f,
-      0.0f, 0.0f, -1.0f,
-      0.0f, 0.0f, -1.0f,
-
-      // Left face
-      -1.0f, 0.0f, 0.0f,
-      -1.0f, 0.0f, 0.0f,
-      -1.0f, 0.0f, 0.0f,
-      -1.0f, 0.0f, 0.0f,
-      -1.0f, 0.0f, 0.0f,
-      -1.0f, 0.0f, 0.0f,
-
-      // Top face
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-
-      // Bottom face
-      0.0f, -1.0f, 0.0f,
-      0.0f, -1.0f, 0.0f,
-      0.0f, -1.0f, 0.0f,
-      0.0f, -1.0f, 0.0f,
-      0.0f, -1.0f, 0.0f,
-      0.0f, -1.0f, 0.0f
-  };
-
-  // The grid lines on the floor are rendered procedurally and large polygons cause floating point
-  // precision problems on some architectures. So we split the floor into 4 quadrants.
-  public static final float[] FLOOR_COORDS = new float[] {
-      // +X, +Z quadrant
-      200, 0, 0,
-      0, 0, 0,
-      0, 0, 200,
-      200, 0, 0,
-      0, 0, 200,
-      200, 0, 200,
-
-      // -X, +Z quadrant
-      0, 0, 0,
-      -200, 0, 0,
-      -200, 0, 200,
-      0, 0, 0,
-      -200, 0, 200,
-      0, 0, 200,
-
-      // +X, -Z quadrant
-      200, 0, -200,
-      0, 0, -200,
-      0, 0, 0,
-      200, 0, -200,
-      0, 0, 0,
-      200, 0, 0,
-
-      // -X, -Z quadrant
-      0, 0, -200,
-      -200, 0, -200,
-      -200, 0, 0,
-      0, 0, -200,
-      -200, 0, 0,
-      0, 0, 0,
-  };
-
-  public static final float[] FLOOR_NORMALS = new float[] {
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-      0.0f, 1.0f, 0.0f,
-  };
-
-  public static final float[] FLOOR_COLORS = new float[] {
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-      0.0f, 0.3398f, 0.9023f, 1.0f,
-  };
 }
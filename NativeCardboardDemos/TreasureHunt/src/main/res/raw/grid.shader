@@ -0,0 +1,10 @@
+// White grid lines every 10 units of world space over the color, fading out with distance.
+vec4 gridColor(vec3 grid, vec4 color) {
+    float depth = gl_FragCoord.z / gl_FragCoord.w; // Calculate world-space distance.
+
+    if ((mod(abs(grid.x), 10.0) < 0.1) || (mod(abs(grid.z), 10.0) < 0.1)) {
+        return max(0.0, (90.0-depth) / 90.0) * vec4(1.0, 1.0, 1.0, 1.0)
+                + min(1.0, depth / 90.0) * color;
+    }
+    return color;
+}
@@ -0,0 +1,14 @@
+uniform vec3 u_LightPos; // world space
+
+// Diffuse light at a vertex from the point light, with a floor so the far side isn't black.
+float diffuseLight(mat4 view, vec4 worldVertex, vec3 worldNormal) {
+   vec3 modelViewVertex = vec3(view * worldVertex);
+   vec3 modelViewNormal = vec3(view * vec4(worldNormal, 0.0));
+   vec3 lightPos = vec3(view * vec4(u_LightPos, 1.0));
+
+   float distance = length(lightPos - modelViewVertex);
+   vec3 lightVector = normalize(lightPos - modelViewVertex);
+   float diffuse = max(dot(modelViewNormal, lightVector), 0.5);
+
+   return diffuse * (1.0 / (1.0 + (0.00001 * distance * distance)));
+}
@@ -0,0 +1,26 @@
+// GRID: draws white grid lines every 10 units of world space, fading out with distance.
+// TEXTURED (with GRID): tints the color with u_Texture, repeated once per grid cell.
+precision mediump float;
+#ifdef GRID
+#include "grid"
+#endif
+varying vec4 v_Color;
+#ifdef GRID
+varying vec3 v_Grid;
+#endif
+#ifdef TEXTURED
+uniform sampler2D u_Texture;
+#endif
+
+void main() {
+#ifdef TEXTURED
+    vec4 color = v_Color * texture2D(u_Texture, v_Grid.xz / 10.0);
+#else
+    vec4 color = v_Color;
+#endif
+#ifdef GRID
+    gl_FragColor = gridColor(v_Grid, color);
+#else
+    gl_FragColor = color;
+#endif
+}
@@ -0,0 +1,41 @@
+// INSTANCED: the model matrix and a color override come per instance instead of per draw.
+// GRID: passes the world position on for the floor's grid lines.
+#include "lighting"
+
+uniform mat4 u_View[2];
+uniform mat4 u_VP[2];
+uniform int u_Eye;
+
+attribute vec4 a_Position;
+attribute vec4 a_Color;
+attribute vec3 a_Normal;
+
+#ifdef INSTANCED
+attribute mat4 a_Model;
+attribute vec4 a_InstanceColor; // rgb replaces the vertex color by alpha
+#else
+uniform mat4 u_Model;
+#endif
+
+varying vec4 v_Color;
+#ifdef GRID
+varying vec3 v_Grid;
+#endif
+
+void main() {
+#ifdef INSTANCED
+   mat4 model = a_Model;
+   vec4 color = mix(a_Color, vec4(a_InstanceColor.rgb, 1.0), a_InstanceColor.a);
+#else
+   mat4 model = u_Model;
+   vec4 color = a_Color;
+#endif
+   vec4 worldVertex = model * a_Position;
+#ifdef GRID
+   v_Grid = vec3(worldVertex);
+#endif
+
+   v_Color = color * diffuseLight(u_View[u_Eye], worldVertex,
+         vec3(model * vec4(a_Normal, 0.0)));
+   gl_Position = u_VP[u_Eye] * worldVertex;
+}
@@ -0,0 +1,41 @@
+#version 300 es
+// lit_fragment for stereo_vertex.
+// EYE_CLIP: discards fragments outside the eye's own clip space, ES 3.0 has no gl_ClipDistance
+// to do it. Only for what may reach past an eye's edges: a shader that can discard makes tiled
+// GPUs hold off depth testing until it has run, so drawing everything with it costs early-Z.
+// GRID: draws white grid lines every 10 units of world space, fading out with distance.
+// TEXTURED (with GRID): tints the color with u_Texture, repeated once per grid cell.
+precision mediump float;
+#ifdef GRID
+#include "grid"
+#endif
+in vec4 v_Color;
+#ifdef EYE_CLIP
+in vec4 v_EyeClip;
+#endif
+#ifdef GRID
+in vec3 v_Grid;
+#endif
+#ifdef TEXTURED
+uniform sampler2D u_Texture;
+#endif
+
+out vec4 o_Color;
+
+void main() {
+#ifdef EYE_CLIP
+    if (any(lessThan(v_EyeClip, vec4(0.0)))) {
+        discard;
+    }
+#endif
+#ifdef TEXTURED
+    vec4 color = v_Color * texture(u_Texture, v_Grid.xz / 10.0);
+#else
+    vec4 color = v_Color;
+#endif
+#ifdef GRID
+    o_Color = gridColor(v_Grid, color);
+#else
+    o_Color = color;
+#endif
+}
@@ -0,0 +1,60 @@
+#version 300 es
+// lit_vertex for drawing every eye in one pass on ES 3.0: each draw is instanced once per eye,
+// instance i is eye i % u_EyeCount, and each eye's clip space is squeezed into its part of the
+// viewport around all eyes by u_EyeRect. Whatever crosses an eye's edges would spill into the
+// other eye's part of the viewport.
+// EYE_CLIP: passes v_EyeClip, the distance to each edge of the eye's own clip space, for the
+// fragment shader to discard what's outside.
+// INSTANCED: the model matrix and a color override come per instance instead of per draw.
+// GRID: passes the world position on for the floor's grid lines.
+#include "lighting"
+
+uniform mat4 u_View[2];
+uniform mat4 u_VP[2];
+uniform vec4 u_EyeRect[2]; // x scale, x offset, y scale, y offset
+uniform int u_EyeCount;
+
+in vec4 a_Position;
+in vec4 a_Color;
+in vec3 a_Normal;
+
+#ifdef INSTANCED
+in mat4 a_Model;
+in vec4 a_InstanceColor; // rgb replaces the vertex color by alpha
+#else
+uniform mat4 u_Model;
+#endif
+
+out vec4 v_Color;
+#ifdef EYE_CLIP
+out vec4 v_EyeClip;
+#endif
+#ifdef GRID
+out vec3 v_Grid;
+#endif
+
+void main() {
+   // gl_InstanceID & 1 with both eyes, always 0 with one
+   int eye = gl_InstanceID % u_EyeCount;
+#ifdef INSTANCED
+   mat4 model = a_Model;
+   vec4 color = mix(a_Color, vec4(a_InstanceColor.rgb, 1.0), a_InstanceColor.a);
+#else
+   mat4 model = u_Model;
+   vec4 color = a_Color;
+#endif
+   vec4 worldVertex = model * a_Position;
+#ifdef GRID
+   v_Grid = vec3(worldVertex);
+#endif
+
+   v_Color = color * diffuseLight(u_View[eye], worldVertex, vec3(model * vec4(a_Normal, 0.0)));
+   vec4 position = u_VP[eye] * worldVertex;
+#ifdef EYE_CLIP
+   v_EyeClip = vec4(position.w - position.x, position.w + position.x,
+         position.w - position.y, position.w + position.y);
+#endif
+   vec4 rect = u_EyeRect[eye];
+   gl_Position = vec4(position.x * rect.x + position.w * rect.y,
+         position.y * rect.z + position.w * rect.w, position.zw);
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import edu.csus.ecs.core.math.Mat4;
+import edu.csus.ecs.core.math.Quat;
+import edu.csus.ecs.core.picking.Bvh;
+import edu.csus.ecs.core.picking.Gaze;
+import edu.csus.ecs.core.picking.GazeBatch;
+import edu.csus.ecs.core.picking.InstanceBvh;
+import edu.csus.ecs.core.picking.MeshBvh;
+import edu.csus.ecs.core.picking.MeshHit;
+import edu.csus.ecs.core.picking.PickHit;
+
+/**
+ * The gaze tests the demos run every frame, applied to every object of a scene of objectCount
+ * objects: TreasureHunt's pitch/yaw test and MinimalDemo3's ray-sphere test, one object at a time
+ * and batched over flat arrays with {@link GazeBatch}, and the same ray picked through a
+ * {@link Bvh}, and exactly against each object's cube triangles through an {@link InstanceBvh}.
+ *
+ * Each benchmark call is one frame and returns the number of objects hit, or the one hit first.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GazeBenchmark {
+
+    // the limits and radius the demos use
+    private static final float YAW_LIMIT = 0.12f;
+    private static final float PITCH_LIMIT = 0.12f;
+    private static final float RADIUS = 1.25f;
+
+    private static final float[] FORWARD = {0.0f, 0.0f, -1.0f};
+
+    @Param({"1", "10", "100", "1000", "10000", "100000"})
+    public int objectCount;
+
+    private float[] positions;
+    private Bvh bvh;
+    private GazeBatch batch;
+    private int[] hits;
+    private InstanceBvh cubes;
+    private final PickHit hit = new PickHit();
+    private final MeshHit meshHit = new MeshHit();
+
+    private final float[] headView = new float[16];
+    private final float[] headRotation = new float[4];
+    private final float[] cameraPosition = new float[3];
+    private final float[] headForward = new float[3];
+
+    @Setup
+    public void setUp() {
+        positions = Scenes.randomPositions(objectCount, 42L);
+        bvh = new Bvh(objectCount);
+        for (int i = 0; i < objectCount; i++) {
+            bvh.setSphere(i, positions[i * 3], positions[i * 3 + 1], positions[i * 3 + 2], RADIUS);
+        }
+        bvh.setObjectCount(objectCount);
+        bvh.build();
+
+        batch = new GazeBatch(objectCount);
+        for (int i = 0; i < objectCount; i++) {
+            batch.setSphere(i, positions[i * 3], positions[i * 3 + 1], positions[i * 3 + 2],
+                    RADIUS);
+        }
+        batch.setCount(objectCount);
+        hits = new int[objectCount];
+
+        // the same objects as turned cubes, each inside its bounding sphere
+        MeshBvh cube = new MeshBvh(Scenes.cubeTriangles());
+        cubes = new InstanceBvh(objectCount);
+        float[] model = new float[16];
+        float[] rotation = new float[4];
+        for (int i = 0; i < objectCount; i++) {
+            Quat.setAxisAngle(rotation, 0, i * 0.7f, 0.5f, 0.5f, 1.0f);
+            float scale = RADIUS / (float) Math.sqrt(3.0);
+            Mat4.setRotationTranslationScale(model, 0, rotation, 0, positions[i * 3],
+                    positions[i * 3 + 1], positions[i * 3 + 2], scale, scale, scale);
+            cubes.setInstance(i, cube, model, 0);
+        }
+        cubes.setInstanceCount(objectCount);
+        cubes.build();
+
+        // a head turned slightly left and up, so hits aren't all around the -z axis
+        Quat.setAxisAngle(headRotation, 0, 0.2f, 1.0f, 2.0f, 0.0f);
+        Quat.rotateVector(headForward, 0, headRotation, 0, FORWARD, 0);
+        // the head view is the inverse of the head's rotation
+        Quat.conjugate(headRotation, 0, headRotation, 0);
+        Mat4.setRotation(headView, 0, headRotation, 0);
+    }
+
+    /**
+     * TreasureHunt's isLookingAtObject: object origin to camera space, then two atan2.
+     */
+    @Benchmark
+    public int isLookingAt() {
+        int hits = 0;
+        for (int i = 0; i < objectCount; i++) {
+            if (Gaze.isLookingAt(headView, 0, positions[i * 3], positions[i * 3 + 1],
+                    positions[i * 3 + 2], PITCH_LIMIT, YAW_LIMIT)) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * MinimalDemo3's isIntersecting: the gaze ray against each object's bounding sphere.
+     */
+    @Benchmark
+    public int hitsSphere() {
+        int hits = 0;
+        for (int i = 0; i < objectCount; i++) {
+            if (Gaze.hitsSphere(cameraPosition, 0, headForward, 0, positions[i * 3],
+                    positions[i * 3 + 1], positions[i * 3 + 2], RADIUS)) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * The nearest bounding sphere along the gaze ray, through the hierarchy.
+     */
+    @Benchmark
+    public int bvhPickSphere() {
+        bvh.pick(cameraPosition, 0, headForward, 0, Bvh.HIT_SPHERES, hit);
+        return hit.getObject();
+    }
+
+    /**
+     * The nearest box along the gaze ray, through the hierarchy.
+     */
+    @Benchmark
+    public int bvhPickBox() {
+        bvh.pick(cameraPosition, 0, headForward, 0, Bvh.HIT_BOXES, hit);
+        return hit.getObject();
+    }
+
+    /**
+     * isLookingAt over every object at once, with slopes instead of atan2.
+     */
+    @Benchmark
+    public int batchLookingAt() {
+        return batch.lookingAt(headView, 0, PITCH_LIMIT, YAW_LIMIT, hits);
+    }
+
+    /**
+     * Every bounding sphere touching a cone around the gaze, as wide as the pitch/yaw limits.
+     */
+    @Benchmark
+    public int batchInCone() {
+        return batch.inCone(cameraPosition, 0, headForward, 0, PITCH_LIMIT, hits);
+    }
+
+    /**
+     * hitsSphere over every object at once.
+     */
+    @Benchmark
+    public int batchRaySphere() {
+        return batch.raySphere(cameraPosition, 0, headForward, 0, hits);
+    }
+
+    /**
+     * The nearest bounding sphere along the gaze ray, testing every sphere.
+     */
+    @Benchmark
+    public int batchPick() {
+        batch.pick(cameraPosition, 0, headForward, 0, hit);
+        return hit.getObject();
+    }
+
+    /**
+     * The nearest cube triangle along the gaze ray, through the instance and triangle hierarchies.
+     */
+    @Benchmark
+    public int instancePickMesh() {
+        cubes.pick(cameraPosition, 0, headForward, 0, meshHit);
+        return meshHit.getTriangle();
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import edu.csus.ecs.core.math.Mat4;
+
+/**
+ * Per-frame matrix work of the demos for a scene of objectCount cubes: onNewFrame spins every
+ * model matrix, then onDrawEye builds the model-view-projection of every object for both eyes.
+ *
+ * Each benchmark call is one frame.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MatrixBenchmark {
+
+    private static final float TIME_DELTA = 0.3f;
+    private static final float Z_NEAR = 0.1f;
+    private static final float Z_FAR = 100.0f;
+    private static final float EYE_SEPARATION = 0.064f;
+
+    @Param({"1", "10", "100", "1000", "10000", "100000"})
+    public int objectCount;
+
+    private float[] models;
+    private float[] modelViewProjs;
+
+    private final float[] camera = new float[16];
+    private final float[] eyeViews = new float[32];    // left and right eye, back to back
+    private final float[] perspective = new float[16];
+    private final float[] view = new float[16];
+    private final float[] modelView = new float[16];
+
+    @Setup
+    public void setUp() {
+        float[] positions = Scenes.randomPositions(objectCount, 42L);
+        models = new float[objectCount * 16];
+        modelViewProjs = new float[objectCount * 16];
+        for (int i = 0; i < objectCount; i++) {
+            Mat4.setTranslation(models, i * 16,
+                    positions[i * 3], positions[i * 3 + 1], positions[i * 3 + 2]);
+        }
+
+        Mat4.setLookAt(camera, 0, 0.0f, 0.0f, 0.01f, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f);
+        Mat4.setTranslation(eyeViews, 0, EYE_SEPARATION / 2.0f, 0.0f, 0.0f);
+        Mat4.setTranslation(eyeViews, 16, -EYE_SEPARATION / 2.0f, 0.0f, 0.0f);
+        Mat4.setPerspective(perspective, 0, 90.0f, 1.0f, Z_NEAR, Z_FAR);
+    }
+
+    /**
+     * The current frame loop: one fused projection * view * model per object and eye.
+     */
+    @Benchmark
+    public float[] fusedModelViewProjection() {
+        for (int i = 0; i < objectCount; i++) {
+            Mat4.rotate(models, i * 16, TIME_DELTA, 0.5f, 0.5f, 1.0f);
+        }
+        for (int eye = 0; eye < 2; eye++) {
+            Mat4.multiply(view, 0, eyeViews, eye * 16, camera, 0);
+            for (int i = 0; i < objectCount; i++) {
+                Mat4.multiplyMVP(modelViewProjs, i * 16, perspective, 0, view, 0, models, i * 16);
+            }
+        }
+        return modelViewProjs;
+    }
+
+    /**
+     * The frame loop as the demos first wrote it, view * model into a temporary and then
+     * projection * modelView, for comparison.
+     */
+    @Benchmark
+    public float[] twoStepModelViewProjection() {
+        for (int i = 0; i < objectCount; i++) {
+            Mat4.rotate(models, i * 16, TIME_DELTA, 0.5f, 0.5f, 1.0f);
+        }
+        for (int eye = 0; eye < 2; eye++) {
+            Mat4.multiply(view, 0, eyeViews, eye * 16, camera, 0);
+            for (int i = 0; i < objectCount; i++) {
+                Mat4.multiply(modelView, 0, view, 0, models, i * 16);
+                Mat4.multiply(modelViewProjs, i * 16, perspective, 0, modelView, 0);
+            }
+        }
+        return modelViewProjs;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Reproducible object layouts for the benchmarks.
+ */
+final class Scenes {
+
+    // same range TreasureHunt places its cubes in
+    static final float MIN_DISTANCE = 3.0f;
+    static final float MAX_DISTANCE = 20.0f;
+
+    private Scenes() {
+    }
+
+    /**
+     * Places objects in front of a viewer at the origin looking down -z, spread over 90 degrees of
+     * yaw and pitch, so a gaze test sees a realistic mix of hits and misses.
+     *
+     * @return x, y, z of each object
+     */
+    static float[] randomPositions(int count, long seed) {
+        Random random = new Random(seed);
+        float[] positions = new float[count * 3];
+        for (int i = 0; i < count; i++) {
+            double yaw = (random.nextDouble() - 0.5) * Math.PI / 2.0;
+            double pitch = (random.nextDouble() - 0.5) * Math.PI / 2.0;
+            double distance = MIN_DISTANCE + random.nextDouble() * (MAX_DISTANCE - MIN_DISTANCE);
+            positions[i * 3] = (float) (distance * Math.cos(pitch) * Math.sin(yaw));
+            positions[i * 3 + 1] = (float) (distance * Math.sin(pitch));
+            positions[i * 3 + 2] = (float) (-distance * Math.cos(pitch) * Math.cos(yaw));
+        }
+        return positions;
+    }
+
+    /**
+     * @return a cube from -1 to 1 as a triangle list, the shape of WorldLayoutData.CUBE_COORDS
+     */
+    static float[] cubeTriangles() {
+        // two triangles per face, corners given as +-1 along the face's two other axes
+        float[] corners = {-1, 1, -1, -1, 1, 1, -1, -1, 1, -1, 1, 1};
+        float[] triangles = new float[6 * 2 * 3 * 3];
+        int t = 0;
+        for (int axis = 0; axis < 3; axis++) {
+            for (int side = -1; side <= 1; side += 2) {
+                for (int corner = 0; corner < 12; corner += 2) {
+                    triangles[t + axis] = side;
+                    triangles[t + (axis + 1) % 3] = corners[corner];
+                    triangles[t + (axis + 2) % 3] = corners[corner + 1];
+                    t += 3;
+                }
+            }
+        }
+        return triangles;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Random;
+
+import edu.csus.ecs.core.math.Mat4;
+import edu.csus.ecs.core.metrics.LatencyHistogram;
+import edu.csus.ecs.core.scene.LodSelector;
+import edu.csus.ecs.core.scene.TreasureHuntFrame;
+import edu.csus.ecs.core.trace.PoseFrame;
+import edu.csus.ecs.core.trace.PoseTraceReader;
+
+/**
+ * Replays a pose trace recorded on a phone through TreasureHunt's per-frame CPU work, on a plain
+ * JVM: the same {@link TreasureHuntFrame} the activity runs spins the treasure, picks the gaze
+ * against every cube, culls the cubes for each eye, and moves the treasure on a trigger pull
+ * while looking at it, all driven by the recorded head poses instead of a live HeadTransform.
+ *
+ * Everything is seeded and the gaze is picked on this thread, so the same trace gives the same
+ * picks and visible counts on every run; the printed checksum of those changes only when
+ * picking or culling behaves differently. The eyes are a fixed symmetric 90 degree frustum
+ * each, since traces don't record the lens, and the cube has a single level of detail.
+ *
+ *   ./gradlew :benchmarks:replay -Ptrace=session.trace
+ *   ./gradlew :benchmarks:replay -Ptrace="session.trace 20"
+ *
+ * The optional second argument repeats the trace that many times, after one warm-up pass.
+ */
+public final class TraceReplay {
+
+    private static final float EYE_FIELD_OF_VIEW = 90.0f;
+    private static final float HALF_IPD = 0.032f;
+    private static final int EYES = 2;
+    private static final float LOD_HYSTERESIS = 0.1f;
+
+    private final TreasureHuntFrame treasureHunt = new TreasureHuntFrame(
+            new LodSelector(new float[0], LOD_HYSTERESIS, TreasureHuntFrame.MAX_CUBES, EYES),
+            new Random(1));
+
+    private final float[] headCamera = new float[16];
+    private final float[] eyeOffset = new float[16];
+    private final float[] projection = new float[16];
+    private final float[] views = new float[EYES * 16];
+    private final float[] projections = new float[EYES * 16];
+    private final float[] viewProjections = new float[EYES * 16];
+
+    private final LatencyHistogram frameTimes = new LatencyHistogram();
+    private final LatencyHistogram pickTimes = new LatencyHistogram();
+    private final LatencyHistogram cullTimes = new LatencyHistogram();
+    private long checksum;
+    private int gazeFrames;
+    private int triggers;
+    private int found;
+
+    private TraceReplay() {
+        treasureHunt.setUp(true);
+        Mat4.setPerspective(projection, 0, EYE_FIELD_OF_VIEW, 1.0f, TreasureHuntFrame.Z_NEAR,
+                TreasureHuntFrame.Z_FAR);
+        for (int eye = 0; eye < EYES; eye++) {
+            System.arraycopy(projection, 0, projections, eye * 16, 16);
+        }
+    }
+
+    /**
+     * One frame of VR1DemoActivity.onDrawFrame up to the draws.
+     */
+    private void frame(PoseFrame pose) {
+        long start = System.nanoTime();
+        treasureHunt.spin();
+
+        long pickStart = System.nanoTime();
+        int object = treasureHunt.pick(pose.getHeadView(), 0);
+        boolean lookingAtObject = treasureHunt.isLookingAtTreasure();
+        long cullStart = System.nanoTime();
+        pickTimes.record(cullStart - pickStart);
+
+        Mat4.multiply(headCamera, 0, pose.getHeadView(), 0, treasureHunt.getCamera(), 0);
+        int visibleTotal = 0;
+        for (int eye = 0; eye < EYES; eye++) {
+            Mat4.setTranslation(eyeOffset, 0, eye == 0 ? HALF_IPD : -HALF_IPD, 0.0f, 0.0f);
+            Mat4.multiply(views, eye * 16, eyeOffset, 0, headCamera, 0);
+            Mat4.multiply(viewProjections, eye * 16, projection, 0, views, eye * 16);
+            visibleTotal += treasureHunt.cull(eye, views, eye * 16, projections, eye * 16,
+                    viewProjections, eye * 16);
+        }
+        long end = System.nanoTime();
+        cullTimes.record(end - cullStart);
+        frameTimes.record(end - start);
+
+        if (lookingAtObject) {
+            gazeFrames++;
+        }
+        if (pose.isTrigger()) {
+            triggers++;
+            if (lookingAtObject) {
+                found++;
+                treasureHunt.hideTreasure();
+            }
+        }
+        checksum = checksum * 31 + object;
+        checksum = checksum * 31 + visibleTotal;
+    }
+
+    private static void print(String name, LatencyHistogram histogram) {
+        System.out.println(String.format(Locale.US,
+                "%-8s p50 %8.1f us  p99 %8.1f us  max %8.1f us  n %d", name,
+                histogram.getValueAtPercentile(50) / 1e3, histogram.getValueAtPercentile(99) / 1e3,
+                histogram.getMaxNanos() / 1e3, histogram.getCount()));
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: TraceReplay <trace> [repeats]");
+            System.exit(2);
+        }
+        int repeats = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        PoseTraceReader trace = new PoseTraceReader(new File(args[0]));
+        try {
+            PoseFrame pose = new PoseFrame();
+            long firstChecksum = 0;
+            for (int pass = 0; pass <= repeats; pass++) {
+                // a fresh replay per pass, so each pass is the same session from the start
+                TraceReplay replay = new TraceReplay();
+                for (int i = 0; i < trace.getFrameCount(); i++) {
+                    trace.read(i, pose);
+                    replay.frame(pose);
+                }
+                if (pass == 0) {
+                    firstChecksum = replay.checksum;
+                    continue; // warm-up
+                }
+                if (replay.checksum != firstChecksum) {
+                    throw new IllegalStateException("Replay is not deterministic");
+                }
+                if (pass == repeats) {
+                    System.out.println(trace.getFrameCount() + " frames, gaze on the treasure in "
+                            + replay.gazeFrames + ", " + replay.triggers + " triggers, "
+                            + replay.found + " found");
+                    print("frame", replay.frameTimes);
+                    print("pick", replay.pickTimes);
+                    print("cull", replay.cullTimes);
+                    System.out.println("checksum " + Long.toHexString(replay.checksum));
+                }
+            }
+        } finally {
+            trace.close();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.csus.ecs.core.audio;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The format and length of a RIFF WAVE file, read from its header without touching the samples,
+ * so the memory a sound takes once decoded is known before decoding it.
+ *
+ * Chunks before the data chunk are walked in order; the stream is left at the first sample.
+ */
+public final class WavHeader {
+
+    private static final int RIFF = 0x46464952; // "RIFF" read as a little-endian int
+    private static final int WAVE = 0x45564157;
+    private static final int FMT = 0x20746D66;
+    private static final int DATA = 0x61746164;
+
+    private final int channels;
+    private final int sampleRate;
+    private final int bitsPerSample;
+    private final long frameCount;
+
+    private WavHeader(int channels, int sampleRate, int bitsPerSample, long frameCount) {
+        this.channels = channels;
+        this.sampleRate = sampleRate;
+        this.bitsPerSample = bitsPerSample;
+        this.frameCount = frameCount;
+    }
+
+    /**
+     * @throws IOException if it isn't a WAVE file or ends before the data chunk
+     */
+    public static WavHeader read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        try {
+            if (readInt(in) != RIFF) {
+                throw new IOException("Not a WAVE file");
+            }
+            readInt(in); // RIFF size
+            if (readInt(in) != WAVE) {
+                throw new IOException("Not a WAVE file");
+            }
+            int channels = 0;
+            int sampleRate = 0;
+            int bitsPerSample = 0;
+            int blockAlign = 0;
+            while (true) {
+                int id = readInt(in);
+                long size = readInt(in) & 0xFFFFFFFFL;
+                if (id == DATA) {
+                    if (blockAlign == 0) {
+                        throw new IOException("WAVE data chunk before its fmt chunk");
+                    }
+                    return new WavHeader(channels, sampleRate, bitsPerSample, size / blockAlign);
+                }
+                if (id == FMT) {
+                    if (size < 16) {
+                        throw new IOException("Corrupt WAVE fmt chunk");
+                    }
+                    readShort(in); // format tag
+                    channels = readShort(in);
+                    sampleRate = readInt(in);
+                    readInt(in); // byte rate
+                    blockAlign = readShort(in);
+                    bitsPerSample = readShort(in);
+                    size -= 16;
+                }
+                // chunks are padded to an even size
+                skipFully(in, size + (size & 1));
+            }
+        } catch (EOFException e) {
+            throw new IOException("WAVE file ends before its data chunk", e);
+        }
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /** @return bits of each sample as stored, e.g. 16 for 16-bit PCM */
+    public int getBitsPerSample() {
+        return bitsPerSample;
+    }
+
+    /** @return samples per channel */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    public double getDurationSeconds() {
+        return sampleRate == 0 ? 0.0 : (double) frameCount / sampleRate;
+    }
+
+    private static int readInt(DataInputStream in) throws IOException {
+        return Integer.reverseBytes(in.readInt());
+    }
+
+    private static int readShort(DataInputStream in) throws IOException {
+        return Short.reverseBytes(in.readShort()) & 0xFFFF;
+    }
+
+    private static void skipFully(InputStream in, long bytes) throws IOException {
+        while (bytes > 0) {
+            long skipped = in.skip(bytes);
+            if (skipped <= 0) {
+                if (in.read() < 0) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            bytes -= skipped;
+        }
+    }
+}
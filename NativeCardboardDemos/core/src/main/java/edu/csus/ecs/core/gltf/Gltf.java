@@ -0,0 +1,548 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.csus.ecs.core.gltf;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.csus.ecs.core.math.Mat4;
+
+/**
+ * The meshes of a glTF 2.0 asset, decoded into plain arrays, and where its default scene places
+ * them.
+ *
+ * Reads binary .glb files and .gltf JSON with external or data: URI buffers. Each primitive keeps
+ * its positions, normals, COLOR_0 colors, indices and the base color factor of its material;
+ * texture coordinates, textures, skins, morph targets and animations are skipped. Sparse
+ * accessors aren't supported.
+ *
+ * Android has org.json built in; desktop users of this class need the org.json jar. Its
+ * JSONException is checked on Android and unchecked in the jar, so it's declared everywhere.
+ */
+public final class Gltf {
+
+    /** Primitive modes worth knowing, the GL enums. */
+    public static final int TRIANGLES = 4;
+    public static final int TRIANGLE_STRIP = 5;
+    public static final int TRIANGLE_FAN = 6;
+
+    private static final int GLB_MAGIC = 0x46546C67; // "glTF"
+    private static final int CHUNK_JSON = 0x4E4F534A;
+    private static final int CHUNK_BIN = 0x004E4942;
+
+    private static final int BYTE = 5120;
+    private static final int UNSIGNED_BYTE = 5121;
+    private static final int SHORT = 5122;
+    private static final int UNSIGNED_SHORT = 5123;
+    private static final int UNSIGNED_INT = 5125;
+    private static final int FLOAT = 5126;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Supplies the buffers a .gltf file refers to by URI. */
+    public interface BufferLoader {
+        ByteBuffer load(String uri) throws IOException;
+    }
+
+    /** One drawable part of a mesh. */
+    public static final class Primitive {
+        /** A GL primitive mode, usually {@link #TRIANGLES}. */
+        public final int mode;
+        /** 3 floats per vertex. */
+        public final float[] positions;
+        /** 3 floats per vertex, or null if the asset has none. */
+        public final float[] normals;
+        /** 4 floats (RGBA, 0..1) per vertex, or null if the asset has none. */
+        public final float[] colors;
+        /** Vertex indices, or null to draw the vertices in order. */
+        public final int[] indices;
+        /** RGBA the vertex colors are multiplied by, white if there is no material. */
+        public final float[] baseColor;
+
+        Primitive(int mode, float[] positions, float[] normals, float[] colors, int[] indices,
+                  float[] baseColor) {
+            this.mode = mode;
+            this.positions = positions;
+            this.normals = normals;
+            this.colors = colors;
+            this.indices = indices;
+            this.baseColor = baseColor;
+        }
+
+        public int getVertexCount() {
+            return positions.length / 3;
+        }
+    }
+
+    private final List<Primitive[]> meshes;
+    private final int[] instanceMeshes;
+    private final float[] instanceTransforms;
+
+    private Gltf(List<Primitive[]> meshes, int[] instanceMeshes, float[] instanceTransforms) {
+        this.meshes = meshes;
+        this.instanceMeshes = instanceMeshes;
+        this.instanceTransforms = instanceTransforms;
+    }
+
+    /**
+     * Reads a binary .glb file. Buffers other than the embedded one are loaded with loader,
+     * which may be null if the file has none.
+     *
+     * @param glb the whole file, from its position to its limit
+     */
+    public static Gltf readGlb(ByteBuffer glb, BufferLoader loader) throws IOException {
+        ByteBuffer data = glb.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (data.remaining() < 20 || data.getInt(0) != GLB_MAGIC) {
+            throw new IOException("Not a glTF binary file");
+        }
+        if (data.getInt(4) != 2) {
+            throw new IOException("glTF version " + data.getInt(4) + ", can read 2");
+        }
+        int length = Math.min(data.getInt(8), data.limit());
+        String json = null;
+        ByteBuffer bin = null;
+        int at = 12;
+        while (at + 8 <= length) {
+            int chunkLength = data.getInt(at);
+            int chunkType = data.getInt(at + 4);
+            if (chunkLength < 0 || at + 8 + chunkLength > length) {
+                throw new IOException("Corrupt glTF binary chunk");
+            }
+            ByteBuffer chunk = slice(data, at + 8, chunkLength);
+            if (chunkType == CHUNK_JSON && json == null) {
+                byte[] bytes = new byte[chunkLength];
+                chunk.get(bytes);
+                json = new String(bytes, UTF_8);
+            } else if (chunkType == CHUNK_BIN && bin == null) {
+                bin = chunk;
+            }
+            // chunks are padded to 4 bytes
+            at += 8 + ((chunkLength + 3) & ~3);
+        }
+        if (json == null) {
+            throw new IOException("glTF binary file has no JSON chunk");
+        }
+        return parse(json, bin, loader);
+    }
+
+    /**
+     * Reads .gltf JSON. Buffers are loaded with loader unless they are data: URIs.
+     */
+    public static Gltf readGltf(String json, BufferLoader loader) throws IOException {
+        return parse(json, null, loader);
+    }
+
+    public int getMeshCount() {
+        return meshes.size();
+    }
+
+    public Primitive[] getPrimitives(int mesh) {
+        return meshes.get(mesh);
+    }
+
+    /** @return how many times meshes are placed in the default scene */
+    public int getInstanceCount() {
+        return instanceMeshes.length;
+    }
+
+    /** @return the mesh placed by one instance */
+    public int getInstanceMesh(int instance) {
+        return instanceMeshes[instance];
+    }
+
+    /** @return world matrices of all instances, column-major, instance i starts at 16 * i */
+    public float[] getInstanceTransforms() {
+        return instanceTransforms;
+    }
+
+    private static Gltf parse(String json, ByteBuffer bin, BufferLoader loader)
+            throws IOException {
+        try {
+            JSONObject root = new JSONObject(json);
+            Reader reader = new Reader(root, loadBuffers(root, bin, loader));
+
+            JSONArray meshArray = root.optJSONArray("meshes");
+            List<Primitive[]> meshes = new ArrayList<>();
+            for (int i = 0; meshArray != null && i < meshArray.length(); i++) {
+                JSONArray primitives = meshArray.getJSONObject(i).getJSONArray("primitives");
+                Primitive[] decoded = new Primitive[primitives.length()];
+                for (int p = 0; p < decoded.length; p++) {
+                    decoded[p] = reader.readPrimitive(primitives.getJSONObject(p));
+                }
+                meshes.add(decoded);
+            }
+
+            List<Integer> instanceMeshes = new ArrayList<>();
+            List<float[]> instanceTransforms = new ArrayList<>();
+            JSONArray scenes = root.optJSONArray("scenes");
+            if (scenes == null || scenes.length() == 0) {
+                // no scene to say where things go, so every mesh once at the origin
+                for (int i = 0; i < meshes.size(); i++) {
+                    float[] identity = new float[16];
+                    Mat4.setIdentity(identity, 0);
+                    instanceMeshes.add(i);
+                    instanceTransforms.add(identity);
+                }
+            } else {
+                JSONArray roots = scenes.getJSONObject(root.optInt("scene", 0))
+                        .optJSONArray("nodes");
+                JSONArray nodes = root.optJSONArray("nodes");
+                float[] identity = new float[16];
+                Mat4.setIdentity(identity, 0);
+                for (int i = 0; roots != null && i < roots.length(); i++) {
+                    addNode(nodes, roots.getInt(i), identity, 0, instanceMeshes,
+                            instanceTransforms);
+                }
+            }
+
+            int[] meshIndices = new int[instanceMeshes.size()];
+            float[] transforms = new float[meshIndices.length * 16];
+            for (int i = 0; i < meshIndices.length; i++) {
+                meshIndices[i] = instanceMeshes.get(i);
+                if (meshIndices[i] < 0 || meshIndices[i] >= meshes.size()) {
+                    throw new IOException("glTF node refers to missing mesh " + meshIndices[i]);
+                }
+                System.arraycopy(instanceTransforms.get(i), 0, transforms, i * 16, 16);
+            }
+            return new Gltf(meshes, meshIndices, transforms);
+        } catch (JSONException e) {
+            throw new IOException("Malformed glTF: " + e.getMessage(), e);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("glTF data out of range: " + e.getMessage(), e);
+        }
+    }
+
+    private static void addNode(JSONArray nodes, int index, float[] parent, int depth,
+                                List<Integer> instanceMeshes, List<float[]> instanceTransforms)
+            throws IOException, JSONException {
+        if (nodes == null || depth > nodes.length()) {
+            // deeper than there are nodes means a node is its own ancestor
+            throw new IOException("glTF node hierarchy has a cycle");
+        }
+        JSONObject node = nodes.getJSONObject(index);
+        float[] local = new float[16];
+        JSONArray matrix = node.optJSONArray("matrix");
+        if (matrix != null) {
+            for (int i = 0; i < 16; i++) {
+                local[i] = (float) matrix.getDouble(i);
+            }
+        } else {
+            float[] t = floats(node.optJSONArray("translation"), 0.0f, 0.0f, 0.0f);
+            float[] r = floats(node.optJSONArray("rotation"), 0.0f, 0.0f, 0.0f, 1.0f);
+            float[] s = floats(node.optJSONArray("scale"), 1.0f, 1.0f, 1.0f);
+            Mat4.setRotationTranslationScale(local, 0, r, 0, t[0], t[1], t[2], s[0], s[1], s[2]);
+        }
+        float[] world = new float[16];
+        Mat4.multiply(world, 0, parent, 0, local, 0);
+
+        if (node.has("mesh")) {
+            instanceMeshes.add(node.getInt("mesh"));
+            instanceTransforms.add(world);
+        }
+        JSONArray children = node.optJSONArray("children");
+        for (int i = 0; children != null && i < children.length(); i++) {
+            addNode(nodes, children.getInt(i), world, depth + 1, instanceMeshes,
+                    instanceTransforms);
+        }
+    }
+
+    private static float[] floats(JSONArray array, float... defaults) {
+        float[] values = defaults.clone();
+        for (int i = 0; array != null && i < values.length && i < array.length(); i++) {
+            values[i] = (float) array.optDouble(i, defaults[i]);
+        }
+        return values;
+    }
+
+    private static ByteBuffer[] loadBuffers(JSONObject root, ByteBuffer bin, BufferLoader loader)
+            throws IOException, JSONException {
+        JSONArray buffers = root.optJSONArray("buffers");
+        ByteBuffer[] loaded = new ByteBuffer[buffers == null ? 0 : buffers.length()];
+        for (int i = 0; i < loaded.length; i++) {
+            JSONObject buffer = buffers.getJSONObject(i);
+            String uri = buffer.optString("uri", null);
+            if (uri == null) {
+                // only the first buffer of a .glb may leave out its URI, it's the BIN chunk
+                if (i != 0 || bin == null) {
+                    throw new IOException("glTF buffer " + i + " has no data");
+                }
+                loaded[i] = bin;
+            } else if (uri.startsWith("data:")) {
+                int comma = uri.indexOf(',');
+                if (comma < 0 || !uri.substring(0, comma).endsWith(";base64")) {
+                    throw new IOException("glTF buffer " + i + " isn't base64");
+                }
+                loaded[i] = ByteBuffer.wrap(decodeBase64(uri, comma + 1));
+            } else if (loader == null) {
+                throw new IOException("No loader for glTF buffer " + uri);
+            } else {
+                loaded[i] = loader.load(uri);
+            }
+            if (loaded[i].remaining() < buffer.getInt("byteLength")) {
+                throw new IOException("glTF buffer " + i + " is shorter than its byteLength");
+            }
+            loaded[i] = loaded[i].slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return loaded;
+    }
+
+    private static byte[] decodeBase64(String text, int start) throws IOException {
+        byte[] out = new byte[(text.length() - start) * 3 / 4];
+        int length = 0;
+        int bits = 0;
+        int bitCount = 0;
+        for (int i = start; i < text.length(); i++) {
+            char c = text.charAt(i);
+            int value;
+            if (c >= 'A' && c <= 'Z') {
+                value = c - 'A';
+            } else if (c >= 'a' && c <= 'z') {
+                value = c - 'a' + 26;
+            } else if (c >= '0' && c <= '9') {
+                value = c - '0' + 52;
+            } else if (c == '+' || c == '-') {
+                value = 62;
+            } else if (c == '/' || c == '_') {
+                value = 63;
+            } else if (c == '=') {
+                break;
+            } else {
+                throw new IOException("Bad base64 character '" + c + "' in glTF data URI");
+            }
+            bits = (bits << 6) | value;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                out[length++] = (byte) (bits >> bitCount);
+            }
+        }
+        byte[] exact = new byte[length];
+        System.arraycopy(out, 0, exact, 0, length);
+        return exact;
+    }
+
+    private static ByteBuffer slice(ByteBuffer data, int offset, int length) {
+        ByteBuffer view = data.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /** Decodes accessors against the loaded buffers. */
+    private static final class Reader {
+        private final JSONArray accessors;
+        private final JSONArray bufferViews;
+        private final JSONArray materials;
+        private final ByteBuffer[] buffers;
+
+        Reader(JSONObject root, ByteBuffer[] buffers) {
+            this.accessors = root.optJSONArray("accessors");
+            this.bufferViews = root.optJSONArray("bufferViews");
+            this.materials = root.optJSONArray("materials");
+            this.buffers = buffers;
+        }
+
+        Primitive readPrimitive(JSONObject primitive) throws IOException, JSONException {
+            JSONObject attributes = primitive.getJSONObject("attributes");
+            if (!attributes.has("POSITION")) {
+                throw new IOException("glTF primitive has no POSITION");
+            }
+            float[] positions = readFloats(attributes.getInt("POSITION"), 3);
+            int vertexCount = positions.length / 3;
+            float[] normals = attributes.has("NORMAL")
+                    ? readFloats(attributes.getInt("NORMAL"), 3) : null;
+            float[] colors = attributes.has("COLOR_0")
+                    ? readFloats(attributes.getInt("COLOR_0"), 4) : null;
+            if ((normals != null && normals.length != vertexCount * 3)
+                    || (colors != null && colors.length != vertexCount * 4)) {
+                throw new IOException("glTF primitive attributes differ in length");
+            }
+
+            int[] indices = null;
+            if (primitive.has("indices")) {
+                indices = readIndices(primitive.getInt("indices"));
+                for (int index : indices) {
+                    if (index < 0 || index >= vertexCount) {
+                        throw new IOException("glTF index " + index + " out of range");
+                    }
+                }
+            }
+
+            float[] baseColor = {1.0f, 1.0f, 1.0f, 1.0f};
+            if (primitive.has("material") && materials != null) {
+                JSONObject pbr = materials.getJSONObject(primitive.getInt("material"))
+                        .optJSONObject("pbrMetallicRoughness");
+                if (pbr != null) {
+                    baseColor = floats(pbr.optJSONArray("baseColorFactor"), baseColor);
+                }
+            }
+            return new Primitive(primitive.optInt("mode", TRIANGLES), positions, normals, colors,
+                    indices, baseColor);
+        }
+
+        /**
+         * Reads a float accessor, or a normalized integer one, as outComponents floats per
+         * element. A VEC3 read as 4 components gets 1 as its fourth, for RGB colors.
+         */
+        float[] readFloats(int index, int outComponents) throws IOException, JSONException {
+            JSONObject accessor = accessors.getJSONObject(index);
+            int componentType = accessor.getInt("componentType");
+            int components = componentCount(accessor.getString("type"));
+            if (components != outComponents && !(components == 3 && outComponents == 4)) {
+                throw new IOException("glTF accessor " + index + " is "
+                        + accessor.getString("type"));
+            }
+            if (componentType != FLOAT && !accessor.optBoolean("normalized", false)) {
+                throw new IOException("glTF accessor " + index + " isn't float or normalized");
+            }
+
+            int count = accessor.getInt("count");
+            float[] values = new float[count * outComponents];
+            Element element = new Element(index, accessor, components);
+            for (int i = 0; i < count; i++) {
+                int at = element.offset(i);
+                for (int c = 0; c < outComponents; c++) {
+                    values[i * outComponents + c] = c < components
+                            ? readNormalized(element.data, at, componentType, c) : 1.0f;
+                }
+            }
+            return values;
+        }
+
+        int[] readIndices(int index) throws IOException, JSONException {
+            JSONObject accessor = accessors.getJSONObject(index);
+            int componentType = accessor.getInt("componentType");
+            if (componentCount(accessor.getString("type")) != 1 || (componentType != UNSIGNED_BYTE
+                    && componentType != UNSIGNED_SHORT && componentType != UNSIGNED_INT)) {
+                throw new IOException("glTF accessor " + index + " can't hold indices");
+            }
+            int count = accessor.getInt("count");
+            int[] values = new int[count];
+            Element element = new Element(index, accessor, 1);
+            for (int i = 0; i < count; i++) {
+                int at = element.offset(i);
+                switch (componentType) {
+                    case UNSIGNED_BYTE:
+                        values[i] = element.data.get(at) & 0xFF;
+                        break;
+                    case UNSIGNED_SHORT:
+                        values[i] = element.data.getShort(at) & 0xFFFF;
+                        break;
+                    default:
+                        values[i] = element.data.getInt(at);
+                        break;
+                }
+            }
+            return values;
+        }
+
+        private static float readNormalized(ByteBuffer data, int at, int componentType,
+                                            int component) throws IOException {
+            switch (componentType) {
+                case FLOAT:
+                    return data.getFloat(at + component * 4);
+                case BYTE:
+                    return Math.max(data.get(at + component) / 127.0f, -1.0f);
+                case UNSIGNED_BYTE:
+                    return (data.get(at + component) & 0xFF) / 255.0f;
+                case SHORT:
+                    return Math.max(data.getShort(at + component * 2) / 32767.0f, -1.0f);
+                case UNSIGNED_SHORT:
+                    return (data.getShort(at + component * 2) & 0xFFFF) / 65535.0f;
+                default:
+                    throw new IOException("glTF component type " + componentType);
+            }
+        }
+
+        /** Where the elements of one accessor are. */
+        private final class Element {
+            final ByteBuffer data;
+            final int start;
+            final int stride;
+
+            Element(int index, JSONObject accessor, int components)
+                    throws IOException, JSONException {
+                if (accessor.has("sparse")) {
+                    throw new IOException("glTF accessor " + index + " is sparse");
+                }
+                int size = componentSize(accessor.getInt("componentType"));
+                int count = accessor.getInt("count");
+                if (!accessor.has("bufferView")) {
+                    // no data means all zeros
+                    data = ByteBuffer.allocate(count * components * size)
+                            .order(ByteOrder.LITTLE_ENDIAN);
+                    start = 0;
+                    stride = components * size;
+                    return;
+                }
+                JSONObject view = bufferViews.getJSONObject(accessor.getInt("bufferView"));
+                data = buffers[view.getInt("buffer")];
+                start = view.optInt("byteOffset", 0) + accessor.optInt("byteOffset", 0);
+                stride = view.optInt("byteStride", components * size);
+                long end = (long) view.optInt("byteOffset", 0) + view.getInt("byteLength");
+                if (count > 0 && (end > data.limit()
+                        || start + (long) (count - 1) * stride + components * size > end)) {
+                    throw new IOException("glTF accessor " + index + " runs past its buffer view");
+                }
+            }
+
+            int offset(int element) {
+                return start + element * stride;
+            }
+        }
+    }
+
+    private static int componentCount(String type) throws IOException {
+        switch (type) {
+            case "SCALAR":
+                return 1;
+            case "VEC2":
+                return 2;
+            case "VEC3":
+                return 3;
+            case "VEC4":
+                return 4;
+            default:
+                throw new IOException("glTF accessor type " + type);
+        }
+    }
+
+    private static int componentSize(int componentType) throws IOException {
+        switch (componentType) {
+            case BYTE:
+            case UNSIGNED_BYTE:
+                return 1;
+            case SHORT:
+            case UNSIGNED_SHORT:
+                return 2;
+            case UNSIGNED_INT:
+            case FLOAT:
+                return 4;
+            default:
+                throw new IOException("glTF component type " + componentType);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.core.math;
+
+/**
+ * The six planes of a view frustum, for culling objects that can't be seen.
+ *
+ * The planes are taken straight from a view-projection matrix (Gribb and Hartmann), so they are
+ * in whatever space the matrix maps from; world space for projection * view.
+ */
+public class Frustum {
+
+    private static final int PLANE_COUNT = 6;
+    // left, right, bottom and top come first, then near and far
+    private static final int SIDE_PLANE_COUNT = 4;
+
+    // a, b, c, d of each plane with normals pointing inside; ax + by + cz + d is the distance
+    private final float[] planes = new float[PLANE_COUNT * 4];
+
+    /**
+     * Extracts the planes of a column-major view-projection matrix.
+     */
+    public void set(float[] m, int offset) {
+        for (int i = 0; i < 3; i++) {
+            // rows i and 3 of the matrix, added for the -w plane and subtracted for the +w plane
+            for (int j = 0; j < 4; j++) {
+                float row = m[offset + j * 4 + i];
+                float w = m[offset + j * 4 + 3];
+                planes[i * 8 + j] = w + row;
+                planes[i * 8 + 4 + j] = w - row;
+            }
+        }
+        for (int p = 0; p < PLANE_COUNT; p++) {
+            int base = p * 4;
+            float length = (float) Math.sqrt(planes[base] * planes[base]
+                    + planes[base + 1] * planes[base + 1] + planes[base + 2] * planes[base + 2]);
+            if (length > 0.0f) {
+                float inv = 1.0f / length;
+                planes[base] *= inv;
+                planes[base + 1] *= inv;
+                planes[base + 2] *= inv;
+                planes[base + 3] *= inv;
+            }
+        }
+    }
+
+    /**
+     * @return false if the sphere is entirely outside; true if it may be visible
+     */
+    public boolean intersectsSphere(float x, float y, float z, float radius) {
+        for (int p = 0; p < PLANE_COUNT * 4; p += 4) {
+            if (planes[p] * x + planes[p + 1] * y + planes[p + 2] * z + planes[p + 3] < -radius) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the sphere is entirely inside the left, right, bottom and top planes, so
+     * nothing of it reaches past the edges of the view; near and far aren't tested
+     */
+    public boolean sidesContainSphere(float x, float y, float z, float radius) {
+        for (int p = 0; p < SIDE_PLANE_COUNT * 4; p += 4) {
+            if (planes[p] * x + planes[p + 1] * y + planes[p + 2] * z + planes[p + 3] < radius) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
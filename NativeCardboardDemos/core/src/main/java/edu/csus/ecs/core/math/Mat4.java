@@ -0,0 +1,335 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.core.math;
+
+/**
+ * 4x4 matrix operations on float arrays, in the same column-major layout as OpenGL and
+ * android.opengl.Matrix (element (row, col) is at offset + col * 4 + row).
+ *
+ * Nothing here allocates or locks. Every operation reads its inputs into locals before writing,
+ * so the result may overlap any of the inputs.
+ */
+public final class Mat4 {
+
+    private Mat4() {
+    }
+
+    public static void setIdentity(float[] m, int offset) {
+        for (int i = 0; i < 16; i++) {
+            m[offset + i] = 0.0f;
+        }
+        m[offset] = 1.0f;
+        m[offset + 5] = 1.0f;
+        m[offset + 10] = 1.0f;
+        m[offset + 15] = 1.0f;
+    }
+
+    /**
+     * Sets m to a translation matrix.
+     */
+    public static void setTranslation(float[] m, int offset, float x, float y, float z) {
+        setIdentity(m, offset);
+        m[offset + 12] = x;
+        m[offset + 13] = y;
+        m[offset + 14] = z;
+    }
+
+    /**
+     * result = lhs * rhs
+     */
+    public static void multiply(float[] result, int resultOffset, float[] lhs, int lhsOffset,
+                                float[] rhs, int rhsOffset) {
+        float l00 = lhs[lhsOffset], l10 = lhs[lhsOffset + 1];
+        float l20 = lhs[lhsOffset + 2], l30 = lhs[lhsOffset + 3];
+        float l01 = lhs[lhsOffset + 4], l11 = lhs[lhsOffset + 5];
+        float l21 = lhs[lhsOffset + 6], l31 = lhs[lhsOffset + 7];
+        float l02 = lhs[lhsOffset + 8], l12 = lhs[lhsOffset + 9];
+        float l22 = lhs[lhsOffset + 10], l32 = lhs[lhsOffset + 11];
+        float l03 = lhs[lhsOffset + 12], l13 = lhs[lhsOffset + 13];
+        float l23 = lhs[lhsOffset + 14], l33 = lhs[lhsOffset + 15];
+
+        for (int col = 0; col < 16; col += 4) {
+            float r0 = rhs[rhsOffset + col];
+            float r1 = rhs[rhsOffset + col + 1];
+            float r2 = rhs[rhsOffset + col + 2];
+            float r3 = rhs[rhsOffset + col + 3];
+            result[resultOffset + col] = l00 * r0 + l01 * r1 + l02 * r2 + l03 * r3;
+            result[resultOffset + col + 1] = l10 * r0 + l11 * r1 + l12 * r2 + l13 * r3;
+            result[resultOffset + col + 2] = l20 * r0 + l21 * r1 + l22 * r2 + l23 * r3;
+            result[resultOffset + col + 3] = l30 * r0 + l31 * r1 + l32 * r2 + l33 * r3;
+        }
+    }
+
+    /**
+     * result = projection * view * model, without storing the intermediate model-view matrix.
+     */
+    public static void multiplyMVP(float[] result, int resultOffset,
+                                   float[] projection, int projectionOffset,
+                                   float[] view, int viewOffset,
+                                   float[] model, int modelOffset) {
+        int p = projectionOffset;
+        float p00 = projection[p], p10 = projection[p + 1];
+        float p20 = projection[p + 2], p30 = projection[p + 3];
+        float p01 = projection[p + 4], p11 = projection[p + 5];
+        float p21 = projection[p + 6], p31 = projection[p + 7];
+        float p02 = projection[p + 8], p12 = projection[p + 9];
+        float p22 = projection[p + 10], p32 = projection[p + 11];
+        float p03 = projection[p + 12], p13 = projection[p + 13];
+        float p23 = projection[p + 14], p33 = projection[p + 15];
+
+        int v = viewOffset;
+        float v00 = view[v], v10 = view[v + 1], v20 = view[v + 2], v30 = view[v + 3];
+        float v01 = view[v + 4], v11 = view[v + 5], v21 = view[v + 6], v31 = view[v + 7];
+        float v02 = view[v + 8], v12 = view[v + 9], v22 = view[v + 10], v32 = view[v + 11];
+        float v03 = view[v + 12], v13 = view[v + 13], v23 = view[v + 14], v33 = view[v + 15];
+
+        for (int col = 0; col < 16; col += 4) {
+            float m0 = model[modelOffset + col];
+            float m1 = model[modelOffset + col + 1];
+            float m2 = model[modelOffset + col + 2];
+            float m3 = model[modelOffset + col + 3];
+
+            // column of view * model
+            float a0 = v00 * m0 + v01 * m1 + v02 * m2 + v03 * m3;
+            float a1 = v10 * m0 + v11 * m1 + v12 * m2 + v13 * m3;
+            float a2 = v20 * m0 + v21 * m1 + v22 * m2 + v23 * m3;
+            float a3 = v30 * m0 + v31 * m1 + v32 * m2 + v33 * m3;
+
+            result[resultOffset + col] = p00 * a0 + p01 * a1 + p02 * a2 + p03 * a3;
+            result[resultOffset + col + 1] = p10 * a0 + p11 * a1 + p12 * a2 + p13 * a3;
+            result[resultOffset + col + 2] = p20 * a0 + p21 * a1 + p22 * a2 + p23 * a3;
+            result[resultOffset + col + 3] = p30 * a0 + p31 * a1 + p32 * a2 + p33 * a3;
+        }
+    }
+
+    /**
+     * m = m * rotation(angle, axis), like android.opengl.Matrix.rotateM but without its shared
+     * temporary and lock.
+     *
+     * @param degrees rotation angle in degrees
+     */
+    public static void rotate(float[] m, int offset, float degrees, float x, float y, float z) {
+        float length = (float) Math.sqrt(x * x + y * y + z * z);
+        x /= length;
+        y /= length;
+        z /= length;
+        double radians = Math.toRadians(degrees);
+        float s = (float) Math.sin(radians);
+        float c = (float) Math.cos(radians);
+        float nc = 1.0f - c;
+
+        // rotation matrix, r<row><col>
+        float r00 = x * x * nc + c, r01 = x * y * nc - z * s, r02 = z * x * nc + y * s;
+        float r10 = x * y * nc + z * s, r11 = y * y * nc + c, r12 = y * z * nc - x * s;
+        float r20 = z * x * nc - y * s, r21 = y * z * nc + x * s, r22 = z * z * nc + c;
+
+        // only the first three columns change
+        for (int row = 0; row < 4; row++) {
+            float m0 = m[offset + row];
+            float m1 = m[offset + 4 + row];
+            float m2 = m[offset + 8 + row];
+            m[offset + row] = m0 * r00 + m1 * r10 + m2 * r20;
+            m[offset + 4 + row] = m0 * r01 + m1 * r11 + m2 * r21;
+            m[offset + 8 + row] = m0 * r02 + m1 * r12 + m2 * r22;
+        }
+    }
+
+    /**
+     * Sets m to the rotation of a unit quaternion (x, y, z, w).
+     */
+    public static void setRotation(float[] m, int offset, float[] q, int qOffset) {
+        setRotationTranslationScale(m, offset, q, qOffset, 0.0f, 0.0f, 0.0f, 1.0f, 1.0f, 1.0f);
+    }
+
+    /**
+     * Sets m = translation * rotation * scale in one pass, the usual model matrix of an object.
+     *
+     * @param q unit quaternion (x, y, z, w)
+     */
+    public static void setRotationTranslationScale(float[] m, int offset, float[] q, int qOffset,
+                                                   float tx, float ty, float tz,
+                                                   float sx, float sy, float sz) {
+        float x = q[qOffset];
+        float y = q[qOffset + 1];
+        float z = q[qOffset + 2];
+        float w = q[qOffset + 3];
+        float xx = x * x, yy = y * y, zz = z * z;
+        float xy = x * y, xz = x * z, yz = y * z;
+        float wx = w * x, wy = w * y, wz = w * z;
+
+        m[offset] = (1.0f - 2.0f * (yy + zz)) * sx;
+        m[offset + 1] = 2.0f * (xy + wz) * sx;
+        m[offset + 2] = 2.0f * (xz - wy) * sx;
+        m[offset + 3] = 0.0f;
+        m[offset + 4] = 2.0f * (xy - wz) * sy;
+        m[offset + 5] = (1.0f - 2.0f * (xx + zz)) * sy;
+        m[offset + 6] = 2.0f * (yz + wx) * sy;
+        m[offset + 7] = 0.0f;
+        m[offset + 8] = 2.0f * (xz + wy) * sz;
+        m[offset + 9] = 2.0f * (yz - wx) * sz;
+        m[offset + 10] = (1.0f - 2.0f * (xx + yy)) * sz;
+        m[offset + 11] = 0.0f;
+        m[offset + 12] = tx;
+        m[offset + 13] = ty;
+        m[offset + 14] = tz;
+        m[offset + 15] = 1.0f;
+    }
+
+    /**
+     * Transforms the point (x, y, z, 1) and stores x, y and z of the result. Meant for affine
+     * matrices, there is no divide by w.
+     */
+    public static void transformPoint(float[] result, int resultOffset, float[] m, int offset,
+                                      float x, float y, float z) {
+        float rx = m[offset] * x + m[offset + 4] * y + m[offset + 8] * z + m[offset + 12];
+        float ry = m[offset + 1] * x + m[offset + 5] * y + m[offset + 9] * z + m[offset + 13];
+        float rz = m[offset + 2] * x + m[offset + 6] * y + m[offset + 10] * z + m[offset + 14];
+        result[resultOffset] = rx;
+        result[resultOffset + 1] = ry;
+        result[resultOffset + 2] = rz;
+    }
+
+    /**
+     * Transforms the direction (x, y, z, 0) and stores x, y and z of the result.
+     */
+    public static void transformDirection(float[] result, int resultOffset, float[] m, int offset,
+                                          float x, float y, float z) {
+        float rx = m[offset] * x + m[offset + 4] * y + m[offset + 8] * z;
+        float ry = m[offset + 1] * x + m[offset + 5] * y + m[offset + 9] * z;
+        float rz = m[offset + 2] * x + m[offset + 6] * y + m[offset + 10] * z;
+        result[resultOffset] = rx;
+        result[resultOffset + 1] = ry;
+        result[resultOffset + 2] = rz;
+    }
+
+    /**
+     * result = inverse of the affine matrix m, whose bottom row must be (0, 0, 0, 1). Cheaper
+     * than a general 4x4 inverse and enough for model matrices.
+     *
+     * @return false if m is singular, result is then left alone
+     */
+    public static boolean invertAffine(float[] result, int resultOffset, float[] m, int offset) {
+        float a = m[offset], b = m[offset + 4], c = m[offset + 8];
+        float d = m[offset + 1], e = m[offset + 5], f = m[offset + 9];
+        float g = m[offset + 2], h = m[offset + 6], i = m[offset + 10];
+        float tx = m[offset + 12], ty = m[offset + 13], tz = m[offset + 14];
+
+        // inverse of the 3x3 part from its cofactors
+        float c00 = e * i - f * h;
+        float c01 = f * g - d * i;
+        float c02 = d * h - e * g;
+        float det = a * c00 + b * c01 + c * c02;
+        if (det == 0.0f) {
+            return false;
+        }
+        float invDet = 1.0f / det;
+        float r00 = c00 * invDet;
+        float r01 = (c * h - b * i) * invDet;
+        float r02 = (b * f - c * e) * invDet;
+        float r10 = c01 * invDet;
+        float r11 = (a * i - c * g) * invDet;
+        float r12 = (c * d - a * f) * invDet;
+        float r20 = c02 * invDet;
+        float r21 = (b * g - a * h) * invDet;
+        float r22 = (a * e - b * d) * invDet;
+
+        result[resultOffset] = r00;
+        result[resultOffset + 1] = r10;
+        result[resultOffset + 2] = r20;
+        result[resultOffset + 3] = 0.0f;
+        result[resultOffset + 4] = r01;
+        result[resultOffset + 5] = r11;
+        result[resultOffset + 6] = r21;
+        result[resultOffset + 7] = 0.0f;
+        result[resultOffset + 8] = r02;
+        result[resultOffset + 9] = r12;
+        result[resultOffset + 10] = r22;
+        result[resultOffset + 11] = 0.0f;
+        // the translation moves back by the inverse rotation and scale
+        result[resultOffset + 12] = -(r00 * tx + r01 * ty + r02 * tz);
+        result[resultOffset + 13] = -(r10 * tx + r11 * ty + r12 * tz);
+        result[resultOffset + 14] = -(r20 * tx + r21 * ty + r22 * tz);
+        result[resultOffset + 15] = 1.0f;
+        return true;
+    }
+
+    /**
+     * Sets m to a view matrix looking from eye towards center, like
+     * android.opengl.Matrix.setLookAtM.
+     */
+    public static void setLookAt(float[] m, int offset,
+                                 float eyeX, float eyeY, float eyeZ,
+                                 float centerX, float centerY, float centerZ,
+                                 float upX, float upY, float upZ) {
+        float fx = centerX - eyeX;
+        float fy = centerY - eyeY;
+        float fz = centerZ - eyeZ;
+        float invLength = 1.0f / (float) Math.sqrt(fx * fx + fy * fy + fz * fz);
+        fx *= invLength;
+        fy *= invLength;
+        fz *= invLength;
+
+        // side = forward x up
+        float sx = fy * upZ - fz * upY;
+        float sy = fz * upX - fx * upZ;
+        float sz = fx * upY - fy * upX;
+        invLength = 1.0f / (float) Math.sqrt(sx * sx + sy * sy + sz * sz);
+        sx *= invLength;
+        sy *= invLength;
+        sz *= invLength;
+
+        // recomputed up = side x forward
+        float ux = sy * fz - sz * fy;
+        float uy = sz * fx - sx * fz;
+        float uz = sx * fy - sy * fx;
+
+        m[offset] = sx;
+        m[offset + 1] = ux;
+        m[offset + 2] = -fx;
+        m[offset + 3] = 0.0f;
+        m[offset + 4] = sy;
+        m[offset + 5] = uy;
+        m[offset + 6] = -fy;
+        m[offset + 7] = 0.0f;
+        m[offset + 8] = sz;
+        m[offset + 9] = uz;
+        m[offset + 10] = -fz;
+        m[offset + 11] = 0.0f;
+        m[offset + 12] = -(sx * eyeX + sy * eyeY + sz * eyeZ);
+        m[offset + 13] = -(ux * eyeX + uy * eyeY + uz * eyeZ);
+        m[offset + 14] = fx * eyeX + fy * eyeY + fz * eyeZ;
+        m[offset + 15] = 1.0f;
+    }
+
+    /**
+     * Sets m to a perspective projection, like android.opengl.Matrix.perspectiveM.
+     *
+     * @param fovy vertical field of view in degrees
+     */
+    public static void setPerspective(float[] m, int offset, float fovy, float aspect,
+                                      float zNear, float zFar) {
+        float f = 1.0f / (float) Math.tan(Math.toRadians(fovy) / 2.0);
+        float rangeReciprocal = 1.0f / (zNear - zFar);
+        setIdentity(m, offset);
+        m[offset] = f / aspect;
+        m[offset + 5] = f;
+        m[offset + 10] = (zFar + zNear) * rangeReciprocal;
+        m[offset + 11] = -1.0f;
+        m[offset + 14] = 2.0f * zFar * zNear * rangeReciprocal;
+        m[offset + 15] = 0.0f;
+    }
+}
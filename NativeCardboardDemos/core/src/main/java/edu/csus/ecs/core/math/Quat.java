@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.core.math;
+
+/**
+ * Quaternion operations on float arrays, stored as (x, y, z, w) like
+ * HeadTransform.getQuaternion. Use {@link Mat4#setRotation} to turn one into a matrix.
+ *
+ * Nothing here allocates, and results may overlap the inputs.
+ */
+public final class Quat {
+
+    private Quat() {
+    }
+
+    public static void setIdentity(float[] q, int offset) {
+        q[offset] = 0.0f;
+        q[offset + 1] = 0.0f;
+        q[offset + 2] = 0.0f;
+        q[offset + 3] = 1.0f;
+    }
+
+    /**
+     * Sets q to a rotation around an axis. The axis doesn't need to be normalized.
+     *
+     * @param radians rotation angle in radians
+     */
+    public static void setAxisAngle(float[] q, int offset, float radians, float x, float y,
+                                    float z) {
+        float length = (float) Math.sqrt(x * x + y * y + z * z);
+        float s = (float) Math.sin(radians / 2.0) / length;
+        q[offset] = x * s;
+        q[offset + 1] = y * s;
+        q[offset + 2] = z * s;
+        q[offset + 3] = (float) Math.cos(radians / 2.0);
+    }
+
+    /**
+     * result = a * b, the rotation b followed by a.
+     */
+    public static void multiply(float[] result, int resultOffset, float[] a, int aOffset,
+                                float[] b, int bOffset) {
+        float ax = a[aOffset], ay = a[aOffset + 1], az = a[aOffset + 2], aw = a[aOffset + 3];
+        float bx = b[bOffset], by = b[bOffset + 1], bz = b[bOffset + 2], bw = b[bOffset + 3];
+        result[resultOffset] = aw * bx + ax * bw + ay * bz - az * by;
+        result[resultOffset + 1] = aw * by - ax * bz + ay * bw + az * bx;
+        result[resultOffset + 2] = aw * bz + ax * by - ay * bx + az * bw;
+        result[resultOffset + 3] = aw * bw - ax * bx - ay * by - az * bz;
+    }
+
+    /**
+     * result = conjugate of q, which is the inverse rotation for a unit quaternion.
+     */
+    public static void conjugate(float[] result, int resultOffset, float[] q, int offset) {
+        result[resultOffset] = -q[offset];
+        result[resultOffset + 1] = -q[offset + 1];
+        result[resultOffset + 2] = -q[offset + 2];
+        result[resultOffset + 3] = q[offset + 3];
+    }
+
+    public static void normalize(float[] q, int offset) {
+        float x = q[offset], y = q[offset + 1], z = q[offset + 2], w = q[offset + 3];
+        float length = (float) Math.sqrt(x * x + y * y + z * z + w * w);
+        if (length > 0.0f) {
+            float inv = 1.0f / length;
+            q[offset] = x * inv;
+            q[offset + 1] = y * inv;
+            q[offset + 2] = z * inv;
+            q[offset + 3] = w * inv;
+        }
+    }
+
+    /**
+     * Rotates the vector v by the unit quaternion q and stores it in result.
+     */
+    public static void rotateVector(float[] result, int resultOffset, float[] q, int qOffset,
+                                    float[] v, int vOffset) {
+        float qx = q[qOffset], qy = q[qOffset + 1], qz = q[qOffset + 2], qw = q[qOffset + 3];
+        float vx = v[vOffset], vy = v[vOffset + 1], vz = v[vOffset + 2];
+
+        // t = 2 * (q.xyz x v), v' = v + w * t + q.xyz x t
+        float tx = 2.0f * (qy * vz - qz * vy);
+        float ty = 2.0f * (qz * vx - qx * vz);
+        float tz = 2.0f * (qx * vy - qy * vx);
+        result[resultOffset] = vx + qw * tx + (qy * tz - qz * ty);
+        result[resultOffset + 1] = vy + qw * ty + (qz * tx - qx * tz);
+        result[resultOffset + 2] = vz + qw * tz + (qx * ty - qy * tx);
+    }
+
+    /**
+     * Spherical interpolation between unit quaternions a (t = 0) and b (t = 1), along the
+     * shorter arc.
+     */
+    public static void slerp(float[] result, int resultOffset, float[] a, int aOffset,
+                             float[] b, int bOffset, float t) {
+        float ax = a[aOffset], ay = a[aOffset + 1], az = a[aOffset + 2], aw = a[aOffset + 3];
+        float bx = b[bOffset], by = b[bOffset + 1], bz = b[bOffset + 2], bw = b[bOffset + 3];
+
+        float cos = ax * bx + ay * by + az * bz + aw * bw;
+        if (cos < 0.0f) {
+            cos = -cos;
+            bx = -bx;
+            by = -by;
+            bz = -bz;
+            bw = -bw;
+        }
+
+        float wa;
+        float wb;
+        if (cos > 0.9995f) {
+            // nearly parallel, linear interpolation is accurate and avoids dividing by ~0
+            wa = 1.0f - t;
+            wb = t;
+        } else {
+            double angle = Math.acos(cos);
+            double sin = Math.sin(angle);
+            wa = (float) (Math.sin((1.0 - t) * angle) / sin);
+            wb = (float) (Math.sin(t * angle) / sin);
+        }
+        result[resultOffset] = wa * ax + wb * bx;
+        result[resultOffset + 1] = wa * ay + wb * by;
+        result[resultOffset + 2] = wa * az + wb * bz;
+        result[resultOffset + 3] = wa * aw + wb * bw;
+        normalize(result, resultOffset);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.core.math;
+
+/**
+ * 3-component vector operations on float arrays, three consecutive floats starting at an offset.
+ *
+ * Nothing here allocates, and results may overlap the inputs.
+ */
+public final class Vec3 {
+
+    private Vec3() {
+    }
+
+    public static void set(float[] v, int offset, float x, float y, float z) {
+        v[offset] = x;
+        v[offset + 1] = y;
+        v[offset + 2] = z;
+    }
+
+    public static float dot(float[] a, int aOffset, float[] b, int bOffset) {
+        return a[aOffset] * b[bOffset] + a[aOffset + 1] * b[bOffset + 1]
+                + a[aOffset + 2] * b[bOffset + 2];
+    }
+
+    /**
+     * result = a x b
+     */
+    public static void cross(float[] result, int resultOffset, float[] a, int aOffset,
+                             float[] b, int bOffset) {
+        float ax = a[aOffset], ay = a[aOffset + 1], az = a[aOffset + 2];
+        float bx = b[bOffset], by = b[bOffset + 1], bz = b[bOffset + 2];
+        result[resultOffset] = ay * bz - az * by;
+        result[resultOffset + 1] = az * bx - ax * bz;
+        result[resultOffset + 2] = ax * by - ay * bx;
+    }
+
+    /**
+     * result = a - b
+     */
+    public static void subtract(float[] result, int resultOffset, float[] a, int aOffset,
+                                float[] b, int bOffset) {
+        result[resultOffset] = a[aOffset] - b[bOffset];
+        result[resultOffset + 1] = a[aOffset + 1] - b[bOffset + 1];
+        result[resultOffset + 2] = a[aOffset + 2] - b[bOffset + 2];
+    }
+
+    /**
+     * result = a + b * scale, e.g. the point at distance scale along ray b from a.
+     */
+    public static void scaleAndAdd(float[] result, int resultOffset, float[] a, int aOffset,
+                                   float[] b, int bOffset, float scale) {
+        result[resultOffset] = a[aOffset] + b[bOffset] * scale;
+        result[resultOffset + 1] = a[aOffset + 1] + b[bOffset + 1] * scale;
+        result[resultOffset + 2] = a[aOffset + 2] + b[bOffset + 2] * scale;
+    }
+
+    public static float lengthSquared(float[] v, int offset) {
+        return dot(v, offset, v, offset);
+    }
+
+    public static float length(float[] v, int offset) {
+        return (float) Math.sqrt(lengthSquared(v, offset));
+    }
+
+    public static float distanceSquared(float[] a, int aOffset, float[] b, int bOffset) {
+        float dx = a[aOffset] - b[bOffset];
+        float dy = a[aOffset + 1] - b[bOffset + 1];
+        float dz = a[aOffset + 2] - b[bOffset + 2];
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * Scales v to unit length in place. A zero vector is left alone.
+     *
+     * @return the length before normalizing
+     */
+    public static float normalize(float[] v, int offset) {
+        float length = length(v, offset);
+        if (length > 0.0f) {
+            float inv = 1.0f / length;
+            v[offset] *= inv;
+            v[offset + 1] *= inv;
+            v[offset + 2] *= inv;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.core.mesh;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A binary mesh container laid out so the vertex and index data can go to glBufferData straight
+ * from a memory-mapped file, without passing through the Java heap.
+ *
+ * Everything is little-endian, the byte order of every Android device:
+ *
+ * <pre>
+ *   0  magic "JVRM"            4  version
+ *   8  vertex count           12  index count
+ *  16  vertex stride          20  attribute count
+ *  24  index type (GL enum)   28  bounds min x, y, z, max x, y, z (floats)
+ *  52  vertex data offset     56  index data offset
+ *  60  attributes, 8 bytes each: semantic, components, normalized (bytes), pad,
+ *      type (GL enum, short), offset in the vertex (short)
+ * </pre>
+ *
+ * The vertex data is interleaved at the stride and starts on a 4-byte boundary; the indices follow
+ * it. Attribute types and the index type are the GL enums, so a renderer can pass them on as-is.
+ */
+public final class MeshFile {
+
+    public static final int MAGIC = 0x4D52564A; // "JVRM" read as a little-endian int
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 60;
+    public static final int ATTRIBUTE_BYTES = 8;
+
+    // attribute semantics
+    public static final int POSITION = 0;
+    public static final int NORMAL = 1;
+    public static final int COLOR = 2;
+
+    // the GL enums for attribute and index types
+    public static final int BYTE = 0x1400;
+    public static final int UNSIGNED_BYTE = 0x1401;
+    public static final int SHORT = 0x1402;
+    public static final int UNSIGNED_SHORT = 0x1403;
+    public static final int UNSIGNED_INT = 0x1405;
+    public static final int FLOAT = 0x1406;
+
+    /** How one attribute is stored in each vertex. */
+    public static final class Attribute {
+        public final int semantic;
+        public final int components;
+        public final int type;
+        public final boolean normalized;
+        public final int offset;
+
+        public Attribute(int semantic, int components, int type, boolean normalized, int offset) {
+            this.semantic = semantic;
+            this.components = components;
+            this.type = type;
+            this.normalized = normalized;
+            this.offset = offset;
+        }
+    }
+
+    private final int vertexCount;
+    private final int indexCount;
+    private final int stride;
+    private final int indexType;
+    private final Attribute[] attributes;
+    private final float[] bounds;
+    private final ByteBuffer vertices;
+    private final ByteBuffer indices;
+
+    private MeshFile(int vertexCount, int indexCount, int stride, int indexType,
+                     Attribute[] attributes, float[] bounds, ByteBuffer vertices,
+                     ByteBuffer indices) {
+        this.vertexCount = vertexCount;
+        this.indexCount = indexCount;
+        this.stride = stride;
+        this.indexType = indexType;
+        this.attributes = attributes;
+        this.bounds = bounds;
+        this.vertices = vertices;
+        this.indices = indices;
+    }
+
+    /**
+     * Reads the header. The vertex and index data stay where they are: {@link #getVertices} and
+     * {@link #getIndices} are views into the given buffer, so a mapped file stays mapped rather
+     * than being copied.
+     *
+     * @param file the whole file, from its position to its limit
+     * @throws IOException if it isn't a mesh file this version can read
+     */
+    public static MeshFile read(ByteBuffer file) throws IOException {
+        ByteBuffer data = file.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (data.remaining() < HEADER_BYTES || data.getInt(0) != MAGIC) {
+            throw new IOException("Not a mesh file");
+        }
+        if (data.getInt(4) != VERSION) {
+            throw new IOException("Mesh file version " + data.getInt(4) + ", can read "
+                    + VERSION);
+        }
+        int vertexCount = data.getInt(8);
+        int indexCount = data.getInt(12);
+        int stride = data.getInt(16);
+        int attributeCount = data.getInt(20);
+        int indexType = data.getInt(24);
+        float[] bounds = new float[6];
+        for (int i = 0; i < 6; i++) {
+            bounds[i] = data.getFloat(28 + i * 4);
+        }
+        int vertexOffset = data.getInt(52);
+        int indexOffset = data.getInt(56);
+
+        if (indexType != UNSIGNED_BYTE && indexType != UNSIGNED_SHORT
+                && indexType != UNSIGNED_INT) {
+            throw new IOException("Mesh file index type 0x" + Integer.toHexString(indexType));
+        }
+        long vertexBytes = (long) vertexCount * stride;
+        long indexBytes = (long) indexCount * indexSize(indexType);
+        if (vertexCount < 0 || indexCount < 0 || stride <= 0 || attributeCount < 0
+                || HEADER_BYTES + (long) attributeCount * ATTRIBUTE_BYTES > vertexOffset
+                || vertexOffset + vertexBytes > indexOffset
+                || indexOffset + indexBytes > data.limit()) {
+            throw new IOException("Corrupt mesh file header");
+        }
+
+        Attribute[] attributes = new Attribute[attributeCount];
+        for (int i = 0; i < attributeCount; i++) {
+            int at = HEADER_BYTES + i * ATTRIBUTE_BYTES;
+            attributes[i] = new Attribute(data.get(at), data.get(at + 1), data.getShort(at + 4),
+                    data.get(at + 2) != 0, data.getShort(at + 6));
+        }
+
+        return new MeshFile(vertexCount, indexCount, stride, indexType, attributes, bounds,
+                view(data, vertexOffset, vertexBytes), view(data, indexOffset, indexBytes));
+    }
+
+    /**
+     * Writes a mesh file.
+     *
+     * @param vertices  vertexCount * stride bytes of interleaved vertices, from position to limit
+     * @param indices   the indices in indexType, from position to limit
+     * @param bounds    min x, y, z and max x, y, z of the positions
+     */
+    public static void write(WritableByteChannel out, int vertexCount, int stride,
+                             Attribute[] attributes, float[] bounds, ByteBuffer vertices,
+                             int indexType, ByteBuffer indices) throws IOException {
+        int vertexOffset = HEADER_BYTES + attributes.length * ATTRIBUTE_BYTES;
+        vertexOffset = (vertexOffset + 3) & ~3;
+        int indexOffset = vertexOffset + vertices.remaining();
+        int indexCount = indices.remaining() / indexSize(indexType);
+
+        ByteBuffer header = ByteBuffer.allocate(vertexOffset).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(vertexCount).putInt(indexCount)
+                .putInt(stride).putInt(attributes.length).putInt(indexType);
+        for (int i = 0; i < 6; i++) {
+            header.putFloat(bounds[i]);
+        }
+        header.putInt(vertexOffset).putInt(indexOffset);
+        for (Attribute attribute : attributes) {
+            header.put((byte) attribute.semantic).put((byte) attribute.components)
+                    .put((byte) (attribute.normalized ? 1 : 0)).put((byte) 0)
+                    .putShort((short) attribute.type).putShort((short) attribute.offset);
+        }
+        header.position(0);
+        writeFully(out, header);
+        writeFully(out, vertices.duplicate());
+        writeFully(out, indices.duplicate());
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    public int getIndexCount() {
+        return indexCount;
+    }
+
+    public int getStride() {
+        return stride;
+    }
+
+    /** @return the GL enum of the index type */
+    public int getIndexType() {
+        return indexType;
+    }
+
+    public int getAttributeCount() {
+        return attributes.length;
+    }
+
+    public Attribute getAttribute(int index) {
+        return attributes[index];
+    }
+
+    /** @return the attribute with the semantic, or null if the vertices don't have one */
+    public Attribute findAttribute(int semantic) {
+        for (Attribute attribute : attributes) {
+            if (attribute.semantic == semantic) {
+                return attribute;
+            }
+        }
+        return null;
+    }
+
+    /** @return min x, y, z and max x, y, z of the positions, as stored */
+    public float[] getBounds() {
+        return bounds.clone();
+    }
+
+    /** @return the vertex data, little-endian, a view of the buffer the file was read from */
+    public ByteBuffer getVertices() {
+        return vertices.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /** @return the index data, little-endian, a view of the buffer the file was read from */
+    public ByteBuffer getIndices() {
+        return indices.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public static int indexSize(int indexType) {
+        switch (indexType) {
+            case UNSIGNED_BYTE:
+                return 1;
+            case UNSIGNED_SHORT:
+                return 2;
+            case UNSIGNED_INT:
+                return 4;
+            default:
+                throw new IllegalArgumentException("Index type 0x"
+                        + Integer.toHexString(indexType));
+        }
+    }
+
+    private static ByteBuffer view(ByteBuffer data, int offset, long length) {
+        ByteBuffer view = data.duplicate();
+        view.position(offset);
+        view.limit((int) (offset + length));
+        return view.slice();
+    }
+
+    private static void writeFully(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.core.picking;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Picks on a worker thread, off the render thread's frame.
+ *
+ * Each frame the render thread fills {@link #beginSnapshot()} with the gaze and object bounds and
+ * calls {@link #publishSnapshot()}; the worker wakes up, picks and publishes a result stamped
+ * with the snapshot's frame. A picker made with a hit test picks the nearest object along the
+ * gaze ray through a {@link Bvh}. One made with pitch and yaw limits runs
+ * {@link Gaze#isLookingAt}'s test instead, over every object's center through a
+ * {@link GazeBatch}, and picks the lowest numbered object inside the limits. {@link #getLatest}
+ * returns the newest finished result. Snapshots and results are handed over through triple
+ * buffers, so neither thread ever blocks on the other, and when the worker falls behind it skips
+ * straight to the newest snapshot.
+ *
+ * The snapshot and result calls must all come from the same thread, usually the GL thread.
+ */
+public class AsyncGazePicker {
+
+    // a refit tree slows down as objects wander from where it was built, rebuild now and then
+    private static final int REBUILD_INTERVAL = 300;
+
+    private final int hitTest;
+    private final Bvh bvh;
+    private final float pitchLimit;
+    private final float yawLimit;
+    private final GazeBatch gazeBatch;
+    private final int[] lookedAt;
+    private final PickHit hit = new PickHit();
+    private final TripleBuffer<PoseSnapshot> snapshots;
+    private final TripleBuffer<GazeResult> results;
+
+    private volatile boolean running;
+    private Thread worker;
+    // only the worker touches this
+    private int picksSinceBuild = REBUILD_INTERVAL;
+
+    /**
+     * @param capacity most objects a snapshot can hold
+     * @param hitTest  {@link Bvh#HIT_SPHERES} or {@link Bvh#HIT_BOXES}
+     */
+    public AsyncGazePicker(int capacity, int hitTest) {
+        this.hitTest = hitTest;
+        bvh = new Bvh(capacity);
+        pitchLimit = 0.0f;
+        yawLimit = 0.0f;
+        gazeBatch = null;
+        lookedAt = null;
+        snapshots = newSnapshots(capacity);
+        results = new TripleBuffer<>(new GazeResult(), new GazeResult(), new GazeResult());
+    }
+
+    /**
+     * The snapshots need {@link PoseSnapshot#setHeadView} as well as the ray and spheres.
+     *
+     * @param capacity   most objects a snapshot can hold
+     * @param pitchLimit largest pitch from the view axis, in radians
+     * @param yawLimit   largest yaw from the view axis, in radians
+     */
+    public AsyncGazePicker(int capacity, float pitchLimit, float yawLimit) {
+        hitTest = 0;
+        bvh = null;
+        this.pitchLimit = pitchLimit;
+        this.yawLimit = yawLimit;
+        gazeBatch = new GazeBatch(capacity);
+        lookedAt = new int[capacity];
+        snapshots = newSnapshots(capacity);
+        results = new TripleBuffer<>(new GazeResult(), new GazeResult(), new GazeResult());
+    }
+
+    private static TripleBuffer<PoseSnapshot> newSnapshots(int capacity) {
+        return new TripleBuffer<>(new PoseSnapshot(capacity), new PoseSnapshot(capacity),
+                new PoseSnapshot(capacity));
+    }
+
+    public synchronized void start() {
+        if (worker != null) {
+            return;
+        }
+        running = true;
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pickLoop();
+            }
+        }, "AsyncGazePicker");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Stops the worker and waits for it to finish its current pick.
+     */
+    public synchronized void stop() {
+        if (worker == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(worker);
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        worker = null;
+    }
+
+    /**
+     * @return the snapshot to fill in for this frame; filling it never waits on the worker
+     */
+    public PoseSnapshot beginSnapshot() {
+        return snapshots.back();
+    }
+
+    /**
+     * Hands the filled snapshot to the worker.
+     */
+    public void publishSnapshot() {
+        snapshots.publish();
+        Thread worker = this.worker;
+        if (worker != null) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    /**
+     * Copies the newest finished result without waiting.
+     *
+     * @return false if no result is finished yet, out is then cleared
+     */
+    public boolean getLatest(GazeResult out) {
+        GazeResult latest = results.acquire();
+        if (latest == null) {
+            out.clear();
+            return false;
+        }
+        out.set(latest);
+        return true;
+    }
+
+    private void pickLoop() {
+        while (running) {
+            PoseSnapshot snapshot = snapshots.acquireFresh();
+            if (snapshot == null) {
+                LockSupport.park(this);
+                continue;
+            }
+
+            if (gazeBatch != null) {
+                pickLookedAt(snapshot);
+            } else {
+                pickRay(snapshot);
+            }
+            results.back().set(hit, snapshot.getFrame());
+            results.publish();
+        }
+    }
+
+    private void pickRay(PoseSnapshot snapshot) {
+        float[] spheres = snapshot.getSpheres();
+        int count = snapshot.getCount();
+        for (int i = 0; i < count; i++) {
+            int s = i * 4;
+            bvh.setSphere(i, spheres[s], spheres[s + 1], spheres[s + 2], spheres[s + 3]);
+        }
+        if (count != bvh.getObjectCount() || picksSinceBuild >= REBUILD_INTERVAL) {
+            bvh.setObjectCount(count);
+            bvh.build();
+            picksSinceBuild = 0;
+        } else {
+            bvh.refit();
+        }
+        picksSinceBuild++;
+
+        bvh.pick(snapshot.getOrigin(), 0, snapshot.getDirection(), 0, hitTest, hit);
+    }
+
+    private void pickLookedAt(PoseSnapshot snapshot) {
+        float[] spheres = snapshot.getSpheres();
+        int count = snapshot.getCount();
+        gazeBatch.setCount(count);
+        for (int i = 0; i < count; i++) {
+            int s = i * 4;
+            gazeBatch.setSphere(i, spheres[s], spheres[s + 1], spheres[s + 2], spheres[s + 3]);
+        }
+
+        hit.reset();
+        if (gazeBatch.lookingAt(snapshot.getHeadView(), 0, pitchLimit, yawLimit, lookedAt) > 0) {
+            int s = lookedAt[0] * 4;
+            float[] origin = snapshot.getOrigin();
+            float dx = spheres[s] - origin[0];
+            float dy = spheres[s + 1] - origin[1];
+            float dz = spheres[s + 2] - origin[2];
+            hit.set(lookedAt[0], (float) Math.sqrt(dx * dx + dy * dy + dz * dz));
+        }
+    }
+}
@@ -0,0 +1,575 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.core.picking;
+
+/**
+ * Bounding volume hierarchy over a fixed number of objects, for finding the nearest object along
+ * a gaze ray without testing every one.
+ *
+ * Each object has a bounding sphere and an axis-aligned box; setting one derives the other.
+ * {@link #build()} sorts the objects into a binary tree using the surface area heuristic. When
+ * objects move a little, set their new bounds and call {@link #refit()}, which only recomputes
+ * the node boxes and keeps the tree; rebuild after large changes, since a refitted tree gets
+ * slower as it drifts from the layout it was built for.
+ *
+ * Nodes live in flat arrays and nothing allocates after construction. A Bvh is not thread-safe,
+ * use it from one thread at a time.
+ */
+public class Bvh {
+
+    /** Hit an object where the ray enters its bounding sphere. */
+    public static final int HIT_SPHERES = 0;
+    /** Hit an object where the ray enters its box. */
+    public static final int HIT_BOXES = 1;
+    /** Hit an object where the {@link LeafTest} says, for trees over meshes and instances. */
+    static final int HIT_EXACT = 2;
+
+    private static final int BINS = 16;
+    private static final int MAX_LEAF_SIZE = 4;
+
+    private final float[] spheres; // x, y, z, radius of each object
+    private final float[] boxes;   // min x, y, z then max x, y, z of each object
+    private int objectCount;
+    private boolean boundsChanged;
+
+    private final float[] nodeBoxes;
+    // leaf: index of its first object in order; interior: left child, the right one follows it
+    private final int[] nodeFirst;
+    // leaf: how many objects; interior: 0
+    private final int[] nodeObjects;
+    private int nodeCount;
+    private final int[] order;
+
+    // build scratch
+    private final int[] buildStack;
+    private final int[] binCounts = new int[BINS];
+    private final float[] binBoxes = new float[BINS * 6];
+    private final int[] rightCounts = new int[BINS];
+    private final float[] rightAreas = new float[BINS];
+    private final float[] sweepBox = new float[6];
+    private final float[] centroidMin = new float[3];
+    private final float[] centroidMax = new float[3];
+
+    // traversal scratch, nodes to visit and where the ray enters them
+    private final int[] stack;
+    private final float[] stackDistances;
+
+    private final LeafTest exactTest;
+    private float traversedDistance;
+
+    /**
+     * Exact hit test of one object, for {@link #HIT_EXACT}.
+     */
+    interface LeafTest {
+        /**
+         * @param maxDistance the nearest hit so far, anything at or beyond it can be skipped
+         * @return where the ray hits the object, or infinity if it misses
+         */
+        float intersect(int object, float ox, float oy, float oz, float dx, float dy, float dz,
+                        float maxDistance);
+    }
+
+    public Bvh(int capacity) {
+        this(capacity, null);
+    }
+
+    Bvh(int capacity, LeafTest exactTest) {
+        this.exactTest = exactTest;
+        spheres = new float[capacity * 4];
+        boxes = new float[capacity * 6];
+        order = new int[capacity];
+        int maxNodes = Math.max(1, 2 * capacity - 1);
+        nodeBoxes = new float[maxNodes * 6];
+        nodeFirst = new int[maxNodes];
+        nodeObjects = new int[maxNodes];
+        buildStack = new int[maxNodes];
+        stack = new int[capacity + 1];
+        stackDistances = new float[capacity + 1];
+    }
+
+    public int getCapacity() {
+        return order.length;
+    }
+
+    /**
+     * Sets how many objects the next {@link #build()} includes, objects 0 to count - 1.
+     */
+    public void setObjectCount(int count) {
+        if (count < 0 || count > order.length) {
+            throw new IllegalArgumentException("Object count " + count + " exceeds "
+                    + order.length);
+        }
+        objectCount = count;
+    }
+
+    public int getObjectCount() {
+        return objectCount;
+    }
+
+    /**
+     * Sets an object's bounding sphere; its box becomes the box around the sphere.
+     */
+    public void setSphere(int object, float x, float y, float z, float radius) {
+        int s = object * 4;
+        if (spheres[s] == x && spheres[s + 1] == y && spheres[s + 2] == z
+                && spheres[s + 3] == radius) {
+            return;
+        }
+        spheres[s] = x;
+        spheres[s + 1] = y;
+        spheres[s + 2] = z;
+        spheres[s + 3] = radius;
+        int b = object * 6;
+        boxes[b] = x - radius;
+        boxes[b + 1] = y - radius;
+        boxes[b + 2] = z - radius;
+        boxes[b + 3] = x + radius;
+        boxes[b + 4] = y + radius;
+        boxes[b + 5] = z + radius;
+        boundsChanged = true;
+    }
+
+    /**
+     * Sets an object's box; its bounding sphere becomes the sphere around the box.
+     */
+    public void setBox(int object, float minX, float minY, float minZ, float maxX, float maxY,
+                       float maxZ) {
+        int b = object * 6;
+        if (boxes[b] == minX && boxes[b + 1] == minY && boxes[b + 2] == minZ
+                && boxes[b + 3] == maxX && boxes[b + 4] == maxY && boxes[b + 5] == maxZ) {
+            return;
+        }
+        boxes[b] = minX;
+        boxes[b + 1] = minY;
+        boxes[b + 2] = minZ;
+        boxes[b + 3] = maxX;
+        boxes[b + 4] = maxY;
+        boxes[b + 5] = maxZ;
+        float hx = (maxX - minX) * 0.5f;
+        float hy = (maxY - minY) * 0.5f;
+        float hz = (maxZ - minZ) * 0.5f;
+        int s = object * 4;
+        spheres[s] = minX + hx;
+        spheres[s + 1] = minY + hy;
+        spheres[s + 2] = minZ + hz;
+        spheres[s + 3] = (float) Math.sqrt(hx * hx + hy * hy + hz * hz);
+        boundsChanged = true;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Builds the tree over the current object bounds.
+     */
+    public void build() {
+        boundsChanged = false;
+        if (objectCount == 0) {
+            nodeCount = 0;
+            return;
+        }
+        for (int i = 0; i < objectCount; i++) {
+            order[i] = i;
+        }
+        nodeCount = 1;
+        nodeFirst[0] = 0;
+        nodeObjects[0] = objectCount;
+
+        int top = 0;
+        buildStack[top++] = 0;
+        while (top > 0) {
+            int node = buildStack[--top];
+            computeLeafBox(node);
+            if (split(node)) {
+                // children are always allocated after their parent, refit relies on it
+                int left = nodeFirst[node];
+                buildStack[top++] = left + 1;
+                buildStack[top++] = left;
+            }
+        }
+    }
+
+    /**
+     * Updates the node boxes after objects moved. Does nothing if no bounds changed since the
+     * last build or refit.
+     */
+    public void refit() {
+        if (!boundsChanged) {
+            return;
+        }
+        boundsChanged = false;
+        for (int node = nodeCount - 1; node >= 0; node--) {
+            if (nodeObjects[node] > 0) {
+                computeLeafBox(node);
+            } else {
+                int left = nodeFirst[node];
+                int b = node * 6;
+                int l = left * 6;
+                int r = l + 6;
+                for (int i = 0; i < 3; i++) {
+                    nodeBoxes[b + i] = Math.min(nodeBoxes[l + i], nodeBoxes[r + i]);
+                    nodeBoxes[b + 3 + i] = Math.max(nodeBoxes[l + 3 + i], nodeBoxes[r + 3 + i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the nearest object along a ray. Objects behind the origin are never hit; an object
+     * around the origin is hit at distance 0.
+     *
+     * @param direction direction of the ray, distances are in units of its length
+     * @param hitTest   {@link #HIT_SPHERES} or {@link #HIT_BOXES}
+     * @param hit       receives the result
+     * @return whether anything was hit
+     */
+    public boolean pick(float[] origin, int originOffset, float[] direction, int directionOffset,
+                        int hitTest, PickHit hit) {
+        hit.reset();
+        int object = traverse(origin[originOffset], origin[originOffset + 1],
+                origin[originOffset + 2], direction[directionOffset],
+                direction[directionOffset + 1], direction[directionOffset + 2], hitTest,
+                Float.POSITIVE_INFINITY);
+        if (object != PickHit.NONE) {
+            hit.set(object, traversedDistance);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Finds the nearest object along a ray that is hit before maxDistance.
+     *
+     * @return the object, or {@link PickHit#NONE}; {@link #getTraversedDistance()} is then
+     * where it was hit
+     */
+    int traverse(float ox, float oy, float oz, float dx, float dy, float dz, int hitTest,
+                 float maxDistance) {
+        if (nodeCount == 0) {
+            return PickHit.NONE;
+        }
+        float ix = 1.0f / dx;
+        float iy = 1.0f / dy;
+        float iz = 1.0f / dz;
+
+        float nearest = maxDistance;
+        int nearestObject = PickHit.NONE;
+
+        int top = 0;
+        float rootDistance = intersectBox(nodeBoxes, 0, ox, oy, oz, ix, iy, iz);
+        if (rootDistance < nearest) {
+            stack[top] = 0;
+            stackDistances[top++] = rootDistance;
+        }
+        while (top > 0) {
+            top--;
+            if (stackDistances[top] >= nearest) {
+                continue; // something closer was found since this node was queued
+            }
+            int node = stack[top];
+            int first = nodeFirst[node];
+            int objects = nodeObjects[node];
+            if (objects > 0) {
+                for (int i = first; i < first + objects; i++) {
+                    int object = order[i];
+                    float distance;
+                    if (hitTest == HIT_BOXES) {
+                        distance = intersectBox(boxes, object * 6, ox, oy, oz, ix, iy, iz);
+                    } else if (hitTest == HIT_SPHERES) {
+                        distance = intersectSphere(spheres, object * 4, ox, oy, oz, dx, dy, dz);
+                    } else {
+                        distance = exactTest.intersect(object, ox, oy, oz, dx, dy, dz, nearest);
+                    }
+                    if (distance < nearest) {
+                        nearest = distance;
+                        nearestObject = object;
+                    }
+                }
+            } else {
+                float leftDistance = intersectBox(nodeBoxes, first * 6, ox, oy, oz, ix, iy, iz);
+                float rightDistance =
+                        intersectBox(nodeBoxes, (first + 1) * 6, ox, oy, oz, ix, iy, iz);
+                // push the farther child first so the nearer one is visited first
+                if (leftDistance <= rightDistance) {
+                    top = push(top, first + 1, rightDistance, nearest);
+                    top = push(top, first, leftDistance, nearest);
+                } else {
+                    top = push(top, first, leftDistance, nearest);
+                    top = push(top, first + 1, rightDistance, nearest);
+                }
+            }
+        }
+        traversedDistance = nearest;
+        return nearestObject;
+    }
+
+    /** @return distance to the object the last {@link #traverse} found */
+    float getTraversedDistance() {
+        return traversedDistance;
+    }
+
+    private int push(int top, int node, float distance, float nearest) {
+        if (distance < nearest) {
+            stack[top] = node;
+            stackDistances[top] = distance;
+            return top + 1;
+        }
+        return top;
+    }
+
+    /**
+     * @return where the ray enters the box, 0 if it starts inside, or infinity if it misses
+     */
+    private static float intersectBox(float[] boxes, int b, float ox, float oy, float oz,
+                                      float ix, float iy, float iz) {
+        float t1 = (boxes[b] - ox) * ix;
+        float t2 = (boxes[b + 3] - ox) * ix;
+        float near = slabNear(t1, t2);
+        float far = slabFar(t1, t2);
+        t1 = (boxes[b + 1] - oy) * iy;
+        t2 = (boxes[b + 4] - oy) * iy;
+        near = Math.max(near, slabNear(t1, t2));
+        far = Math.min(far, slabFar(t1, t2));
+        t1 = (boxes[b + 2] - oz) * iz;
+        t2 = (boxes[b + 5] - oz) * iz;
+        near = Math.max(near, slabNear(t1, t2));
+        far = Math.min(far, slabFar(t1, t2));
+        if (far < near || far < 0.0f) {
+            return Float.POSITIVE_INFINITY;
+        }
+        return Math.max(near, 0.0f);
+    }
+
+    // A ray parallel to an axis that starts right on a side of the box gives 0 * infinity, NaN,
+    // for that side. It runs along the side, which counts as inside the slab the whole way.
+    private static float slabNear(float t1, float t2) {
+        float near = Math.min(t1, t2);
+        return near != near ? Float.NEGATIVE_INFINITY : near;
+    }
+
+    private static float slabFar(float t1, float t2) {
+        float far = Math.max(t1, t2);
+        return far != far ? Float.POSITIVE_INFINITY : far;
+    }
+
+    /**
+     * @return where the ray enters the sphere, 0 if it starts inside, or infinity if it misses
+     */
+    private static float intersectSphere(float[] spheres, int s, float ox, float oy, float oz,
+                                         float dx, float dy, float dz) {
+        float cx = spheres[s] - ox;
+        float cy = spheres[s + 1] - oy;
+        float cz = spheres[s + 2] - oz;
+        float radiusSquared = spheres[s + 3] * spheres[s + 3];
+        float centerSquared = cx * cx + cy * cy + cz * cz;
+        if (centerSquared <= radiusSquared) {
+            return 0.0f;
+        }
+        float along = cx * dx + cy * dy + cz * dz;
+        if (along < 0.0f) {
+            return Float.POSITIVE_INFINITY; // sphere is behind us
+        }
+        // closest point of the ray to the center, taken as a vector rather than from the
+        // difference of squares, which cancels badly for far spheres
+        float directionSquared = dx * dx + dy * dy + dz * dz;
+        float t = along / directionSquared;
+        float mx = cx - t * dx;
+        float my = cy - t * dy;
+        float mz = cz - t * dz;
+        float reachSquared = radiusSquared - (mx * mx + my * my + mz * mz);
+        if (reachSquared < 0.0f) {
+            return Float.POSITIVE_INFINITY;
+        }
+        return t - (float) Math.sqrt(reachSquared / directionSquared);
+    }
+
+    private void computeLeafBox(int node) {
+        int first = nodeFirst[node];
+        int objects = nodeObjects[node];
+        int b = node * 6;
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY,
+                minZ = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY,
+                maxZ = Float.NEGATIVE_INFINITY;
+        for (int i = first; i < first + objects; i++) {
+            int o = order[i] * 6;
+            minX = Math.min(minX, boxes[o]);
+            minY = Math.min(minY, boxes[o + 1]);
+            minZ = Math.min(minZ, boxes[o + 2]);
+            maxX = Math.max(maxX, boxes[o + 3]);
+            maxY = Math.max(maxY, boxes[o + 4]);
+            maxZ = Math.max(maxZ, boxes[o + 5]);
+        }
+        nodeBoxes[b] = minX;
+        nodeBoxes[b + 1] = minY;
+        nodeBoxes[b + 2] = minZ;
+        nodeBoxes[b + 3] = maxX;
+        nodeBoxes[b + 4] = maxY;
+        nodeBoxes[b + 5] = maxZ;
+    }
+
+    /**
+     * Splits a node whose box covers all its objects, if the surface area heuristic says it's
+     * worth it or the node holds too many objects for a leaf.
+     *
+     * @return true if the node got two children
+     */
+    private boolean split(int node) {
+        int first = nodeFirst[node];
+        int objects = nodeObjects[node];
+        if (objects <= 1) {
+            return false;
+        }
+
+        // bounds of the object centers, the bins divide these
+        for (int axis = 0; axis < 3; axis++) {
+            centroidMin[axis] = Float.POSITIVE_INFINITY;
+            centroidMax[axis] = Float.NEGATIVE_INFINITY;
+        }
+        for (int i = first; i < first + objects; i++) {
+            int o = order[i] * 6;
+            for (int axis = 0; axis < 3; axis++) {
+                float center = (boxes[o + axis] + boxes[o + 3 + axis]) * 0.5f;
+                centroidMin[axis] = Math.min(centroidMin[axis], center);
+                centroidMax[axis] = Math.max(centroidMax[axis], center);
+            }
+        }
+
+        float bestCost = Float.POSITIVE_INFINITY;
+        int bestAxis = -1;
+        int bestBin = 0;
+        for (int axis = 0; axis < 3; axis++) {
+            float extent = centroidMax[axis] - centroidMin[axis];
+            if (extent <= 0.0f) {
+                continue; // every center is in the same place along this axis
+            }
+            float scale = BINS / extent;
+
+            for (int bin = 0; bin < BINS; bin++) {
+                binCounts[bin] = 0;
+                clearBox(binBoxes, bin * 6);
+            }
+            for (int i = first; i < first + objects; i++) {
+                int o = order[i] * 6;
+                int bin = binOf((boxes[o + axis] + boxes[o + 3 + axis]) * 0.5f,
+                        centroidMin[axis], scale);
+                binCounts[bin]++;
+                growBox(binBoxes, bin * 6, boxes, o);
+            }
+
+            // cost of every split between bins bin - 1 and bin: objects on each side times the
+            // surface area of that side's box
+            clearBox(sweepBox, 0);
+            int count = 0;
+            for (int bin = BINS - 1; bin > 0; bin--) {
+                growBox(sweepBox, 0, binBoxes, bin * 6);
+                count += binCounts[bin];
+                rightCounts[bin] = count;
+                rightAreas[bin] = halfArea(sweepBox, 0);
+            }
+            clearBox(sweepBox, 0);
+            count = 0;
+            for (int bin = 1; bin < BINS; bin++) {
+                growBox(sweepBox, 0, binBoxes, (bin - 1) * 6);
+                count += binCounts[bin - 1];
+                if (count == 0 || rightCounts[bin] == 0) {
+                    continue;
+                }
+                float cost = count * halfArea(sweepBox, 0) + rightCounts[bin] * rightAreas[bin];
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestAxis = axis;
+                    bestBin = bin;
+                }
+            }
+        }
+
+        int middle;
+        if (bestAxis < 0) {
+            // all centers coincide, no split separates them
+            if (objects <= MAX_LEAF_SIZE) {
+                return false;
+            }
+            middle = first + objects / 2;
+        } else {
+            // a leaf costs one test per object; a split one box test plus the tests on each side
+            float nodeArea = halfArea(nodeBoxes, node * 6);
+            if (objects <= MAX_LEAF_SIZE && bestCost >= (objects - 1) * nodeArea) {
+                return false;
+            }
+            float min = centroidMin[bestAxis];
+            float scale = BINS / (centroidMax[bestAxis] - min);
+            int left = first;
+            int right = first + objects - 1;
+            while (left <= right) {
+                int o = order[left] * 6;
+                float center = (boxes[o + bestAxis] + boxes[o + 3 + bestAxis]) * 0.5f;
+                if (binOf(center, min, scale) < bestBin) {
+                    left++;
+                } else {
+                    int swap = order[left];
+                    order[left] = order[right];
+                    order[right--] = swap;
+                }
+            }
+            middle = left;
+        }
+
+        int child = nodeCount;
+        nodeCount += 2;
+        nodeFirst[child] = first;
+        nodeObjects[child] = middle - first;
+        nodeFirst[child + 1] = middle;
+        nodeObjects[child + 1] = first + objects - middle;
+        nodeFirst[node] = child;
+        nodeObjects[node] = 0;
+        return true;
+    }
+
+    private static int binOf(float center, float min, float scale) {
+        int bin = (int) ((center - min) * scale);
+        return bin < BINS ? bin : BINS - 1;
+    }
+
+    private static void clearBox(float[] box, int b) {
+        box[b] = Float.POSITIVE_INFINITY;
+        box[b + 1] = Float.POSITIVE_INFINITY;
+        box[b + 2] = Float.POSITIVE_INFINITY;
+        box[b + 3] = Float.NEGATIVE_INFINITY;
+        box[b + 4] = Float.NEGATIVE_INFINITY;
+        box[b + 5] = Float.NEGATIVE_INFINITY;
+    }
+
+    private static void growBox(float[] box, int b, float[] other, int o) {
+        for (int i = 0; i < 3; i++) {
+            box[b + i] = Math.min(box[b + i], other[o + i]);
+            box[b + 3 + i] = Math.max(box[b + 3 + i], other[o + 3 + i]);
+        }
+    }
+
+    // half the surface area, the factor 2 doesn't change which split is cheapest
+    private static float halfArea(float[] box, int b) {
+        float x = box[b + 3] - box[b];
+        float y = box[b + 4] - box[b + 1];
+        float z = box[b + 5] - box[b + 2];
+        if (x < 0.0f) {
+            return 0.0f; // empty
+        }
+        return x * y + y * z + z * x;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.core.picking;
+
+/**
+ * The per-object gaze tests the demos run every frame: "is the user looking at this point" and
+ * "does the gaze ray hit this sphere".
+ *
+ * Nothing here allocates.
+ */
+public final class Gaze {
+
+    private Gaze() {
+    }
+
+    /**
+     * Checks whether a point is straight ahead, by moving it to camera space and comparing its
+     * pitch and yaw against the limits.
+     *
+     * @param m          world-to-head matrix from HeadTransform.getHeadView
+     * @param pitchLimit largest pitch from the view axis, in radians
+     * @param yawLimit   largest yaw from the view axis, in radians
+     */
+    public static boolean isLookingAt(float[] m, int offset, float x, float y, float z,
+                                      float pitchLimit, float yawLimit) {
+        float cx = m[offset] * x + m[offset + 4] * y + m[offset + 8] * z + m[offset + 12];
+        float cy = m[offset + 1] * x + m[offset + 5] * y + m[offset + 9] * z + m[offset + 13];
+        float cz = m[offset + 2] * x + m[offset + 6] * y + m[offset + 10] * z + m[offset + 14];
+
+        float pitch = (float) Math.atan2(cy, -cz);
+        float yaw = (float) Math.atan2(cx, -cz);
+        return Math.abs(pitch) < pitchLimit && Math.abs(yaw) < yawLimit;
+    }
+
+    /**
+     * Checks whether a ray hits a sphere. Spheres behind the origin are never hit.
+     *
+     * Source (node.js): MIT Licensed https://github.com/stackgl/gl-vec3/blob/master/scaleAndAdd.js
+     *
+     * @param origin    start of the ray, e.g. the camera position
+     * @param direction normalized direction of the ray, e.g. HeadTransform.getForwardVector
+     */
+    public static boolean hitsSphere(float[] origin, int originOffset, float[] direction,
+                                     int directionOffset, float centerX, float centerY,
+                                     float centerZ, float radius) {
+        float ox = origin[originOffset];
+        float oy = origin[originOffset + 1];
+        float oz = origin[originOffset + 2];
+        float dx = direction[directionOffset];
+        float dy = direction[directionOffset + 1];
+        float dz = direction[directionOffset + 2];
+
+        // projection of origin -> center along the ray
+        float len = dx * (centerX - ox) + dy * (centerY - oy) + dz * (centerZ - oz);
+        if (len < 0) {
+            return false; // sphere is behind us
+        }
+
+        // walk along ray to closest point to sphere
+        float closestX = ox + len * dx - centerX;
+        float closestY = oy + len * dy - centerY;
+        float closestZ = oz + len * dz - centerZ;
+
+        float squaredDist = closestX * closestX + closestY * closestY + closestZ * closestZ;
+        return squaredDist <= radius * radius;
+    }
+}
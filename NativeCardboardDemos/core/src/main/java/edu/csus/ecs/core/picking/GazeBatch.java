@@ -0,0 +1,207 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.core.picking;
+
+/**
+ * The gaze tests of {@link Gaze}, run over many spheres at once.
+ *
+ * Centers and radii are kept in separate flat arrays, one entry per sphere, and every test is a
+ * single loop of multiplies and compares over them without trig or data-dependent branches, so
+ * the JIT can keep it in registers and unroll or vectorize it. Results are the indices of the
+ * spheres hit, written in increasing order to an array with room for {@link #getCount()}.
+ *
+ * Nothing allocates after construction.
+ */
+public class GazeBatch {
+
+    private final float[] centerX;
+    private final float[] centerY;
+    private final float[] centerZ;
+    private final float[] radii;
+    private int count;
+
+    public GazeBatch(int capacity) {
+        centerX = new float[capacity];
+        centerY = new float[capacity];
+        centerZ = new float[capacity];
+        radii = new float[capacity];
+    }
+
+    public int getCapacity() {
+        return radii.length;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Sets how many spheres the tests run over, spheres 0 to count - 1.
+     */
+    public void setCount(int count) {
+        if (count < 0 || count > radii.length) {
+            throw new IllegalArgumentException("Sphere count " + count + " exceeds "
+                    + radii.length);
+        }
+        this.count = count;
+    }
+
+    public void setSphere(int index, float x, float y, float z, float radius) {
+        centerX[index] = x;
+        centerY[index] = y;
+        centerZ[index] = z;
+        radii[index] = radius;
+    }
+
+    /**
+     * Same as {@link Gaze#isLookingAt} for every center; radii are ignored. The pitch and yaw
+     * limits become slopes once per call, so each center costs a transform and two compares
+     * instead of two atan2.
+     *
+     * @param m world-to-head matrix from HeadTransform.getHeadView
+     * @param pitchLimit largest pitch from the view axis, in radians, less than pi / 2
+     * @param yawLimit largest yaw from the view axis, in radians, less than pi / 2
+     * @return how many indices were written to hits
+     */
+    public int lookingAt(float[] m, int offset, float pitchLimit, float yawLimit, int[] hits) {
+        // |atan2(y, -z)| < limit is the same as -z > 0 and |y| < tan(limit) * -z
+        float pitchSlope = (float) Math.tan(pitchLimit);
+        float yawSlope = (float) Math.tan(yawLimit);
+        float m0 = m[offset], m4 = m[offset + 4], m8 = m[offset + 8], m12 = m[offset + 12];
+        float m1 = m[offset + 1], m5 = m[offset + 5], m9 = m[offset + 9], m13 = m[offset + 13];
+        float m2 = m[offset + 2], m6 = m[offset + 6], m10 = m[offset + 10], m14 = m[offset + 14];
+
+        int hitCount = 0;
+        for (int i = 0; i < count; i++) {
+            float x = centerX[i], y = centerY[i], z = centerZ[i];
+            float cx = m0 * x + m4 * y + m8 * z + m12;
+            float cy = m1 * x + m5 * y + m9 * z + m13;
+            float depth = -(m2 * x + m6 * y + m10 * z + m14);
+            boolean hit = depth > 0.0f & Math.abs(cy) < pitchSlope * depth
+                    & Math.abs(cx) < yawSlope * depth;
+            hits[hitCount] = i;
+            hitCount += hit ? 1 : 0;
+        }
+        return hitCount;
+    }
+
+    /**
+     * Finds the spheres that touch a cone of view, e.g. everything within a few degrees of
+     * where the user is looking. A sphere around the apex always counts.
+     *
+     * @param direction axis of the cone, normalized
+     * @param halfAngle angle between the axis and the side of the cone, in radians, below pi / 2
+     * @return how many indices were written to hits
+     */
+    public int inCone(float[] apex, int apexOffset, float[] direction, int directionOffset,
+                      float halfAngle, int[] hits) {
+        float ox = apex[apexOffset];
+        float oy = apex[apexOffset + 1];
+        float oz = apex[apexOffset + 2];
+        float dx = direction[directionOffset];
+        float dy = direction[directionOffset + 1];
+        float dz = direction[directionOffset + 2];
+        float cos = (float) Math.cos(halfAngle);
+        float sin = (float) Math.sin(halfAngle);
+
+        int hitCount = 0;
+        for (int i = 0; i < count; i++) {
+            float vx = centerX[i] - ox, vy = centerY[i] - oy, vz = centerZ[i] - oz;
+            float r = radii[i];
+            float along = vx * dx + vy * dy + vz * dz;
+            float lengthSquared = vx * vx + vy * vy + vz * vz;
+            float radiusSquared = r * r;
+            // the center's angle from the axis is at most the half angle plus the sphere's
+            // angular radius asin(r / length); the cosine of that sum, times length, is
+            // cos * sqrt(length^2 - r^2) - sin * r
+            float tangent = (float) Math.sqrt(Math.max(lengthSquared - radiusSquared, 0.0f));
+            boolean hit = along >= cos * tangent - sin * r | lengthSquared <= radiusSquared;
+            hits[hitCount] = i;
+            hitCount += hit ? 1 : 0;
+        }
+        return hitCount;
+    }
+
+    /**
+     * Same as {@link Gaze#hitsSphere} for every sphere.
+     *
+     * @param direction direction of the ray, normalized
+     * @return how many indices were written to hits
+     */
+    public int raySphere(float[] origin, int originOffset, float[] direction,
+                         int directionOffset, int[] hits) {
+        float ox = origin[originOffset];
+        float oy = origin[originOffset + 1];
+        float oz = origin[originOffset + 2];
+        float dx = direction[directionOffset];
+        float dy = direction[directionOffset + 1];
+        float dz = direction[directionOffset + 2];
+
+        int hitCount = 0;
+        for (int i = 0; i < count; i++) {
+            float vx = centerX[i] - ox, vy = centerY[i] - oy, vz = centerZ[i] - oz;
+            float r = radii[i];
+            float along = vx * dx + vy * dy + vz * dz;
+            float mx = vx - along * dx, my = vy - along * dy, mz = vz - along * dz;
+            boolean hit = along >= 0.0f & mx * mx + my * my + mz * mz <= r * r;
+            hits[hitCount] = i;
+            hitCount += hit ? 1 : 0;
+        }
+        return hitCount;
+    }
+
+    /**
+     * Finds the sphere the ray enters first, like {@link Bvh#pick} with {@link Bvh#HIT_SPHERES}
+     * but testing every sphere. Cheaper than building a hierarchy for a few hundred spheres or
+     * for spheres that all move every frame.
+     *
+     * @param direction direction of the ray, normalized
+     * @return whether anything was hit
+     */
+    public boolean pick(float[] origin, int originOffset, float[] direction, int directionOffset,
+                        PickHit hit) {
+        float ox = origin[originOffset];
+        float oy = origin[originOffset + 1];
+        float oz = origin[originOffset + 2];
+        float dx = direction[directionOffset];
+        float dy = direction[directionOffset + 1];
+        float dz = direction[directionOffset + 2];
+
+        float nearest = Float.POSITIVE_INFINITY;
+        int nearestIndex = PickHit.NONE;
+        for (int i = 0; i < count; i++) {
+            float vx = centerX[i] - ox, vy = centerY[i] - oy, vz = centerZ[i] - oz;
+            float r = radii[i];
+            float along = vx * dx + vy * dy + vz * dz;
+            float mx = vx - along * dx, my = vy - along * dy, mz = vz - along * dz;
+            float reachSquared = r * r - (mx * mx + my * my + mz * mz);
+            boolean inside = vx * vx + vy * vy + vz * vz <= r * r;
+            // NaN for a miss, and comparisons with NaN are false
+            float distance = inside ? 0.0f : along - (float) Math.sqrt(reachSquared);
+            boolean closer = (along >= 0.0f | inside) & distance < nearest;
+            nearest = closer ? distance : nearest;
+            nearestIndex = closer ? i : nearestIndex;
+        }
+
+        hit.reset();
+        if (nearestIndex != PickHit.NONE) {
+            hit.set(nearestIndex, nearest);
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.core.picking;
+
+/**
+ * What the user was looking at in some earlier frame, as found by {@link AsyncGazePicker}.
+ */
+public class GazeResult {
+
+    private int object = PickHit.NONE;
+    private float distance = Float.POSITIVE_INFINITY;
+    private long frame = -1;
+
+    /** @return whether a result was available and it hit something */
+    public boolean isHit() {
+        return object != PickHit.NONE;
+    }
+
+    /** @return index of the object hit, or {@link PickHit#NONE} */
+    public int getObject() {
+        return object;
+    }
+
+    public float getDistance() {
+        return distance;
+    }
+
+    /** @return frame of the pose this was picked from, -1 if there is no result yet */
+    public long getFrame() {
+        return frame;
+    }
+
+    /**
+     * @return how many frames old the pose behind this result is, as of currentFrame
+     */
+    public long getAge(long currentFrame) {
+        return frame < 0 ? Long.MAX_VALUE : currentFrame - frame;
+    }
+
+    void set(GazeResult other) {
+        object = other.object;
+        distance = other.distance;
+        frame = other.frame;
+    }
+
+    void set(PickHit hit, long frame) {
+        object = hit.getObject();
+        distance = hit.getDistance();
+        this.frame = frame;
+    }
+
+    void clear() {
+        object = PickHit.NONE;
+        distance = Float.POSITIVE_INFINITY;
+        frame = -1;
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.core.picking;
+
+import edu.csus.ecs.core.math.Mat4;
+import edu.csus.ecs.core.math.Vec3;
+
+/**
+ * Exact picking over many placed copies of meshes: a {@link Bvh} over the world space boxes of
+ * the instances, whose leaves pick against each instance's {@link MeshBvh} in the mesh's own
+ * coordinates. Moving an instance only moves its box, the triangle trees are built once per
+ * mesh.
+ *
+ * Like a Bvh, set the instances, {@link #build()}, then {@link #refit()} as they move. Not
+ * thread-safe, and the meshes must not be picked from another thread at the same time.
+ */
+public class InstanceBvh {
+
+    private final Bvh tree;
+    private final MeshBvh[] meshes;
+    private final float[] models;
+    private final float[] inverses;
+
+    // the triangle of the nearest instance hit so far in the current pick
+    private int hitTriangle;
+
+    private final float[] inverse = new float[16];
+    private final float[] localNormal = new float[3];
+
+    public InstanceBvh(int capacity) {
+        meshes = new MeshBvh[capacity];
+        models = new float[capacity * 16];
+        inverses = new float[capacity * 16];
+        tree = new Bvh(capacity, new Bvh.LeafTest() {
+            @Override
+            public float intersect(int object, float ox, float oy, float oz, float dx, float dy,
+                                   float dz, float maxDistance) {
+                return intersectInstance(object, ox, oy, oz, dx, dy, dz, maxDistance);
+            }
+        });
+    }
+
+    public int getCapacity() {
+        return meshes.length;
+    }
+
+    /**
+     * Sets how many instances the next {@link #build()} includes, instances 0 to count - 1.
+     */
+    public void setInstanceCount(int count) {
+        tree.setObjectCount(count);
+    }
+
+    public int getInstanceCount() {
+        return tree.getObjectCount();
+    }
+
+    /**
+     * Places a mesh in the world.
+     *
+     * @param model the instance's model matrix, affine
+     * @throws IllegalArgumentException if the model matrix can't be inverted
+     */
+    public void setInstance(int instance, MeshBvh mesh, float[] model, int offset) {
+        if (!Mat4.invertAffine(inverse, 0, model, offset)) {
+            throw new IllegalArgumentException("Model matrix of instance " + instance
+                    + " is singular");
+        }
+        meshes[instance] = mesh;
+        System.arraycopy(model, offset, models, instance * 16, 16);
+        System.arraycopy(inverse, 0, inverses, instance * 16, 16);
+
+        // world box of the mesh's box: each row of the matrix stretches the box independently
+        float[] bounds = mesh.getBounds();
+        int m = instance * 16;
+        float minX = models[m + 12], minY = models[m + 13], minZ = models[m + 14];
+        float maxX = minX, maxY = minY, maxZ = minZ;
+        for (int axis = 0; axis < 3; axis++) {
+            int column = m + axis * 4;
+            float low = bounds[axis];
+            float high = bounds[axis + 3];
+            float a = models[column] * low, b = models[column] * high;
+            minX += Math.min(a, b);
+            maxX += Math.max(a, b);
+            a = models[column + 1] * low;
+            b = models[column + 1] * high;
+            minY += Math.min(a, b);
+            maxY += Math.max(a, b);
+            a = models[column + 2] * low;
+            b = models[column + 2] * high;
+            minZ += Math.min(a, b);
+            maxZ += Math.max(a, b);
+        }
+        tree.setBox(instance, minX, minY, minZ, maxX, maxY, maxZ);
+    }
+
+    public void build() {
+        tree.build();
+    }
+
+    /**
+     * Updates the tree after instances moved, see {@link Bvh#refit()}.
+     */
+    public void refit() {
+        tree.refit();
+    }
+
+    /**
+     * Finds the nearest triangle of any instance along a ray.
+     *
+     * @param direction direction of the ray, distances are in units of its length
+     * @param hit       receives the instance, triangle, distance, world space point and normal
+     * @return whether anything was hit
+     */
+    public boolean pick(float[] origin, int originOffset, float[] direction, int directionOffset,
+                        MeshHit hit) {
+        hit.reset();
+        hitTriangle = PickHit.NONE;
+        int instance = tree.traverse(origin[originOffset], origin[originOffset + 1],
+                origin[originOffset + 2], direction[directionOffset],
+                direction[directionOffset + 1], direction[directionOffset + 2], Bvh.HIT_EXACT,
+                Float.POSITIVE_INFINITY);
+        if (instance == PickHit.NONE) {
+            return false;
+        }
+        float distance = tree.getTraversedDistance();
+        hit.set(instance, distance);
+        hit.setTriangle(hitTriangle);
+        Vec3.scaleAndAdd(hit.getPoint(), 0, origin, originOffset, direction, directionOffset,
+                distance);
+
+        // normals go to world space by the inverse transpose of the model matrix
+        meshes[instance].getNormal(hitTriangle, localNormal, 0);
+        int i = instance * 16;
+        float nx = localNormal[0], ny = localNormal[1], nz = localNormal[2];
+        float[] normal = hit.getNormal();
+        normal[0] = inverses[i] * nx + inverses[i + 1] * ny + inverses[i + 2] * nz;
+        normal[1] = inverses[i + 4] * nx + inverses[i + 5] * ny + inverses[i + 6] * nz;
+        normal[2] = inverses[i + 8] * nx + inverses[i + 9] * ny + inverses[i + 10] * nz;
+        Vec3.normalize(normal, 0);
+        if (Vec3.dot(normal, 0, direction, directionOffset) > 0.0f) {
+            Vec3.set(normal, 0, -normal[0], -normal[1], -normal[2]);
+        }
+        return true;
+    }
+
+    /**
+     * Picks one instance's mesh with the ray moved into the mesh's coordinates. An affine
+     * transform keeps distances along the ray, as long as the direction isn't renormalized.
+     */
+    private float intersectInstance(int instance, float ox, float oy, float oz, float dx,
+                                    float dy, float dz, float maxDistance) {
+        int m = instance * 16;
+        float[] inv = inverses;
+        float lox = inv[m] * ox + inv[m + 4] * oy + inv[m + 8] * oz + inv[m + 12];
+        float loy = inv[m + 1] * ox + inv[m + 5] * oy + inv[m + 9] * oz + inv[m + 13];
+        float loz = inv[m + 2] * ox + inv[m + 6] * oy + inv[m + 10] * oz + inv[m + 14];
+        float ldx = inv[m] * dx + inv[m + 4] * dy + inv[m + 8] * dz;
+        float ldy = inv[m + 1] * dx + inv[m + 5] * dy + inv[m + 9] * dz;
+        float ldz = inv[m + 2] * dx + inv[m + 6] * dy + inv[m + 10] * dz;
+
+        MeshBvh mesh = meshes[instance];
+        int triangle = mesh.traverse(lox, loy, loz, ldx, ldy, ldz, maxDistance);
+        if (triangle == PickHit.NONE) {
+            return Float.POSITIVE_INFINITY;
+        }
+        // only hits nearer than every one before get here, so the last one is the nearest
+        hitTriangle = triangle;
+        return mesh.lastDistance();
+    }
+}
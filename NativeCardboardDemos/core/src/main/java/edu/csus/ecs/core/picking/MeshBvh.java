@@ -0,0 +1,222 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.core.picking;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+import edu.csus.ecs.core.math.Vec3;
+import edu.csus.ecs.core.mesh.MeshFile;
+
+/**
+ * Triangles of one mesh in a {@link Bvh}, for picking against the actual surface rather than a
+ * bounding sphere. Build one per mesh when it's loaded and share it between every instance of
+ * the mesh through an {@link InstanceBvh}.
+ *
+ * Triangles count from either side. Picks run in the mesh's own coordinates and reuse scratch
+ * space, so like a Bvh a MeshBvh must only be picked from one thread at a time.
+ */
+public class MeshBvh {
+
+    private final Bvh tree;
+    // first vertex and the two edges leaving it, 9 floats per triangle
+    private final float[] triangles;
+    private final int triangleCount;
+    private final float[] bounds = new float[6];
+
+    /**
+     * @param positions x, y, z of every vertex, three vertices per triangle
+     */
+    public MeshBvh(float[] positions) {
+        this(positions, null);
+    }
+
+    /**
+     * @param positions x, y, z of every vertex
+     * @param indices   three vertex indices per triangle, or null if positions is a triangle list
+     */
+    public MeshBvh(float[] positions, short[] indices) {
+        triangleCount = indices != null ? indices.length / 3 : positions.length / 9;
+        triangles = new float[triangleCount * 9];
+        tree = new Bvh(triangleCount, new Bvh.LeafTest() {
+            @Override
+            public float intersect(int object, float ox, float oy, float oz, float dx, float dy,
+                                   float dz, float maxDistance) {
+                return intersectTriangle(object, ox, oy, oz, dx, dy, dz);
+            }
+        });
+
+        float[] box = new float[6];
+        for (int axis = 0; axis < 3; axis++) {
+            bounds[axis] = Float.POSITIVE_INFINITY;
+            bounds[axis + 3] = Float.NEGATIVE_INFINITY;
+        }
+        for (int t = 0; t < triangleCount; t++) {
+            int v0 = vertex(indices, t * 3) * 3;
+            int v1 = vertex(indices, t * 3 + 1) * 3;
+            int v2 = vertex(indices, t * 3 + 2) * 3;
+            int b = t * 9;
+            for (int axis = 0; axis < 3; axis++) {
+                float p0 = positions[v0 + axis];
+                float p1 = positions[v1 + axis];
+                float p2 = positions[v2 + axis];
+                triangles[b + axis] = p0;
+                triangles[b + 3 + axis] = p1 - p0;
+                triangles[b + 6 + axis] = p2 - p0;
+                box[axis] = Math.min(p0, Math.min(p1, p2));
+                box[axis + 3] = Math.max(p0, Math.max(p1, p2));
+                bounds[axis] = Math.min(bounds[axis], box[axis]);
+                bounds[axis + 3] = Math.max(bounds[axis + 3], box[axis + 3]);
+            }
+            tree.setBox(t, box[0], box[1], box[2], box[3], box[4], box[5]);
+        }
+        tree.setObjectCount(triangleCount);
+        tree.build();
+    }
+
+    /**
+     * Builds the triangles of a mesh file, e.g. one the app also draws through
+     * IndexedMesh.fromMeshFile. Positions are copied out of the file, which can be let go after.
+     *
+     * @throws IllegalArgumentException if positions aren't 3 floats or indices aren't 16-bit
+     */
+    public static MeshBvh fromMeshFile(MeshFile file) {
+        MeshFile.Attribute position = file.findAttribute(MeshFile.POSITION);
+        if (position == null || position.components != 3 || position.type != MeshFile.FLOAT
+                || file.getIndexType() != MeshFile.UNSIGNED_SHORT) {
+            throw new IllegalArgumentException("Mesh file needs float positions and 16-bit"
+                    + " indices");
+        }
+        ByteBuffer vertices = file.getVertices();
+        float[] positions = new float[file.getVertexCount() * 3];
+        for (int v = 0; v < file.getVertexCount(); v++) {
+            int at = v * file.getStride() + position.offset;
+            for (int axis = 0; axis < 3; axis++) {
+                positions[v * 3 + axis] = vertices.getFloat(at + axis * 4);
+            }
+        }
+        ShortBuffer indexData = file.getIndices().asShortBuffer();
+        short[] indices = new short[file.getIndexCount()];
+        indexData.get(indices);
+        return new MeshBvh(positions, indices);
+    }
+
+    private static int vertex(short[] indices, int i) {
+        return indices != null ? indices[i] & 0xFFFF : i;
+    }
+
+    public int getTriangleCount() {
+        return triangleCount;
+    }
+
+    /** @return min x, y, z then max x, y, z of all triangles */
+    public float[] getBounds() {
+        return bounds;
+    }
+
+    /**
+     * Finds the nearest triangle along a ray, in the mesh's coordinates.
+     *
+     * @param hit receives the triangle, distance, point and normal; its object is always 0
+     * @return whether any triangle was hit
+     */
+    public boolean pick(float[] origin, int originOffset, float[] direction, int directionOffset,
+                        MeshHit hit) {
+        hit.reset();
+        int triangle = traverse(origin[originOffset], origin[originOffset + 1],
+                origin[originOffset + 2], direction[directionOffset],
+                direction[directionOffset + 1], direction[directionOffset + 2],
+                Float.POSITIVE_INFINITY);
+        if (triangle == PickHit.NONE) {
+            return false;
+        }
+        float distance = lastDistance();
+        hit.set(0, distance);
+        hit.setTriangle(triangle);
+        Vec3.scaleAndAdd(hit.getPoint(), 0, origin, originOffset, direction, directionOffset,
+                distance);
+        float[] normal = hit.getNormal();
+        getNormal(triangle, normal, 0);
+        if (Vec3.dot(normal, 0, direction, directionOffset) > 0.0f) {
+            Vec3.set(normal, 0, -normal[0], -normal[1], -normal[2]);
+        }
+        return true;
+    }
+
+    /**
+     * Stores the unit normal of a triangle, facing the side its vertices wind counterclockwise
+     * around.
+     */
+    void getNormal(int triangle, float[] result, int offset) {
+        Vec3.cross(result, offset, triangles, triangle * 9 + 3, triangles, triangle * 9 + 6);
+        Vec3.normalize(result, offset);
+    }
+
+    /**
+     * @return the nearest triangle hit before maxDistance, or {@link PickHit#NONE}; its distance
+     * is then {@link #lastDistance()}
+     */
+    int traverse(float ox, float oy, float oz, float dx, float dy, float dz, float maxDistance) {
+        return tree.traverse(ox, oy, oz, dx, dy, dz, Bvh.HIT_EXACT, maxDistance);
+    }
+
+    float lastDistance() {
+        return tree.getTraversedDistance();
+    }
+
+    /**
+     * Moller-Trumbore ray-triangle test.
+     *
+     * @return distance along the ray to the triangle, or infinity if it misses
+     */
+    private float intersectTriangle(int triangle, float ox, float oy, float oz, float dx,
+                                    float dy, float dz) {
+        int t = triangle * 9;
+        float e1x = triangles[t + 3], e1y = triangles[t + 4], e1z = triangles[t + 5];
+        float e2x = triangles[t + 6], e2y = triangles[t + 7], e2z = triangles[t + 8];
+
+        // p = d x e2
+        float px = dy * e2z - dz * e2y;
+        float py = dz * e2x - dx * e2z;
+        float pz = dx * e2y - dy * e2x;
+        float det = e1x * px + e1y * py + e1z * pz;
+        if (det == 0.0f) {
+            return Float.POSITIVE_INFINITY; // ray parallel to the triangle
+        }
+        float invDet = 1.0f / det;
+
+        float sx = ox - triangles[t];
+        float sy = oy - triangles[t + 1];
+        float sz = oz - triangles[t + 2];
+        float u = (sx * px + sy * py + sz * pz) * invDet;
+        if (u < 0.0f || u > 1.0f) {
+            return Float.POSITIVE_INFINITY;
+        }
+
+        // q = s x e1
+        float qx = sy * e1z - sz * e1y;
+        float qy = sz * e1x - sx * e1z;
+        float qz = sx * e1y - sy * e1x;
+        float v = (dx * qx + dy * qy + dz * qz) * invDet;
+        if (v < 0.0f || u + v > 1.0f) {
+            return Float.POSITIVE_INFINITY;
+        }
+
+        float distance = (e2x * qx + e2y * qy + e2z * qz) * invDet;
+        return distance >= 0.0f ? distance : Float.POSITIVE_INFINITY;
+    }
+}
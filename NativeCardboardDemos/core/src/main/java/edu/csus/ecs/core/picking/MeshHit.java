@@ -0,0 +1,56 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.core.picking;
+
+/**
+ * Result of an exact pick against triangles: besides the object and distance, which triangle was
+ * hit, where, and the surface normal there.
+ */
+public class MeshHit extends PickHit {
+
+    private int triangle = NONE;
+    private final float[] point = new float[3];
+    private final float[] normal = new float[3];
+
+    /** @return index of the triangle hit within its mesh, or {@link #NONE} */
+    public int getTriangle() {
+        return triangle;
+    }
+
+    /** @return x, y, z of the hit point; only valid after a hit */
+    public float[] getPoint() {
+        return point;
+    }
+
+    /**
+     * @return x, y, z of the unit normal of the triangle hit, facing the ray; only valid after a
+     * hit
+     */
+    public float[] getNormal() {
+        return normal;
+    }
+
+    @Override
+    void reset() {
+        super.reset();
+        triangle = NONE;
+    }
+
+    void setTriangle(int triangle) {
+        this.triangle = triangle;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.core.picking;
+
+/**
+ * Result of a pick: which object the ray hit first and how far along the ray. Reused between
+ * picks so picking doesn't allocate.
+ */
+public class PickHit {
+
+    public static final int NONE = -1;
+
+    private int object = NONE;
+    private float distance = Float.POSITIVE_INFINITY;
+
+    /** @return whether the last pick hit anything */
+    public boolean isHit() {
+        return object != NONE;
+    }
+
+    /** @return index of the object hit, or {@link #NONE} */
+    public int getObject() {
+        return object;
+    }
+
+    /** @return distance from the ray origin to the hit, in units of the ray direction */
+    public float getDistance() {
+        return distance;
+    }
+
+    void reset() {
+        object = NONE;
+        distance = Float.POSITIVE_INFINITY;
+    }
+
+    void set(int object, float distance) {
+        this.object = object;
+        this.distance = distance;
+    }
+}
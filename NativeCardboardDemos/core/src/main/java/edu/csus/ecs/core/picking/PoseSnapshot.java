@@ -0,0 +1,98 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.core.picking;
+
+/**
+ * Everything a pick needs from one frame: the gaze ray, the head view and the bounding spheres of
+ * the objects, copied so the render thread can move on while a worker picks.
+ */
+public class PoseSnapshot {
+
+    private long frame;
+    private final float[] origin = new float[3];
+    private final float[] direction = new float[3];
+    private final float[] headView = new float[16];
+    private final float[] spheres;
+    private int count;
+
+    PoseSnapshot(int capacity) {
+        spheres = new float[capacity * 4];
+    }
+
+    /**
+     * @param frame number of the frame this pose is from, results are stamped with it
+     */
+    public void setFrame(long frame) {
+        this.frame = frame;
+    }
+
+    public long getFrame() {
+        return frame;
+    }
+
+    /**
+     * @param direction normalized gaze direction, e.g. HeadTransform.getForwardVector
+     */
+    public void setRay(float[] origin, int originOffset, float[] direction,
+                       int directionOffset) {
+        System.arraycopy(origin, originOffset, this.origin, 0, 3);
+        System.arraycopy(direction, directionOffset, this.direction, 0, 3);
+    }
+
+    /**
+     * Needed by a picker made with pitch and yaw limits.
+     *
+     * @param headView world-to-head matrix, e.g. HeadTransform.getHeadView
+     */
+    public void setHeadView(float[] headView, int offset) {
+        System.arraycopy(headView, offset, this.headView, 0, 16);
+    }
+
+    /**
+     * Copies the bounding spheres of all objects.
+     *
+     * @param spheres x, y, z and radius of each object, e.g. Scene.getSpheres
+     */
+    public void setSpheres(float[] spheres, int offset, int count) {
+        if (count * 4 > this.spheres.length) {
+            throw new IllegalArgumentException(count + " spheres exceed "
+                    + this.spheres.length / 4);
+        }
+        System.arraycopy(spheres, offset, this.spheres, 0, count * 4);
+        this.count = count;
+    }
+
+    float[] getOrigin() {
+        return origin;
+    }
+
+    float[] getDirection() {
+        return direction;
+    }
+
+    float[] getHeadView() {
+        return headView;
+    }
+
+    float[] getSpheres() {
+        return spheres;
+    }
+
+    int getCount() {
+        return count;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.core.picking;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands the latest of a stream of values from one thread to another without locks or copying.
+ *
+ * The producer fills {@link #back()} and calls {@link #publish()}; the consumer calls
+ * {@link #acquire()} to get the newest published value, which stays its own until the next
+ * acquire. Values the consumer never got to are overwritten. Neither side ever waits for the
+ * other.
+ */
+final class TripleBuffer<T> {
+
+    private static final int INDEX_MASK = 3;
+    private static final int FRESH = 4; // the middle slot was published and not acquired yet
+
+    private final T[] slots;
+    // index of the slot between the two threads, plus FRESH
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 0;  // producer's
+    private int front = 2; // consumer's
+    private boolean published;
+
+    TripleBuffer(T first, T second, T third) {
+        @SuppressWarnings("unchecked")
+        T[] slots = (T[]) new Object[]{first, second, third};
+        this.slots = slots;
+    }
+
+    /** Producer: the value to fill in before the next {@link #publish()}. */
+    T back() {
+        return slots[back];
+    }
+
+    /** Producer: makes the back value the newest one. */
+    void publish() {
+        back = middle.getAndSet(back | FRESH) & INDEX_MASK;
+    }
+
+    /**
+     * Consumer: takes the newest published value.
+     *
+     * @return the newest value, null if there is nothing newer than the last acquire
+     */
+    T acquireFresh() {
+        if ((middle.get() & FRESH) == 0) {
+            return null;
+        }
+        front = middle.getAndSet(front) & INDEX_MASK;
+        published = true;
+        return slots[front];
+    }
+
+    /**
+     * Consumer: the newest published value, which may be the one from the last acquire.
+     *
+     * @return null if nothing was published yet
+     */
+    T acquire() {
+        T fresh = acquireFresh();
+        if (fresh != null) {
+            return fresh;
+        }
+        return published ? slots[front] : null;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.core.scene;
+
+import java.util.Arrays;
+
+/**
+ * Picks a level of detail for every object and eye from how big the object appears on screen.
+ *
+ * Level 0 is the most detailed. An object drops to level i + 1 once its bounding sphere covers
+ * less than switchSizes[i] of the viewport height. To keep an object near a threshold from
+ * popping back and forth every frame, it only changes level once it is a hysteresis fraction
+ * past the threshold, so each level holds over a band of sizes that overlaps its neighbors'.
+ *
+ * The size is measured from the distance to the eye rather than the depth, so turning the head
+ * doesn't change any level. Not thread-safe.
+ */
+public class LodSelector {
+
+    private static final byte UNSET = -1;
+
+    private final float[] switchSizes;
+    private final float finer;
+    private final float coarser;
+    private final int eyeCount;
+    private final byte[] levels; // per object and eye, eye fastest
+
+    /**
+     * @param switchSizes  fraction of the viewport height below which each level gives way to
+     *                     the next, decreasing; one less than the number of levels
+     * @param hysteresis   how far past a threshold, as a fraction of it, an object must be to
+     *                     change level, e.g. 0.1
+     * @param capacity     most objects
+     * @param eyeCount     eyes each object keeps a level for
+     */
+    public LodSelector(float[] switchSizes, float hysteresis, int capacity, int eyeCount) {
+        for (int i = 1; i < switchSizes.length; i++) {
+            if (switchSizes[i] >= switchSizes[i - 1]) {
+                throw new IllegalArgumentException("Switch sizes must decrease");
+            }
+        }
+        if (switchSizes.length > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException(switchSizes.length + 1 + " levels");
+        }
+        this.switchSizes = switchSizes.clone();
+        finer = 1.0f + hysteresis;
+        coarser = 1.0f - hysteresis;
+        this.eyeCount = eyeCount;
+        levels = new byte[capacity * eyeCount];
+        reset();
+    }
+
+    public int getLevelCount() {
+        return switchSizes.length + 1;
+    }
+
+    /**
+     * Fraction of the viewport height a sphere covers.
+     *
+     * @param view       the eye's view matrix
+     * @param projection the eye's projection matrix, only its vertical scale is used
+     * @param sphere     x, y, z and radius in world space, e.g. from Scene.getSpheres
+     */
+    public static float screenSize(float[] view, int viewOffset, float[] projection,
+                                   int projectionOffset, float[] sphere, int sphereOffset) {
+        float x = sphere[sphereOffset];
+        float y = sphere[sphereOffset + 1];
+        float z = sphere[sphereOffset + 2];
+        // the sphere's center in eye space, its length is the distance to the eye
+        float ex = view[viewOffset] * x + view[viewOffset + 4] * y + view[viewOffset + 8] * z
+                + view[viewOffset + 12];
+        float ey = view[viewOffset + 1] * x + view[viewOffset + 5] * y + view[viewOffset + 9] * z
+                + view[viewOffset + 13];
+        float ez = view[viewOffset + 2] * x + view[viewOffset + 6] * y
+                + view[viewOffset + 10] * z + view[viewOffset + 14];
+        float distanceSquared = ex * ex + ey * ey + ez * ez;
+        float radius = sphere[sphereOffset + 3];
+        if (distanceSquared <= radius * radius) {
+            return Float.POSITIVE_INFINITY; // the eye is inside it
+        }
+        // projection[5] is 1 / tan(fovy / 2), so the diameter over the visible height
+        return radius * projection[projectionOffset + 5] / (float) Math.sqrt(distanceSquared);
+    }
+
+    /**
+     * @param screenSize fraction of the viewport height the object covers, see
+     *                   {@link #screenSize}
+     * @return the level the object should be drawn at for this eye
+     */
+    public int select(int object, int eye, float screenSize) {
+        int slot = object * eyeCount + eye;
+        int level = levels[slot];
+        if (level == UNSET) {
+            level = 0;
+            while (level < switchSizes.length && screenSize < switchSizes[level]) {
+                level++;
+            }
+        } else {
+            while (level > 0 && screenSize > switchSizes[level - 1] * finer) {
+                level--;
+            }
+            while (level < switchSizes.length && screenSize < switchSizes[level] * coarser) {
+                level++;
+            }
+        }
+        levels[slot] = (byte) level;
+        return level;
+    }
+
+    /**
+     * Forgets every object's level, e.g. when the scene is rebuilt. The next selection of each
+     * object goes by the thresholds alone.
+     */
+    public void reset() {
+        Arrays.fill(levels, UNSET);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.core.scene;
+
+import edu.csus.ecs.core.math.Mat4;
+import edu.csus.ecs.core.math.Quat;
+import edu.csus.ecs.core.picking.InstanceBvh;
+import edu.csus.ecs.core.picking.MeshBvh;
+import edu.csus.ecs.core.picking.MeshHit;
+
+/**
+ * The per-frame CPU work of MinimalDemo3 and MinimalDemo4, without any GL or GVR: a cube spinning
+ * in front of the user, a reticle that turns with the head, and whether the gaze ray hits the
+ * cube's triangles.
+ *
+ * A frame goes {@link #spin()}, {@link #placeReticle}, then {@link #pick}. Nothing allocates per
+ * frame. Use from one thread only.
+ */
+public class MinimalDemoFrame {
+
+    public static final float CAMERA_Z = 0.01f;
+    // the reticle is a cube this big, this far in front of the user
+    public static final float RETICLE_DISTANCE = 7.0f;
+    public static final float RETICLE_SIZE = 0.06f;
+
+    private static final float TIME_DELTA = 0.3f;
+    private static final float MAX_MODEL_DISTANCE = 7.0f;
+
+    private final float[] cameraPosition = {0.0f, 0.0f, CAMERA_Z};
+    private final float[] camera = new float[16];
+    private final float[] cubeModel = new float[16];
+    private final float[] reticle = new float[16];
+    private final float[] reticlePosition = {0.0f, 0.0f, -RETICLE_DISTANCE};
+    private final float[] reticleOffset = new float[3]; // reticlePosition turned with the head
+
+    private final MeshBvh cubeTriangles;
+    private final InstanceBvh pickScene = new InstanceBvh(1); // the cube placed by cubeModel
+    private final MeshHit gazeHit = new MeshHit();
+
+    /**
+     * @param cubeTriangles the cube's mesh, picked against wherever the cube is
+     */
+    public MinimalDemoFrame(MeshBvh cubeTriangles) {
+        this.cubeTriangles = cubeTriangles;
+        pickScene.setInstanceCount(1);
+        // always looking at the point in front of the camera, the head turns the eye views
+        Mat4.setLookAt(camera, 0, cameraPosition[0], cameraPosition[1], cameraPosition[2],
+                cameraPosition[0], cameraPosition[1], cameraPosition[2] - 1.0f, 0.0f, 1.0f,
+                0.0f);
+        moveCube(0.0f);
+    }
+
+    /**
+     * Puts the cube back to face the user at x, directly in front of them at 0.
+     */
+    public void moveCube(float x) {
+        Mat4.setTranslation(cubeModel, 0, x, 0.0f, -MAX_MODEL_DISTANCE);
+    }
+
+    /**
+     * Turns the cube a little further.
+     */
+    public void spin() {
+        Mat4.rotate(cubeModel, 0, TIME_DELTA, 0.5f, 0.5f, 1.0f);
+    }
+
+    /**
+     * Scales the reticle, moves it out in front of the user, then turns it with the head. Turning
+     * the offset by the head rotation first gives the same matrix as rotation * translation *
+     * scale, built in one pass and without going through Euler angles.
+     *
+     * @param headRotation the head's rotation quaternion, e.g. HeadTransform.getQuaternion
+     */
+    public void placeReticle(float[] headRotation, int offset) {
+        Quat.rotateVector(reticleOffset, 0, headRotation, offset, reticlePosition, 0);
+        Mat4.setRotationTranslationScale(reticle, 0, headRotation, offset, reticleOffset[0],
+                reticleOffset[1], reticleOffset[2], RETICLE_SIZE, RETICLE_SIZE, RETICLE_SIZE);
+    }
+
+    /**
+     * Casts the gaze ray from the camera against the cube's triangles, placed by its model matrix.
+     *
+     * @param forward normalized gaze direction, e.g. HeadTransform.getForwardVector
+     * @return whether the ray hits the cube
+     */
+    public boolean pick(float[] forward, int offset) {
+        // the cube turns every frame; with a single instance rebuilding costs the same as a refit
+        pickScene.setInstance(0, cubeTriangles, cubeModel, 0);
+        pickScene.build();
+        return pickScene.pick(cameraPosition, 0, forward, offset, gazeHit);
+    }
+
+    /** @return the world-to-camera matrix, before the head and eye views */
+    public float[] getCamera() {
+        return camera;
+    }
+
+    /** @return the cube's model matrix */
+    public float[] getCubeModel() {
+        return cubeModel;
+    }
+
+    /** @return the reticle's model matrix as of the last {@link #placeReticle} */
+    public float[] getReticle() {
+        return reticle;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.core.scene;
+
+import edu.csus.ecs.core.math.Frustum;
+
+/**
+ * A fixed-capacity set of objects, each a model matrix plus a bounding sphere, that can be culled
+ * against a view frustum.
+ *
+ * Objects are identified by the index {@link #add} returned. The bounding sphere is given in model
+ * space around the origin and follows the model matrix, including its scale. Nothing allocates
+ * after construction.
+ */
+public class Scene {
+
+    private final float[] models;
+    private final float[] radii;   // model space
+    private final float[] spheres; // world space x, y, z, radius
+    private int count;
+
+    public Scene(int capacity) {
+        models = new float[capacity * 16];
+        radii = new float[capacity];
+        spheres = new float[capacity * 4];
+    }
+
+    /**
+     * @param radius radius of a sphere around the model's origin that contains the whole model
+     * @return the index of the new object
+     */
+    public int add(float[] model, int offset, float radius) {
+        if (count == radii.length) {
+            throw new IllegalStateException("Scene is full at " + count + " objects");
+        }
+        int index = count++;
+        radii[index] = radius;
+        setModel(index, model, offset);
+        return index;
+    }
+
+    /**
+     * Moves an object. Its bounding sphere moves with it.
+     */
+    public void setModel(int index, float[] model, int offset) {
+        int base = index * 16;
+        System.arraycopy(model, offset, models, base, 16);
+
+        // the sphere grows with the largest scale along any axis
+        float scaleSquared = 0.0f;
+        for (int column = 0; column < 3; column++) {
+            int c = offset + column * 4;
+            float lengthSquared = model[c] * model[c] + model[c + 1] * model[c + 1]
+                    + model[c + 2] * model[c + 2];
+            scaleSquared = Math.max(scaleSquared, lengthSquared);
+        }
+        int sphere = index * 4;
+        spheres[sphere] = model[offset + 12];
+        spheres[sphere + 1] = model[offset + 13];
+        spheres[sphere + 2] = model[offset + 14];
+        spheres[sphere + 3] = radii[index] * (float) Math.sqrt(scaleSquared);
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /** @return model matrices of all objects, object i starts at offset 16 * i */
+    public float[] getModels() {
+        return models;
+    }
+
+    /** @return world space bounding spheres as x, y, z, radius, object i starts at 4 * i */
+    public float[] getSpheres() {
+        return spheres;
+    }
+
+    /**
+     * Finds the objects whose bounding sphere is at least partly inside the frustum.
+     *
+     * @param visible receives the indices of those objects in increasing order, needs room for
+     *                {@link #getCount()} entries
+     * @return how many indices were written
+     */
+    public int cull(Frustum frustum, int[] visible) {
+        int visibleCount = 0;
+        for (int i = 0; i < count; i++) {
+            int sphere = i * 4;
+            if (frustum.intersectsSphere(spheres[sphere], spheres[sphere + 1],
+                    spheres[sphere + 2], spheres[sphere + 3])) {
+                visible[visibleCount++] = i;
+            }
+        }
+        return visibleCount;
+    }
+
+    public void clear() {
+        count = 0;
+    }
+}
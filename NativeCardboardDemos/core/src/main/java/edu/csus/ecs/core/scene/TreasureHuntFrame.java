@@ -0,0 +1,383 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.core.scene;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import edu.csus.ecs.core.math.Frustum;
+import edu.csus.ecs.core.math.Mat4;
+import edu.csus.ecs.core.math.Quat;
+import edu.csus.ecs.core.picking.GazeBatch;
+import edu.csus.ecs.core.picking.GazeResult;
+import edu.csus.ecs.core.picking.PickHit;
+import edu.csus.ecs.core.picking.PoseSnapshot;
+
+/**
+ * TreasureHunt's per-frame CPU work, without any GL or GVR: a spinning treasure cube in a field
+ * of decoy cubes, the gaze on it, culling and a level of detail for each eye, and moving the
+ * treasure when it's found. TreasureHunt's activity drives it from the head tracker and the
+ * benchmarks module's TraceReplay from a recorded trace, so both run the same frame.
+ *
+ * A frame goes {@link #spin()}, then either {@link #fillSnapshot} and {@link #setGaze} for a
+ * picker on another thread or {@link #pick} right here, then {@link #cull} once per eye, or
+ * {@link #cullEyes} once for a renderer that draws every eye in the same draw calls. Hiding
+ * the treasure draws from the Random given to the constructor, so a seeded one replays the same
+ * session. Nothing allocates per frame. Use from one thread only.
+ */
+public class TreasureHuntFrame {
+
+    public static final float Z_NEAR = 0.1f;
+    public static final float Z_FAR = 100.0f;
+    public static final float CAMERA_Z = 0.01f;
+
+    /** The treasure is always object 0, the decoys follow it. */
+    public static final int TREASURE = 0;
+    public static final int DECOY_CUBE_COUNT = 9999;
+    public static final int MAX_CUBES = 1 + DECOY_CUBE_COUNT;
+
+    // A gaze result older than this many frames is too stale to count as looking at anything.
+    public static final int MAX_PICK_AGE_FRAMES = 3;
+    // The treasure's origin must be this close to the view axis, in radians, to be looked at.
+    public static final float PITCH_LIMIT = 0.12f;
+    public static final float YAW_LIMIT = 0.12f;
+
+    private static final float TIME_DELTA = 0.3f;
+    private static final float MIN_MODEL_DISTANCE = 3.0f;
+    private static final float MAX_MODEL_DISTANCE = 7.0f;
+    private static final float DECOY_MIN_DISTANCE = 10.0f;
+    private static final float DECOY_MAX_DISTANCE = 60.0f;
+    private static final float DECOY_SCALE = 0.25f;
+    private static final float CUBE_RADIUS = (float) Math.sqrt(3.0); // corners at +-1
+
+    private final Scene scene = new Scene(MAX_CUBES);
+    private final LodSelector lodSelector;
+    private final Random random;
+
+    private final float[] camera = new float[16];
+    private final float[] modelCube = new float[16];
+    private final float[] treasurePosition = {0.0f, 0.0f, -MAX_MODEL_DISTANCE / 2.0f};
+    private float objectDistance = MAX_MODEL_DISTANCE / 2.0f;
+    private final float[] gazeOrigin = {0.0f, 0.0f, CAMERA_Z};
+    private boolean lookingAtTreasure;
+
+    // made on the first synchronous pick, a picker on another thread has its own
+    private GazeBatch gazeBatch;
+    private int[] lookedAt;
+
+    private final Frustum frustum = new Frustum();
+    private final int[] culled = new int[MAX_CUBES];
+    private final int[] culledLevels = new int[MAX_CUBES];
+    private final boolean[] culledCrossing = new boolean[MAX_CUBES];
+    private final int[] visibleCubes = new int[MAX_CUBES];
+    // the finest level cullEyes found for each cube, how many eyes have all of it in view, and
+    // which of its calls found it last
+    private final int[] cubeStamps = new int[MAX_CUBES];
+    private final int[] cubeLevels = new int[MAX_CUBES];
+    private final int[] cubeInsideEyes = new int[MAX_CUBES];
+    private int stamp;
+    private final int[] levelStart;
+    private final int[] levelSize;
+    private final int[] levelCrossing;
+
+    /**
+     * @param lodSelector picks each cube's level of detail, with room for {@link #MAX_CUBES}
+     *                    objects and every eye
+     * @param random      where the treasure goes when it's found
+     */
+    public TreasureHuntFrame(LodSelector lodSelector, Random random) {
+        this.lodSelector = lodSelector;
+        this.random = random;
+        levelStart = new int[lodSelector.getLevelCount()];
+        levelSize = new int[lodSelector.getLevelCount()];
+        levelCrossing = new int[lodSelector.getLevelCount()];
+        Mat4.setLookAt(camera, 0, 0.0f, 0.0f, CAMERA_Z, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f);
+        placeTreasure();
+    }
+
+    /**
+     * Fills the scene again: the treasure where it was last, and the decoys if there are to be
+     * any. Levels of detail start over. The decoy field is the same every time.
+     */
+    public void setUp(boolean decoys) {
+        scene.clear();
+        lodSelector.reset();
+        placeTreasure();
+        scene.add(modelCube, 0, CUBE_RADIUS);
+        if (decoys) {
+            scatterDecoys();
+        }
+        lookingAtTreasure = false;
+    }
+
+    /**
+     * Places the decoy cubes at random around the user, above the floor. They never move.
+     */
+    private void scatterDecoys() {
+        Random random = new Random(DECOY_CUBE_COUNT); // same field every run
+        float[] decoy = new float[16];
+        float[] rotation = new float[4];
+        float[] turn = new float[4];
+        float[] position = new float[3];
+        float[] forward = new float[3];
+        for (int i = 1; i <= DECOY_CUBE_COUNT; i++) {
+            float angleXZ = random.nextFloat() * 360.0f;
+            float angleY = random.nextFloat() * 60.0f - 15.0f;
+            float distance = DECOY_MIN_DISTANCE
+                    + random.nextFloat() * (DECOY_MAX_DISTANCE - DECOY_MIN_DISTANCE);
+
+            Quat.setAxisAngle(rotation, 0, (float) Math.toRadians(angleXZ), 0.0f, 1.0f, 0.0f);
+            Quat.setAxisAngle(turn, 0, (float) Math.toRadians(angleY), 1.0f, 0.0f, 0.0f);
+            Quat.multiply(rotation, 0, rotation, 0, turn, 0);
+            forward[2] = -distance;
+            Quat.rotateVector(position, 0, rotation, 0, forward, 0);
+            Quat.setAxisAngle(turn, 0, (float) Math.toRadians(random.nextFloat() * 360.0f),
+                    0.5f, 0.5f, 1.0f);
+            Quat.multiply(rotation, 0, rotation, 0, turn, 0);
+            Mat4.setRotationTranslationScale(decoy, 0, rotation, 0, position[0], position[1],
+                    position[2], DECOY_SCALE, DECOY_SCALE, DECOY_SCALE);
+            scene.add(decoy, 0, CUBE_RADIUS);
+        }
+    }
+
+    /**
+     * Turns the treasure a little further.
+     */
+    public void spin() {
+        Mat4.rotate(modelCube, 0, TIME_DELTA, 0.5f, 0.5f, 1.0f);
+        scene.setModel(TREASURE, modelCube, 0);
+    }
+
+    /**
+     * Fills a picker's snapshot with this frame's gaze and the cubes' bounds. The picker must be
+     * made with {@link #PITCH_LIMIT} and {@link #YAW_LIMIT}.
+     *
+     * @param headView  world-to-head matrix, e.g. HeadTransform.getHeadView
+     * @param direction normalized gaze direction, e.g. HeadTransform.getForwardVector
+     */
+    public void fillSnapshot(PoseSnapshot snapshot, long frame, float[] headView,
+                             int headViewOffset, float[] direction, int directionOffset) {
+        snapshot.setFrame(frame);
+        snapshot.setRay(gazeOrigin, 0, direction, directionOffset);
+        snapshot.setHeadView(headView, headViewOffset);
+        snapshot.setSpheres(scene.getSpheres(), 0, scene.getCount());
+    }
+
+    /**
+     * Takes the newest result of a picker. It is usually from a frame or two ago, so it is
+     * ignored once it gets too old.
+     */
+    public void setGaze(GazeResult result, long frame) {
+        lookingAtTreasure = result.getObject() == TREASURE
+                && result.getAge(frame) <= MAX_PICK_AGE_FRAMES;
+    }
+
+    /**
+     * Picks the gaze against the cubes on this thread, for when this frame's answer is needed
+     * now, e.g. a replay that must give the same picks every run. Same test as the picker: the
+     * lowest numbered cube whose origin is within the pitch and yaw limits, so the treasure
+     * whenever it is.
+     *
+     * @param headView world-to-head matrix, e.g. HeadTransform.getHeadView
+     * @return the cube looked at, or {@link PickHit#NONE}
+     */
+    public int pick(float[] headView, int offset) {
+        if (gazeBatch == null) {
+            gazeBatch = new GazeBatch(MAX_CUBES);
+            lookedAt = new int[MAX_CUBES];
+        }
+        float[] spheres = scene.getSpheres();
+        gazeBatch.setCount(scene.getCount());
+        for (int i = 0; i < scene.getCount(); i++) {
+            int s = i * 4;
+            gazeBatch.setSphere(i, spheres[s], spheres[s + 1], spheres[s + 2], spheres[s + 3]);
+        }
+        int object = gazeBatch.lookingAt(headView, offset, PITCH_LIMIT, YAW_LIMIT, lookedAt) > 0
+                ? lookedAt[0] : PickHit.NONE;
+        lookingAtTreasure = object == TREASURE;
+        return object;
+    }
+
+    public boolean isLookingAtTreasure() {
+        return lookingAtTreasure;
+    }
+
+    /**
+     * Finds the cubes inside one eye's frustum and gives each a level of detail from how much of
+     * the eye's view it covers. Most of the field is behind the user at any time, and so is the
+     * treasure after {@link #hideTreasure()}.
+     *
+     * @return how many cubes the eye sees; {@link #getVisibleCubes()} lists them level by level
+     */
+    public int cull(int eye, float[] view, int viewOffset, float[] projection,
+                    int projectionOffset, float[] viewProjection, int viewProjectionOffset) {
+        frustum.set(viewProjection, viewProjectionOffset);
+        int visible = scene.cull(frustum, culled);
+
+        float[] spheres = scene.getSpheres();
+        for (int i = 0; i < visible; i++) {
+            float size = LodSelector.screenSize(view, viewOffset, projection, projectionOffset,
+                    spheres, culled[i] * 4);
+            culledLevels[i] = lodSelector.select(culled[i], eye, size);
+            culledCrossing[i] = false;
+        }
+        sortByLevel(visible);
+        return visible;
+    }
+
+    /**
+     * Like {@link #cull}, but for every eye at once: finds the cubes inside any eye's frustum,
+     * each listed once at the finest level any eye picked for it. Within each level the cubes
+     * that some eye sees only part of, or not at all, come last, see {@link #getLevelCrossing}.
+     *
+     * @param eyeCount how many eyes the matrices hold, eye i's start at offset 16 * i
+     * @return how many cubes some eye sees; {@link #getVisibleCubes()} lists them level by level
+     */
+    public int cullEyes(int eyeCount, float[] views, float[] projections,
+                        float[] viewProjections) {
+        stamp++;
+        float[] spheres = scene.getSpheres();
+        int count = 0;
+        for (int eye = 0; eye < eyeCount; eye++) {
+            frustum.set(viewProjections, eye * 16);
+            int visible = scene.cull(frustum, visibleCubes);
+            for (int i = 0; i < visible; i++) {
+                int cube = visibleCubes[i];
+                float size = LodSelector.screenSize(views, eye * 16, projections, eye * 16,
+                        spheres, cube * 4);
+                int level = lodSelector.select(cube, eye, size);
+                if (cubeStamps[cube] != stamp) {
+                    cubeStamps[cube] = stamp;
+                    cubeLevels[cube] = level;
+                    cubeInsideEyes[cube] = 0;
+                    culled[count++] = cube;
+                } else if (level < cubeLevels[cube]) {
+                    cubeLevels[cube] = level;
+                }
+                int s = cube * 4;
+                if (frustum.sidesContainSphere(spheres[s], spheres[s + 1], spheres[s + 2],
+                        spheres[s + 3])) {
+                    cubeInsideEyes[cube]++;
+                }
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            culledLevels[i] = cubeLevels[culled[i]];
+            culledCrossing[i] = cubeInsideEyes[culled[i]] < eyeCount;
+        }
+        sortByLevel(count);
+        return count;
+    }
+
+    // the first count culled cubes into visibleCubes, grouped by their culledLevels, each
+    // level's culledCrossing ones last
+    private void sortByLevel(int count) {
+        Arrays.fill(levelSize, 0);
+        Arrays.fill(levelCrossing, 0);
+        for (int i = 0; i < count; i++) {
+            levelSize[culledLevels[i]]++;
+            if (culledCrossing[i]) {
+                levelCrossing[culledLevels[i]]++;
+            }
+        }
+        int start = 0;
+        for (int level = 0; level < levelStart.length; level++) {
+            levelStart[level] = start;
+            start += levelSize[level];
+        }
+        // levelStart serves as the cursor and is put back after; the cubes inside every eye go
+        // first, the crossing ones carry on from where they end
+        for (int crossing = 0; crossing < 2; crossing++) {
+            for (int i = 0; i < count; i++) {
+                if (culledCrossing[i] == (crossing == 1)) {
+                    visibleCubes[levelStart[culledLevels[i]]++] = culled[i];
+                }
+            }
+        }
+        for (int level = 0; level < levelStart.length; level++) {
+            levelStart[level] -= levelSize[level];
+        }
+    }
+
+    /** @return the cubes the last cull found, every level's in one range */
+    public int[] getVisibleCubes() {
+        return visibleCubes;
+    }
+
+    /** @return where a level's cubes start in {@link #getVisibleCubes()} */
+    public int getLevelStart(int level) {
+        return levelStart[level];
+    }
+
+    /** @return how many of the last culled cubes are at a level */
+    public int getLevelSize(int level) {
+        return levelSize[level];
+    }
+
+    /**
+     * @return how many of a level's cubes, at the end of its range, reach past the edges of some
+     * eye's view after the last {@link #cullEyes}; always 0 after {@link #cull}
+     */
+    public int getLevelCrossing(int level) {
+        return levelCrossing[level];
+    }
+
+    /**
+     * Finds a new random position for the treasure.
+     *
+     * <p>It's rotated around the Y-axis between 90 and 270 degrees, so it's out of sight, given a
+     * new distance from the user and moved up or down by a little bit.
+     */
+    public void hideTreasure() {
+        double angleXZ = Math.toRadians(random.nextFloat() * 180.0f + 90.0f);
+        float oldObjectDistance = objectDistance;
+        objectDistance = random.nextFloat() * (MAX_MODEL_DISTANCE - MIN_MODEL_DISTANCE)
+                + MIN_MODEL_DISTANCE;
+        float scale = objectDistance / oldObjectDistance;
+        float sin = (float) Math.sin(angleXZ);
+        float cos = (float) Math.cos(angleXZ);
+        float x = modelCube[12];
+        float z = modelCube[14];
+
+        float angleY = (float) Math.toRadians(random.nextFloat() * 80.0f - 40.0f);
+        treasurePosition[0] = (cos * x + sin * z) * scale;
+        treasurePosition[1] = (float) Math.tan(angleY) * objectDistance;
+        treasurePosition[2] = (cos * z - sin * x) * scale;
+        placeTreasure();
+        scene.setModel(TREASURE, modelCube, 0);
+    }
+
+    // the treasure at its position, not turned
+    private void placeTreasure() {
+        Mat4.setTranslation(modelCube, 0, treasurePosition[0], treasurePosition[1],
+                treasurePosition[2]);
+    }
+
+    /** @return x, y and z of the treasure, e.g. for the sound that comes from it */
+    public float[] getTreasurePosition() {
+        return treasurePosition;
+    }
+
+    /** @return the camera matrix both eyes look from */
+    public float[] getCamera() {
+        return camera;
+    }
+
+    public Scene getScene() {
+        return scene;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.core.shader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Turns shader sources with #include lines into complete sources for one permutation.
+ *
+ * {@code #include "name"} is replaced by that source, each source at most once per shader, so a
+ * shared file may be included from several places. Permutations are chosen with defines such as
+ * INSTANCED or GRID that the sources test with #ifdef. Only defines a shader actually mentions are
+ * written into it, so permutations that differ in defines one stage ignores give that stage the
+ * same source, and the same program when both stages match.
+ *
+ * The defines go right after a #version line if the shader starts with one, since nothing may
+ * come before it, and at the top otherwise, sorted by macro name so the order they were passed in
+ * doesn't make a different source. Sources are loaded once and kept.
+ */
+public class ShaderPreprocessor {
+
+    /** Reads shader sources by name, e.g. from raw resources or files. */
+    public interface SourceLoader {
+        String load(String name) throws IOException;
+    }
+
+    private static final Pattern INCLUDE = Pattern.compile("^\\s*#\\s*include\\s+\"([^\"]+)\"");
+    private static final Pattern VERSION = Pattern.compile("^\\s*#\\s*version\\b");
+
+    // by macro name only, and stable, so a macro given twice keeps its order
+    private static final Comparator<String> BY_MACRO = new Comparator<String>() {
+        @Override
+        public int compare(String a, String b) {
+            return macro(a).compareTo(macro(b));
+        }
+    };
+
+    private final SourceLoader loader;
+    private final Map<String, String> sources = new HashMap<>();
+
+    public ShaderPreprocessor(SourceLoader loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * @param name    the shader's source
+     * @param defines macros to define, NAME or NAME=VALUE
+     * @return the source with every include expanded and the defines it uses
+     * @throws IOException if a source can't be loaded or includes itself
+     */
+    public String process(String name, String... defines) throws IOException {
+        StringBuilder body = new StringBuilder();
+        expand(name, body, new ArrayList<String>(), new HashSet<String>());
+
+        // a #version line has to stay first
+        String text = body.toString();
+        int bodyStart = 0;
+        int firstLineEnd = text.indexOf('\n');
+        String firstLine = firstLineEnd < 0 ? text : text.substring(0, firstLineEnd);
+        if (VERSION.matcher(firstLine).find()) {
+            bodyStart = firstLineEnd < 0 ? text.length() : firstLineEnd + 1;
+        }
+
+        StringBuilder result = new StringBuilder(text.length() + 64);
+        result.append(text, 0, bodyStart);
+        if (bodyStart > 0 && text.charAt(bodyStart - 1) != '\n') {
+            result.append('\n');
+        }
+        String[] sorted = defines.clone();
+        Arrays.sort(sorted, BY_MACRO);
+        for (String define : sorted) {
+            int equals = define.indexOf('=');
+            String macro = macro(define);
+            if (mentions(text, macro)) {
+                result.append("#define ").append(macro);
+                if (equals >= 0) {
+                    result.append(' ').append(define.substring(equals + 1));
+                }
+                result.append('\n');
+            }
+        }
+        result.append(text, bodyStart, text.length());
+        return result.toString();
+    }
+
+    private static String macro(String define) {
+        int equals = define.indexOf('=');
+        return equals < 0 ? define : define.substring(0, equals);
+    }
+
+    private void expand(String name, StringBuilder out, List<String> stack, Set<String> included)
+            throws IOException {
+        if (stack.contains(name)) {
+            throw new IOException("Shader include cycle: " + stack + " -> " + name);
+        }
+        if (!included.add(name)) {
+            return; // already in this shader
+        }
+        stack.add(name);
+        String source = sources.get(name);
+        if (source == null) {
+            source = loader.load(name);
+            if (source == null) {
+                throw new IOException("No shader source " + name);
+            }
+            sources.put(name, source);
+        }
+
+        int start = 0;
+        while (start < source.length()) {
+            int end = source.indexOf('\n', start);
+            end = end < 0 ? source.length() : end + 1;
+            String line = source.substring(start, end);
+            Matcher include = INCLUDE.matcher(line);
+            if (include.find()) {
+                expand(include.group(1), out, stack, included);
+                if (out.length() > 0 && out.charAt(out.length() - 1) != '\n') {
+                    out.append('\n');
+                }
+            } else {
+                out.append(line);
+            }
+            start = end;
+        }
+        stack.remove(stack.size() - 1);
+    }
+
+    // whether the identifier occurs in the text as a whole token
+    private static boolean mentions(String text, String identifier) {
+        int from = 0;
+        int at;
+        while ((at = text.indexOf(identifier, from)) >= 0) {
+            int end = at + identifier.length();
+            if ((at == 0 || !isIdentifierPart(text.charAt(at - 1)))
+                    && (end == text.length() || !isIdentifierPart(text.charAt(end)))) {
+                return true;
+            }
+            from = end;
+        }
+        return false;
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return c == '_' || Character.isLetterOrDigit(c);
+    }
+}
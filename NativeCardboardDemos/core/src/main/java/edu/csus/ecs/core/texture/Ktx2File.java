@@ -0,0 +1,240 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.csus.ecs.core.texture;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A KTX 2.0 texture file holding one 2D image and its mip levels, read in place so the level data
+ * can go to glCompressedTexImage2D straight from a memory-mapped file.
+ *
+ * Only what the renderers upload is accepted: ETC2 and ASTC (LDR) block formats plus plain RGBA8
+ * as the fallback for devices with neither, no supercompression, no arrays, cube maps or 3D
+ * textures. {@link #getGlInternalFormat} gives the GL enum for the format.
+ */
+public final class Ktx2File {
+
+    private static final byte[] IDENTIFIER = {(byte) 0xAB, 'K', 'T', 'X', ' ', '2', '0',
+            (byte) 0xBB, '\r', '\n', 0x1A, '\n'};
+    private static final int HEADER_BYTES = 80;
+    private static final int LEVEL_INDEX_BYTES = 24;
+
+    /** Format families, for picking the file a device can use. */
+    public static final int FAMILY_RGBA = 0;
+    public static final int FAMILY_ETC2 = 1;
+    public static final int FAMILY_ASTC = 2;
+
+    // Vulkan format numbers as stored in the file
+    private static final int VK_R8G8B8A8_UNORM = 37;
+    private static final int VK_R8G8B8A8_SRGB = 43;
+    private static final int VK_ETC2_FIRST = 147; // R8G8B8_UNORM_BLOCK
+    private static final int VK_ETC2_LAST = 152;  // R8G8B8A8_SRGB_BLOCK
+    private static final int VK_ASTC_FIRST = 157; // 4x4_UNORM_BLOCK
+    private static final int VK_ASTC_LAST = 184;  // 12x12_SRGB_BLOCK
+
+    // GL enums
+    private static final int GL_RGBA8 = 0x8058;
+    private static final int GL_SRGB8_ALPHA8 = 0x8C43;
+    private static final int GL_COMPRESSED_RGB8_ETC2 = 0x9274; // then the other ETC2 formats
+    private static final int GL_COMPRESSED_RGBA_ASTC_4x4 = 0x93B0;
+    private static final int GL_COMPRESSED_SRGB8_ALPHA8_ASTC_4x4 = 0x93D0;
+
+    // ASTC block footprints in the order of the Vulkan and GL formats
+    private static final int[] ASTC_BLOCKS = {4, 4, 5, 4, 5, 5, 6, 5, 6, 6, 8, 5, 8, 6, 8, 8,
+            10, 5, 10, 6, 10, 8, 10, 10, 12, 10, 12, 12};
+
+    private final int vkFormat;
+    private final int width;
+    private final int height;
+    private final ByteBuffer[] levels;
+
+    private Ktx2File(int vkFormat, int width, int height, ByteBuffer[] levels) {
+        this.vkFormat = vkFormat;
+        this.width = width;
+        this.height = height;
+        this.levels = levels;
+    }
+
+    /**
+     * Reads the header and level index. The level data stays in the given buffer,
+     * {@link #getLevelData} returns views of it.
+     *
+     * @param file the whole file, from its position to its limit
+     * @throws IOException if it isn't a KTX 2.0 file or holds something this class can't load
+     */
+    public static Ktx2File read(ByteBuffer file) throws IOException {
+        ByteBuffer data = file.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (data.remaining() < HEADER_BYTES) {
+            throw new IOException("Not a KTX 2.0 file");
+        }
+        for (int i = 0; i < IDENTIFIER.length; i++) {
+            if (data.get(i) != IDENTIFIER[i]) {
+                throw new IOException("Not a KTX 2.0 file");
+            }
+        }
+        int vkFormat = data.getInt(12);
+        int width = data.getInt(20);
+        int height = data.getInt(24);
+        int depth = data.getInt(28);
+        int layers = data.getInt(32);
+        int faces = data.getInt(36);
+        int levelCount = Math.max(1, data.getInt(40));
+        int supercompression = data.getInt(44);
+
+        if (glInternalFormat(vkFormat) == 0) {
+            throw new IOException("KTX 2.0 format " + vkFormat + " isn't ETC2, ASTC or RGBA8");
+        }
+        if (supercompression != 0) {
+            throw new IOException("KTX 2.0 supercompression " + supercompression
+                    + " isn't supported");
+        }
+        if (width <= 0 || height <= 0 || depth > 1 || layers > 1 || faces != 1) {
+            throw new IOException("KTX 2.0 file isn't a single 2D texture");
+        }
+        // past the 1x1 level both sizes shift down to 0
+        if (levelCount > 32
+                || ((width >> (levelCount - 1)) == 0 && (height >> (levelCount - 1)) == 0)
+                || HEADER_BYTES + levelCount * LEVEL_INDEX_BYTES > data.limit()) {
+            throw new IOException("Corrupt KTX 2.0 level count " + levelCount);
+        }
+
+        ByteBuffer[] levels = new ByteBuffer[levelCount];
+        for (int level = 0; level < levelCount; level++) {
+            int at = HEADER_BYTES + level * LEVEL_INDEX_BYTES;
+            long offset = data.getLong(at);
+            long length = data.getLong(at + 8);
+            long expected = levelSize(vkFormat, Math.max(1, width >> level),
+                    Math.max(1, height >> level));
+            if (offset < 0 || length != expected || offset + length > data.limit()) {
+                throw new IOException("Corrupt KTX 2.0 level " + level);
+            }
+            ByteBuffer view = data.duplicate();
+            view.position((int) offset);
+            view.limit((int) (offset + length));
+            levels[level] = view.slice();
+        }
+        return new Ktx2File(vkFormat, width, height, levels);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /** @return number of mip levels stored, level 0 being the full size */
+    public int getLevelCount() {
+        return levels.length;
+    }
+
+    public int getLevelWidth(int level) {
+        return Math.max(1, width >> level);
+    }
+
+    public int getLevelHeight(int level) {
+        return Math.max(1, height >> level);
+    }
+
+    /** @return a view of one level's data in the file */
+    public ByteBuffer getLevelData(int level) {
+        return levels[level].duplicate();
+    }
+
+    public int getLevelSize(int level) {
+        return levels[level].remaining();
+    }
+
+    /** @return the sum of all level sizes */
+    public long getSize() {
+        long size = 0;
+        for (ByteBuffer level : levels) {
+            size += level.remaining();
+        }
+        return size;
+    }
+
+    /** @return {@link #FAMILY_RGBA}, {@link #FAMILY_ETC2} or {@link #FAMILY_ASTC} */
+    public int getFamily() {
+        return family(vkFormat);
+    }
+
+    /** @return whether the data goes to glCompressedTexImage2D rather than glTexImage2D */
+    public boolean isCompressed() {
+        return getFamily() != FAMILY_RGBA;
+    }
+
+    /** @return the GL internal format of the data */
+    public int getGlInternalFormat() {
+        return glInternalFormat(vkFormat);
+    }
+
+    private static int family(int vkFormat) {
+        if (vkFormat >= VK_ETC2_FIRST && vkFormat <= VK_ETC2_LAST) {
+            return FAMILY_ETC2;
+        }
+        if (vkFormat >= VK_ASTC_FIRST && vkFormat <= VK_ASTC_LAST) {
+            return FAMILY_ASTC;
+        }
+        return FAMILY_RGBA;
+    }
+
+    private static int glInternalFormat(int vkFormat) {
+        if (vkFormat == VK_R8G8B8A8_UNORM) {
+            return GL_RGBA8;
+        }
+        if (vkFormat == VK_R8G8B8A8_SRGB) {
+            return GL_SRGB8_ALPHA8;
+        }
+        if (vkFormat >= VK_ETC2_FIRST && vkFormat <= VK_ETC2_LAST) {
+            // RGB8, SRGB8, RGB8A1, SRGB8A1, RGBA8, SRGB8A8 in both numberings
+            return GL_COMPRESSED_RGB8_ETC2 + vkFormat - VK_ETC2_FIRST;
+        }
+        if (vkFormat >= VK_ASTC_FIRST && vkFormat <= VK_ASTC_LAST) {
+            // Vulkan alternates UNORM and SRGB per footprint, GL has two runs
+            int footprint = (vkFormat - VK_ASTC_FIRST) / 2;
+            boolean srgb = (vkFormat - VK_ASTC_FIRST) % 2 == 1;
+            return (srgb ? GL_COMPRESSED_SRGB8_ALPHA8_ASTC_4x4 : GL_COMPRESSED_RGBA_ASTC_4x4)
+                    + footprint;
+        }
+        return 0;
+    }
+
+    // bytes of one level, whole blocks for the block formats
+    private static long levelSize(int vkFormat, int width, int height) {
+        switch (family(vkFormat)) {
+            case FAMILY_ETC2: {
+                // RGB8 and RGB8A1 take 8 bytes per 4x4 block, RGBA8 takes 16
+                int blockBytes = vkFormat >= VK_ETC2_LAST - 1 ? 16 : 8;
+                return (long) ((width + 3) / 4) * ((height + 3) / 4) * blockBytes;
+            }
+            case FAMILY_ASTC: {
+                int footprint = (vkFormat - VK_ASTC_FIRST) / 2;
+                int blockWidth = ASTC_BLOCKS[footprint * 2];
+                int blockHeight = ASTC_BLOCKS[footprint * 2 + 1];
+                return (long) ((width + blockWidth - 1) / blockWidth)
+                        * ((height + blockHeight - 1) / blockHeight) * 16;
+            }
+            default:
+                return (long) width * height * 4;
+        }
+    }
+}
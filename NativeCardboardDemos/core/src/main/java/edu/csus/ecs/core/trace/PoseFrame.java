@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.core.trace;
+
+/**
+ * One frame of a pose trace: what HeadTransform reported and whether the trigger was pulled
+ * since the frame before. Reused between frames so reading a trace doesn't allocate.
+ */
+public class PoseFrame {
+
+    /** Bytes a frame takes in a trace file. */
+    static final int BYTES = 8 + 16 * 4 + 4 * 4 + 3 * 4 + 4;
+
+    private static final int TRIGGER = 1;
+
+    private long timeNanos;
+    private final float[] headView = new float[16];
+    private final float[] quaternion = new float[4];
+    private final float[] forward = new float[3];
+    private int flags;
+
+    /** @return when the frame started, in System.nanoTime's units */
+    public long getTimeNanos() {
+        return timeNanos;
+    }
+
+    public void setTimeNanos(long timeNanos) {
+        this.timeNanos = timeNanos;
+    }
+
+    /** @return the head view matrix, like HeadTransform.getHeadView */
+    public float[] getHeadView() {
+        return headView;
+    }
+
+    /** @return the head rotation as x, y, z, w, like HeadTransform.getQuaternion */
+    public float[] getQuaternion() {
+        return quaternion;
+    }
+
+    /** @return the gaze direction, like HeadTransform.getForwardVector */
+    public float[] getForward() {
+        return forward;
+    }
+
+    /** @return whether the trigger was pulled since the previous frame */
+    public boolean isTrigger() {
+        return (flags & TRIGGER) != 0;
+    }
+
+    public void setTrigger(boolean trigger) {
+        flags = trigger ? flags | TRIGGER : flags & ~TRIGGER;
+    }
+
+    int getFlags() {
+        return flags;
+    }
+
+    void setFlags(int flags) {
+        this.flags = flags;
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.core.trace;
+
+/**
+ * Layout of a pose trace file: a header of four ints (magic, version, bytes per frame and the
+ * number of frames) followed by one fixed-size {@link PoseFrame} record per frame. Little-endian
+ * throughout, so traces from a phone read the same on a build machine.
+ *
+ * The frame count is updated after every frame, so a trace whose app was killed while recording
+ * still reads up to its last whole frame, even though the file is longer.
+ *
+ * Each record is the frame time as a long, the 16 floats of the head view, the 4 of the
+ * quaternion, the 3 of the forward vector, then an int of flags.
+ */
+final class PoseTrace {
+
+    static final int MAGIC = 0x4A565254; // "JVRT"
+    static final int VERSION = 1;
+    static final int FRAME_COUNT_OFFSET = 12;
+    static final int HEADER_BYTES = 16;
+
+    private PoseTrace() {
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.core.trace;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a pose trace written by {@link PoseTraceWriter}. The whole file is mapped, so frames can
+ * be read in any order and reading one costs no more than copying it.
+ */
+public class PoseTraceReader implements Closeable {
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer data;
+    private final int frameCount;
+
+    public PoseTraceReader(File path) throws IOException {
+        file = new RandomAccessFile(path, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            long size = channel.size();
+            if (size < PoseTrace.HEADER_BYTES) {
+                throw new IOException(path + " is too short for a pose trace");
+            }
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            data.order(ByteOrder.LITTLE_ENDIAN);
+            if (data.getInt(0) != PoseTrace.MAGIC) {
+                throw new IOException(path + " is not a pose trace");
+            }
+            int version = data.getInt(4);
+            if (version != PoseTrace.VERSION || data.getInt(8) != PoseFrame.BYTES) {
+                throw new IOException(path + " is pose trace version " + version + ", expected "
+                        + PoseTrace.VERSION);
+            }
+            long whole = (size - PoseTrace.HEADER_BYTES) / PoseFrame.BYTES;
+            frameCount = (int) Math.min(whole, data.getInt(PoseTrace.FRAME_COUNT_OFFSET));
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Copies frame index into frame.
+     */
+    public void read(int index, PoseFrame frame) {
+        if (index < 0 || index >= frameCount) {
+            throw new IndexOutOfBoundsException("Frame " + index + " of " + frameCount);
+        }
+        int p = PoseTrace.HEADER_BYTES + index * PoseFrame.BYTES;
+        frame.setTimeNanos(data.getLong(p));
+        p += 8;
+        float[] headView = frame.getHeadView();
+        for (int i = 0; i < 16; i++, p += 4) {
+            headView[i] = data.getFloat(p);
+        }
+        float[] quaternion = frame.getQuaternion();
+        for (int i = 0; i < 4; i++, p += 4) {
+            quaternion[i] = data.getFloat(p);
+        }
+        float[] forward = frame.getForward();
+        for (int i = 0; i < 3; i++, p += 4) {
+            forward[i] = data.getFloat(p);
+        }
+        frame.setFlags(data.getInt(p));
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.core.trace;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Records a pose trace, one frame per {@link #record} call, by appending to a memory-mapped file.
+ * A record is a handful of puts into the mapping, there is no system call per frame; the file is
+ * mapped a chunk of frames at a time and cut to the frames written on {@link #close()}.
+ *
+ * {@link #record} must be called from one thread, usually the GL thread.
+ * {@link #markTrigger()} may be called from any thread, the next recorded frame carries it.
+ */
+public class PoseTraceWriter implements Closeable {
+
+    private static final int FRAMES_PER_CHUNK = 1024; // about 17 seconds at 60Hz
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private MappedByteBuffer chunk;
+    private long chunkStart;
+    private int frameCount;
+    private final AtomicBoolean trigger = new AtomicBoolean();
+
+    /**
+     * Creates the file, replacing any file already there.
+     */
+    public PoseTraceWriter(File path) throws IOException {
+        file = new RandomAccessFile(path, "rw");
+        file.setLength(0);
+        channel = file.getChannel();
+        chunkStart = PoseTrace.HEADER_BYTES;
+        mapChunk();
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                PoseTrace.HEADER_BYTES);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(PoseTrace.MAGIC);
+        header.putInt(PoseTrace.VERSION);
+        header.putInt(PoseFrame.BYTES);
+        header.putInt(0);
+    }
+
+    private void mapChunk() throws IOException {
+        chunk = channel.map(FileChannel.MapMode.READ_WRITE, chunkStart,
+                (long) FRAMES_PER_CHUNK * PoseFrame.BYTES);
+        chunk.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Notes a trigger pull for the next recorded frame.
+     */
+    public void markTrigger() {
+        trigger.set(true);
+    }
+
+    /**
+     * Appends a frame.
+     */
+    public void record(long timeNanos, float[] headView, int headViewOffset, float[] quaternion,
+                       int quaternionOffset, float[] forward, int forwardOffset)
+            throws IOException {
+        if (!chunk.hasRemaining()) {
+            chunkStart += chunk.capacity();
+            mapChunk();
+        }
+        chunk.putLong(timeNanos);
+        for (int i = 0; i < 16; i++) {
+            chunk.putFloat(headView[headViewOffset + i]);
+        }
+        for (int i = 0; i < 4; i++) {
+            chunk.putFloat(quaternion[quaternionOffset + i]);
+        }
+        for (int i = 0; i < 3; i++) {
+            chunk.putFloat(forward[forwardOffset + i]);
+        }
+        chunk.putInt(trigger.getAndSet(false) ? 1 : 0);
+        frameCount++;
+        header.putInt(PoseTrace.FRAME_COUNT_OFFSET, frameCount);
+    }
+
+    /**
+     * Appends a frame read from another trace, e.g. to cut a trace down.
+     */
+    public void record(PoseFrame frame) throws IOException {
+        if (frame.isTrigger()) {
+            markTrigger();
+        }
+        record(frame.getTimeNanos(), frame.getHeadView(), 0, frame.getQuaternion(), 0,
+                frame.getForward(), 0);
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Cuts the file to the frames written and closes it.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            chunk.force();
+            header.force();
+            chunk = null;
+            channel.truncate(PoseTrace.HEADER_BYTES + (long) frameCount * PoseFrame.BYTES);
+        } finally {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.core.math;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks Mat4 against plain double-precision matrix products, and against the translate, rotate
+ * and scale steps the fused calls replaced, including results written over their own inputs.
+ */
+public class Mat4Test {
+
+    private static final float EPSILON = 1e-5f;
+    private static final int TRIALS = 1000;
+
+    private final Random random = new Random(7);
+
+    @Test
+    public void multiplyMatchesReference() {
+        float[] lhs = new float[16];
+        float[] rhs = new float[16];
+        float[] result = new float[16];
+        for (int trial = 0; trial < TRIALS; trial++) {
+            randomMatrix(lhs, 0);
+            randomMatrix(rhs, 0);
+            Mat4.multiply(result, 0, lhs, 0, rhs, 0);
+            assertMatrix("lhs * rhs", product(lhs, 0, rhs, 0), result, 0);
+        }
+    }
+
+    @Test
+    public void multiplyAtOffsets() {
+        float[] matrices = new float[3 * 16 + 5];
+        randomMatrix(matrices, 1);
+        randomMatrix(matrices, 17);
+        Mat4.multiply(matrices, 37, matrices, 1, matrices, 17);
+        assertMatrix("lhs * rhs", product(matrices, 1, matrices, 17), matrices, 37);
+    }
+
+    @Test
+    public void multiplyIntoItsInputs() {
+        float[] lhs = new float[16];
+        float[] rhs = new float[16];
+        for (int trial = 0; trial < TRIALS; trial++) {
+            randomMatrix(lhs, 0);
+            randomMatrix(rhs, 0);
+            float[] expected = product(lhs, 0, rhs, 0);
+            float[] intoLhs = lhs.clone();
+            Mat4.multiply(intoLhs, 0, intoLhs, 0, rhs, 0);
+            assertMatrix("result over lhs", expected, intoLhs, 0);
+            float[] intoRhs = rhs.clone();
+            Mat4.multiply(intoRhs, 0, lhs, 0, intoRhs, 0);
+            assertMatrix("result over rhs", expected, intoRhs, 0);
+
+            float[] square = product(lhs, 0, lhs, 0);
+            float[] intoBoth = lhs.clone();
+            Mat4.multiply(intoBoth, 0, intoBoth, 0, intoBoth, 0);
+            assertMatrix("m * m over m", square, intoBoth, 0);
+        }
+    }
+
+    @Test
+    public void multiplyMVPMatchesTwoMultiplies() {
+        float[] projection = new float[16];
+        float[] view = new float[16];
+        float[] model = new float[16];
+        float[] result = new float[16];
+        for (int trial = 0; trial < TRIALS; trial++) {
+            Mat4.setPerspective(projection, 0, 30.0f + random.nextFloat() * 90.0f,
+                    0.5f + random.nextFloat(), 0.1f, 100.0f);
+            randomModel(view, 0);
+            randomModel(model, 0);
+            float[] expected = product(projection, 0, product(view, 0, model, 0), 0);
+            Mat4.multiplyMVP(result, 0, projection, 0, view, 0, model, 0);
+            assertMatrix("projection * view * model", expected, result, 0);
+        }
+    }
+
+    @Test
+    public void multiplyMVPIntoItsInputs() {
+        float[] projection = new float[16];
+        float[] view = new float[16];
+        float[] model = new float[16];
+        for (int trial = 0; trial < TRIALS; trial++) {
+            randomMatrix(projection, 0);
+            randomMatrix(view, 0);
+            randomMatrix(model, 0);
+            float[] expected = product(projection, 0, product(view, 0, model, 0), 0);
+
+            float[] into = projection.clone();
+            Mat4.multiplyMVP(into, 0, into, 0, view, 0, model, 0);
+            assertMatrix("result over projection", expected, into, 0);
+            into = view.clone();
+            Mat4.multiplyMVP(into, 0, projection, 0, into, 0, model, 0);
+            assertMatrix("result over view", expected, into, 0);
+            into = model.clone();
+            Mat4.multiplyMVP(into, 0, projection, 0, view, 0, into, 0);
+            assertMatrix("result over model", expected, into, 0);
+        }
+    }
+
+    @Test
+    public void setRotationTranslationScaleMatchesComposite() {
+        float[] q = new float[4];
+        float[] composite = new float[16];
+        float[] scale = new float[16];
+        float[] fused = new float[16];
+        for (int trial = 0; trial < TRIALS; trial++) {
+            float degrees = random.nextFloat() * 720.0f - 360.0f;
+            float ax = random.nextFloat() - 0.5f;
+            float ay = random.nextFloat() - 0.5f;
+            float az = random.nextFloat() - 0.5f;
+            float tx = random.nextFloat() * 20.0f - 10.0f;
+            float ty = random.nextFloat() * 20.0f - 10.0f;
+            float tz = random.nextFloat() * 20.0f - 10.0f;
+            float sx = 0.1f + random.nextFloat() * 3.0f;
+            float sy = 0.1f + random.nextFloat() * 3.0f;
+            float sz = 0.1f + random.nextFloat() * 3.0f;
+
+            // what the frame loops did before: translate, then rotate, then scale
+            Mat4.setTranslation(composite, 0, tx, ty, tz);
+            Mat4.rotate(composite, 0, degrees, ax, ay, az);
+            Mat4.setIdentity(scale, 0);
+            scale[0] = sx;
+            scale[5] = sy;
+            scale[10] = sz;
+            Mat4.multiply(composite, 0, composite, 0, scale, 0);
+
+            Quat.setAxisAngle(q, 0, (float) Math.toRadians(degrees), ax, ay, az);
+            Mat4.setRotationTranslationScale(fused, 0, q, 0, tx, ty, tz, sx, sy, sz);
+            assertMatrix("translation * rotation * scale", composite, fused, 0);
+        }
+    }
+
+    @Test
+    public void setRotationMatchesRotate() {
+        float[] q = new float[4];
+        float[] rotated = new float[16];
+        float[] fromQuat = new float[16];
+        for (int trial = 0; trial < TRIALS; trial++) {
+            float degrees = random.nextFloat() * 360.0f;
+            float ax = random.nextFloat() - 0.5f;
+            float ay = random.nextFloat() - 0.5f;
+            float az = random.nextFloat() - 0.5f;
+            Mat4.setIdentity(rotated, 0);
+            Mat4.rotate(rotated, 0, degrees, ax, ay, az);
+            Quat.setAxisAngle(q, 0, (float) Math.toRadians(degrees), ax, ay, az);
+            Mat4.setRotation(fromQuat, 0, q, 0);
+            assertMatrix("rotation", rotated, fromQuat, 0);
+        }
+    }
+
+    @Test
+    public void invertAffineUndoesTheMatrix() {
+        float[] m = new float[16];
+        float[] inverse = new float[16];
+        float[] identity = new float[16];
+        Mat4.setIdentity(identity, 0);
+        for (int trial = 0; trial < TRIALS; trial++) {
+            randomModel(m, 0);
+            assertTrue(Mat4.invertAffine(inverse, 0, m, 0));
+            assertMatrix("inverse * m", identity, product(inverse, 0, m, 0), 0);
+            assertMatrix("m * inverse", identity, product(m, 0, inverse, 0), 0);
+        }
+    }
+
+    @Test
+    public void invertAffineInPlace() {
+        float[] m = new float[16 + 3];
+        float[] expected = new float[16];
+        for (int trial = 0; trial < TRIALS; trial++) {
+            randomModel(m, 3);
+            assertTrue(Mat4.invertAffine(expected, 0, m, 3));
+            assertTrue(Mat4.invertAffine(m, 3, m, 3));
+            for (int i = 0; i < 16; i++) {
+                assertEquals("element " + i, expected[i], m[3 + i], 0.0f);
+            }
+        }
+    }
+
+    @Test
+    public void invertAffineLeavesResultAloneWhenSingular() {
+        float[] m = new float[16];
+        Mat4.setIdentity(m, 0);
+        m[0] = 0.0f; // flattens x
+        float[] result = new float[16];
+        randomMatrix(result, 0);
+        float[] before = result.clone();
+        assertFalse(Mat4.invertAffine(result, 0, m, 0));
+        assertArrayEquals(before, result, 0.0f);
+    }
+
+    @Test
+    public void setLookAtMovesEyeToOriginFacingDownZ() {
+        float[] view = new float[16];
+        float[] point = new float[3];
+        Mat4.setLookAt(view, 0, 1.0f, 2.0f, 3.0f, 1.0f, 2.0f, -7.0f, 0.0f, 1.0f, 0.0f);
+        Mat4.transformPoint(point, 0, view, 0, 1.0f, 2.0f, 3.0f);
+        assertArrayEquals(new float[] {0.0f, 0.0f, 0.0f}, point, EPSILON);
+        Mat4.transformPoint(point, 0, view, 0, 1.0f, 2.0f, -7.0f);
+        assertArrayEquals(new float[] {0.0f, 0.0f, -10.0f}, point, EPSILON);
+        Mat4.transformPoint(point, 0, view, 0, 1.0f, 3.0f, 3.0f);
+        assertArrayEquals(new float[] {0.0f, 1.0f, 0.0f}, point, EPSILON);
+    }
+
+    @Test
+    public void setPerspectiveMapsNearAndFarToClipRange() {
+        float[] projection = new float[16];
+        Mat4.setPerspective(projection, 0, 90.0f, 1.0f, 0.1f, 100.0f);
+        assertEquals(-1.0f, clipDepth(projection, -0.1f), EPSILON);
+        assertEquals(1.0f, clipDepth(projection, -100.0f), 1e-4f);
+    }
+
+    // z / w after projecting (0, 0, z, 1)
+    private static float clipDepth(float[] projection, float z) {
+        float clipZ = projection[10] * z + projection[14];
+        float clipW = projection[11] * z + projection[15];
+        return clipZ / clipW;
+    }
+
+    private void randomMatrix(float[] m, int offset) {
+        for (int i = 0; i < 16; i++) {
+            m[offset + i] = random.nextFloat() * 2.0f - 1.0f;
+        }
+    }
+
+    // a rotation, translation and scale, all well away from singular
+    private void randomModel(float[] m, int offset) {
+        float[] q = new float[4];
+        Quat.setAxisAngle(q, 0, random.nextFloat() * 7.0f, random.nextFloat() - 0.5f,
+                random.nextFloat() - 0.5f, random.nextFloat() - 0.5f);
+        Mat4.setRotationTranslationScale(m, offset, q, 0, random.nextFloat() * 20.0f - 10.0f,
+                random.nextFloat() * 20.0f - 10.0f, random.nextFloat() * 20.0f - 10.0f,
+                0.2f + random.nextFloat() * 2.0f, 0.2f + random.nextFloat() * 2.0f,
+                0.2f + random.nextFloat() * 2.0f);
+    }
+
+    // column-major lhs * rhs, added up in doubles
+    private static float[] product(float[] lhs, int lhsOffset, float[] rhs, int rhsOffset) {
+        float[] result = new float[16];
+        for (int col = 0; col < 4; col++) {
+            for (int row = 0; row < 4; row++) {
+                double sum = 0.0;
+                for (int k = 0; k < 4; k++) {
+                    sum += (double) lhs[lhsOffset + k * 4 + row] * rhs[rhsOffset + col * 4 + k];
+                }
+                result[col * 4 + row] = (float) sum;
+            }
+        }
+        return result;
+    }
+
+    private static void assertMatrix(String what, float[] expected, float[] actual, int offset) {
+        for (int i = 0; i < 16; i++) {
+            // relative to the element's size, the models reach into the tens
+            float tolerance = EPSILON * Math.max(1.0f, Math.abs(expected[i]));
+            assertEquals(what + ", element " + i, expected[i], actual[offset + i], tolerance);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.core.math;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks Quat against the matrices it stands in for, including results written over their own
+ * inputs.
+ */
+public class QuatTest {
+
+    private static final float EPSILON = 1e-5f;
+    private static final int TRIALS = 1000;
+
+    private final Random random = new Random(11);
+
+    @Test
+    public void rotateVectorMatchesMatrix() {
+        float[] q = new float[4];
+        float[] m = new float[16];
+        float[] v = new float[3];
+        float[] expected = new float[3];
+        float[] actual = new float[3];
+        for (int trial = 0; trial < TRIALS; trial++) {
+            randomRotation(q, 0);
+            randomVector(v);
+            Mat4.setRotation(m, 0, q, 0);
+            Mat4.transformDirection(expected, 0, m, 0, v[0], v[1], v[2]);
+            Quat.rotateVector(actual, 0, q, 0, v, 0);
+            assertArrayEquals(expected, actual, EPSILON);
+
+            // over its own input
+            Quat.rotateVector(v, 0, q, 0, v, 0);
+            assertArrayEquals(expected, v, EPSILON);
+        }
+    }
+
+    @Test
+    public void multiplyAppliesTheRightHandRotationFirst() {
+        float[] a = new float[4];
+        float[] b = new float[4];
+        float[] ab = new float[4];
+        float[] v = new float[3];
+        float[] expected = new float[3];
+        float[] actual = new float[3];
+        for (int trial = 0; trial < TRIALS; trial++) {
+            randomRotation(a, 0);
+            randomRotation(b, 0);
+            randomVector(v);
+            Quat.rotateVector(expected, 0, b, 0, v, 0);
+            Quat.rotateVector(expected, 0, a, 0, expected, 0);
+            Quat.multiply(ab, 0, a, 0, b, 0);
+            Quat.rotateVector(actual, 0, ab, 0, v, 0);
+            assertArrayEquals(expected, actual, EPSILON);
+        }
+    }
+
+    @Test
+    public void multiplyMatchesMatrixProduct() {
+        float[] a = new float[4];
+        float[] b = new float[4];
+        float[] ab = new float[4];
+        float[] ma = new float[16];
+        float[] mb = new float[16];
+        float[] expected = new float[16];
+        float[] actual = new float[16];
+        for (int trial = 0; trial < TRIALS; trial++) {
+            randomRotation(a, 0);
+            randomRotation(b, 0);
+            Mat4.setRotation(ma, 0, a, 0);
+            Mat4.setRotation(mb, 0, b, 0);
+            Mat4.multiply(expected, 0, ma, 0, mb, 0);
+            Quat.multiply(ab, 0, a, 0, b, 0);
+            Mat4.setRotation(actual, 0, ab, 0);
+            assertArrayEquals(expected, actual, EPSILON);
+        }
+    }
+
+    @Test
+    public void multiplyIntoItsInputs() {
+        float[] a = new float[4 + 2];
+        float[] b = new float[4];
+        float[] expected = new float[4];
+        for (int trial = 0; trial < TRIALS; trial++) {
+            randomRotation(a, 2);
+            randomRotation(b, 0);
+            Quat.multiply(expected, 0, a, 2, b, 0);
+
+            float[] intoA = a.clone();
+            Quat.multiply(intoA, 2, intoA, 2, b, 0);
+            assertQuat(expected, intoA, 2);
+            float[] intoB = b.clone();
+            Quat.multiply(intoB, 0, a, 2, intoB, 0);
+            assertQuat(expected, intoB, 0);
+
+            Quat.multiply(expected, 0, b, 0, b, 0);
+            Quat.multiply(b, 0, b, 0, b, 0);
+            assertQuat(expected, b, 0);
+        }
+    }
+
+    @Test
+    public void conjugateUndoesTheRotation() {
+        float[] q = new float[4];
+        float[] inverse = new float[4];
+        float[] product = new float[4];
+        for (int trial = 0; trial < TRIALS; trial++) {
+            randomRotation(q, 0);
+            Quat.conjugate(inverse, 0, q, 0);
+            Quat.multiply(product, 0, q, 0, inverse, 0);
+            assertQuat(new float[] {0.0f, 0.0f, 0.0f, 1.0f}, product, 0);
+
+            // in place
+            Quat.conjugate(q, 0, q, 0);
+            assertQuat(inverse, q, 0);
+        }
+    }
+
+    @Test
+    public void setAxisAngleMatchesRotate() {
+        float[] q = new float[4];
+        float[] expected = new float[16];
+        float[] actual = new float[16];
+        for (int trial = 0; trial < TRIALS; trial++) {
+            float degrees = random.nextFloat() * 720.0f - 360.0f;
+            // the axis doesn't have to be normalized
+            float x = random.nextFloat() * 4.0f - 2.0f;
+            float y = random.nextFloat() * 4.0f - 2.0f;
+            float z = random.nextFloat() * 4.0f - 2.0f;
+            Mat4.setIdentity(expected, 0);
+            Mat4.rotate(expected, 0, degrees, x, y, z);
+            Quat.setAxisAngle(q, 0, (float) Math.toRadians(degrees), x, y, z);
+            Mat4.setRotation(actual, 0, q, 0);
+            assertArrayEquals(expected, actual, EPSILON);
+        }
+    }
+
+    @Test
+    public void slerpHitsTheEndsAndTheMiddle() {
+        float[] a = new float[4];
+        float[] b = new float[4];
+        float[] result = new float[4];
+        Quat.setAxisAngle(a, 0, 0.2f, 0.0f, 1.0f, 0.0f);
+        Quat.setAxisAngle(b, 0, 1.4f, 0.0f, 1.0f, 0.0f);
+
+        Quat.slerp(result, 0, a, 0, b, 0, 0.0f);
+        assertQuat(a, result, 0);
+        Quat.slerp(result, 0, a, 0, b, 0, 1.0f);
+        assertQuat(b, result, 0);
+        float[] middle = new float[4];
+        Quat.setAxisAngle(middle, 0, 0.8f, 0.0f, 1.0f, 0.0f);
+        Quat.slerp(result, 0, a, 0, b, 0, 0.5f);
+        assertQuat(middle, result, 0);
+    }
+
+    @Test
+    public void slerpTakesTheShorterArc() {
+        float[] a = new float[4];
+        float[] b = new float[4];
+        float[] result = new float[4];
+        Quat.setAxisAngle(a, 0, 0.2f, 1.0f, 0.0f, 0.0f);
+        Quat.setAxisAngle(b, 0, 0.6f, 1.0f, 0.0f, 0.0f);
+        // -b is the same rotation as b
+        for (int i = 0; i < 4; i++) {
+            b[i] = -b[i];
+        }
+        float[] middle = new float[4];
+        Quat.setAxisAngle(middle, 0, 0.4f, 1.0f, 0.0f, 0.0f);
+        Quat.slerp(result, 0, a, 0, b, 0, 0.5f);
+        assertQuat(middle, result, 0);
+    }
+
+    @Test
+    public void slerpIntoItsInputs() {
+        float[] a = new float[4];
+        float[] b = new float[4];
+        float[] expected = new float[4];
+        for (int trial = 0; trial < TRIALS; trial++) {
+            randomRotation(a, 0);
+            randomRotation(b, 0);
+            float t = random.nextFloat();
+            Quat.slerp(expected, 0, a, 0, b, 0, t);
+            float[] intoA = a.clone();
+            Quat.slerp(intoA, 0, intoA, 0, b, 0, t);
+            assertQuat(expected, intoA, 0);
+            float[] intoB = b.clone();
+            Quat.slerp(intoB, 0, a, 0, intoB, 0, t);
+            assertQuat(expected, intoB, 0);
+        }
+    }
+
+    private void randomRotation(float[] q, int offset) {
+        Quat.setAxisAngle(q, offset, random.nextFloat() * 7.0f, random.nextFloat() - 0.5f,
+                random.nextFloat() - 0.5f, random.nextFloat() - 0.5f);
+    }
+
+    private void randomVector(float[] v) {
+        for (int i = 0; i < 3; i++) {
+            v[i] = random.nextFloat() * 4.0f - 2.0f;
+        }
+    }
+
+    // q and -q are the same rotation
+    private static void assertQuat(float[] expected, float[] actual, int offset) {
+        float sign = expected[0] * actual[offset] + expected[1] * actual[offset + 1]
+                + expected[2] * actual[offset + 2] + expected[3] * actual[offset + 3] < 0.0f
+                ? -1.0f : 1.0f;
+        for (int i = 0; i < 4; i++) {
+            assertEquals("component " + i, expected[i], sign * actual[offset + i], EPSILON);
+        }
+    }
+}
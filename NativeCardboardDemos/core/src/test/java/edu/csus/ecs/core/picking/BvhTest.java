@@ -0,0 +1,291 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.core.picking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks Bvh picks against testing every object in turn, after a build and after refits, and the
+ * hit distances against cases worked out by hand.
+ *
+ * The linear scan uses the same float sphere and slab tests as the tree, so any difference is the
+ * tree's traversal skipping something it shouldn't. Objects the ray starts inside all hit at 0,
+ * so the tree may pick any of them; the check is that its pick is as near as the nearest.
+ */
+public class BvhTest {
+
+    private static final int OBJECTS = 1000;
+    private static final int RAYS = 40000;
+    private static final float FIELD = 50.0f;
+
+    private final Random random = new Random(5);
+    private final float[] spheres = new float[OBJECTS * 4];
+    private final float[] boxes = new float[OBJECTS * 6];
+    private final PickHit hit = new PickHit();
+
+    @Test
+    public void spherePicksMatchLinearScan() {
+        Bvh bvh = new Bvh(OBJECTS);
+        randomSpheres(bvh, OBJECTS);
+        bvh.setObjectCount(OBJECTS);
+        bvh.build();
+        checkRays(bvh, OBJECTS, Bvh.HIT_SPHERES);
+    }
+
+    @Test
+    public void boxPicksMatchLinearScan() {
+        Bvh bvh = new Bvh(OBJECTS);
+        randomBoxes(bvh, OBJECTS);
+        bvh.setObjectCount(OBJECTS);
+        bvh.build();
+        checkRays(bvh, OBJECTS, Bvh.HIT_BOXES);
+    }
+
+    @Test
+    public void picksMatchLinearScanAfterRefit() {
+        Bvh bvh = new Bvh(OBJECTS);
+        randomSpheres(bvh, OBJECTS);
+        bvh.setObjectCount(OBJECTS);
+        bvh.build();
+        int nodes = bvh.getNodeCount();
+
+        // a little at first, then far enough that the tree no longer fits the layout at all
+        for (float step : new float[] {0.5f, 5.0f, FIELD}) {
+            for (int i = 0; i < OBJECTS; i++) {
+                int s = i * 4;
+                setSphere(bvh, i, spheres[s] + (random.nextFloat() - 0.5f) * step,
+                        spheres[s + 1] + (random.nextFloat() - 0.5f) * step,
+                        spheres[s + 2] + (random.nextFloat() - 0.5f) * step, spheres[s + 3]);
+            }
+            bvh.refit();
+            assertEquals("refit keeps the tree", nodes, bvh.getNodeCount());
+            checkRays(bvh, OBJECTS, Bvh.HIT_SPHERES);
+            checkRays(bvh, OBJECTS, Bvh.HIT_BOXES);
+        }
+    }
+
+    @Test
+    public void picksOnlyTheCountedObjects() {
+        Bvh bvh = new Bvh(OBJECTS);
+        randomSpheres(bvh, OBJECTS);
+        bvh.setObjectCount(OBJECTS / 3);
+        bvh.build();
+        checkRays(bvh, OBJECTS / 3, Bvh.HIT_SPHERES);
+    }
+
+    @Test
+    public void emptyTreeHitsNothing() {
+        Bvh bvh = new Bvh(4);
+        bvh.build();
+        assertFalse(bvh.pick(new float[3], 0, new float[] {0.0f, 0.0f, -1.0f}, 0,
+                Bvh.HIT_SPHERES, hit));
+        assertEquals(PickHit.NONE, hit.getObject());
+    }
+
+    @Test
+    public void sphereDistances() {
+        Bvh bvh = new Bvh(3);
+        bvh.setSphere(0, 0.0f, 0.0f, -10.0f, 1.0f);
+        bvh.setSphere(1, 0.0f, 0.0f, 10.0f, 1.0f); // behind
+        bvh.setSphere(2, 3.0f, 0.0f, -20.0f, 2.0f); // off to the side
+        bvh.setObjectCount(3);
+        bvh.build();
+        float[] origin = {0.0f, 0.0f, 0.0f};
+
+        assertTrue(bvh.pick(origin, 0, new float[] {0.0f, 0.0f, -1.0f}, 0, Bvh.HIT_SPHERES, hit));
+        assertEquals(0, hit.getObject());
+        assertEquals(9.0f, hit.getDistance(), 1e-5f);
+
+        // distances are in units of the direction's length
+        assertTrue(bvh.pick(origin, 0, new float[] {0.0f, 0.0f, -2.0f}, 0, Bvh.HIT_SPHERES, hit));
+        assertEquals(4.5f, hit.getDistance(), 1e-5f);
+
+        // from inside a sphere it is hit right away
+        assertTrue(bvh.pick(new float[] {0.0f, 0.5f, -10.0f}, 0, new float[] {0.0f, 0.0f, 1.0f},
+                0, Bvh.HIT_SPHERES, hit));
+        assertEquals(0, hit.getObject());
+        assertEquals(0.0f, hit.getDistance(), 0.0f);
+
+        assertFalse(bvh.pick(origin, 0, new float[] {0.0f, 1.0f, 0.0f}, 0, Bvh.HIT_SPHERES, hit));
+    }
+
+    @Test
+    public void axisParallelRayAlongABoxSideHitsTheBox() {
+        Bvh bvh = new Bvh(2);
+        // the ray runs along the x = 0 side of the near box
+        bvh.setBox(0, 0.0f, -1.0f, -10.0f, 1.0f, 1.0f, -9.0f);
+        bvh.setBox(1, -1.0f, -1.0f, -30.0f, 1.0f, 1.0f, -29.0f);
+        bvh.setObjectCount(2);
+        bvh.build();
+
+        assertTrue(bvh.pick(new float[] {0.0f, 0.0f, 0.0f}, 0, new float[] {0.0f, 0.0f, -1.0f},
+                0, Bvh.HIT_BOXES, hit));
+        assertEquals(0, hit.getObject());
+        assertEquals(9.0f, hit.getDistance(), 0.0f);
+
+        // and along the x = 1 side
+        assertTrue(bvh.pick(new float[] {1.0f, 0.0f, 0.0f}, 0, new float[] {0.0f, 0.0f, -1.0f},
+                0, Bvh.HIT_BOXES, hit));
+        assertEquals(0, hit.getObject());
+        assertEquals(9.0f, hit.getDistance(), 0.0f);
+    }
+
+    // random rays from inside and around the field, some of them along an axis from a box side
+    private void checkRays(Bvh bvh, int count, int hitTest) {
+        float[] origin = new float[3];
+        float[] direction = new float[3];
+        for (int ray = 0; ray < RAYS; ray++) {
+            if (ray % 4 == 0) {
+                // along an axis, starting on a side of some box
+                int object = random.nextInt(count);
+                int b = object * 6;
+                int axis = random.nextInt(3);
+                for (int i = 0; i < 3; i++) {
+                    origin[i] = boxes[b + i]
+                            + random.nextFloat() * (boxes[b + 3 + i] - boxes[b + i]);
+                    direction[i] = 0.0f;
+                }
+                int side = (axis + 1 + random.nextInt(2)) % 3;
+                origin[side] = boxes[b + (random.nextBoolean() ? side : side + 3)];
+                origin[axis] += random.nextBoolean() ? FIELD : -FIELD;
+                direction[axis] = origin[axis] > boxes[b + axis] ? -1.0f : 1.0f;
+            } else {
+                for (int i = 0; i < 3; i++) {
+                    origin[i] = (random.nextFloat() - 0.5f) * FIELD * 1.5f;
+                    direction[i] = (float) random.nextGaussian();
+                }
+                normalize(direction);
+            }
+
+            float expected = Float.POSITIVE_INFINITY;
+            for (int object = 0; object < count; object++) {
+                expected = Math.min(expected, distance(object, origin, direction, hitTest));
+            }
+            boolean picked = bvh.pick(origin, 0, direction, 0, hitTest, hit);
+            String what = "ray " + ray + " from " + origin[0] + ", " + origin[1] + ", "
+                    + origin[2];
+            assertEquals(what, expected != Float.POSITIVE_INFINITY, picked);
+            if (picked) {
+                assertEquals(what, expected, hit.getDistance(), 0.0f);
+                assertEquals(what, expected,
+                        distance(hit.getObject(), origin, direction, hitTest), 0.0f);
+            }
+        }
+    }
+
+    private float distance(int object, float[] origin, float[] direction, int hitTest) {
+        if (hitTest == Bvh.HIT_SPHERES) {
+            return sphereDistance(spheres, object * 4, origin, direction);
+        }
+        return boxDistance(boxes, object * 6, origin, direction);
+    }
+
+    // the same float math as the tree's leaf test
+    private static float sphereDistance(float[] spheres, int s, float[] origin,
+                                        float[] direction) {
+        float dx = direction[0], dy = direction[1], dz = direction[2];
+        float cx = spheres[s] - origin[0];
+        float cy = spheres[s + 1] - origin[1];
+        float cz = spheres[s + 2] - origin[2];
+        float radiusSquared = spheres[s + 3] * spheres[s + 3];
+        if (cx * cx + cy * cy + cz * cz <= radiusSquared) {
+            return 0.0f;
+        }
+        float along = cx * dx + cy * dy + cz * dz;
+        if (along < 0.0f) {
+            return Float.POSITIVE_INFINITY;
+        }
+        float directionSquared = dx * dx + dy * dy + dz * dz;
+        float t = along / directionSquared;
+        float mx = cx - t * dx;
+        float my = cy - t * dy;
+        float mz = cz - t * dz;
+        float reachSquared = radiusSquared - (mx * mx + my * my + mz * mz);
+        if (reachSquared < 0.0f) {
+            return Float.POSITIVE_INFINITY;
+        }
+        return t - (float) Math.sqrt(reachSquared / directionSquared);
+    }
+
+    // the slab test one axis at a time, a ray along a side counts as inside that slab
+    private static float boxDistance(float[] boxes, int b, float[] origin, float[] direction) {
+        float near = Float.NEGATIVE_INFINITY;
+        float far = Float.POSITIVE_INFINITY;
+        for (int axis = 0; axis < 3; axis++) {
+            float inverse = 1.0f / direction[axis];
+            float t1 = (boxes[b + axis] - origin[axis]) * inverse;
+            float t2 = (boxes[b + 3 + axis] - origin[axis]) * inverse;
+            float slabNear = Math.min(t1, t2);
+            float slabFar = Math.max(t1, t2);
+            near = Math.max(near, Float.isNaN(slabNear) ? Float.NEGATIVE_INFINITY : slabNear);
+            far = Math.min(far, Float.isNaN(slabFar) ? Float.POSITIVE_INFINITY : slabFar);
+        }
+        if (far < near || far < 0.0f) {
+            return Float.POSITIVE_INFINITY;
+        }
+        return Math.max(near, 0.0f);
+    }
+
+    private void randomSpheres(Bvh bvh, int count) {
+        for (int i = 0; i < count; i++) {
+            setSphere(bvh, i, (random.nextFloat() - 0.5f) * FIELD,
+                    (random.nextFloat() - 0.5f) * FIELD, (random.nextFloat() - 0.5f) * FIELD,
+                    0.1f + random.nextFloat() * 2.0f);
+        }
+    }
+
+    private void setSphere(Bvh bvh, int object, float x, float y, float z, float radius) {
+        bvh.setSphere(object, x, y, z, radius);
+        int s = object * 4;
+        spheres[s] = x;
+        spheres[s + 1] = y;
+        spheres[s + 2] = z;
+        spheres[s + 3] = radius;
+        int b = object * 6;
+        boxes[b] = x - radius;
+        boxes[b + 1] = y - radius;
+        boxes[b + 2] = z - radius;
+        boxes[b + 3] = x + radius;
+        boxes[b + 4] = y + radius;
+        boxes[b + 5] = z + radius;
+    }
+
+    private void randomBoxes(Bvh bvh, int count) {
+        for (int i = 0; i < count; i++) {
+            int b = i * 6;
+            for (int axis = 0; axis < 3; axis++) {
+                boxes[b + axis] = (random.nextFloat() - 0.5f) * FIELD;
+                boxes[b + 3 + axis] = boxes[b + axis] + 0.1f + random.nextFloat() * 3.0f;
+            }
+            bvh.setBox(i, boxes[b], boxes[b + 1], boxes[b + 2], boxes[b + 3], boxes[b + 4],
+                    boxes[b + 5]);
+        }
+    }
+
+    private static void normalize(float[] v) {
+        float length = (float) Math.sqrt(v[0] * v[0] + v[1] * v[1] + v[2] * v[2]);
+        v[0] /= length;
+        v[1] /= length;
+        v[2] /= length;
+    }
+}
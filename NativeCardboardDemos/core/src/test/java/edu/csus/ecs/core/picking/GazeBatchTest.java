@@ -0,0 +1,257 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.core.picking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.csus.ecs.core.math.Mat4;
+
+/**
+ * Checks each GazeBatch test against the one-sphere test it batches, over random heads and
+ * spheres.
+ *
+ * The batch reaches the same answers by different float math, slopes instead of atan2 for
+ * instance, so spheres within a hair of a limit may fall either way. Those are worked out in
+ * doubles first and left out of the comparison.
+ */
+public class GazeBatchTest {
+
+    private static final int SPHERES = 2000;
+    private static final int TRIALS = 200;
+    private static final float FIELD = 40.0f;
+    // how close to a limit, in radians or relative distance, a sphere may fall either way
+    private static final double MARGIN = 1e-4;
+
+    private final Random random = new Random(3);
+    private final GazeBatch batch = new GazeBatch(SPHERES);
+    private final float[] x = new float[SPHERES];
+    private final float[] y = new float[SPHERES];
+    private final float[] z = new float[SPHERES];
+    private final float[] radii = new float[SPHERES];
+    private final int[] hits = new int[SPHERES];
+
+    @Test
+    public void lookingAtMatchesGaze() {
+        float[] headView = new float[16];
+        for (int trial = 0; trial < TRIALS; trial++) {
+            randomSpheres();
+            randomHead(headView);
+            float pitchLimit = 0.05f + random.nextFloat() * 0.5f;
+            float yawLimit = 0.05f + random.nextFloat() * 0.5f;
+
+            int count = batch.lookingAt(headView, 0, pitchLimit, yawLimit, hits);
+            boolean[] hit = asFlags(hits, count);
+            for (int i = 0; i < SPHERES; i++) {
+                if (nearLookLimit(headView, i, pitchLimit, yawLimit)) {
+                    continue;
+                }
+                assertEquals("sphere " + i, Gaze.isLookingAt(headView, 0, x[i], y[i], z[i],
+                        pitchLimit, yawLimit), hit[i]);
+            }
+        }
+    }
+
+    @Test
+    public void raySphereMatchesGaze() {
+        float[] origin = new float[3];
+        float[] direction = new float[3];
+        for (int trial = 0; trial < TRIALS; trial++) {
+            randomSpheres();
+            randomRay(origin, direction);
+
+            int count = batch.raySphere(origin, 0, direction, 0, hits);
+            boolean[] hit = asFlags(hits, count);
+            for (int i = 0; i < SPHERES; i++) {
+                if (nearRayLimit(origin, direction, i)) {
+                    continue;
+                }
+                assertEquals("sphere " + i, Gaze.hitsSphere(origin, 0, direction, 0, x[i], y[i],
+                        z[i], radii[i]), hit[i]);
+            }
+        }
+    }
+
+    @Test
+    public void pickMatchesBvh() {
+        Bvh bvh = new Bvh(SPHERES);
+        float[] origin = new float[3];
+        float[] direction = new float[3];
+        PickHit expected = new PickHit();
+        PickHit actual = new PickHit();
+        int hitCount = 0;
+        for (int trial = 0; trial < TRIALS * 10; trial++) {
+            if (trial % 10 == 0) {
+                randomSpheres();
+                for (int i = 0; i < SPHERES; i++) {
+                    bvh.setSphere(i, x[i], y[i], z[i], radii[i]);
+                }
+                bvh.setObjectCount(SPHERES);
+                bvh.build();
+            }
+            randomRay(origin, direction);
+
+            boolean treeHit = bvh.pick(origin, 0, direction, 0, Bvh.HIT_SPHERES, expected);
+            boolean batchHit = batch.pick(origin, 0, direction, 0, actual);
+            assertEquals("trial " + trial, treeHit, batchHit);
+            if (treeHit) {
+                hitCount++;
+                float tolerance = 1e-4f * Math.max(1.0f, expected.getDistance());
+                assertEquals("trial " + trial, expected.getDistance(), actual.getDistance(),
+                        tolerance);
+                // a different sphere only for a tie
+                if (actual.getObject() != expected.getObject()) {
+                    assertEquals("trial " + trial, expected.getDistance(),
+                            entryDistance(origin, direction, actual.getObject()), tolerance);
+                }
+            }
+        }
+        assertTrue("most rays hit something", hitCount > TRIALS);
+    }
+
+    @Test
+    public void inConeMatchesAngles() {
+        float[] apex = new float[3];
+        float[] axis = new float[3];
+        for (int trial = 0; trial < TRIALS; trial++) {
+            randomSpheres();
+            randomRay(apex, axis);
+            float halfAngle = 0.02f + random.nextFloat() * 0.5f;
+
+            int count = batch.inCone(apex, 0, axis, 0, halfAngle, hits);
+            boolean[] hit = asFlags(hits, count);
+            for (int i = 0; i < SPHERES; i++) {
+                double vx = x[i] - apex[0], vy = y[i] - apex[1], vz = z[i] - apex[2];
+                double length = Math.sqrt(vx * vx + vy * vy + vz * vz);
+                if (length <= radii[i]) {
+                    assertTrue("sphere " + i + " around the apex", hit[i]);
+                    continue;
+                }
+                double angle = Math.acos(Math.max(-1.0, Math.min(1.0,
+                        (vx * axis[0] + vy * axis[1] + vz * axis[2]) / length)));
+                double reach = halfAngle + Math.asin(radii[i] / length);
+                if (Math.abs(angle - reach) < MARGIN) {
+                    continue;
+                }
+                assertEquals("sphere " + i, angle < reach, hit[i]);
+            }
+        }
+    }
+
+    @Test
+    public void hitsComeInIncreasingOrder() {
+        randomSpheres();
+        float[] origin = {0.0f, 0.0f, 0.0f};
+        float[] axis = {0.0f, 0.0f, -1.0f};
+        int count = batch.inCone(origin, 0, axis, 0, 1.2f, hits);
+        assertTrue(count > 1);
+        for (int i = 1; i < count; i++) {
+            assertTrue(hits[i - 1] < hits[i]);
+        }
+    }
+
+    @Test
+    public void onlyTheCountedSpheresAreTested() {
+        randomSpheres();
+        batch.setCount(SPHERES / 2);
+        float[] origin = {0.0f, 0.0f, 0.0f};
+        float[] axis = {0.0f, 0.0f, -1.0f};
+        // a cone this wide takes in everything in front
+        int count = batch.inCone(origin, 0, axis, 0, 1.5f, hits);
+        for (int i = 0; i < count; i++) {
+            assertTrue(hits[i] < SPHERES / 2);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void countBeyondCapacityThrows() {
+        batch.setCount(SPHERES + 1);
+    }
+
+    private boolean nearLookLimit(float[] m, int i, float pitchLimit, float yawLimit) {
+        double cx = m[0] * x[i] + m[4] * y[i] + m[8] * z[i] + m[12];
+        double cy = m[1] * x[i] + m[5] * y[i] + m[9] * z[i] + m[13];
+        double cz = m[2] * x[i] + m[6] * y[i] + m[10] * z[i] + m[14];
+        return Math.abs(Math.abs(Math.atan2(cy, -cz)) - pitchLimit) < MARGIN
+                || Math.abs(Math.abs(Math.atan2(cx, -cz)) - yawLimit) < MARGIN
+                || Math.abs(cz) < MARGIN;
+    }
+
+    private boolean nearRayLimit(float[] origin, float[] direction, int i) {
+        double vx = x[i] - origin[0], vy = y[i] - origin[1], vz = z[i] - origin[2];
+        double along = vx * direction[0] + vy * direction[1] + vz * direction[2];
+        double mx = vx - along * direction[0];
+        double my = vy - along * direction[1];
+        double mz = vz - along * direction[2];
+        double missBy = Math.sqrt(mx * mx + my * my + mz * mz) - radii[i];
+        return Math.abs(along) < MARGIN * FIELD || Math.abs(missBy) < MARGIN * FIELD;
+    }
+
+    // where the ray enters sphere i, in doubles
+    private float entryDistance(float[] origin, float[] direction, int i) {
+        double vx = x[i] - origin[0], vy = y[i] - origin[1], vz = z[i] - origin[2];
+        double along = vx * direction[0] + vy * direction[1] + vz * direction[2];
+        double centerSquared = vx * vx + vy * vy + vz * vz;
+        double radiusSquared = (double) radii[i] * radii[i];
+        if (centerSquared <= radiusSquared) {
+            return 0.0f;
+        }
+        return (float) (along - Math.sqrt(radiusSquared - (centerSquared - along * along)));
+    }
+
+    private void randomSpheres() {
+        batch.setCount(SPHERES);
+        for (int i = 0; i < SPHERES; i++) {
+            x[i] = (random.nextFloat() - 0.5f) * FIELD;
+            y[i] = (random.nextFloat() - 0.5f) * FIELD;
+            z[i] = (random.nextFloat() - 0.5f) * FIELD;
+            radii[i] = 0.1f + random.nextFloat() * 1.5f;
+            batch.setSphere(i, x[i], y[i], z[i], radii[i]);
+        }
+    }
+
+    private void randomHead(float[] headView) {
+        Mat4.setIdentity(headView, 0);
+        Mat4.rotate(headView, 0, random.nextFloat() * 360.0f, random.nextFloat() - 0.5f,
+                random.nextFloat() - 0.5f, random.nextFloat() - 0.5f);
+        Mat4.rotate(headView, 0, random.nextFloat() * 360.0f, 0.0f, 1.0f, 0.0f);
+    }
+
+    private void randomRay(float[] origin, float[] direction) {
+        for (int i = 0; i < 3; i++) {
+            origin[i] = (random.nextFloat() - 0.5f) * FIELD * 0.5f;
+            direction[i] = (float) random.nextGaussian();
+        }
+        float length = (float) Math.sqrt(direction[0] * direction[0]
+                + direction[1] * direction[1] + direction[2] * direction[2]);
+        for (int i = 0; i < 3; i++) {
+            direction[i] /= length;
+        }
+    }
+
+    private static boolean[] asFlags(int[] hits, int count) {
+        boolean[] flags = new boolean[SPHERES];
+        for (int i = 0; i < count; i++) {
+            flags[hits[i]] = true;
+        }
+        return flags;
+    }
+}
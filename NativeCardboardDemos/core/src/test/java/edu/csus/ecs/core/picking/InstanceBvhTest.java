@@ -0,0 +1,297 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.core.picking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.csus.ecs.core.math.Mat4;
+import edu.csus.ecs.core.math.Quat;
+
+/**
+ * Checks InstanceBvh picks against moving the ray into every instance in turn and testing all
+ * of its triangles, after a build and after the instances move and the tree is refit.
+ *
+ * The brute force moves the ray with the same float math as the tree and tests triangles like
+ * {@link MeshBvhTest}, so the nearest distance has to match exactly. The world space point and
+ * normal are checked against the model matrices in doubles.
+ */
+public class InstanceBvhTest {
+
+    private static final int INSTANCES = 300;
+    private static final int RAYS = 10000;
+    private static final float FIELD = 40.0f;
+
+    private final Random random = new Random(13);
+    private final MeshHit hit = new MeshHit();
+
+    private final float[] cubePositions = MeshBvhTest.cubeTriangles();
+    private final float[] rockPositions = rock();
+    private final MeshBvh cube = new MeshBvh(cubePositions);
+    private final MeshBvh rock = new MeshBvh(rockPositions);
+
+    private final float[] models = new float[INSTANCES * 16];
+    private final float[] inverses = new float[INSTANCES * 16];
+    private final float[] rotation = new float[4];
+
+    @Test
+    public void picksMatchBruteForce() {
+        InstanceBvh instances = new InstanceBvh(INSTANCES);
+        assertEquals(INSTANCES, instances.getCapacity());
+        for (int i = 0; i < INSTANCES; i++) {
+            place(instances, i, randomPosition(), randomPosition(), randomPosition());
+        }
+        instances.setInstanceCount(INSTANCES);
+        instances.build();
+        checkRays(instances, INSTANCES);
+    }
+
+    @Test
+    public void picksMatchBruteForceAfterRefit() {
+        InstanceBvh instances = new InstanceBvh(INSTANCES);
+        for (int i = 0; i < INSTANCES; i++) {
+            place(instances, i, randomPosition(), randomPosition(), randomPosition());
+        }
+        instances.setInstanceCount(INSTANCES);
+        instances.build();
+
+        // a little at first, then anywhere, turned and scaled anew each time
+        for (float step : new float[] {0.5f, FIELD}) {
+            for (int i = 0; i < INSTANCES; i++) {
+                int m = i * 16;
+                place(instances, i, models[m + 12] + (random.nextFloat() - 0.5f) * step,
+                        models[m + 13] + (random.nextFloat() - 0.5f) * step,
+                        models[m + 14] + (random.nextFloat() - 0.5f) * step);
+            }
+            instances.refit();
+            checkRays(instances, INSTANCES);
+        }
+    }
+
+    @Test
+    public void picksOnlyTheCountedInstances() {
+        InstanceBvh instances = new InstanceBvh(INSTANCES);
+        for (int i = 0; i < INSTANCES; i++) {
+            place(instances, i, randomPosition(), randomPosition(), randomPosition());
+        }
+        instances.setInstanceCount(INSTANCES / 3);
+        instances.build();
+        assertEquals(INSTANCES / 3, instances.getInstanceCount());
+        checkRays(instances, INSTANCES / 3);
+    }
+
+    @Test
+    public void scaledCubeHitPointAndNormal() {
+        InstanceBvh instances = new InstanceBvh(2);
+        float[] model = new float[16];
+        Quat.setIdentity(rotation, 0);
+        // a slab 4 wide, 1 tall and 0.5 deep, 10 in front
+        Mat4.setRotationTranslationScale(model, 0, rotation, 0, 0.0f, 0.0f, -10.0f, 2.0f, 0.5f,
+                0.25f);
+        instances.setInstance(0, cube, model, 0);
+        // the same turned a quarter about y, further away
+        Quat.setAxisAngle(rotation, 0, (float) (Math.PI / 2), 0.0f, 1.0f, 0.0f);
+        Mat4.setRotationTranslationScale(model, 0, rotation, 0, 0.0f, 0.0f, -20.0f, 2.0f, 0.5f,
+                0.25f);
+        instances.setInstance(1, cube, model, 0);
+        instances.setInstanceCount(2);
+        instances.build();
+
+        float[] origin = {1.5f, 0.25f, 0.0f};
+        assertTrue(instances.pick(origin, 0, new float[] {0.0f, 0.0f, -1.0f}, 0, hit));
+        assertEquals(0, hit.getObject());
+        assertEquals(9.75f, hit.getDistance(), 1e-5f);
+        assertEquals(1.5f, hit.getPoint()[0], 1e-5f);
+        assertEquals(0.25f, hit.getPoint()[1], 1e-5f);
+        assertEquals(-9.75f, hit.getPoint()[2], 1e-5f);
+        assertEquals(0.0f, hit.getNormal()[0], 1e-5f);
+        assertEquals(0.0f, hit.getNormal()[1], 1e-5f);
+        assertEquals(1.0f, hit.getNormal()[2], 1e-5f);
+
+        // past the turned slab's side, which now reaches 0.25 either way of x = 0
+        origin[0] = 0.1f;
+        origin[2] = -15.0f;
+        assertTrue(instances.pick(origin, 0, new float[] {0.0f, 0.0f, -2.0f}, 0, hit));
+        assertEquals(1, hit.getObject());
+        assertEquals(1.5f, hit.getDistance(), 1e-5f);
+        assertEquals(1.0f, hit.getNormal()[2], 1e-5f);
+
+        origin[0] = 0.3f;
+        assertFalse(instances.pick(origin, 0, new float[] {0.0f, 0.0f, -1.0f}, 0, hit));
+        assertEquals(PickHit.NONE, hit.getObject());
+        assertEquals(PickHit.NONE, hit.getTriangle());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void singularModelThrows() {
+        float[] model = new float[16];
+        Mat4.setIdentity(model, 0);
+        model[5] = 0.0f;
+        new InstanceBvh(1).setInstance(0, cube, model, 0);
+    }
+
+    // random rays from inside and around the field, a quarter of them along an axis
+    private void checkRays(InstanceBvh instances, int count) {
+        float[] origin = new float[3];
+        float[] direction = new float[3];
+        float[] local = new float[6];
+        int hits = 0;
+        for (int ray = 0; ray < RAYS; ray++) {
+            for (int i = 0; i < 3; i++) {
+                origin[i] = (random.nextFloat() - 0.5f) * FIELD * 1.5f;
+                direction[i] = (float) random.nextGaussian();
+            }
+            if (ray % 4 == 0) {
+                int axis = random.nextInt(3);
+                for (int i = 0; i < 3; i++) {
+                    direction[i] = i == axis ? (random.nextBoolean() ? 1.0f : -1.0f) : 0.0f;
+                }
+            }
+
+            float expected = Float.POSITIVE_INFINITY;
+            for (int i = 0; i < count; i++) {
+                expected = Math.min(expected, instanceDistance(i, origin, direction, local));
+            }
+            boolean picked = instances.pick(origin, 0, direction, 0, hit);
+            String what = "ray " + ray + " from " + origin[0] + ", " + origin[1] + ", "
+                    + origin[2];
+            assertEquals(what, expected != Float.POSITIVE_INFINITY, picked);
+            if (!picked) {
+                continue;
+            }
+            hits++;
+            int instance = hit.getObject();
+            assertTrue(what, instance >= 0 && instance < count);
+            assertEquals(what, expected, hit.getDistance(), 0.0f);
+            instanceDistance(instance, origin, direction, local);
+            float[] positions = positionsOf(instance);
+            float[] localOrigin = {local[0], local[1], local[2]};
+            float[] localDirection = {local[3], local[4], local[5]};
+            assertEquals(what, expected, MeshBvhTest.triangleDistance(positions, null,
+                    hit.getTriangle(), localOrigin, localDirection), 0.0f);
+            for (int i = 0; i < 3; i++) {
+                assertEquals(what, origin[i] + direction[i] * expected, hit.getPoint()[i],
+                        1e-3f);
+            }
+            checkNormal(what, instance, positions, direction);
+        }
+        assertTrue("only " + hits + " of " + RAYS + " rays hit", hits > RAYS / 20);
+    }
+
+    /**
+     * Moves the ray into an instance's coordinates the way the tree does, leaving it in local,
+     * and tests every triangle.
+     */
+    private float instanceDistance(int instance, float[] origin, float[] direction,
+                                   float[] local) {
+        int m = instance * 16;
+        float[] inv = inverses;
+        float ox = origin[0], oy = origin[1], oz = origin[2];
+        float dx = direction[0], dy = direction[1], dz = direction[2];
+        local[0] = inv[m] * ox + inv[m + 4] * oy + inv[m + 8] * oz + inv[m + 12];
+        local[1] = inv[m + 1] * ox + inv[m + 5] * oy + inv[m + 9] * oz + inv[m + 13];
+        local[2] = inv[m + 2] * ox + inv[m + 6] * oy + inv[m + 10] * oz + inv[m + 14];
+        local[3] = inv[m] * dx + inv[m + 4] * dy + inv[m + 8] * dz;
+        local[4] = inv[m + 1] * dx + inv[m + 5] * dy + inv[m + 9] * dz;
+        local[5] = inv[m + 2] * dx + inv[m + 6] * dy + inv[m + 10] * dz;
+        float[] localOrigin = {local[0], local[1], local[2]};
+        float[] localDirection = {local[3], local[4], local[5]};
+
+        float[] positions = positionsOf(instance);
+        float nearest = Float.POSITIVE_INFINITY;
+        for (int t = 0; t < positions.length / 9; t++) {
+            nearest = Math.min(nearest, MeshBvhTest.triangleDistance(positions, null, t,
+                    localOrigin, localDirection));
+        }
+        return nearest;
+    }
+
+    // the triangle's world normal is the model's inverse transpose times its local one
+    private void checkNormal(String what, int instance, float[] positions, float[] direction) {
+        float[] localNormal = new float[3];
+        MeshBvhTest.triangleNormal(positions, null, hit.getTriangle(), localNormal);
+        int m = instance * 16;
+        double[] normal = new double[3];
+        for (int row = 0; row < 3; row++) {
+            for (int i = 0; i < 3; i++) {
+                normal[row] += (double) inverses[m + row * 4 + i] * localNormal[i];
+            }
+        }
+        double length = Math.sqrt(normal[0] * normal[0] + normal[1] * normal[1]
+                + normal[2] * normal[2]);
+        double facing = normal[0] * direction[0] + normal[1] * direction[1]
+                + normal[2] * direction[2];
+        double sign = facing > 0.0 ? -1.0 : 1.0;
+        for (int i = 0; i < 3; i++) {
+            assertEquals(what, (float) (sign * normal[i] / length), hit.getNormal()[i], 1e-4f);
+        }
+    }
+
+    private float[] positionsOf(int instance) {
+        return instance % 2 == 0 ? cubePositions : rockPositions;
+    }
+
+    // turned any way and stretched up to 4 to 1, cubes and rocks taking turns
+    private void place(InstanceBvh instances, int instance, float x, float y, float z) {
+        Quat.setAxisAngle(rotation, 0, random.nextFloat() * (float) (2 * Math.PI),
+                (float) random.nextGaussian(), (float) random.nextGaussian(),
+                (float) random.nextGaussian());
+        int m = instance * 16;
+        Mat4.setRotationTranslationScale(models, m, rotation, 0, x, y, z,
+                0.5f + random.nextFloat() * 1.5f, 0.5f + random.nextFloat() * 1.5f,
+                0.5f + random.nextFloat() * 1.5f);
+        assertTrue(Mat4.invertAffine(inverses, m, models, m));
+        instances.setInstance(instance, instance % 2 == 0 ? cube : rock, models, m);
+    }
+
+    private float randomPosition() {
+        return (random.nextFloat() - 0.5f) * FIELD;
+    }
+
+    // a lumpy closed shape: an octahedron's faces, split and pushed out at random
+    private float[] rock() {
+        float[] corners = {1, 0, 0, 0, 1, 0, 0, 0, 1, -1, 0, 0, 0, -1, 0, 0, 0, -1};
+        int[] faces = {0, 1, 2, 1, 3, 2, 3, 4, 2, 4, 0, 2, 1, 0, 5, 3, 1, 5, 4, 3, 5, 0, 4, 5};
+        float[] positions = new float[faces.length / 3 * 3 * 9];
+        Random lumps = new Random(17);
+        float[] middle = new float[3];
+        int p = 0;
+        for (int f = 0; f < faces.length; f += 3) {
+            float push = 1.0f + lumps.nextFloat();
+            for (int i = 0; i < 3; i++) {
+                middle[i] = (corners[faces[f] * 3 + i] + corners[faces[f + 1] * 3 + i]
+                        + corners[faces[f + 2] * 3 + i]) / 3.0f * push;
+            }
+            for (int edge = 0; edge < 3; edge++) {
+                int a = faces[f + edge] * 3;
+                int b = faces[f + (edge + 1) % 3] * 3;
+                for (int i = 0; i < 3; i++) {
+                    positions[p + i] = corners[a + i];
+                    positions[p + 3 + i] = corners[b + i];
+                    positions[p + 6 + i] = middle[i];
+                }
+                p += 9;
+            }
+        }
+        return positions;
+    }
+}
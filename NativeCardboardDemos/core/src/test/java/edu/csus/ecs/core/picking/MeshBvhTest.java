@@ -0,0 +1,259 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.core.picking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks MeshBvh picks against testing every triangle in turn, for a random triangle soup, the
+ * same soup indexed, and a cube whose faces are flat boxes in the tree.
+ *
+ * The brute force test is the same float Moller-Trumbore as the mesh's, so the nearest distance
+ * has to match exactly. Triangles sharing an edge or corner can tie, so the check on the triangle
+ * picked is that it's hit at that same distance.
+ */
+public class MeshBvhTest {
+
+    private static final int TRIANGLES = 2000;
+    private static final int RAYS = 20000;
+    private static final float FIELD = 20.0f;
+
+    private final Random random = new Random(11);
+    private final MeshHit hit = new MeshHit();
+
+    @Test
+    public void picksMatchBruteForce() {
+        float[] positions = randomTriangles(TRIANGLES);
+        checkRays(new MeshBvh(positions), positions, null);
+    }
+
+    @Test
+    public void indexedPicksMatchBruteForce() {
+        // every vertex used by several triangles, in no particular order
+        float[] positions = new float[TRIANGLES * 3];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = (random.nextFloat() - 0.5f) * FIELD;
+        }
+        short[] indices = new short[TRIANGLES * 3];
+        for (int t = 0; t < TRIANGLES; t++) {
+            // keep the triangles small enough that the tree has something to skip
+            int first = random.nextInt(TRIANGLES - 8);
+            for (int corner = 0; corner < 3; corner++) {
+                indices[t * 3 + corner] = (short) (first + random.nextInt(8));
+            }
+        }
+        checkRays(new MeshBvh(positions, indices), positions, indices);
+    }
+
+    @Test
+    public void cubePicksMatchBruteForce() {
+        float[] positions = cubeTriangles();
+        MeshBvh cube = new MeshBvh(positions);
+        assertEquals(12, cube.getTriangleCount());
+        float[] bounds = cube.getBounds();
+        for (int axis = 0; axis < 3; axis++) {
+            assertEquals(-1.0f, bounds[axis], 0.0f);
+            assertEquals(1.0f, bounds[axis + 3], 0.0f);
+        }
+        checkRays(cube, positions, null);
+    }
+
+    @Test
+    public void cubeHitPointAndNormal() {
+        MeshBvh cube = new MeshBvh(cubeTriangles());
+        assertTrue(cube.pick(new float[] {0.25f, 0.5f, 5.0f}, 0, new float[] {0.0f, 0.0f, -2.0f},
+                0, hit));
+        assertEquals(0, hit.getObject());
+        // distances are in units of the direction's length
+        assertEquals(2.0f, hit.getDistance(), 1e-6f);
+        assertEquals(0.25f, hit.getPoint()[0], 1e-6f);
+        assertEquals(0.5f, hit.getPoint()[1], 1e-6f);
+        assertEquals(1.0f, hit.getPoint()[2], 1e-6f);
+        assertEquals(0.0f, hit.getNormal()[0], 1e-6f);
+        assertEquals(0.0f, hit.getNormal()[1], 1e-6f);
+        assertEquals(1.0f, hit.getNormal()[2], 1e-6f);
+
+        // from inside, the far face is hit and its normal faces back along the ray
+        assertTrue(cube.pick(new float[3], 0, new float[] {1.0f, 0.0f, 0.0f}, 0, hit));
+        assertEquals(1.0f, hit.getDistance(), 1e-6f);
+        assertEquals(-1.0f, hit.getNormal()[0], 1e-6f);
+
+        assertFalse(cube.pick(new float[] {0.0f, 0.0f, 5.0f}, 0, new float[] {0.0f, 0.0f, 1.0f},
+                0, hit));
+        assertEquals(PickHit.NONE, hit.getTriangle());
+        assertFalse(cube.pick(new float[] {1.5f, 0.0f, 5.0f}, 0, new float[] {0.0f, 0.0f, -1.0f},
+                0, hit));
+    }
+
+    // random rays from around the mesh, a quarter of them along an axis
+    private void checkRays(MeshBvh mesh, float[] positions, short[] indices) {
+        float[] bounds = mesh.getBounds();
+        float[] origin = new float[3];
+        float[] direction = new float[3];
+        float[] normal = new float[3];
+        int hits = 0;
+        for (int ray = 0; ray < RAYS; ray++) {
+            for (int i = 0; i < 3; i++) {
+                float size = bounds[i + 3] - bounds[i];
+                origin[i] = bounds[i] + (random.nextFloat() * 1.5f - 0.25f) * size;
+                direction[i] = (float) random.nextGaussian();
+            }
+            if (ray % 4 == 0) {
+                int axis = random.nextInt(3);
+                for (int i = 0; i < 3; i++) {
+                    direction[i] = i == axis ? (random.nextBoolean() ? 1.0f : -1.0f) : 0.0f;
+                }
+            }
+
+            int count = indices != null ? indices.length / 3 : positions.length / 9;
+            float expected = Float.POSITIVE_INFINITY;
+            for (int t = 0; t < count; t++) {
+                expected = Math.min(expected,
+                        triangleDistance(positions, indices, t, origin, direction));
+            }
+            boolean picked = mesh.pick(origin, 0, direction, 0, hit);
+            String what = "ray " + ray + " from " + origin[0] + ", " + origin[1] + ", "
+                    + origin[2];
+            assertEquals(what, expected != Float.POSITIVE_INFINITY, picked);
+            if (!picked) {
+                continue;
+            }
+            hits++;
+            int triangle = hit.getTriangle();
+            assertEquals(what, expected, hit.getDistance(), 0.0f);
+            assertEquals(what, expected,
+                    triangleDistance(positions, indices, triangle, origin, direction), 0.0f);
+            for (int i = 0; i < 3; i++) {
+                assertEquals(what, origin[i] + direction[i] * expected, hit.getPoint()[i],
+                        1e-4f);
+            }
+
+            // the normal is the triangle's, turned to face the ray
+            triangleNormal(positions, indices, triangle, normal);
+            float facing = normal[0] * direction[0] + normal[1] * direction[1]
+                    + normal[2] * direction[2];
+            float sign = facing > 0.0f ? -1.0f : 1.0f;
+            for (int i = 0; i < 3; i++) {
+                assertEquals(what, sign * normal[i], hit.getNormal()[i], 1e-5f);
+            }
+        }
+        assertTrue("only " + hits + " of " + RAYS + " rays hit", hits > RAYS / 10);
+    }
+
+    private static int vertex(short[] indices, int triangle, int corner) {
+        return (indices != null ? indices[triangle * 3 + corner] : triangle * 3 + corner) * 3;
+    }
+
+    // the same float math as the mesh's leaf test
+    static float triangleDistance(float[] positions, short[] indices, int triangle,
+                                  float[] origin, float[] direction) {
+        int v0 = vertex(indices, triangle, 0);
+        int v1 = vertex(indices, triangle, 1);
+        int v2 = vertex(indices, triangle, 2);
+        float e1x = positions[v1] - positions[v0];
+        float e1y = positions[v1 + 1] - positions[v0 + 1];
+        float e1z = positions[v1 + 2] - positions[v0 + 2];
+        float e2x = positions[v2] - positions[v0];
+        float e2y = positions[v2 + 1] - positions[v0 + 1];
+        float e2z = positions[v2 + 2] - positions[v0 + 2];
+        float dx = direction[0], dy = direction[1], dz = direction[2];
+
+        float px = dy * e2z - dz * e2y;
+        float py = dz * e2x - dx * e2z;
+        float pz = dx * e2y - dy * e2x;
+        float det = e1x * px + e1y * py + e1z * pz;
+        if (det == 0.0f) {
+            return Float.POSITIVE_INFINITY;
+        }
+        float invDet = 1.0f / det;
+        float sx = origin[0] - positions[v0];
+        float sy = origin[1] - positions[v0 + 1];
+        float sz = origin[2] - positions[v0 + 2];
+        float u = (sx * px + sy * py + sz * pz) * invDet;
+        if (u < 0.0f || u > 1.0f) {
+            return Float.POSITIVE_INFINITY;
+        }
+        float qx = sy * e1z - sz * e1y;
+        float qy = sz * e1x - sx * e1z;
+        float qz = sx * e1y - sy * e1x;
+        float v = (dx * qx + dy * qy + dz * qz) * invDet;
+        if (v < 0.0f || u + v > 1.0f) {
+            return Float.POSITIVE_INFINITY;
+        }
+        float distance = (e2x * qx + e2y * qy + e2z * qz) * invDet;
+        return distance >= 0.0f ? distance : Float.POSITIVE_INFINITY;
+    }
+
+    // unit normal, in doubles
+    static void triangleNormal(float[] positions, short[] indices, int triangle,
+                               float[] result) {
+        int v0 = vertex(indices, triangle, 0);
+        int v1 = vertex(indices, triangle, 1);
+        int v2 = vertex(indices, triangle, 2);
+        double[] e1 = new double[3];
+        double[] e2 = new double[3];
+        for (int i = 0; i < 3; i++) {
+            e1[i] = positions[v1 + i] - positions[v0 + i];
+            e2[i] = positions[v2 + i] - positions[v0 + i];
+        }
+        double x = e1[1] * e2[2] - e1[2] * e2[1];
+        double y = e1[2] * e2[0] - e1[0] * e2[2];
+        double z = e1[0] * e2[1] - e1[1] * e2[0];
+        double length = Math.sqrt(x * x + y * y + z * z);
+        result[0] = (float) (x / length);
+        result[1] = (float) (y / length);
+        result[2] = (float) (z / length);
+    }
+
+    private float[] randomTriangles(int count) {
+        float[] positions = new float[count * 9];
+        for (int t = 0; t < count; t++) {
+            int p = t * 9;
+            for (int axis = 0; axis < 3; axis++) {
+                float center = (random.nextFloat() - 0.5f) * FIELD;
+                for (int corner = 0; corner < 3; corner++) {
+                    positions[p + corner * 3 + axis] = center + (random.nextFloat() - 0.5f) * 2.0f;
+                }
+            }
+        }
+        return positions;
+    }
+
+    /** @return a cube from -1 to 1 as a triangle list, two triangles per face */
+    static float[] cubeTriangles() {
+        float[] corners = {-1, 1, -1, -1, 1, 1, -1, -1, 1, -1, 1, 1};
+        float[] triangles = new float[6 * 2 * 3 * 3];
+        int t = 0;
+        for (int axis = 0; axis < 3; axis++) {
+            for (int side = -1; side <= 1; side += 2) {
+                for (int corner = 0; corner < 12; corner += 2) {
+                    triangles[t + axis] = side;
+                    triangles[t + (axis + 1) % 3] = corners[corner];
+                    triangles[t + (axis + 2) % 3] = corners[corner + 1];
+                    t += 3;
+                }
+            }
+        }
+        return triangles;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.core.scene;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.csus.ecs.core.math.Mat4;
+import edu.csus.ecs.core.math.Quat;
+import edu.csus.ecs.core.picking.AsyncGazePicker;
+import edu.csus.ecs.core.picking.GazeBatch;
+import edu.csus.ecs.core.picking.GazeResult;
+import edu.csus.ecs.core.picking.MeshBvh;
+import edu.csus.ecs.core.picking.PickHit;
+
+/**
+ * Runs TreasureHunt's frame against a head that sweeps left and right and checks that the steady
+ * state allocates nothing: moving the treasure, filling a picker's snapshot, picking by the
+ * gaze window and along the gaze ray, and culling both eyes with levels of detail, one at a time
+ * and together. The same goes for the MinimalDemos' frame: spinning the cube, placing the reticle
+ * and picking the cube's triangles.
+ *
+ * The frames are counted by the JVM's per-thread allocation counter, which HotSpot has; on a VM
+ * without it the test is skipped.
+ */
+public class FrameAllocationTest {
+
+    private static final int WARM_UP_FRAMES = 3000;
+    private static final int FRAMES = 1000;
+    private static final int WINDOWS = 3;
+    private static final int EYES = 2;
+    private static final float HALF_IPD = 0.032f;
+
+    private final TreasureHuntFrame treasureHunt = new TreasureHuntFrame(
+            new LodSelector(new float[] {0.2f, 0.05f}, 0.1f, TreasureHuntFrame.MAX_CUBES, EYES),
+            new Random(1));
+    private final AsyncGazePicker gazePicker = new AsyncGazePicker(TreasureHuntFrame.MAX_CUBES,
+            TreasureHuntFrame.PITCH_LIMIT, TreasureHuntFrame.YAW_LIMIT);
+    private final GazeResult gazeResult = new GazeResult();
+    private final GazeBatch gazeBatch = new GazeBatch(TreasureHuntFrame.MAX_CUBES);
+    private final PickHit hit = new PickHit();
+    private final MinimalDemoFrame minimalDemo =
+            new MinimalDemoFrame(new MeshBvh(MinimalDemoFrameTest.cubeTriangles()));
+    private final float[] headRotation = new float[4];
+    private final float[] origin = {0.0f, 0.0f, TreasureHuntFrame.CAMERA_Z};
+
+    private final float[] headView = new float[16];
+    private final float[] headCamera = new float[16];
+    private final float[] eyeOffset = new float[16];
+    private final float[] forward = new float[3];
+    private final float[] views = new float[EYES * 16];
+    private final float[] projections = new float[EYES * 16];
+    private final float[] viewProjections = new float[EYES * 16];
+
+    private interface Frame {
+        void run(long frame);
+    }
+
+    @Test
+    public void steadyStateFrameDoesNotAllocate() {
+        treasureHunt.setUp(true);
+        for (int eye = 0; eye < EYES; eye++) {
+            Mat4.setPerspective(projections, eye * 16, 90.0f, 1.0f, TreasureHuntFrame.Z_NEAR,
+                    TreasureHuntFrame.Z_FAR);
+        }
+        assertNoAllocation(new Frame() {
+            @Override
+            public void run(long frame) {
+                treasureHuntFrame(frame);
+            }
+        });
+    }
+
+    @Test
+    public void minimalDemoFrameDoesNotAllocate() {
+        assertNoAllocation(new Frame() {
+            @Override
+            public void run(long frame) {
+                minimalDemoFrame(frame);
+            }
+        });
+    }
+
+    private void assertNoAllocation(Frame frame) {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        long thread = Thread.currentThread().getId();
+
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            frame.run(i);
+        }
+
+        // HotSpot itself allocates now and then as it recompiles code, once per window at most;
+        // the frame allocating shows up in every window
+        long allocated = 0L;
+        int first = WARM_UP_FRAMES;
+        for (int window = 0; window < WINDOWS; window++, first += FRAMES) {
+            // what reading the counter costs by itself, if anything
+            long before = threads.getThreadAllocatedBytes(thread);
+            long overhead = threads.getThreadAllocatedBytes(thread) - before;
+            before = threads.getThreadAllocatedBytes(thread);
+            for (int i = first; i < first + FRAMES; i++) {
+                frame.run(i);
+            }
+            allocated = threads.getThreadAllocatedBytes(thread) - before - overhead;
+            if (allocated == 0L) {
+                break;
+            }
+        }
+        assertEquals("Bytes allocated over " + FRAMES + " frames", 0L, allocated);
+    }
+
+    // the head turns up to 120 degrees either way, starting straight ahead
+    private void turnHead(long frame) {
+        float yaw = (float) Math.sin(frame * 0.01) * 120.0f;
+        Mat4.setIdentity(headView, 0);
+        Mat4.rotate(headView, 0, yaw, 0.0f, 1.0f, 0.0f);
+        double radians = Math.toRadians(yaw);
+        forward[0] = (float) Math.sin(radians);
+        forward[1] = 0.0f;
+        forward[2] = (float) -Math.cos(radians);
+        Quat.setAxisAngle(headRotation, 0, (float) radians, 0.0f, -1.0f, 0.0f);
+    }
+
+    private void treasureHuntFrame(long frame) {
+        turnHead(frame);
+        treasureHunt.spin();
+        treasureHunt.fillSnapshot(gazePicker.beginSnapshot(), frame, headView, 0, forward, 0);
+        gazePicker.publishSnapshot();
+        gazePicker.getLatest(gazeResult);
+        treasureHunt.pick(headView, 0);
+
+        Scene scene = treasureHunt.getScene();
+        float[] spheres = scene.getSpheres();
+        gazeBatch.setCount(scene.getCount());
+        for (int i = 0; i < scene.getCount(); i++) {
+            int s = i * 4;
+            gazeBatch.setSphere(i, spheres[s], spheres[s + 1], spheres[s + 2], spheres[s + 3]);
+        }
+        gazeBatch.pick(origin, 0, forward, 0, hit);
+
+        Mat4.multiply(headCamera, 0, headView, 0, treasureHunt.getCamera(), 0);
+        for (int eye = 0; eye < EYES; eye++) {
+            Mat4.setTranslation(eyeOffset, 0, eye == 0 ? HALF_IPD : -HALF_IPD, 0.0f, 0.0f);
+            Mat4.multiply(views, eye * 16, eyeOffset, 0, headCamera, 0);
+            Mat4.multiply(viewProjections, eye * 16, projections, eye * 16, views, eye * 16);
+            treasureHunt.cull(eye, views, eye * 16, projections, eye * 16, viewProjections,
+                    eye * 16);
+        }
+        treasureHunt.cullEyes(EYES, views, projections, viewProjections);
+
+        if (frame % 100 == 0) {
+            treasureHunt.hideTreasure();
+        }
+    }
+
+    private void minimalDemoFrame(long frame) {
+        turnHead(frame);
+        minimalDemo.spin();
+        minimalDemo.placeReticle(headRotation, 0);
+        minimalDemo.pick(forward, 0);
+        if (frame % 100 == 0) {
+            minimalDemo.moveCube(frame % 11 - 5);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.core.scene;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import edu.csus.ecs.core.math.Quat;
+import edu.csus.ecs.core.picking.MeshBvh;
+
+/**
+ * Checks the MinimalDemos' frame: the gaze ray picks the cube wherever it was moved to, and the
+ * reticle sits on the gaze at its distance, at its size.
+ */
+public class MinimalDemoFrameTest {
+
+    private final MinimalDemoFrame frame = new MinimalDemoFrame(new MeshBvh(cubeTriangles()));
+    private final float[] headRotation = new float[4];
+    private final float[] forward = new float[3];
+
+    @Test
+    public void gazePicksTheSpinningCube() {
+        for (int i = 0; i < 100; i++) {
+            frame.spin();
+            look(0.0f);
+            assertTrue(frame.pick(forward, 0));
+            // the cube is 7 away and at most sqrt(3) across, 20 degrees off misses it
+            look(20.0f);
+            assertFalse(frame.pick(forward, 0));
+            look(-20.0f);
+            assertFalse(frame.pick(forward, 0));
+        }
+    }
+
+    @Test
+    public void gazeFollowsTheMovedCube() {
+        frame.moveCube(5.0f);
+        look(0.0f);
+        assertFalse(frame.pick(forward, 0));
+        // from the camera, 5 to the right and 7 ahead
+        look((float) Math.toDegrees(Math.atan2(5.0, 7.0 + MinimalDemoFrame.CAMERA_Z)));
+        assertTrue(frame.pick(forward, 0));
+        float[] cube = frame.getCubeModel();
+        assertEquals(5.0f, cube[12], 0.0f);
+        assertEquals(-7.0f, cube[14], 0.0f);
+
+        frame.moveCube(0.0f);
+        look(0.0f);
+        assertTrue(frame.pick(forward, 0));
+    }
+
+    @Test
+    public void reticleSitsOnTheGaze() {
+        for (float yaw = -180.0f; yaw <= 180.0f; yaw += 15.0f) {
+            look(yaw);
+            frame.placeReticle(headRotation, 0);
+            float[] reticle = frame.getReticle();
+            for (int i = 0; i < 3; i++) {
+                assertEquals(forward[i] * MinimalDemoFrame.RETICLE_DISTANCE, reticle[12 + i],
+                        1e-5f);
+            }
+            for (int column = 0; column < 3; column++) {
+                int c = column * 4;
+                float length = (float) Math.sqrt(reticle[c] * reticle[c]
+                        + reticle[c + 1] * reticle[c + 1] + reticle[c + 2] * reticle[c + 2]);
+                assertEquals(MinimalDemoFrame.RETICLE_SIZE, length, 1e-6f);
+            }
+        }
+    }
+
+    // turns the head the given degrees to the right, forward is then the gaze
+    private void look(float degrees) {
+        double radians = Math.toRadians(degrees);
+        Quat.setAxisAngle(headRotation, 0, (float) radians, 0.0f, -1.0f, 0.0f);
+        forward[0] = (float) Math.sin(radians);
+        forward[1] = 0.0f;
+        forward[2] = (float) -Math.cos(radians);
+    }
+
+    /** @return a cube from -1 to 1 as a triangle list, two triangles per face */
+    static float[] cubeTriangles() {
+        float[] corners = {-1, 1, -1, -1, 1, 1, -1, -1, 1, -1, 1, 1};
+        float[] triangles = new float[6 * 2 * 3 * 3];
+        int t = 0;
+        for (int axis = 0; axis < 3; axis++) {
+            for (int side = -1; side <= 1; side += 2) {
+                for (int corner = 0; corner < 12; corner += 2) {
+                    triangles[t + axis] = side;
+                    triangles[t + (axis + 1) % 3] = corners[corner];
+                    triangles[t + (axis + 2) % 3] = corners[corner + 1];
+                    t += 3;
+                }
+            }
+        }
+        return triangles;
+    }
+}
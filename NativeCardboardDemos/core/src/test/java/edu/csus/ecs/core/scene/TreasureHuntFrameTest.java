@@ -0,0 +1,145 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.core.scene;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.csus.ecs.core.math.Mat4;
+
+/**
+ * Checks that {@link TreasureHuntFrame#cullEyes} lists every cube some eye sees once, and that
+ * the cubes it puts before each level's crossing ones can be drawn without clipping: every corner
+ * of them is inside every eye's clip space, so none spills into another eye's part of the
+ * viewport.
+ */
+public class TreasureHuntFrameTest {
+
+    private static final int EYES = 2;
+    private static final float HALF_IPD = 0.032f;
+    private static final int FRAMES = 200;
+
+    private final TreasureHuntFrame treasureHunt = new TreasureHuntFrame(
+            new LodSelector(new float[] {0.2f, 0.05f}, 0.1f, TreasureHuntFrame.MAX_CUBES, EYES),
+            new Random(1));
+
+    private final float[] headView = new float[16];
+    private final float[] headCamera = new float[16];
+    private final float[] eyeOffset = new float[16];
+    private final float[] views = new float[EYES * 16];
+    private final float[] projections = new float[EYES * 16];
+    private final float[] viewProjections = new float[EYES * 16];
+
+    @Test
+    public void cubesBeforeTheCrossingOnesStayInsideEveryEye() {
+        treasureHunt.setUp(true);
+        for (int eye = 0; eye < EYES; eye++) {
+            Mat4.setPerspective(projections, eye * 16, 90.0f, 1.0f, TreasureHuntFrame.Z_NEAR,
+                    TreasureHuntFrame.Z_FAR);
+        }
+        int levels = 3;
+        int inside = 0;
+        int crossing = 0;
+        boolean[] listed = new boolean[TreasureHuntFrame.MAX_CUBES];
+        float[] corner = new float[4];
+        float[] world = new float[4];
+        float[] clip = new float[4];
+        for (int frame = 0; frame < FRAMES; frame++) {
+            setEyes(frame);
+            int visible = treasureHunt.cullEyes(EYES, views, projections, viewProjections);
+            int[] cubes = treasureHunt.getVisibleCubes();
+            float[] models = treasureHunt.getScene().getModels();
+
+            int start = 0;
+            for (int level = 0; level < levels; level++) {
+                assertEquals(start, treasureHunt.getLevelStart(level));
+                int size = treasureHunt.getLevelSize(level);
+                int crossingCount = treasureHunt.getLevelCrossing(level);
+                assertTrue(crossingCount >= 0 && crossingCount <= size);
+                for (int i = start; i < start + size - crossingCount; i++) {
+                    int cube = cubes[i];
+                    for (int c = 0; c < 8; c++) {
+                        corner[0] = (c & 1) != 0 ? 1.0f : -1.0f;
+                        corner[1] = (c & 2) != 0 ? 1.0f : -1.0f;
+                        corner[2] = (c & 4) != 0 ? 1.0f : -1.0f;
+                        corner[3] = 1.0f;
+                        transform(world, models, cube * 16, corner);
+                        for (int eye = 0; eye < EYES; eye++) {
+                            transform(clip, viewProjections, eye * 16, world);
+                            String what = "frame " + frame + ", cube " + cube + ", eye " + eye;
+                            assertTrue(what, Math.abs(clip[0]) <= clip[3]);
+                            assertTrue(what, Math.abs(clip[1]) <= clip[3]);
+                        }
+                    }
+                }
+                inside += size - crossingCount;
+                crossing += crossingCount;
+                start += size;
+            }
+            assertEquals(visible, start);
+
+            for (int i = 0; i < visible; i++) {
+                assertFalse("listed twice", listed[cubes[i]]);
+                listed[cubes[i]] = true;
+            }
+            for (int i = 0; i < visible; i++) {
+                listed[cubes[i]] = false;
+            }
+        }
+        // both kinds come up, most cubes are well inside
+        assertTrue(crossing > 0);
+        assertTrue(inside > crossing * 4);
+    }
+
+    @Test
+    public void oneEyeCullNeverCrosses() {
+        treasureHunt.setUp(true);
+        Mat4.setPerspective(projections, 0, 90.0f, 1.0f, TreasureHuntFrame.Z_NEAR,
+                TreasureHuntFrame.Z_FAR);
+        setEyes(0);
+        int visible = treasureHunt.cull(0, views, 0, projections, 0, viewProjections, 0);
+        assertTrue(visible > 0);
+        for (int level = 0; level < 3; level++) {
+            assertEquals(0, treasureHunt.getLevelCrossing(level));
+        }
+    }
+
+    // the head turns as in FrameAllocationTest, each eye half the IPD to its side
+    private void setEyes(int frame) {
+        float yaw = (float) Math.sin(frame * 0.05) * 120.0f;
+        Mat4.setIdentity(headView, 0);
+        Mat4.rotate(headView, 0, yaw, 0.0f, 1.0f, 0.0f);
+        Mat4.multiply(headCamera, 0, headView, 0, treasureHunt.getCamera(), 0);
+        for (int eye = 0; eye < EYES; eye++) {
+            Mat4.setTranslation(eyeOffset, 0, eye == 0 ? HALF_IPD : -HALF_IPD, 0.0f, 0.0f);
+            Mat4.multiply(views, eye * 16, eyeOffset, 0, headCamera, 0);
+            Mat4.multiply(viewProjections, eye * 16, projections, eye * 16, views, eye * 16);
+        }
+    }
+
+    private static void transform(float[] result, float[] m, int offset, float[] v) {
+        for (int row = 0; row < 4; row++) {
+            result[row] = m[offset + row] * v[0] + m[offset + 4 + row] * v[1]
+                    + m[offset + 8 + row] * v[2] + m[offset + 12 + row] * v[3];
+        }
+    }
+}
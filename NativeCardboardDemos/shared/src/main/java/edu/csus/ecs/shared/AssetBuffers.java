@@ -0,0 +1,84 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.csus.ecs.shared;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Gets at asset contents without a Java heap copy where the APK allows it.
+ */
+final class AssetBuffers {
+
+    private AssetBuffers() {
+    }
+
+    /**
+     * Maps an asset if it's stored uncompressed, otherwise reads it into a direct buffer.
+     */
+    static ByteBuffer map(AssetManager assets, String name) throws IOException {
+        AssetFileDescriptor descriptor;
+        try {
+            descriptor = assets.openFd(name);
+        } catch (FileNotFoundException e) {
+            // openFd can't open compressed assets, and also throws this when there is no asset
+            return read(assets, name);
+        }
+        try {
+            FileInputStream in = descriptor.createInputStream();
+            try {
+                // the mapping stays valid after the channel is closed
+                return in.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                        descriptor.getStartOffset(), descriptor.getLength());
+            } finally {
+                in.close();
+            }
+        } finally {
+            descriptor.close();
+        }
+    }
+
+    private static ByteBuffer read(AssetManager assets, String name) throws IOException {
+        InputStream in = assets.open(name);
+        try {
+            byte[] chunk = new byte[64 * 1024];
+            ByteBuffer data = ByteBuffer.allocateDirect(Math.max(in.available(), chunk.length));
+            int read;
+            while ((read = in.read(chunk)) > 0) {
+                if (data.remaining() < read) {
+                    ByteBuffer bigger = ByteBuffer.allocateDirect(data.capacity() * 2 + read);
+                    data.flip();
+                    bigger.put(data);
+                    data = bigger;
+                }
+                data.put(chunk, 0, read);
+            }
+            data.flip();
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.shared;
+
+import android.util.Log;
+
+import com.google.vr.sdk.base.Eye;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+import edu.csus.ecs.core.metrics.LatencyHistogram;
+
+/**
+ * Where each frame's time goes: CPU time of onNewFrame, each eye and onFinishFrame, GPU time of
+ * each eye, and the time between frames, each kept as a histogram. A renderer that draws both
+ * eyes in one pass times it as {@link #BOTH_EYES}.
+ *
+ * Wrap each phase in {@link #begin} and {@link #end} on the GL thread. Beginning
+ * {@link #NEW_FRAME} also collects GPU times from earlier frames, see {@link GpuTimer}.
+ * {@link #dump(String)}, {@link #dump(File)} and {@link #reset()} may be called from any thread
+ * while frames are being recorded.
+ */
+public class FrameProfiler {
+
+    public static final int NEW_FRAME = 0;
+    public static final int LEFT_EYE = 1;
+    public static final int RIGHT_EYE = 2;
+    public static final int FINISH_FRAME = 3;
+    public static final int BOTH_EYES = 4;
+    private static final int PHASE_COUNT = 5;
+
+    private static final String[] PHASE_NAMES = {
+            "onNewFrame", "left eye", "right eye", "onFinishFrame", "both eyes"};
+
+    public static final long BUDGET_60HZ_NANOS = 16666667L;
+    public static final long BUDGET_90HZ_NANOS = 11111111L;
+
+    // longer gaps between frames are pauses, not slow frames
+    private static final long MAX_FRAME_INTERVAL_NANOS = 1000000000L;
+    private static final int GPU_QUERY_RING_SIZE = 8;
+
+    private final long frameBudgetNanos;
+
+    private final LatencyHistogram frameIntervals = new LatencyHistogram();
+    private final LatencyHistogram[] cpuTimes = new LatencyHistogram[PHASE_COUNT];
+    private final LatencyHistogram[] gpuTimes = new LatencyHistogram[PHASE_COUNT];
+    private final GpuTimer gpuTimer = new GpuTimer(GPU_QUERY_RING_SIZE);
+
+    private final long[] phaseStarts = new long[PHASE_COUNT];
+    private long lastFrameStart;
+
+    /**
+     * @param frameBudgetNanos target time between frames, e.g. {@link #BUDGET_60HZ_NANOS}
+     */
+    public FrameProfiler(long frameBudgetNanos) {
+        this.frameBudgetNanos = frameBudgetNanos;
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            cpuTimes[i] = new LatencyHistogram();
+            gpuTimes[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * @return {@link #LEFT_EYE} or {@link #RIGHT_EYE}; a monocular eye counts as left
+     */
+    public static int eyePhase(Eye eye) {
+        return eye.getType() == Eye.Type.RIGHT ? RIGHT_EYE : LEFT_EYE;
+    }
+
+    /**
+     * @param index eye index as in {@link StereoEyes}, 0 for the left eye
+     */
+    public static int eyePhase(int index) {
+        return LEFT_EYE + index;
+    }
+
+    public void onSurfaceCreated(GLCapabilities capabilities) {
+        gpuTimer.onSurfaceCreated(capabilities);
+        lastFrameStart = 0;
+    }
+
+    /**
+     * Deletes the GPU queries. Call from onRendererShutdown.
+     */
+    public void release() {
+        gpuTimer.release();
+    }
+
+    public void begin(int phase) {
+        long now = System.nanoTime();
+        if (phase == NEW_FRAME) {
+            long interval = now - lastFrameStart;
+            if (lastFrameStart != 0 && interval < MAX_FRAME_INTERVAL_NANOS) {
+                frameIntervals.record(interval);
+            }
+            lastFrameStart = now;
+            gpuTimer.poll(gpuTimes);
+        } else if (isEye(phase)) {
+            gpuTimer.begin(phase);
+        }
+        phaseStarts[phase] = now;
+    }
+
+    public void end(int phase) {
+        if (isEye(phase)) {
+            gpuTimer.end();
+        }
+        cpuTimes[phase].record(System.nanoTime() - phaseStarts[phase]);
+    }
+
+    // the phases timed on the GPU too
+    private static boolean isEye(int phase) {
+        return phase == LEFT_EYE || phase == RIGHT_EYE || phase == BOTH_EYES;
+    }
+
+    public LatencyHistogram getFrameIntervals() {
+        return frameIntervals;
+    }
+
+    public LatencyHistogram getCpuTimes(int phase) {
+        return cpuTimes[phase];
+    }
+
+    public LatencyHistogram getGpuTimes(int phase) {
+        return gpuTimes[phase];
+    }
+
+    /**
+     * Writes the percentiles of every phase to logcat, one line each.
+     */
+    public void dump(String tag) {
+        for (String line : report().split("\n")) {
+            Log.i(tag, line);
+        }
+    }
+
+    /**
+     * Writes the percentiles of every phase to a text file, replacing it.
+     */
+    public void dump(File file) throws IOException {
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write(report());
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Clears every histogram, e.g. after loading so startup frames don't skew the numbers.
+     */
+    public void reset() {
+        frameIntervals.reset();
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            cpuTimes[i].reset();
+            gpuTimes[i].reset();
+        }
+    }
+
+    private String report() {
+        StringBuilder sb = new StringBuilder();
+        long frames = frameIntervals.getCount();
+        long slow = frameIntervals.getCountAbove(frameBudgetNanos);
+        appendLine(sb, "frame interval", frameIntervals);
+        sb.append(String.format(Locale.US, "  %d of %d frames over the %.1f ms budget (%.1f%%)\n",
+                slow, frames, frameBudgetNanos / 1e6, frames == 0 ? 0.0 : 100.0 * slow / frames));
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            appendLine(sb, "cpu " + PHASE_NAMES[i], cpuTimes[i]);
+        }
+        if (gpuTimer.isSupported()) {
+            appendLine(sb, "gpu " + PHASE_NAMES[LEFT_EYE], gpuTimes[LEFT_EYE]);
+            appendLine(sb, "gpu " + PHASE_NAMES[RIGHT_EYE], gpuTimes[RIGHT_EYE]);
+            appendLine(sb, "gpu " + PHASE_NAMES[BOTH_EYES], gpuTimes[BOTH_EYES]);
+        } else {
+            sb.append("gpu times unavailable, no ").append(GpuTimer.EXTENSION).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void appendLine(StringBuilder sb, String name, LatencyHistogram histogram) {
+        sb.append(String.format(Locale.US,
+                "%-16s p50 %7.3f ms  p95 %7.3f ms  p99 %7.3f ms  max %7.3f ms  n %d\n", name,
+                histogram.getValueAtPercentile(50) / 1e6, histogram.getValueAtPercentile(95) / 1e6,
+                histogram.getValueAtPercentile(99) / 1e6, histogram.getMaxNanos() / 1e6,
+                histogram.getCount()));
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.shared;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.pm.ConfigurationInfo;
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * What the current GL context can do. Query once from onSurfaceCreated, on the GL thread.
+ */
+public class GLCapabilities {
+
+    private static final String TAG = "GLCapabilities";
+
+    private final int majorVersion;
+    private final String vendor;
+    private final String renderer;
+    private final String version;
+    private final Set<String> extensions;
+
+    private GLCapabilities(int majorVersion, String vendor, String renderer, String version,
+                           Set<String> extensions) {
+        this.majorVersion = majorVersion;
+        this.vendor = vendor;
+        this.renderer = renderer;
+        this.version = version;
+        this.extensions = extensions;
+    }
+
+    /**
+     * Reads version and extension strings from the current context.
+     */
+    public static GLCapabilities query() {
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        String vendor = GLES20.glGetString(GLES20.GL_VENDOR);
+        String renderer = GLES20.glGetString(GLES20.GL_RENDERER);
+        String extensionString = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+
+        Set<String> extensions = new HashSet<>();
+        if (extensionString != null) {
+            extensions.addAll(Arrays.asList(extensionString.trim().split("\\s+")));
+        }
+
+        GLCapabilities caps = new GLCapabilities(parseMajorVersion(version), vendor, renderer,
+                version, extensions);
+        Log.i(TAG, "GL " + version + " (" + vendor + ", " + renderer + ")");
+        return caps;
+    }
+
+    /**
+     * Whether the device can give us an ES 3.0 context. Must be decided before the GvrView
+     * creates its context, so this goes by the device configuration rather than a live context.
+     */
+    public static boolean deviceSupportsGLES3(Context context) {
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        ConfigurationInfo info = am.getDeviceConfigurationInfo();
+        return info.reqGlEsVersion >= 0x30000;
+    }
+
+    // "OpenGL ES 3.1 V@145.0" -> 3
+    private static int parseMajorVersion(String version) {
+        if (version == null) {
+            return 2;
+        }
+        String prefix = "OpenGL ES ";
+        int start = version.startsWith(prefix) ? prefix.length() : 0;
+        if (start < version.length() && Character.isDigit(version.charAt(start))) {
+            return version.charAt(start) - '0';
+        }
+        return 2;
+    }
+
+    public boolean isGLES3() {
+        return majorVersion >= 3;
+    }
+
+    public boolean hasExtension(String name) {
+        return extensions.contains(name);
+    }
+
+    /** ETC2 textures, which every ES 3.0 context decodes. */
+    public boolean supportsEtc2() {
+        return isGLES3();
+    }
+
+    /** ASTC LDR textures, from the KHR extension or the OES one that includes it. */
+    public boolean supportsAstc() {
+        return hasExtension("GL_KHR_texture_compression_astc_ldr")
+                || hasExtension("GL_OES_texture_compression_astc");
+    }
+
+    public String getVendor() {
+        return vendor;
+    }
+
+    public String getRenderer() {
+        return renderer;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,397 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.shared;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.SparseArray;
+
+import java.nio.Buffer;
+import java.util.Arrays;
+
+/**
+ * Shadows the bits of GL state the demos touch on every draw (bound program, bound buffers,
+ * enabled vertex attributes, vertex attribute pointers and uniform values) and only forwards a
+ * call to GLES20 when it would actually change something.
+ *
+ * All calls must be made on the GL thread. Anything that changes GL state behind the cache's
+ * back (GVR's distortion pass, a new surface) must be followed by {@link #invalidateBindings()}
+ * or {@link #reset()}.
+ */
+public class GLStateCache {
+
+    private static final int MAX_TRACKED_ATTRIBS = 16;
+
+    private static final int UNKNOWN = -1;
+
+    private int currentProgram = UNKNOWN;
+    private int vertexArray = UNKNOWN;
+    private int arrayBuffer = UNKNOWN;
+    private int elementArrayBuffer = UNKNOWN;
+
+    // enabled state per attribute location; 0 = disabled, 1 = enabled, UNKNOWN = not known
+    private final int[] attribEnabled = new int[MAX_TRACKED_ATTRIBS];
+
+    // last glVertexAttribPointer per location (buffer-offset form only)
+    private final int[] attribBuffer = new int[MAX_TRACKED_ATTRIBS];
+    private final int[] attribSize = new int[MAX_TRACKED_ATTRIBS];
+    private final int[] attribType = new int[MAX_TRACKED_ATTRIBS];
+    private final boolean[] attribNormalized = new boolean[MAX_TRACKED_ATTRIBS];
+    private final int[] attribStride = new int[MAX_TRACKED_ATTRIBS];
+    private final int[] attribOffset = new int[MAX_TRACKED_ATTRIBS];
+
+    // instancing divisor per location, ES 3.0 contexts only
+    private final int[] attribDivisor = new int[MAX_TRACKED_ATTRIBS];
+
+    // uniform values survive across frames since they belong to the program object
+    private final SparseArray<SparseArray<float[]>> uniformValues = new SparseArray<>();
+
+    private int issuedCalls;
+    private int elidedCalls;
+    private int lastFrameIssuedCalls;
+    private int lastFrameElidedCalls;
+
+    public GLStateCache() {
+        reset();
+    }
+
+    /**
+     * Forgets everything, including uniform values. Call from onSurfaceCreated, since a new
+     * context means new program objects.
+     */
+    public void reset() {
+        invalidateBindings();
+        uniformValues.clear();
+    }
+
+    /**
+     * Forgets the bindings but keeps uniform values. Call at the start of every frame, since GVR
+     * binds its own programs and buffers for distortion between our frames.
+     */
+    public void invalidateBindings() {
+        currentProgram = UNKNOWN;
+        vertexArray = UNKNOWN;
+        arrayBuffer = UNKNOWN;
+        invalidateVertexArrayState();
+    }
+
+    // everything a vertex array object holds: the index buffer binding and all attribute state
+    private void invalidateVertexArrayState() {
+        elementArrayBuffer = UNKNOWN;
+        for (int i = 0; i < MAX_TRACKED_ATTRIBS; i++) {
+            attribEnabled[i] = UNKNOWN;
+            attribBuffer[i] = UNKNOWN;
+            attribDivisor[i] = UNKNOWN;
+        }
+    }
+
+    /**
+     * Rolls the per-frame counters over. Call once per frame, before any drawing.
+     */
+    public void beginFrame() {
+        lastFrameIssuedCalls = issuedCalls;
+        lastFrameElidedCalls = elidedCalls;
+        issuedCalls = 0;
+        elidedCalls = 0;
+        invalidateBindings();
+    }
+
+    /** @return number of GL calls actually issued during the last complete frame */
+    public int getLastFrameIssuedCalls() {
+        return lastFrameIssuedCalls;
+    }
+
+    /** @return number of GL calls skipped as redundant during the last complete frame */
+    public int getLastFrameElidedCalls() {
+        return lastFrameElidedCalls;
+    }
+
+    public void useProgram(int program) {
+        if (program == currentProgram) {
+            elidedCalls++;
+            return;
+        }
+        GLES20.glUseProgram(program);
+        currentProgram = program;
+        issuedCalls++;
+    }
+
+    public int getCurrentProgram() {
+        return currentProgram;
+    }
+
+    /**
+     * Tells the cache a program was deleted. GL hands the name out again, and a new program under
+     * it must not inherit the old program's uniform values.
+     */
+    public void onProgramDeleted(int program) {
+        uniformValues.remove(program);
+        if (currentProgram == program) {
+            currentProgram = UNKNOWN;
+        }
+    }
+
+    /**
+     * glBindVertexArray, only valid on an ES 3.0 context. Switching vertex arrays swaps out the
+     * index buffer binding and all attribute state, so the shadow copies of those are dropped.
+     */
+    public void bindVertexArray(int array) {
+        if (array == vertexArray) {
+            elidedCalls++;
+            return;
+        }
+        GLES30.glBindVertexArray(array);
+        vertexArray = array;
+        invalidateVertexArrayState();
+        issuedCalls++;
+    }
+
+    /**
+     * Tells the cache a vertex array object was deleted.
+     */
+    public void onVertexArrayDeleted(int array) {
+        if (vertexArray == array) {
+            // GL falls back to the default vertex array
+            vertexArray = 0;
+            invalidateVertexArrayState();
+        }
+    }
+
+    public void bindBuffer(int target, int buffer) {
+        if (target == GLES20.GL_ARRAY_BUFFER) {
+            if (buffer == arrayBuffer) {
+                elidedCalls++;
+                return;
+            }
+            arrayBuffer = buffer;
+        } else if (target == GLES20.GL_ELEMENT_ARRAY_BUFFER) {
+            if (buffer == elementArrayBuffer) {
+                elidedCalls++;
+                return;
+            }
+            elementArrayBuffer = buffer;
+        }
+        GLES20.glBindBuffer(target, buffer);
+        issuedCalls++;
+    }
+
+    /**
+     * Tells the cache a buffer was deleted, so a later buffer reusing the same name is not
+     * mistaken for an existing binding.
+     */
+    public void onBufferDeleted(int buffer) {
+        if (arrayBuffer == buffer) {
+            arrayBuffer = UNKNOWN;
+        }
+        if (elementArrayBuffer == buffer) {
+            elementArrayBuffer = UNKNOWN;
+        }
+        for (int i = 0; i < MAX_TRACKED_ATTRIBS; i++) {
+            if (attribBuffer[i] == buffer) {
+                attribBuffer[i] = UNKNOWN;
+            }
+        }
+    }
+
+    public void enableVertexAttribArray(int location) {
+        if (location < 0) {
+            return; // attribute optimized out of the program
+        }
+        if (location < MAX_TRACKED_ATTRIBS) {
+            if (attribEnabled[location] == 1) {
+                elidedCalls++;
+                return;
+            }
+            attribEnabled[location] = 1;
+        }
+        GLES20.glEnableVertexAttribArray(location);
+        issuedCalls++;
+    }
+
+    public void disableVertexAttribArray(int location) {
+        if (location < 0) {
+            return;
+        }
+        if (location < MAX_TRACKED_ATTRIBS) {
+            if (attribEnabled[location] == 0) {
+                elidedCalls++;
+                return;
+            }
+            attribEnabled[location] = 0;
+        }
+        GLES20.glDisableVertexAttribArray(location);
+        issuedCalls++;
+    }
+
+    /**
+     * Buffer-offset form of glVertexAttribPointer. The pointer is sourced from whatever buffer is
+     * currently bound to GL_ARRAY_BUFFER, so bind through {@link #bindBuffer(int, int)} first.
+     */
+    public void vertexAttribPointer(int location, int size, int type, boolean normalized,
+                                    int stride, int offset) {
+        if (location < 0) {
+            return;
+        }
+        if (location < MAX_TRACKED_ATTRIBS && arrayBuffer != UNKNOWN) {
+            if (attribBuffer[location] == arrayBuffer && attribSize[location] == size
+                    && attribType[location] == type && attribNormalized[location] == normalized
+                    && attribStride[location] == stride && attribOffset[location] == offset) {
+                elidedCalls++;
+                return;
+            }
+            attribBuffer[location] = arrayBuffer;
+            attribSize[location] = size;
+            attribType[location] = type;
+            attribNormalized[location] = normalized;
+            attribStride[location] = stride;
+            attribOffset[location] = offset;
+        }
+        GLES20.glVertexAttribPointer(location, size, type, normalized, stride, offset);
+        issuedCalls++;
+    }
+
+    /**
+     * glVertexAttribDivisor, only valid on an ES 3.0 context.
+     */
+    public void vertexAttribDivisor(int location, int divisor) {
+        if (location < 0) {
+            return;
+        }
+        if (location < MAX_TRACKED_ATTRIBS) {
+            if (attribDivisor[location] == divisor) {
+                elidedCalls++;
+                return;
+            }
+            attribDivisor[location] = divisor;
+        }
+        GLES30.glVertexAttribDivisor(location, divisor);
+        issuedCalls++;
+    }
+
+    /**
+     * Client-side-array form of glVertexAttribPointer. The data can change behind our back, so
+     * this is never elided; it only invalidates the shadowed pointer for the location.
+     */
+    public void vertexAttribPointer(int location, int size, int type, boolean normalized,
+                                    int stride, Buffer data) {
+        if (location < 0) {
+            return;
+        }
+        if (location < MAX_TRACKED_ATTRIBS) {
+            attribBuffer[location] = UNKNOWN;
+        }
+        GLES20.glVertexAttribPointer(location, size, type, normalized, stride, data);
+        issuedCalls++;
+    }
+
+    public void uniform1i(int location, int value) {
+        float[] cached = uniformSlot(location, 1);
+        if (cached != null) {
+            if (cached[0] == value) {
+                elidedCalls++;
+                return;
+            }
+            cached[0] = value;
+        }
+        GLES20.glUniform1i(location, value);
+        issuedCalls++;
+    }
+
+    public void uniform1f(int location, float value) {
+        float[] cached = uniformSlot(location, 1);
+        if (cached != null) {
+            if (cached[0] == value) {
+                elidedCalls++;
+                return;
+            }
+            cached[0] = value;
+        }
+        GLES20.glUniform1f(location, value);
+        issuedCalls++;
+    }
+
+    public void uniform3fv(int location, int count, float[] value, int offset) {
+        if (uniformChanged(location, 3 * count, value, offset)) {
+            GLES20.glUniform3fv(location, count, value, offset);
+        }
+    }
+
+    public void uniform4fv(int location, int count, float[] value, int offset) {
+        if (uniformChanged(location, 4 * count, value, offset)) {
+            GLES20.glUniform4fv(location, count, value, offset);
+        }
+    }
+
+    public void uniformMatrix4fv(int location, int count, boolean transpose, float[] value,
+                                 int offset) {
+        if (uniformChanged(location, 16 * count, value, offset)) {
+            GLES20.glUniformMatrix4fv(location, count, transpose, value, offset);
+        }
+    }
+
+    /**
+     * Compares the value against the shadow copy for the current program, updates the copy and
+     * the counters.
+     *
+     * @return true if the GL call must be issued
+     */
+    private boolean uniformChanged(int location, int length, float[] value, int offset) {
+        float[] cached = uniformSlot(location, length);
+        if (cached == null) {
+            issuedCalls++;
+            return true;
+        }
+        boolean same = true;
+        for (int i = 0; i < length; i++) {
+            if (cached[i] != value[offset + i]) {
+                same = false;
+                break;
+            }
+        }
+        if (same) {
+            elidedCalls++;
+            return false;
+        }
+        System.arraycopy(value, offset, cached, 0, length);
+        issuedCalls++;
+        return true;
+    }
+
+    /**
+     * Finds the shadow copy of a uniform of the current program, creating it on first use. New
+     * slots are filled with NaN so the first comparison always fails.
+     *
+     * @return the shadow copy, or null if the uniform can't be tracked
+     */
+    private float[] uniformSlot(int location, int length) {
+        if (location < 0 || currentProgram == UNKNOWN) {
+            return null;
+        }
+        SparseArray<float[]> programUniforms = uniformValues.get(currentProgram);
+        if (programUniforms == null) {
+            programUniforms = new SparseArray<>();
+            uniformValues.put(currentProgram, programUniforms);
+        }
+        float[] slot = programUniforms.get(location);
+        if (slot == null || slot.length != length) {
+            slot = new float[length];
+            Arrays.fill(slot, Float.NaN);
+            programUniforms.put(location, slot);
+        }
+        return slot;
+    }
+}
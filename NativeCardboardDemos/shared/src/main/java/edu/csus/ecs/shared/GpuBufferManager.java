@@ -0,0 +1,209 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.shared;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.SparseIntArray;
+
+import java.nio.Buffer;
+
+/**
+ * Owns the vertex buffers, index buffers and vertex array objects of one GL context.
+ *
+ * Every buffer is created with a usage: {@link #STATIC} buffers are filled once at creation,
+ * {@link #DYNAMIC} buffers can be rewritten with {@link #updateBuffer}, and {@link #READBACK}
+ * buffers are written by the GPU for the CPU to map, e.g. pixel pack buffers. Vertex array objects need
+ * an ES 3.0 context; on ES 2.0 {@link #createVertexArray()} returns 0 and callers set their
+ * attributes up on every draw instead.
+ *
+ * GL names die with their context, so call {@link #onSurfaceCreated} before creating anything on
+ * a new surface and {@link #releaseAll()} from onRendererShutdown. All calls must be made on the
+ * GL thread.
+ */
+public class GpuBufferManager {
+
+    public static final int STATIC = GLES20.GL_STATIC_DRAW;
+    public static final int DYNAMIC = GLES20.GL_DYNAMIC_DRAW;
+    /** Written by the GPU and read back by the CPU, ES 3.0 only. */
+    public static final int READBACK = GLES30.GL_STREAM_READ;
+
+    private final GLStateCache state;
+
+    // buffer name -> size in bytes, and buffer name -> usage
+    private final SparseIntArray bufferSizes = new SparseIntArray();
+    private final SparseIntArray bufferUsages = new SparseIntArray();
+    // vertex array names; the values are unused
+    private final SparseIntArray vertexArrays = new SparseIntArray();
+
+    private boolean vertexArraysSupported;
+    private long allocatedBytes;
+
+    private final int[] names = new int[1];
+
+    public GpuBufferManager(GLStateCache state) {
+        this.state = state;
+    }
+
+    /**
+     * Forgets every name from the previous context without deleting anything, since the context
+     * took them with it.
+     */
+    public void onSurfaceCreated(GLCapabilities capabilities) {
+        bufferSizes.clear();
+        bufferUsages.clear();
+        vertexArrays.clear();
+        allocatedBytes = 0;
+        vertexArraysSupported = capabilities.isGLES3();
+    }
+
+    public GLStateCache getState() {
+        return state;
+    }
+
+    public boolean supportsVertexArrays() {
+        return vertexArraysSupported;
+    }
+
+    /**
+     * Creates a buffer and allocates its storage.
+     *
+     * @param target GL_ARRAY_BUFFER, GL_ELEMENT_ARRAY_BUFFER or, for {@link #READBACK},
+     *               GL_PIXEL_PACK_BUFFER
+     * @param data   initial contents, or null to leave the storage undefined
+     * @param bytes  size of the storage
+     * @param usage  {@link #STATIC}, {@link #DYNAMIC} or {@link #READBACK}
+     * @return the buffer name
+     */
+    public int createBuffer(int target, Buffer data, int bytes, int usage) {
+        if (usage != STATIC && usage != DYNAMIC && usage != READBACK) {
+            throw new IllegalArgumentException("Unsupported buffer usage " + usage);
+        }
+        GLES20.glGenBuffers(1, names, 0);
+        int buffer = names[0];
+        bind(target, buffer);
+        GLES20.glBufferData(target, bytes, data, usage);
+
+        bufferSizes.put(buffer, bytes);
+        bufferUsages.put(buffer, usage);
+        allocatedBytes += bytes;
+        return buffer;
+    }
+
+    /**
+     * Rewrites part of a {@link #DYNAMIC} buffer. When most of it changes, call
+     * {@link #orphanBuffer} first so the driver doesn't have to wait for draws still reading the
+     * old contents.
+     */
+    public void updateBuffer(int target, int buffer, int offset, Buffer data, int bytes) {
+        int size = bufferSizes.get(buffer, -1);
+        if (size < 0) {
+            throw new IllegalArgumentException("Unknown buffer " + buffer);
+        }
+        if (bufferUsages.get(buffer) != DYNAMIC) {
+            throw new IllegalStateException("Buffer " + buffer + " was created static");
+        }
+        if (offset < 0 || offset + bytes > size) {
+            throw new IllegalArgumentException("Update [" + offset + ", " + (offset + bytes)
+                    + ") is outside buffer " + buffer + " of " + size + " bytes");
+        }
+        bind(target, buffer);
+        GLES20.glBufferSubData(target, offset, bytes, data);
+    }
+
+    /**
+     * Throws away the contents of a {@link #DYNAMIC} buffer, keeping its size.
+     */
+    public void orphanBuffer(int target, int buffer) {
+        bind(target, buffer);
+        GLES20.glBufferData(target, bufferSizes.get(buffer), null, DYNAMIC);
+    }
+
+    public void deleteBuffer(int buffer) {
+        int index = bufferSizes.indexOfKey(buffer);
+        if (index < 0) {
+            return;
+        }
+        allocatedBytes -= bufferSizes.valueAt(index);
+        bufferSizes.removeAt(index);
+        bufferUsages.delete(buffer);
+        names[0] = buffer;
+        GLES20.glDeleteBuffers(1, names, 0);
+        state.onBufferDeleted(buffer);
+    }
+
+    /**
+     * @return a new vertex array object, or 0 if the context doesn't have them
+     */
+    public int createVertexArray() {
+        if (!vertexArraysSupported) {
+            return 0;
+        }
+        GLES30.glGenVertexArrays(1, names, 0);
+        vertexArrays.put(names[0], 1);
+        return names[0];
+    }
+
+    public void deleteVertexArray(int array) {
+        if (array == 0 || vertexArrays.indexOfKey(array) < 0) {
+            return;
+        }
+        vertexArrays.delete(array);
+        names[0] = array;
+        GLES30.glDeleteVertexArrays(1, names, 0);
+        state.onVertexArrayDeleted(array);
+    }
+
+    /**
+     * Binds the default vertex array. Call when done drawing, so GVR's distortion pass doesn't
+     * record its attribute setup into one of ours.
+     */
+    public void unbindVertexArray() {
+        if (vertexArraysSupported) {
+            state.bindVertexArray(0);
+        }
+    }
+
+    /**
+     * Deletes every buffer and vertex array still alive. The context must still be current.
+     */
+    public void releaseAll() {
+        while (vertexArrays.size() > 0) {
+            deleteVertexArray(vertexArrays.keyAt(0));
+        }
+        while (bufferSizes.size() > 0) {
+            deleteBuffer(bufferSizes.keyAt(0));
+        }
+    }
+
+    public int getBufferCount() {
+        return bufferSizes.size();
+    }
+
+    /** @return bytes of buffer storage currently allocated through this manager */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    private void bind(int target, int buffer) {
+        if (target == GLES20.GL_ELEMENT_ARRAY_BUFFER) {
+            // the index buffer binding belongs to the bound vertex array, don't disturb one
+            unbindVertexArray();
+        }
+        state.bindBuffer(target, buffer);
+    }
+}
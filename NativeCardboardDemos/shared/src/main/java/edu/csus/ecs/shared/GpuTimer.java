@@ -0,0 +1,139 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.shared;
+
+import android.opengl.GLES30;
+
+import edu.csus.ecs.core.metrics.LatencyHistogram;
+
+/**
+ * GPU time of a stretch of GL commands, measured with EXT_disjoint_timer_query.
+ *
+ * Queries are taken from a ring and their results are collected frames later by {@link #poll},
+ * only once the GPU says they are available, so measuring never waits for the GPU. When the ring
+ * is full because results are slow to come back, measurements are skipped rather than stalling.
+ *
+ * Android has no Java binding for the EXT entry points, but on an ES 3.0 context the extension
+ * adds its TIME_ELAPSED target to the core query functions, so this needs ES 3.0 and the
+ * extension. Otherwise every call does nothing. All calls must be made on the GL thread.
+ */
+public class GpuTimer {
+
+    public static final String EXTENSION = "GL_EXT_disjoint_timer_query";
+
+    // from EXT_disjoint_timer_query, not in GLES30
+    private static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+    private static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+
+    private final int[] queries;
+    private final int[] labels;
+    private final int[] result = new int[1];
+
+    private boolean supported;
+    private boolean active;
+    private int head;    // next query to begin
+    private int pending; // queries ended but not collected yet, the oldest is at head - pending
+
+    /**
+     * @param ringSize how many measurements can be waiting for results; results usually take
+     *                 two or three frames
+     */
+    public GpuTimer(int ringSize) {
+        queries = new int[ringSize];
+        labels = new int[ringSize];
+    }
+
+    /**
+     * Creates the queries. Names from a previous context are forgotten, not deleted.
+     */
+    public void onSurfaceCreated(GLCapabilities capabilities) {
+        supported = capabilities.isGLES3() && capabilities.hasExtension(EXTENSION);
+        active = false;
+        head = 0;
+        pending = 0;
+        if (supported) {
+            GLES30.glGenQueries(queries.length, queries, 0);
+        }
+    }
+
+    public boolean isSupported() {
+        return supported;
+    }
+
+    /**
+     * Starts timing. Only one measurement can run at a time.
+     *
+     * @param label which histogram {@link #poll} records the result in
+     */
+    public void begin(int label) {
+        if (!supported || active || pending == queries.length) {
+            return;
+        }
+        labels[head] = label;
+        GLES30.glBeginQuery(GL_TIME_ELAPSED_EXT, queries[head]);
+        active = true;
+    }
+
+    public void end() {
+        if (!active) {
+            return;
+        }
+        GLES30.glEndQuery(GL_TIME_ELAPSED_EXT);
+        active = false;
+        head = (head + 1) % queries.length;
+        pending++;
+    }
+
+    /**
+     * Records every finished measurement in histograms[label]. Results are thrown away if the GPU
+     * reports a disjoint event (e.g. a frequency change) since they were taken.
+     */
+    public void poll(LatencyHistogram[] histograms) {
+        if (pending == 0) {
+            return;
+        }
+        GLES30.glGetIntegerv(GL_GPU_DISJOINT_EXT, result, 0);
+        boolean disjoint = result[0] != 0;
+
+        while (pending > 0) {
+            int oldest = (head - pending + queries.length) % queries.length;
+            GLES30.glGetQueryObjectuiv(queries[oldest], GLES30.GL_QUERY_RESULT_AVAILABLE,
+                    result, 0);
+            if (result[0] == 0) {
+                break; // later queries can't be done either
+            }
+            GLES30.glGetQueryObjectuiv(queries[oldest], GLES30.GL_QUERY_RESULT, result, 0);
+            if (!disjoint) {
+                // 32 bits of nanoseconds, plenty for one eye
+                histograms[labels[oldest]].record(result[0] & 0xffffffffL);
+            }
+            pending--;
+        }
+    }
+
+    /**
+     * Deletes the queries. The context must still be current.
+     */
+    public void release() {
+        if (supported) {
+            GLES30.glDeleteQueries(queries.length, queries, 0);
+            supported = false;
+        }
+        active = false;
+        pending = 0;
+    }
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.shared;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import edu.csus.ecs.core.math.Mat4;
+
+/**
+ * Picks by drawing object IDs instead of testing geometry: each frame the objects are drawn in
+ * flat ID colors into a few pixels around the gaze, and whichever ID ends up in the middle is the
+ * object being looked at. The cost depends on the pixels drawn, not on how many objects or
+ * triangles there are, and the answer is exactly what the depth test says is in front.
+ *
+ * The pixels are read into a pixel buffer object and a fence is set behind the read; the result
+ * is only mapped once the fence has passed, usually a frame or two later, so the CPU never waits
+ * for the GPU. Each result carries the frame it was drawn in. As with {@link GpuTimer}, frames
+ * are skipped rather than stalling while too many readbacks are still in flight.
+ *
+ * Needs an ES 3.0 context for the pixel buffers and fences; otherwise {@link #isSupported()} is
+ * false, every call does nothing, and callers pick on the CPU instead. All calls must be made on
+ * the GL thread, outside of the eye passes.
+ */
+public class IdBufferPicker {
+
+    /** The object when nothing is under the gaze, or no result came back yet. */
+    public static final int NONE = -1;
+
+    private static final int MAX_PENDING = 3;
+
+    private static final float[] CLEAR_ID = {0.0f, 0.0f, 0.0f, 0.0f}; // NONE
+    private static final float[] CLEAR_DEPTH = {1.0f};
+
+    private static final String VERTEX_SHADER =
+            "uniform mat4 u_MVP;\n"
+            + "attribute vec4 a_Position;\n"
+            + "void main() {\n"
+            + "    gl_Position = u_MVP * a_Position;\n"
+            + "}\n";
+    private static final String FRAGMENT_SHADER =
+            "precision mediump float;\n"
+            + "uniform vec4 u_Id;\n"
+            + "void main() {\n"
+            + "    gl_FragColor = u_Id;\n"
+            + "}\n";
+
+    private final int size;
+    private final float fieldOfView;
+    private final GpuBufferManager buffers;
+
+    private boolean supported;
+    private int framebuffer;
+    private int colorBuffer;
+    private int depthBuffer;
+    private int program;
+    private int positionLoc;
+    private int mvpLoc;
+    private int idLoc;
+
+    // ring of readbacks; the oldest in flight is at head - pending
+    private final int[] pixelBuffers = new int[MAX_PENDING];
+    private final long[] fences = new long[MAX_PENDING];
+    private final long[] frames = new long[MAX_PENDING];
+    private int head;
+    private int pending;
+    private boolean drawing;
+
+    private int object = NONE;
+    private long frame = -1;
+
+    private final float[] projection = new float[16];
+    private final float[] viewProjection = new float[16];
+    private final float[] mvp = new float[16];
+    private final float[] idColor = new float[4];
+    private final int[] saved = new int[4];
+    private final int[] savedViewport = new int[4];
+    private final int[] status = new int[1];
+    private final ByteBuffer pixels;
+
+    /**
+     * @param size        width and height in pixels of the area drawn around the gaze, odd so
+     *                    there is a middle pixel
+     * @param fieldOfView angle in degrees that area covers, e.g. about the reticle's size
+     */
+    public IdBufferPicker(GpuBufferManager buffers, int size, float fieldOfView) {
+        if (size % 2 == 0) {
+            throw new IllegalArgumentException("Size " + size + " has no middle pixel");
+        }
+        this.buffers = buffers;
+        this.size = size;
+        this.fieldOfView = fieldOfView;
+        pixels = ByteBuffer.allocateDirect(size * size * 4).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Creates the framebuffer, ID program and pixel buffers. Names from a previous context are
+     * forgotten, not deleted. Call after {@link GpuBufferManager#onSurfaceCreated}.
+     */
+    public void onSurfaceCreated(GLCapabilities capabilities) {
+        supported = capabilities.isGLES3();
+        head = 0;
+        pending = 0;
+        drawing = false;
+        object = NONE;
+        frame = -1;
+        if (!supported) {
+            return;
+        }
+
+        int[] names = new int[2];
+        GLES20.glGenRenderbuffers(2, names, 0);
+        colorBuffer = names[0];
+        depthBuffer = names[1];
+        GLES20.glBindRenderbuffer(GLES20.GL_RENDERBUFFER, colorBuffer);
+        GLES20.glRenderbufferStorage(GLES20.GL_RENDERBUFFER, GLES30.GL_RGBA8, size, size);
+        GLES20.glBindRenderbuffer(GLES20.GL_RENDERBUFFER, depthBuffer);
+        GLES20.glRenderbufferStorage(GLES20.GL_RENDERBUFFER, GLES20.GL_DEPTH_COMPONENT16, size,
+                size);
+        GLES20.glBindRenderbuffer(GLES20.GL_RENDERBUFFER, 0);
+
+        GLES20.glGetIntegerv(GLES20.GL_FRAMEBUFFER_BINDING, saved, 0);
+        GLES20.glGenFramebuffers(1, names, 0);
+        framebuffer = names[0];
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffer);
+        GLES20.glFramebufferRenderbuffer(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_RENDERBUFFER, colorBuffer);
+        GLES20.glFramebufferRenderbuffer(GLES20.GL_FRAMEBUFFER, GLES20.GL_DEPTH_ATTACHMENT,
+                GLES20.GL_RENDERBUFFER, depthBuffer);
+        int completeness = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, saved[0]);
+        if (completeness != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+            throw new IllegalStateException("ID framebuffer incomplete: 0x"
+                    + Integer.toHexString(completeness));
+        }
+
+        program = GLES20.glCreateProgram();
+        int vertexShader = compile(GLES20.GL_VERTEX_SHADER, VERTEX_SHADER);
+        int fragmentShader = compile(GLES20.GL_FRAGMENT_SHADER, FRAGMENT_SHADER);
+        GLES20.glAttachShader(program, vertexShader);
+        GLES20.glAttachShader(program, fragmentShader);
+        GLES20.glLinkProgram(program);
+        // only flagged for deletion, they go with the program
+        GLES20.glDeleteShader(vertexShader);
+        GLES20.glDeleteShader(fragmentShader);
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
+        if (status[0] == 0) {
+            throw new IllegalStateException("ID program: " + GLES20.glGetProgramInfoLog(program));
+        }
+        positionLoc = GLES20.glGetAttribLocation(program, "a_Position");
+        mvpLoc = GLES20.glGetUniformLocation(program, "u_MVP");
+        idLoc = GLES20.glGetUniformLocation(program, "u_Id");
+
+        for (int i = 0; i < MAX_PENDING; i++) {
+            pixelBuffers[i] = buffers.createBuffer(GLES30.GL_PIXEL_PACK_BUFFER, null,
+                    size * size * 4, GpuBufferManager.READBACK);
+        }
+        buffers.getState().bindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+    }
+
+    private static int compile(int type, String source) {
+        int shader = GLES20.glCreateShader(type);
+        GLES20.glShaderSource(shader, source);
+        GLES20.glCompileShader(shader);
+        int[] compiled = new int[1];
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
+        if (compiled[0] == 0) {
+            throw new IllegalStateException("ID shader: " + GLES20.glGetShaderInfoLog(shader));
+        }
+        return shader;
+    }
+
+    public boolean isSupported() {
+        return supported;
+    }
+
+    /**
+     * Starts drawing IDs for a frame, looking down the -z axis of the view.
+     *
+     * @param view  the view matrix of the gaze, e.g. the head view times the camera
+     * @param zNear near plane, as for the eyes
+     * @param zFar  far plane, as for the eyes
+     * @return false if this frame is skipped because too many readbacks are in flight; don't
+     * call {@link #draw} or {@link #end} then
+     */
+    public boolean begin(long frame, float[] view, int viewOffset, float zNear, float zFar) {
+        if (!supported || drawing || pending == MAX_PENDING) {
+            return false;
+        }
+        frames[head] = frame;
+        Mat4.setPerspective(projection, 0, fieldOfView, 1.0f, zNear, zFar);
+        Mat4.multiply(viewProjection, 0, projection, 0, view, viewOffset);
+
+        GLES20.glGetIntegerv(GLES20.GL_FRAMEBUFFER_BINDING, saved, 0);
+        GLES20.glGetIntegerv(GLES20.GL_VIEWPORT, savedViewport, 0);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffer);
+        GLES20.glViewport(0, 0, size, size);
+        GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+        // cleared per buffer, so the renderer's clear color and depth stay as they were
+        GLES30.glClearBufferfv(GLES30.GL_COLOR, 0, CLEAR_ID, 0);
+        GLES30.glClearBufferfv(GLES30.GL_DEPTH, 0, CLEAR_DEPTH, 0);
+        buffers.getState().useProgram(program);
+        drawing = true;
+        return true;
+    }
+
+    /**
+     * Draws one object in its ID color.
+     *
+     * @param object the object's index, 0 to 2^24 - 2
+     */
+    public void draw(int object, IndexedMesh mesh, float[] model, int modelOffset) {
+        // 0 is the clear color, so IDs are stored one up, 8 bits per channel
+        int id = object + 1;
+        idColor[0] = (id & 0xFF) / 255.0f;
+        idColor[1] = ((id >> 8) & 0xFF) / 255.0f;
+        idColor[2] = ((id >> 16) & 0xFF) / 255.0f;
+        idColor[3] = 1.0f;
+        Mat4.multiply(mvp, 0, viewProjection, 0, model, modelOffset);
+
+        GLStateCache state = buffers.getState();
+        state.uniformMatrix4fv(mvpLoc, 1, false, mvp, 0);
+        state.uniform4fv(idLoc, 1, idColor, 0);
+        mesh.bind(state, positionLoc, -1, -1);
+        mesh.draw();
+    }
+
+    /**
+     * Queues the readback of the IDs drawn since {@link #begin} and restores the framebuffer
+     * and viewport that were bound before.
+     */
+    public void end() {
+        if (!drawing) {
+            return;
+        }
+        drawing = false;
+        buffers.unbindVertexArray();
+        GLStateCache state = buffers.getState();
+        state.bindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pixelBuffers[head]);
+        GLES30.glReadPixels(0, 0, size, size, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, 0);
+        state.bindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        fences[head] = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        head = (head + 1) % MAX_PENDING;
+        pending++;
+
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, saved[0]);
+        GLES20.glViewport(savedViewport[0], savedViewport[1], savedViewport[2],
+                savedViewport[3]);
+    }
+
+    /**
+     * Takes in every readback the GPU has finished, without waiting for the others.
+     *
+     * @return true if a newer result came in
+     */
+    public boolean poll() {
+        boolean updated = false;
+        while (pending > 0) {
+            int oldest = (head - pending + MAX_PENDING) % MAX_PENDING;
+            int wait = GLES30.glClientWaitSync(fences[oldest], 0, 0);
+            if (wait == GLES30.GL_TIMEOUT_EXPIRED) {
+                break; // later readbacks can't be done either
+            }
+            GLES30.glDeleteSync(fences[oldest]);
+            pending--;
+            if (wait == GLES30.GL_WAIT_FAILED) {
+                // the fence will never pass, drop its readback rather than let it fill the ring
+                continue;
+            }
+
+            GLStateCache state = buffers.getState();
+            state.bindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pixelBuffers[oldest]);
+            ByteBuffer mapped = (ByteBuffer) GLES30.glMapBufferRange(
+                    GLES30.GL_PIXEL_PACK_BUFFER, 0, size * size * 4, GLES30.GL_MAP_READ_BIT);
+            if (mapped != null) {
+                pixels.clear();
+                pixels.put(mapped);
+                GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+                object = centerObject();
+                frame = frames[oldest];
+                updated = true;
+            }
+            state.bindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        }
+        return updated;
+    }
+
+    /**
+     * @return the object drawn closest to the middle pixel, which is usually the middle pixel's
+     */
+    private int centerObject() {
+        int center = size / 2;
+        int best = NONE;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int p = (y * size + x) * 4;
+                int id = (pixels.get(p) & 0xFF) | (pixels.get(p + 1) & 0xFF) << 8
+                        | (pixels.get(p + 2) & 0xFF) << 16;
+                int distance = (x - center) * (x - center) + (y - center) * (y - center);
+                if (id != 0 && distance < bestDistance) {
+                    best = id - 1;
+                    bestDistance = distance;
+                }
+            }
+        }
+        return best;
+    }
+
+    /** @return the object under the gaze in the newest result, or {@link #NONE} */
+    public int getObject() {
+        return object;
+    }
+
+    /** @return frame the newest result was drawn in, -1 if there is none yet */
+    public long getFrame() {
+        return frame;
+    }
+
+    /** @return how many frames old the newest result is, as of currentFrame */
+    public long getAge(long currentFrame) {
+        return frame < 0 ? Long.MAX_VALUE : currentFrame - frame;
+    }
+
+    /**
+     * Deletes the framebuffer, program, fences and pixel buffers. The context must still be
+     * current.
+     */
+    public void release() {
+        if (!supported) {
+            return;
+        }
+        while (pending > 0) {
+            GLES30.glDeleteSync(fences[(head - pending + MAX_PENDING) % MAX_PENDING]);
+            pending--;
+        }
+        for (int i = 0; i < MAX_PENDING; i++) {
+            buffers.deleteBuffer(pixelBuffers[i]);
+        }
+        int[] names = {framebuffer};
+        GLES20.glDeleteFramebuffers(1, names, 0);
+        names = new int[]{colorBuffer, depthBuffer};
+        GLES20.glDeleteRenderbuffers(2, names, 0);
+        GLES20.glDeleteProgram(program);
+        buffers.getState().onProgramDeleted(program);
+        supported = false;
+    }
+}
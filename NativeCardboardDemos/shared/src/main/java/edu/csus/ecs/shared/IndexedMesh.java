@@ -0,0 +1,342 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.shared;
+
+import android.content.res.AssetManager;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.csus.ecs.core.mesh.MeshFile;
+
+/**
+ * A triangle mesh stored as one interleaved vertex buffer plus one 16-bit index buffer.
+ *
+ * Each vertex is 20 bytes: position as 3 floats, normal as 4 normalized signed bytes (xyz plus
+ * padding) and color as 4 normalized unsigned bytes. The WorldLayoutData arrays spend 40 bytes
+ * per vertex and repeat shared corners, so a cube drops from 1440 bytes to 552 (24 vertices and
+ * 36 indices).
+ *
+ * On an ES 3.0 context the attribute setup is recorded into a vertex array object the first time
+ * the mesh is bound, so later binds are a single glBindVertexArray. Each mesh has
+ * {@link #LAYOUTS} of them, so a mesh drawn by two programs with different attribute locations,
+ * say a lit program and an ID picking one, keeps one recorded for each instead of recording again
+ * at every switch.
+ *
+ * Meshes converted by the tools module's ConvertMesh are stored in this layout as
+ * {@link MeshFile}s and loaded with {@link #fromAsset}, which maps the file and uploads from the
+ * mapping, so the geometry never passes through the Java heap.
+ */
+public class IndexedMesh {
+
+    public static final int POSITION_OFFSET = 0;
+    public static final int NORMAL_OFFSET = 12;
+    public static final int COLOR_OFFSET = 16;
+    public static final int STRIDE = 20;
+
+    private static final int MAX_VERTICES = 65536; // 16-bit indices
+
+    /** Attribute location sets with their own vertex array object, per mesh. */
+    public static final int LAYOUTS = 2;
+
+    private final ByteBuffer vertices;
+    private final ShortBuffer indices;
+    private final int vertexCount;
+    private final int indexCount;
+
+    private int vbo;
+    private int ibo;
+    private final int[] vaos = new int[LAYOUTS];
+
+    // position, normal and color location recorded in each vertex array object, UNRECORDED
+    // until it is first bound
+    private static final int UNRECORDED = Integer.MIN_VALUE;
+    private final int[] recordedLocs = new int[LAYOUTS * 3];
+    private int nextLayout; // the array to record into next, the one recorded longest ago
+
+    private IndexedMesh(ByteBuffer vertices, int vertexCount, ShortBuffer indices, int indexCount) {
+        this.vertices = vertices;
+        this.vertexCount = vertexCount;
+        this.indices = indices;
+        this.indexCount = indexCount;
+        Arrays.fill(recordedLocs, UNRECORDED);
+    }
+
+    /**
+     * Packs non-indexed triangle arrays in the WorldLayoutData layout, merging identical vertices.
+     *
+     * @param coords  3 floats per vertex
+     * @param normals 3 floats per vertex, or null
+     * @param colors  4 floats (RGBA, 0..1) per vertex, or null for white
+     */
+    public static IndexedMesh fromArrays(float[] coords, float[] normals, float[] colors) {
+        int count = coords.length / 3;
+        ByteBuffer packed = ByteBuffer.allocateDirect(count * STRIDE).order(ByteOrder.nativeOrder());
+        ShortBuffer packedIndices = ByteBuffer.allocateDirect(count * 2)
+                .order(ByteOrder.nativeOrder()).asShortBuffer();
+
+        Map<VertexKey, Integer> seen = new HashMap<>();
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            int[] key = new int[5];
+            key[0] = Float.floatToIntBits(coords[i * 3]);
+            key[1] = Float.floatToIntBits(coords[i * 3 + 1]);
+            key[2] = Float.floatToIntBits(coords[i * 3 + 2]);
+            key[3] = normals == null ? 0
+                    : packNormal(normals[i * 3], normals[i * 3 + 1], normals[i * 3 + 2]);
+            key[4] = colors == null ? 0xFFFFFFFF
+                    : packColor(colors[i * 4], colors[i * 4 + 1], colors[i * 4 + 2],
+                            colors[i * 4 + 3]);
+
+            VertexKey vertexKey = new VertexKey(key);
+            Integer index = seen.get(vertexKey);
+            if (index == null) {
+                if (unique == MAX_VERTICES) {
+                    throw new IllegalArgumentException("Mesh has more than " + MAX_VERTICES
+                            + " unique vertices");
+                }
+                index = unique++;
+                seen.put(vertexKey, index);
+                packed.putInt(key[0]).putInt(key[1]).putInt(key[2]);
+                // byte order of the int matches the buffer, so the 4 bytes land in xyzw order
+                packed.putInt(key[3]).putInt(key[4]);
+            }
+            packedIndices.put((short) index.intValue());
+        }
+
+        // copy into exactly sized buffers so nothing unused is ever uploaded
+        packed.flip();
+        ByteBuffer vertexData = ByteBuffer.allocateDirect(packed.remaining())
+                .order(ByteOrder.nativeOrder());
+        vertexData.put(packed).flip();
+        packedIndices.flip();
+        return new IndexedMesh(vertexData, unique, packedIndices, count);
+    }
+
+    /**
+     * Maps a mesh file from the app's assets. Store mesh files uncompressed, see
+     * aaptOptions.noCompress in the app's build.gradle, or they are read into memory instead.
+     *
+     * @throws IOException if the asset can't be opened or isn't a mesh file
+     */
+    public static IndexedMesh fromAsset(AssetManager assets, String name) throws IOException {
+        return fromMeshFile(readAsset(assets, name));
+    }
+
+    /**
+     * Maps a mesh file from the app's assets like {@link #fromAsset}, for when the app needs the
+     * file as well, e.g. to pick against its triangles. Wrap it with {@link #fromMeshFile}.
+     *
+     * @throws IOException if the asset can't be opened or isn't a mesh file
+     */
+    public static MeshFile readAsset(AssetManager assets, String name) throws IOException {
+        return MeshFile.read(AssetBuffers.map(assets, name));
+    }
+
+    /**
+     * Wraps a mesh file's data without copying it. The file must be in this class's vertex layout
+     * with 16-bit indices, which is what ConvertMesh writes.
+     *
+     * @throws IllegalArgumentException if the layout is different
+     */
+    public static IndexedMesh fromMeshFile(MeshFile file) {
+        // mesh files are little-endian, and so is every Android ABI
+        if (ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN
+                || file.getStride() != STRIDE
+                || file.getIndexType() != MeshFile.UNSIGNED_SHORT
+                || file.getVertexCount() > MAX_VERTICES
+                || !hasAttribute(file, MeshFile.POSITION, 3, MeshFile.FLOAT, false,
+                        POSITION_OFFSET)
+                || !hasAttribute(file, MeshFile.NORMAL, 3, MeshFile.BYTE, true, NORMAL_OFFSET)
+                || !hasAttribute(file, MeshFile.COLOR, 4, MeshFile.UNSIGNED_BYTE, true,
+                        COLOR_OFFSET)) {
+            throw new IllegalArgumentException("Mesh file isn't in the IndexedMesh layout");
+        }
+        return new IndexedMesh(file.getVertices(), file.getVertexCount(),
+                file.getIndices().asShortBuffer(), file.getIndexCount());
+    }
+
+    private static boolean hasAttribute(MeshFile file, int semantic, int components, int type,
+                                        boolean normalized, int offset) {
+        MeshFile.Attribute attribute = file.findAttribute(semantic);
+        return attribute != null && attribute.components == components && attribute.type == type
+                && attribute.normalized == normalized && attribute.offset == offset;
+    }
+
+    // 4 signed normalized bytes, in memory order x, y, z, 0
+    private static int packNormal(float x, float y, float z) {
+        return bytesInMemoryOrder(toSnorm(x), toSnorm(y), toSnorm(z), 0);
+    }
+
+    // 4 unsigned normalized bytes, in memory order r, g, b, a
+    private static int packColor(float r, float g, float b, float a) {
+        return bytesInMemoryOrder(toUnorm(r), toUnorm(g), toUnorm(b), toUnorm(a));
+    }
+
+    private static int toSnorm(float v) {
+        return Math.round(Math.max(-1.0f, Math.min(1.0f, v)) * 127.0f) & 0xFF;
+    }
+
+    private static int toUnorm(float v) {
+        return Math.round(Math.max(0.0f, Math.min(1.0f, v)) * 255.0f) & 0xFF;
+    }
+
+    private static int bytesInMemoryOrder(int b0, int b1, int b2, int b3) {
+        if (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN) {
+            return b0 | (b1 << 8) | (b2 << 16) | (b3 << 24);
+        }
+        return (b0 << 24) | (b1 << 16) | (b2 << 8) | b3;
+    }
+
+    /**
+     * Uploads the vertex and index buffers as static buffers. Call from onSurfaceCreated.
+     */
+    public void upload(GpuBufferManager buffers) {
+        vbo = buffers.createBuffer(GLES20.GL_ARRAY_BUFFER, vertices, vertexCount * STRIDE,
+                GpuBufferManager.STATIC);
+        ibo = buffers.createBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, indices, indexCount * 2,
+                GpuBufferManager.STATIC);
+        for (int i = 0; i < LAYOUTS; i++) {
+            vaos[i] = buffers.createVertexArray();
+        }
+        Arrays.fill(recordedLocs, UNRECORDED);
+        nextLayout = 0;
+    }
+
+    /**
+     * Queues {@link #upload} instead of uploading now, for meshes that don't have to show up in
+     * the very next frame.
+     */
+    public void queueUpload(UploadQueue uploads, int priority, final GpuBufferManager buffers) {
+        uploads.enqueue(UploadQueue.BUFFER, priority, getSizeInBytes(), new Runnable() {
+            @Override
+            public void run() {
+                upload(buffers);
+            }
+        });
+    }
+
+    /** @return whether {@link #upload} has run, so the mesh can be bound */
+    public boolean isUploaded() {
+        return vbo != 0;
+    }
+
+    public void destroy(GpuBufferManager buffers) {
+        for (int i = 0; i < LAYOUTS; i++) {
+            buffers.deleteVertexArray(vaos[i]);
+            vaos[i] = 0;
+        }
+        buffers.deleteBuffer(vbo);
+        buffers.deleteBuffer(ibo);
+        vbo = 0;
+        ibo = 0;
+    }
+
+    /**
+     * Binds the mesh and points the attributes at it. Pass -1 for attributes the program doesn't
+     * have.
+     */
+    public void bind(GLStateCache state, int positionLoc, int normalLoc, int colorLoc) {
+        if (vaos[0] != 0) {
+            for (int i = 0; i < LAYOUTS; i++) {
+                if (positionLoc == recordedLocs[i * 3] && normalLoc == recordedLocs[i * 3 + 1]
+                        && colorLoc == recordedLocs[i * 3 + 2]) {
+                    state.bindVertexArray(vaos[i]);
+                    return;
+                }
+            }
+            int layout = nextLayout;
+            nextLayout = (nextLayout + 1) % LAYOUTS;
+            state.bindVertexArray(vaos[layout]);
+            if (recordedLocs[layout * 3] != UNRECORDED) {
+                // a third set of locations, drop the old arrays from the vertex array
+                state.disableVertexAttribArray(recordedLocs[layout * 3]);
+                state.disableVertexAttribArray(recordedLocs[layout * 3 + 1]);
+                state.disableVertexAttribArray(recordedLocs[layout * 3 + 2]);
+            }
+            recordedLocs[layout * 3] = positionLoc;
+            recordedLocs[layout * 3 + 1] = normalLoc;
+            recordedLocs[layout * 3 + 2] = colorLoc;
+        }
+        state.bindBuffer(GLES20.GL_ARRAY_BUFFER, vbo);
+        state.vertexAttribPointer(positionLoc, 3, GLES20.GL_FLOAT, false, STRIDE,
+                POSITION_OFFSET);
+        state.vertexAttribPointer(normalLoc, 3, GLES20.GL_BYTE, true, STRIDE, NORMAL_OFFSET);
+        state.vertexAttribPointer(colorLoc, 4, GLES20.GL_UNSIGNED_BYTE, true, STRIDE,
+                COLOR_OFFSET);
+        state.enableVertexAttribArray(positionLoc);
+        state.enableVertexAttribArray(normalLoc);
+        state.enableVertexAttribArray(colorLoc);
+        state.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, ibo);
+    }
+
+    /**
+     * Draws the whole mesh. {@link #bind} must have been called.
+     */
+    public void draw() {
+        GLES20.glDrawElements(GLES20.GL_TRIANGLES, indexCount, GLES20.GL_UNSIGNED_SHORT, 0);
+    }
+
+    /**
+     * Draws the whole mesh instanceCount times, e.g. once per eye. ES 3.0 only; {@link #bind}
+     * must have been called.
+     */
+    public void drawInstanced(int instanceCount) {
+        GLES30.glDrawElementsInstanced(GLES20.GL_TRIANGLES, indexCount, GLES20.GL_UNSIGNED_SHORT,
+                0, instanceCount);
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    public int getIndexCount() {
+        return indexCount;
+    }
+
+    /** @return bytes of GPU memory used by vertices and indices */
+    public int getSizeInBytes() {
+        return vertexCount * STRIDE + indexCount * 2;
+    }
+
+    private static final class VertexKey {
+        private final int[] fields;
+        private final int hash;
+
+        VertexKey(int[] fields) {
+            this.fields = fields;
+            this.hash = Arrays.hashCode(fields);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof VertexKey && Arrays.equals(fields, ((VertexKey) o).fields);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
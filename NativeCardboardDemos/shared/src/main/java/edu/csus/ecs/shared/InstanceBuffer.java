@@ -0,0 +1,255 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.shared;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Per-instance model matrices and colors for drawing many copies of one mesh.
+ *
+ * The data is kept in one client-side buffer and streamed into a single VBO, only uploading the
+ * range of instances that changed since the last upload. On an ES 3.0 context the whole set is
+ * drawn with one glDrawArraysInstanced call. Android's Java bindings don't expose the ES 2.0
+ * EXT/ANGLE_instanced_arrays entry points, so on ES 2.0 the same data is fed through constant
+ * vertex attributes, one draw per instance, with the same shader.
+ *
+ * The shader takes the model matrix as a mat4 attribute (four consecutive locations) and the
+ * instance color as a vec4 attribute.
+ */
+public class InstanceBuffer {
+
+    /** 16 floats of column-major model matrix followed by an RGBA color. */
+    public static final int FLOATS_PER_INSTANCE = 20;
+    public static final int BYTES_PER_INSTANCE = FLOATS_PER_INSTANCE * 4;
+
+    private static final int COLOR_OFFSET = 16;
+
+    private final int capacity;
+    private final FloatBuffer data;
+    private final float[] scratch = new float[FLOATS_PER_INSTANCE];
+
+    private int vbo;
+    private int count;
+
+    // range of instances [dirtyStart, dirtyEnd) not uploaded yet
+    private int dirtyStart;
+    private int dirtyEnd;
+
+    public InstanceBuffer(int capacity) {
+        this.capacity = capacity;
+        ByteBuffer bb = ByteBuffer.allocateDirect(capacity * BYTES_PER_INSTANCE);
+        bb.order(ByteOrder.nativeOrder());
+        data = bb.asFloatBuffer();
+    }
+
+    /**
+     * Creates the VBO as a dynamic buffer. Call from onSurfaceCreated; the whole buffer is
+     * uploaded again on the next {@link #upload(GpuBufferManager)}.
+     */
+    public void create(GpuBufferManager buffers) {
+        vbo = buffers.createBuffer(GLES20.GL_ARRAY_BUFFER, null, capacity * BYTES_PER_INSTANCE,
+                GpuBufferManager.DYNAMIC);
+        markDirty(0, count);
+    }
+
+    public void destroy(GpuBufferManager buffers) {
+        buffers.deleteBuffer(vbo);
+        vbo = 0;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public void setCount(int count) {
+        if (count < 0 || count > capacity) {
+            throw new IllegalArgumentException("Instance count " + count + " exceeds " + capacity);
+        }
+        this.count = count;
+    }
+
+    /**
+     * Sets the model matrix of one instance.
+     */
+    public void setModel(int index, float[] model, int offset) {
+        int base = index * FLOATS_PER_INSTANCE;
+        for (int i = 0; i < 16; i++) {
+            data.put(base + i, model[offset + i]);
+        }
+        markDirty(index, index + 1);
+    }
+
+    /**
+     * Sets the color of one instance. How the color is applied is up to the shader.
+     */
+    public void setColor(int index, float r, float g, float b, float a) {
+        int base = index * FLOATS_PER_INSTANCE + COLOR_OFFSET;
+        data.put(base, r);
+        data.put(base + 1, g);
+        data.put(base + 2, b);
+        data.put(base + 3, a);
+        markDirty(index, index + 1);
+    }
+
+    private void markDirty(int start, int end) {
+        if (dirtyStart >= dirtyEnd) {
+            dirtyStart = start;
+            dirtyEnd = end;
+        } else {
+            dirtyStart = Math.min(dirtyStart, start);
+            dirtyEnd = Math.max(dirtyEnd, end);
+        }
+    }
+
+    /**
+     * Sends the changed instances to the GPU. Call once per frame, before the first eye.
+     */
+    public void upload(GpuBufferManager buffers) {
+        if (dirtyStart >= dirtyEnd || vbo == 0) {
+            return;
+        }
+        if (dirtyStart == 0 && dirtyEnd >= count) {
+            // everything changed, orphan the old storage so we don't wait on draws still using it
+            buffers.orphanBuffer(GLES20.GL_ARRAY_BUFFER, vbo);
+        }
+        data.position(dirtyStart * FLOATS_PER_INSTANCE);
+        buffers.updateBuffer(GLES20.GL_ARRAY_BUFFER, vbo, dirtyStart * BYTES_PER_INSTANCE, data,
+                (dirtyEnd - dirtyStart) * BYTES_PER_INSTANCE);
+        data.position(0);
+        dirtyStart = 0;
+        dirtyEnd = 0;
+    }
+
+    /**
+     * Draws every instance. The mesh attributes must already be set up.
+     *
+     * @param instanced true on an ES 3.0 context
+     * @param modelLoc  location of the mat4 model attribute (first of four)
+     * @param colorLoc  location of the vec4 instance color attribute
+     */
+    public void draw(GLStateCache state, boolean instanced, int modelLoc, int colorLoc,
+                     int mode, int first, int vertexCount) {
+        if (count == 0) {
+            return;
+        }
+        if (instanced) {
+            setUpInstanceArrays(state, modelLoc, colorLoc);
+            GLES30.glDrawArraysInstanced(mode, first, vertexCount, count);
+        } else {
+            disableInstanceArrays(state, modelLoc, colorLoc);
+            for (int i = 0; i < count; i++) {
+                setInstanceConstants(i, modelLoc, colorLoc);
+                GLES20.glDrawArrays(mode, first, vertexCount);
+            }
+            data.position(0);
+        }
+    }
+
+    /**
+     * Draws every instance of an indexed mesh. The mesh must already be bound with
+     * {@link IndexedMesh#bind}.
+     */
+    public void draw(GLStateCache state, boolean instanced, int modelLoc, int colorLoc,
+                     IndexedMesh mesh) {
+        draw(state, instanced, modelLoc, colorLoc, mesh, 0, count);
+    }
+
+    /**
+     * Draws the instances [first, first + instanceCount) of an indexed mesh, e.g. the ones one
+     * eye can see. The mesh must already be bound with {@link IndexedMesh#bind}.
+     */
+    public void draw(GLStateCache state, boolean instanced, int modelLoc, int colorLoc,
+                     IndexedMesh mesh, int first, int instanceCount) {
+        if (instanceCount == 0) {
+            return;
+        }
+        if (instanced) {
+            // ES 3.0 has no base instance, so start the instance arrays at the first one instead
+            setUpInstanceArrays(state, modelLoc, colorLoc, first, 1);
+            GLES30.glDrawElementsInstanced(GLES20.GL_TRIANGLES, mesh.getIndexCount(),
+                    GLES20.GL_UNSIGNED_SHORT, 0, instanceCount);
+        } else {
+            disableInstanceArrays(state, modelLoc, colorLoc);
+            for (int i = first; i < first + instanceCount; i++) {
+                setInstanceConstants(i, modelLoc, colorLoc);
+                mesh.draw();
+            }
+            data.position(0);
+        }
+    }
+
+    /**
+     * Draws the instances [first, first + instanceCount) of an indexed mesh once for every eye,
+     * ES 3.0 only. Each instance is repeated eyeCount times in a row, so the shader finds the eye
+     * as gl_InstanceID % eyeCount. The mesh must already be bound with {@link IndexedMesh#bind}.
+     */
+    public void drawForEyes(GLStateCache state, int modelLoc, int colorLoc, IndexedMesh mesh,
+                            int first, int instanceCount, int eyeCount) {
+        if (instanceCount == 0) {
+            return;
+        }
+        // the divisor holds each instance's attributes for eyeCount instances
+        setUpInstanceArrays(state, modelLoc, colorLoc, first, eyeCount);
+        GLES30.glDrawElementsInstanced(GLES20.GL_TRIANGLES, mesh.getIndexCount(),
+                GLES20.GL_UNSIGNED_SHORT, 0, instanceCount * eyeCount);
+    }
+
+    private void setUpInstanceArrays(GLStateCache state, int modelLoc, int colorLoc) {
+        setUpInstanceArrays(state, modelLoc, colorLoc, 0, 1);
+    }
+
+    private void setUpInstanceArrays(GLStateCache state, int modelLoc, int colorLoc,
+                                     int first, int divisor) {
+        int base = first * BYTES_PER_INSTANCE;
+        state.bindBuffer(GLES20.GL_ARRAY_BUFFER, vbo);
+        for (int column = 0; column < 4; column++) {
+            state.vertexAttribPointer(modelLoc + column, 4, GLES20.GL_FLOAT, false,
+                    BYTES_PER_INSTANCE, base + column * 16);
+            state.enableVertexAttribArray(modelLoc + column);
+            state.vertexAttribDivisor(modelLoc + column, divisor);
+        }
+        state.vertexAttribPointer(colorLoc, 4, GLES20.GL_FLOAT, false, BYTES_PER_INSTANCE,
+                base + COLOR_OFFSET * 4);
+        state.enableVertexAttribArray(colorLoc);
+        state.vertexAttribDivisor(colorLoc, divisor);
+    }
+
+    private void disableInstanceArrays(GLStateCache state, int modelLoc, int colorLoc) {
+        for (int column = 0; column < 4; column++) {
+            state.disableVertexAttribArray(modelLoc + column);
+        }
+        state.disableVertexAttribArray(colorLoc);
+    }
+
+    private void setInstanceConstants(int index, int modelLoc, int colorLoc) {
+        data.position(index * FLOATS_PER_INSTANCE);
+        data.get(scratch, 0, FLOATS_PER_INSTANCE);
+        for (int column = 0; column < 4; column++) {
+            GLES20.glVertexAttrib4fv(modelLoc + column, scratch, column * 4);
+        }
+        GLES20.glVertexAttrib4fv(colorLoc, scratch, COLOR_OFFSET);
+    }
+}
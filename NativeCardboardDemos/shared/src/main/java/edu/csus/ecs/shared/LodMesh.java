@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.shared;
+
+import edu.csus.ecs.core.scene.LodSelector;
+
+/**
+ * One model at several levels of detail, level 0 being the most detailed, together with the
+ * screen sizes at which each level gives way to the next.
+ *
+ * The coarser levels are meant to come out of the tools module's SimplifyMesh, which writes them
+ * next to the source model along with the screen size each one holds up to. Use
+ * {@link #createSelector} to get a selector for the objects drawn with this mesh.
+ */
+public class LodMesh {
+
+    private final IndexedMesh[] levels;
+    private final float[] switchSizes;
+
+    /**
+     * @param levels      the meshes, most detailed first
+     * @param switchSizes fraction of the viewport height below which levels[i] gives way to
+     *                    levels[i + 1], decreasing; one less than the number of levels
+     */
+    public LodMesh(IndexedMesh[] levels, float[] switchSizes) {
+        if (levels.length == 0 || switchSizes.length != levels.length - 1) {
+            throw new IllegalArgumentException(levels.length + " levels need "
+                    + Math.max(0, levels.length - 1) + " switch sizes, got "
+                    + switchSizes.length);
+        }
+        this.levels = levels.clone();
+        this.switchSizes = switchSizes.clone();
+    }
+
+    /**
+     * A mesh with a single level, for models that don't have coarser versions yet.
+     */
+    public LodMesh(IndexedMesh mesh) {
+        this(new IndexedMesh[] {mesh}, new float[0]);
+    }
+
+    /**
+     * @param hysteresis how far past a switch size, as a fraction of it, an object must be to
+     *                   change level
+     * @param capacity   most objects drawn with this mesh
+     */
+    public LodSelector createSelector(float hysteresis, int capacity, int eyeCount) {
+        return new LodSelector(switchSizes, hysteresis, capacity, eyeCount);
+    }
+
+    public int getLevelCount() {
+        return levels.length;
+    }
+
+    public IndexedMesh getLevel(int level) {
+        return levels[level];
+    }
+
+    /** Uploads every level. Call from onSurfaceCreated. */
+    public void upload(GpuBufferManager buffers) {
+        for (IndexedMesh level : levels) {
+            level.upload(buffers);
+        }
+    }
+
+    public void destroy(GpuBufferManager buffers) {
+        for (IndexedMesh level : levels) {
+            level.destroy(buffers);
+        }
+    }
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.shared;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Links shader programs, keeping each linked program's binary on disk so later starts and
+ * surface recreations can load it instead of compiling again.
+ *
+ * A cached binary is keyed by a hash of the shader sources and attribute bindings, and its file
+ * name starts with a hash of the GL vendor, renderer and version strings. A driver update changes
+ * the version string, so its old binaries are never tried, and they are deleted on the next
+ * {@link #onSurfaceCreated}. A binary the driver still rejects is deleted and the program is
+ * compiled from source as if nothing was cached.
+ *
+ * Binaries need glGetProgramBinary from ES 3.0. Android's Java bindings don't expose the ES 2.0
+ * OES_get_program_binary entry points, so on ES 2.0 every program is compiled. Use from the GL
+ * thread only.
+ */
+public class ProgramCache {
+
+    private static final String TAG = "ProgramCache";
+    private static final int MAGIC = 0x4A565250; // "JVRP"
+    private static final int HEADER_BYTES = 12;  // magic, binary format, binary length
+    private static final String SUFFIX = ".bin";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File directory;
+    private final GLStateCache state;
+    private final int[] status = new int[1];
+    private boolean binariesSupported;
+    private String devicePrefix;
+
+    /**
+     * @param directory where binaries are kept, e.g. a directory under Context.getCacheDir();
+     *                  created when needed
+     * @param state     told about programs deleted here, so it forgets their uniforms
+     */
+    public ProgramCache(File directory, GLStateCache state) {
+        this.directory = directory;
+        this.state = state;
+    }
+
+    /**
+     * Checks whether the context can save program binaries and clears out binaries from other
+     * drivers. Call from onSurfaceCreated before linking anything.
+     */
+    public void onSurfaceCreated(GLCapabilities caps) {
+        binariesSupported = false;
+        if (caps.isGLES3()) {
+            GLES20.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, status, 0);
+            binariesSupported = status[0] > 0;
+        }
+        devicePrefix = hash(caps.getVendor() + '\n' + caps.getRenderer() + '\n'
+                + caps.getVersion()).substring(0, 16) + "-";
+
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.getName().startsWith(devicePrefix) && !file.delete()) {
+                    Log.w(TAG, "Can't delete stale program binary " + file);
+                }
+            }
+        }
+    }
+
+    public boolean isSupported() {
+        return binariesSupported;
+    }
+
+    /**
+     * Returns a linked program for the sources, from the cache when possible.
+     *
+     * @param attributes attribute names bound before linking, may be empty
+     * @param locations  location of each attribute
+     * @throws IllegalStateException if the sources don't compile or link
+     */
+    public int link(String vertexSource, String fragmentSource, String[] attributes,
+                    int[] locations) {
+        long start = SystemClock.elapsedRealtime();
+        File file = null;
+        if (binariesSupported) {
+            StringBuilder key = new StringBuilder();
+            key.append(vertexSource).append('\0').append(fragmentSource);
+            for (int i = 0; i < attributes.length; i++) {
+                key.append('\0').append(attributes[i]).append('=').append(locations[i]);
+            }
+            file = new File(directory, devicePrefix + hash(key.toString()) + SUFFIX);
+
+            int program = load(file);
+            if (program != 0) {
+                Log.i(TAG, "Loaded " + file.getName() + " in "
+                        + (SystemClock.elapsedRealtime() - start) + " ms");
+                return program;
+            }
+        }
+
+        int program = compileAndLink(vertexSource, fragmentSource, attributes, locations);
+        Log.i(TAG, "Compiled program in " + (SystemClock.elapsedRealtime() - start) + " ms");
+        if (file != null) {
+            save(program, file);
+        }
+        return program;
+    }
+
+    // the program made from the binary in file, or 0 if there's none or the driver rejects it
+    private int load(File file) {
+        if (!file.isFile()) {
+            return 0;
+        }
+        ByteBuffer binary;
+        int format;
+        try {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                FileChannel channel = in.getChannel();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                readFully(channel, header);
+                header.flip();
+                int length = header.getInt(8);
+                if (header.getInt(0) != MAGIC || length <= 0
+                        || length != channel.size() - HEADER_BYTES) {
+                    throw new IOException("Corrupt program binary");
+                }
+                format = header.getInt(4);
+                binary = ByteBuffer.allocateDirect(length);
+                readFully(channel, binary);
+                binary.flip();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Can't read " + file, e);
+            discard(file);
+            return 0;
+        }
+
+        int program = GLES20.glCreateProgram();
+        GLES30.glProgramBinary(program, format, binary, binary.remaining());
+        // a format the driver no longer takes raises GL_INVALID_ENUM, don't leave it for the
+        // caller; checked once, draining every error would hide ones that aren't ours
+        int error = GLES20.glGetError();
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, status, 0);
+        if (error != GLES20.GL_NO_ERROR || status[0] == 0) {
+            Log.i(TAG, "Driver rejected " + file.getName() + ", compiling it again");
+            GLES20.glDeleteProgram(program);
+            state.onProgramDeleted(program);
+            discard(file);
+            return 0;
+        }
+        return program;
+    }
+
+    private void save(int program, File file) {
+        GLES20.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, status, 0);
+        int length = status[0];
+        if (length <= 0) {
+            return;
+        }
+        ByteBuffer binary = ByteBuffer.allocateDirect(HEADER_BYTES + length);
+        binary.position(HEADER_BYTES);
+        ByteBuffer body = binary.slice();
+        int[] written = new int[1];
+        int[] format = new int[1];
+        GLES30.glGetProgramBinary(program, length, written, 0, format, 0, body);
+        if (GLES20.glGetError() != GLES20.GL_NO_ERROR || written[0] <= 0) {
+            return;
+        }
+        binary.putInt(0, MAGIC);
+        binary.putInt(4, format[0]);
+        binary.putInt(8, written[0]);
+        binary.position(0);
+        binary.limit(HEADER_BYTES + written[0]);
+
+        // written to the side and renamed, so a crash never leaves a truncated binary behind
+        File temporary = new File(directory, file.getName() + ".tmp");
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Can't create " + directory);
+            }
+            FileOutputStream out = new FileOutputStream(temporary);
+            try {
+                FileChannel channel = out.getChannel();
+                while (binary.hasRemaining()) {
+                    channel.write(binary);
+                }
+            } finally {
+                out.close();
+            }
+            if (!temporary.renameTo(file)) {
+                throw new IOException("Can't rename " + temporary);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Can't save program binary", e);
+            discard(temporary);
+        }
+    }
+
+    private int compileAndLink(String vertexSource, String fragmentSource, String[] attributes,
+                               int[] locations) {
+        int vertexShader = compile(GLES20.GL_VERTEX_SHADER, vertexSource);
+        int fragmentShader;
+        try {
+            fragmentShader = compile(GLES20.GL_FRAGMENT_SHADER, fragmentSource);
+        } catch (IllegalStateException e) {
+            GLES20.glDeleteShader(vertexShader);
+            throw e;
+        }
+        // made once both stages compiled, so a compile error leaves nothing behind
+        int program = GLES20.glCreateProgram();
+        GLES20.glAttachShader(program, vertexShader);
+        GLES20.glAttachShader(program, fragmentShader);
+        for (int i = 0; i < attributes.length; i++) {
+            GLES20.glBindAttribLocation(program, locations[i], attributes[i]);
+        }
+        if (binariesSupported) {
+            // some drivers only keep a binary around for programs that ask for it
+            GLES30.glProgramParameteri(program, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT,
+                    GLES20.GL_TRUE);
+        }
+        GLES20.glLinkProgram(program);
+        // only flagged for deletion, they go with the program
+        GLES20.glDeleteShader(vertexShader);
+        GLES20.glDeleteShader(fragmentShader);
+
+        int[] linked = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linked, 0);
+        if (linked[0] == 0) {
+            String log = GLES20.glGetProgramInfoLog(program);
+            GLES20.glDeleteProgram(program);
+            state.onProgramDeleted(program);
+            throw new IllegalStateException("Error linking program: " + log);
+        }
+        return program;
+    }
+
+    private static int compile(int type, String source) {
+        int shader = GLES20.glCreateShader(type);
+        GLES20.glShaderSource(shader, source);
+        GLES20.glCompileShader(shader);
+        int[] compiled = new int[1];
+        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, compiled, 0);
+        if (compiled[0] == 0) {
+            String log = GLES20.glGetShaderInfoLog(shader);
+            GLES20.glDeleteShader(shader);
+            throw new IllegalStateException("Error compiling shader: " + log);
+        }
+        return shader;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Program binary ends early");
+            }
+        }
+    }
+
+    private static void discard(File file) {
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Can't delete " + file);
+        }
+    }
+
+    // hex SHA-1 of the string
+    private static String hash(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(text.getBytes(UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16))
+                        .append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.csus.ecs.shared;
+
+import android.content.res.AssetManager;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.csus.ecs.core.gltf.Gltf;
+
+/**
+ * Loads glTF binary (.glb) scenes from the assets without stalling the render thread.
+ *
+ * Reading and decoding run on the given executor. Each decoded piece, an {@link IndexedMesh}
+ * with an {@link InstanceBuffer} holding every place the scene puts it, goes on the
+ * {@link UploadQueue} right away, which uploads pieces at the start of each frame until its time
+ * budget is spent. The scene shows up piece by piece instead of all at once after a freeze.
+ *
+ * Meshes are split into pieces of at most {@link #MAX_TRIANGLES_PER_PART} triangles, so each fits
+ * 16-bit indices and no single upload is too big for a frame. Vertex colors are multiplied by
+ * the material's base color; primitives without normals get flat ones. Only triangle lists are
+ * drawn.
+ *
+ * Everything except {@link #load} must be called on the render thread.
+ */
+public class SceneLoader {
+
+    private static final String TAG = "SceneLoader";
+
+    /** Three corners each and still no more vertices than 16-bit indices can address. */
+    public static final int MAX_TRIANGLES_PER_PART = 65535 / 3;
+
+    private static final class Part {
+        final IndexedMesh mesh;
+        final InstanceBuffer instances;
+
+        Part(IndexedMesh mesh, InstanceBuffer instances) {
+            this.mesh = mesh;
+            this.instances = instances;
+        }
+
+        int getSizeInBytes() {
+            return mesh.getSizeInBytes()
+                    + instances.getCount() * InstanceBuffer.BYTES_PER_INSTANCE;
+        }
+    }
+
+    private final Executor executor;
+    private final UploadQueue uploads;
+    private final GpuBufferManager buffers;
+    private final AtomicInteger loading = new AtomicInteger();
+    // parts on the upload queue
+    private final AtomicInteger queued = new AtomicInteger();
+    // bumped by destroy, parts queued before it are dropped instead of uploaded
+    private volatile int generation;
+
+    // render thread only: parts on the GPU
+    private final List<Part> uploaded = new ArrayList<>();
+
+    public SceneLoader(Executor executor, UploadQueue uploads, GpuBufferManager buffers) {
+        this.executor = executor;
+        this.uploads = uploads;
+        this.buffers = buffers;
+    }
+
+    /**
+     * Starts loading a .glb asset in the background. Buffers it refers to by URI are loaded from
+     * the same asset directory. Failures are logged and leave out whatever wasn't decoded yet.
+     *
+     * Assets stored uncompressed (aaptOptions.noCompress 'glb') are memory-mapped, others are
+     * read into memory first.
+     */
+    public void load(final AssetManager assets, final String name) {
+        loading.incrementAndGet();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long start = System.nanoTime();
+                    final String directory = name.lastIndexOf('/') < 0 ? ""
+                            : name.substring(0, name.lastIndexOf('/') + 1);
+                    Gltf gltf = Gltf.readGlb(AssetBuffers.map(assets, name), new Gltf.BufferLoader() {
+                        @Override
+                        public ByteBuffer load(String uri) throws IOException {
+                            return AssetBuffers.map(assets, directory + uri);
+                        }
+                    });
+                    int parts = decode(gltf);
+                    Log.i(TAG, "Decoded " + name + " into " + parts + " parts in "
+                            + (System.nanoTime() - start) / 1000000L + " ms");
+                } catch (IOException e) {
+                    Log.e(TAG, "Can't load " + name, e);
+                } finally {
+                    loading.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    /** @return whether a scene is still being decoded or has parts left to upload */
+    public boolean isLoading() {
+        return loading.get() > 0 || queued.get() > 0;
+    }
+
+    /**
+     * Every part has to go to the GPU again after the context was lost. Call from
+     * onSurfaceCreated; nothing is deleted since the old context took it with it.
+     */
+    public void onSurfaceCreated() {
+        for (Part part : uploaded) {
+            enqueue(part);
+        }
+        uploaded.clear();
+    }
+
+    // Called on the executor and the render thread. Parts go up in the order they were queued.
+    private void enqueue(final Part part) {
+        final int queuedGeneration = generation;
+        queued.incrementAndGet();
+        uploads.enqueue(UploadQueue.BUFFER, UploadQueue.PRIORITY_NORMAL, part.getSizeInBytes(),
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        queued.decrementAndGet();
+                        if (queuedGeneration != generation) {
+                            return;
+                        }
+                        part.mesh.upload(buffers);
+                        part.instances.create(buffers);
+                        part.instances.upload(buffers);
+                        uploaded.add(part);
+                    }
+                });
+    }
+
+    /** @return how many parts are on the GPU and drawn by {@link #draw} */
+    public int getPartCount() {
+        return uploaded.size();
+    }
+
+    /**
+     * Draws every uploaded part with the current program, which takes the model matrix and
+     * instance color per instance like {@link InstanceBuffer} expects.
+     */
+    public void draw(GLStateCache state, boolean instanced, int positionLoc, int normalLoc,
+                     int colorLoc, int modelLoc, int instanceColorLoc) {
+        for (int i = 0; i < uploaded.size(); i++) {
+            Part part = uploaded.get(i);
+            part.mesh.bind(state, positionLoc, normalLoc, colorLoc);
+            part.instances.draw(state, instanced, modelLoc, instanceColorLoc, part.mesh);
+        }
+    }
+
+    /**
+     * Like {@link #draw}, but every instance once for each eye in the same draw, see
+     * {@link InstanceBuffer#drawForEyes}. ES 3.0 only.
+     */
+    public void drawForEyes(GLStateCache state, int eyeCount, int positionLoc, int normalLoc,
+                            int colorLoc, int modelLoc, int instanceColorLoc) {
+        for (int i = 0; i < uploaded.size(); i++) {
+            Part part = uploaded.get(i);
+            part.mesh.bind(state, positionLoc, normalLoc, colorLoc);
+            part.instances.drawForEyes(state, modelLoc, instanceColorLoc, part.mesh, 0,
+                    part.instances.getCount(), eyeCount);
+        }
+    }
+
+    /**
+     * Deletes the GL objects of every uploaded part and forgets all parts, including ones still
+     * on the upload queue. Scenes still decoding keep arriving.
+     */
+    public void destroy() {
+        generation++;
+        for (Part part : uploaded) {
+            part.mesh.destroy(buffers);
+            part.instances.destroy(buffers);
+        }
+        uploaded.clear();
+    }
+
+    // Runs on the executor. Queues each part as soon as it's done, so uploads start early.
+    private int decode(Gltf gltf) {
+        int partCount = 0;
+        float[] transforms = gltf.getInstanceTransforms();
+        for (int mesh = 0; mesh < gltf.getMeshCount(); mesh++) {
+            int instanceCount = 0;
+            for (int i = 0; i < gltf.getInstanceCount(); i++) {
+                if (gltf.getInstanceMesh(i) == mesh) {
+                    instanceCount++;
+                }
+            }
+            if (instanceCount == 0) {
+                continue;
+            }
+
+            for (Gltf.Primitive primitive : gltf.getPrimitives(mesh)) {
+                if (primitive.mode != Gltf.TRIANGLES) {
+                    Log.w(TAG, "Skipping a primitive with mode " + primitive.mode);
+                    continue;
+                }
+                int cornerCount = primitive.indices != null ? primitive.indices.length
+                        : primitive.getVertexCount();
+                int triangleCount = cornerCount / 3;
+                for (int first = 0; first < triangleCount; first += MAX_TRIANGLES_PER_PART) {
+                    int triangles = Math.min(MAX_TRIANGLES_PER_PART, triangleCount - first);
+                    IndexedMesh part = expand(primitive, first * 3, triangles * 3);
+
+                    // every instance draws every part of the mesh
+                    InstanceBuffer instances = new InstanceBuffer(instanceCount);
+                    instances.setCount(instanceCount);
+                    int slot = 0;
+                    for (int i = 0; i < gltf.getInstanceCount(); i++) {
+                        if (gltf.getInstanceMesh(i) == mesh) {
+                            instances.setModel(slot, transforms, i * 16);
+                            instances.setColor(slot, 0.0f, 0.0f, 0.0f, 0.0f); // vertex colors
+                            slot++;
+                        }
+                    }
+                    enqueue(new Part(part, instances));
+                    partCount++;
+                }
+            }
+        }
+        return partCount;
+    }
+
+    // corners [first, first + count) of a triangle list as the non-indexed arrays fromArrays takes
+    private static IndexedMesh expand(Gltf.Primitive primitive, int first, int count) {
+        float[] coords = new float[count * 3];
+        float[] normals = new float[count * 3];
+        float[] colors = new float[count * 4];
+        float[] baseColor = primitive.baseColor;
+        for (int i = 0; i < count; i++) {
+            int corner = first + i;
+            int v = primitive.indices != null ? primitive.indices[corner] : corner;
+            System.arraycopy(primitive.positions, v * 3, coords, i * 3, 3);
+            if (primitive.normals != null) {
+                System.arraycopy(primitive.normals, v * 3, normals, i * 3, 3);
+            }
+            for (int c = 0; c < 4; c++) {
+                float vertexColor = primitive.colors != null ? primitive.colors[v * 4 + c] : 1.0f;
+                colors[i * 4 + c] = vertexColor * baseColor[c];
+            }
+        }
+        if (primitive.normals == null) {
+            setFlatNormals(coords, normals);
+        }
+        return IndexedMesh.fromArrays(coords, normals, colors);
+    }
+
+    private static void setFlatNormals(float[] coords, float[] normals) {
+        for (int t = 0; t < coords.length; t += 9) {
+            float e1x = coords[t + 3] - coords[t];
+            float e1y = coords[t + 4] - coords[t + 1];
+            float e1z = coords[t + 5] - coords[t + 2];
+            float e2x = coords[t + 6] - coords[t];
+            float e2y = coords[t + 7] - coords[t + 1];
+            float e2z = coords[t + 8] - coords[t + 2];
+            float x = e1y * e2z - e1z * e2y;
+            float y = e1z * e2x - e1x * e2z;
+            float z = e1x * e2y - e1y * e2x;
+            float length = (float) Math.sqrt(x * x + y * y + z * z);
+            float scale = length > 0.0f ? 1.0f / length : 0.0f;
+            for (int corner = t; corner < t + 9; corner += 3) {
+                normals[corner] = x * scale;
+                normals[corner + 1] = y * scale;
+                normals[corner + 2] = z * scale;
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.shared;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.csus.ecs.core.shader.ShaderPreprocessor;
+
+/**
+ * The shader permutations a renderer uses, linked ahead of their first draw.
+ *
+ * Each permutation is a vertex and a fragment source plus defines, see
+ * {@link ShaderPreprocessor}. Permutations that come out as the same sources share one program.
+ * {@link #add} only preprocesses; {@link #queueLinks} puts the programs on the
+ * {@link UploadQueue} at high priority, which links them through the {@link ProgramCache} a few
+ * per frame. That is meant to happen while the GvrView transition screen still covers the scene,
+ * so a slow compile never shows up as a dropped frame in VR. Asking for a program that isn't
+ * linked yet links it on the spot.
+ *
+ * All attributes are bound to the same locations in every permutation. Use from the GL thread
+ * only.
+ */
+public class ShaderVariants {
+
+    private static final String TAG = "ShaderVariants";
+
+    private final ShaderPreprocessor preprocessor;
+    private final ProgramCache cache;
+    private final String[] attributes;
+    private final int[] locations;
+
+    private final Map<String, Integer> idsBySource = new HashMap<>();
+    private final List<String> vertexSources = new ArrayList<>();
+    private final List<String> fragmentSources = new ArrayList<>();
+    private int[] programs = new int[8];
+    private int linkedCount; // programs [0, linkedCount) are linked, in the order they were added
+
+    /**
+     * @param attributes attribute names bound in every program
+     * @param locations  location of each attribute
+     */
+    public ShaderVariants(ShaderPreprocessor preprocessor, ProgramCache cache, String[] attributes,
+                          int[] locations) {
+        this.preprocessor = preprocessor;
+        this.cache = cache;
+        this.attributes = attributes.clone();
+        this.locations = locations.clone();
+    }
+
+    /**
+     * Adds a permutation to link later.
+     *
+     * @param defines macros for both stages, NAME or NAME=VALUE
+     * @return the id to get its program with, the same for permutations with the same sources
+     * @throws IllegalArgumentException if a source can't be read
+     */
+    public int add(String vertexName, String fragmentName, String... defines) {
+        String vertexSource;
+        String fragmentSource;
+        try {
+            vertexSource = preprocessor.process(vertexName, defines);
+            fragmentSource = preprocessor.process(fragmentName, defines);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Can't read shader " + vertexName + " or "
+                    + fragmentName, e);
+        }
+        String key = vertexSource + '\0' + fragmentSource;
+        Integer id = idsBySource.get(key);
+        if (id == null) {
+            id = vertexSources.size();
+            idsBySource.put(key, id);
+            vertexSources.add(vertexSource);
+            fragmentSources.add(fragmentSource);
+            if (id == programs.length) {
+                int[] grown = new int[programs.length * 2];
+                System.arraycopy(programs, 0, grown, 0, programs.length);
+                programs = grown;
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Queues every program that isn't linked yet, sized by its source length. Call after the
+     * last {@link #add}; programs already queued or linked by then are skipped when their turn
+     * comes.
+     */
+    public void queueLinks(UploadQueue uploads) {
+        for (int i = linkedCount; i < vertexSources.size(); i++) {
+            if (programs[i] != 0) {
+                continue;
+            }
+            final int id = i;
+            uploads.enqueue(UploadQueue.PROGRAM, UploadQueue.PRIORITY_HIGH,
+                    vertexSources.get(i).length() + fragmentSources.get(i).length(),
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            link(id);
+                        }
+                    });
+        }
+    }
+
+    /** @return true once every program added so far is linked */
+    public boolean isAllLinked() {
+        return linkedCount == vertexSources.size();
+    }
+
+    /**
+     * @return the linked program, linked now if the upload queue hasn't got to it yet
+     */
+    public int getProgram(int id) {
+        if (programs[id] == 0) {
+            Log.w(TAG, "Linking program " + id + " at first use");
+            link(id);
+        }
+        return programs[id];
+    }
+
+    public boolean isLinked(int id) {
+        return programs[id] != 0;
+    }
+
+    /**
+     * Forgets every program, the new context doesn't have them. They are linked again once
+     * {@link #queueLinks} queues them, or at first use. Call from onSurfaceCreated after
+     * {@link ProgramCache#onSurfaceCreated}.
+     */
+    public void onSurfaceCreated() {
+        for (int i = 0; i < vertexSources.size(); i++) {
+            programs[i] = 0;
+        }
+        linkedCount = 0;
+    }
+
+    private void link(int id) {
+        if (programs[id] == 0) {
+            programs[id] = cache.link(vertexSources.get(id), fragmentSources.get(id), attributes,
+                    locations);
+        }
+        while (linkedCount < vertexSources.size() && programs[linkedCount] != 0) {
+            linkedCount++;
+        }
+    }
+}
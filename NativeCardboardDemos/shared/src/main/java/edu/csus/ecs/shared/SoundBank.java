@@ -0,0 +1,306 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.csus.ecs.shared;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.util.Log;
+
+import com.google.vr.sdk.audio.GvrAudioEngine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+import edu.csus.ecs.core.audio.WavHeader;
+
+/**
+ * The sound files of a {@link GvrAudioEngine}, decoded in the background and kept in memory only
+ * while they're wanted or fit a budget.
+ *
+ * {@link #preload} counts a reference to a sound and starts decoding it on one of a fixed number
+ * of threads unless it is in memory already; it returns a {@link Load}, a future that is done
+ * once the sound can be played. {@link #createSoundObject} and {@link #createStereoSound} refuse
+ * sounds that aren't decoded yet, so the engine never gets asked to play one it would have to
+ * decode first. {@link #release} drops the reference again. A sound nobody references stays
+ * decoded for the next preload until the decoded sounds no longer fit the budget, then the least
+ * recently used ones are unloaded first. Referenced sounds are never unloaded, so hold the
+ * reference for as long as sound objects made from it may play.
+ *
+ * Decoded sizes are estimated from the WAVE headers at 4 bytes per sample, what the engine keeps
+ * per sample once decoded; files of other formats count with their encoded size. Call from any
+ * thread.
+ */
+public class SoundBank {
+
+    private static final String TAG = "SoundBank";
+
+    private static final int DECODED_BYTES_PER_SAMPLE = 4;
+
+    /** A sound being decoded. Done once it can be played; the result is whether it decoded. */
+    public static final class Load extends FutureTask<Boolean> {
+        private final String name;
+        private List<Runnable> listeners = new ArrayList<>();
+
+        Load(String name, Callable<Boolean> decode) {
+            super(decode);
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /** @return whether the sound is decoded and can be played */
+        public boolean isReady() {
+            if (!isDone() || isCancelled()) {
+                return false;
+            }
+            try {
+                return get();
+            } catch (Exception e) {
+                return false;
+            }
+        }
+
+        /**
+         * Runs the listener once this is done, on the thread that decoded the sound, or right away
+         * on this thread if it is done already.
+         */
+        public void whenDone(Runnable listener) {
+            synchronized (this) {
+                if (listeners != null) {
+                    listeners.add(listener);
+                    return;
+                }
+            }
+            listener.run();
+        }
+
+        @Override
+        protected void done() {
+            List<Runnable> toRun;
+            synchronized (this) {
+                toRun = listeners;
+                listeners = null;
+            }
+            for (Runnable listener : toRun) {
+                listener.run();
+            }
+        }
+    }
+
+    private static final class Entry {
+        final Load load;
+        int references;
+        long decodedBytes; // counted against the budget once decoded
+
+        Entry(Load load) {
+            this.load = load;
+        }
+    }
+
+    private final GvrAudioEngine engine;
+    private final AssetManager assets;
+    private final ExecutorService executor;
+    private final long budgetBytes;
+
+    // least recently used first, guarded by this
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long decodedBytes;
+
+    /**
+     * @param decodeThreads how many sounds may decode at once
+     * @param budgetBytes   decoded bytes to keep for sounds nobody references
+     */
+    public SoundBank(GvrAudioEngine engine, AssetManager assets, int decodeThreads,
+                     long budgetBytes) {
+        this.engine = engine;
+        this.assets = assets;
+        this.executor = Executors.newFixedThreadPool(decodeThreads);
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * Counts a reference to a sound and decodes it unless it is decoded or decoding already.
+     *
+     * @param name the asset name, as the engine takes it
+     */
+    public synchronized Load preload(final String name) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            entry = new Entry(new Load(name, new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return decode(name);
+                }
+            }));
+            entries.put(name, entry);
+            entry.load.whenDone(new Runnable() {
+                @Override
+                public void run() {
+                    trim();
+                }
+            });
+            executor.execute(entry.load);
+        }
+        entry.references++;
+        return entry.load;
+    }
+
+    /**
+     * Drops a reference counted by {@link #preload}. The sound stays decoded for as long as it
+     * fits the budget.
+     */
+    public void release(String name) {
+        synchronized (this) {
+            Entry entry = entries.get(name);
+            if (entry == null || entry.references == 0) {
+                throw new IllegalStateException(name + " isn't preloaded");
+            }
+            entry.references--;
+        }
+        trim();
+    }
+
+    /**
+     * @return a spatialized sound object for a decoded sound, or GvrAudioEngine.INVALID_ID if it
+     *         isn't preloaded or decoded yet
+     */
+    public int createSoundObject(String name) {
+        return isReady(name) ? engine.createSoundObject(name) : GvrAudioEngine.INVALID_ID;
+    }
+
+    /**
+     * @return an unspatialized sound for a decoded sound, or GvrAudioEngine.INVALID_ID if it isn't
+     *         preloaded or decoded yet
+     */
+    public int createStereoSound(String name) {
+        return isReady(name) ? engine.createStereoSound(name) : GvrAudioEngine.INVALID_ID;
+    }
+
+    /** @return whether the sound is referenced and decoded */
+    public synchronized boolean isReady(String name) {
+        Entry entry = entries.get(name); // also marks it used
+        return entry != null && entry.references > 0 && entry.load.isReady();
+    }
+
+    /** @return estimated bytes of decoded sounds in memory, referenced or not */
+    public synchronized long getDecodedBytes() {
+        return decodedBytes;
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    /**
+     * Stops decoding and unloads every sound. Sound objects made from them stop working.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        synchronized (this) {
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                if (entry.getValue().load.isReady()) {
+                    engine.unloadSoundFile(entry.getKey());
+                }
+            }
+            entries.clear();
+            decodedBytes = 0;
+        }
+    }
+
+    // Runs on the executor.
+    private boolean decode(String name) {
+        long start = System.nanoTime();
+        long bytes = estimateDecodedBytes(name);
+        if (!engine.preloadSoundFile(name)) {
+            Log.e(TAG, "Can't decode " + name);
+            return false;
+        }
+        synchronized (this) {
+            Entry entry = entries.get(name);
+            if (entry != null) {
+                entry.decodedBytes = bytes;
+                decodedBytes += bytes;
+            }
+        }
+        Log.i(TAG, "Decoded " + name + ", about " + bytes / 1024 + " KiB, in "
+                + (System.nanoTime() - start) / 1000000L + " ms");
+        return true;
+    }
+
+    // Unloads unreferenced sounds, least recently used first, until the rest fit the budget, and
+    // forgets unreferenced ones that failed so the next preload tries again.
+    private synchronized void trim() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Entry> next = it.next();
+            Entry entry = next.getValue();
+            if (entry.references > 0 || !entry.load.isDone()) {
+                continue;
+            }
+            if (entry.load.isReady()) {
+                if (decodedBytes <= budgetBytes) {
+                    continue;
+                }
+                decodedBytes -= entry.decodedBytes;
+                engine.unloadSoundFile(next.getKey());
+                Log.i(TAG, "Unloaded " + next.getKey());
+            }
+            it.remove();
+        }
+    }
+
+    private long estimateDecodedBytes(String name) {
+        try {
+            InputStream in = assets.open(name);
+            try {
+                WavHeader header = WavHeader.read(in);
+                return header.getFrameCount() * header.getChannels() * DECODED_BYTES_PER_SAMPLE;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // not a WAVE file, decoded audio is at least as big as the encoded one
+            return encodedBytes(name);
+        }
+    }
+
+    // aapt stores audio uncompressed, so the descriptor has the length
+    private long encodedBytes(String name) {
+        try {
+            AssetFileDescriptor descriptor = assets.openFd(name);
+            try {
+                return descriptor.getLength();
+            } finally {
+                descriptor.close();
+            }
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.shared;
+
+import android.opengl.GLES20;
+
+import com.google.vr.sdk.base.Eye;
+import com.google.vr.sdk.base.Viewport;
+
+import edu.csus.ecs.core.math.Mat4;
+
+/**
+ * View and view-projection matrices for both eyes of a frame, packed back to back so they can be
+ * uploaded as a mat4[2] uniform once per frame.
+ *
+ * Meant for renderers implementing {@link com.google.vr.sdk.base.GvrView.Renderer}, which get
+ * both eyes at once: compute the matrices once and upload them once. Then either draw each eye
+ * in a pass of its own, {@link #beginEye} setting the viewport before an eye index uniform and
+ * the same draws, or on ES 3.0 draw every eye in one pass: {@link #beginEyes} sets one viewport
+ * around all eyes, every draw is instanced once per eye, and the vertex shader takes the eye
+ * from gl_InstanceID and squeezes its clip space into the eye's part of the viewport with
+ * {@link #getEyeRects()}.
+ */
+public class StereoEyes {
+
+    public static final int MAX_EYES = 2;
+
+    private final float[] views = new float[16 * MAX_EYES];
+    private final float[] projections = new float[16 * MAX_EYES];
+    private final float[] viewProjections = new float[16 * MAX_EYES];
+    private final float[] eyeRects = new float[4 * MAX_EYES];
+    private final Eye[] eyes = new Eye[MAX_EYES];
+    private int eyeCount;
+
+    // the viewport around every eye's
+    private int left;
+    private int bottom;
+    private int width;
+    private int height;
+
+    /**
+     * Computes the matrices of every eye for this frame.
+     *
+     * @param leftEye  left eye, or the only eye when stereo mode is off
+     * @param rightEye right eye, null when stereo mode is off
+     * @param camera   world-to-camera matrix shared by both eyes
+     */
+    public void update(Eye leftEye, Eye rightEye, float[] camera, float zNear, float zFar) {
+        eyes[0] = leftEye;
+        eyes[1] = rightEye;
+        eyeCount = rightEye == null ? 1 : 2;
+        for (int i = 0; i < eyeCount; i++) {
+            Mat4.multiply(views, i * 16, eyes[i].getEyeView(), 0, camera, 0);
+            System.arraycopy(eyes[i].getPerspective(zNear, zFar), 0, projections, i * 16, 16);
+            Mat4.multiply(viewProjections, i * 16, projections, i * 16, views, i * 16);
+        }
+        if (eyeCount == 1) {
+            // keep the second slot valid so a mat4[2] upload never reads stale data
+            System.arraycopy(views, 0, views, 16, 16);
+            System.arraycopy(projections, 0, projections, 16, 16);
+            System.arraycopy(viewProjections, 0, viewProjections, 16, 16);
+        }
+        updateEyeRects();
+    }
+
+    private void updateEyeRects() {
+        int right = Integer.MIN_VALUE;
+        int top = Integer.MIN_VALUE;
+        left = Integer.MAX_VALUE;
+        bottom = Integer.MAX_VALUE;
+        for (int i = 0; i < eyeCount; i++) {
+            Viewport viewport = eyes[i].getViewport();
+            left = Math.min(left, viewport.x);
+            bottom = Math.min(bottom, viewport.y);
+            right = Math.max(right, viewport.x + viewport.width);
+            top = Math.max(top, viewport.y + viewport.height);
+        }
+        width = right - left;
+        height = top - bottom;
+
+        // NDC -1 to 1 of an eye's viewport, as NDC of the viewport around all of them
+        for (int i = 0; i < MAX_EYES; i++) {
+            Viewport viewport = eyes[Math.min(i, eyeCount - 1)].getViewport();
+            int r = i * 4;
+            eyeRects[r] = (float) viewport.width / width;
+            eyeRects[r + 1] = (2.0f * (viewport.x - left) + viewport.width) / width - 1.0f;
+            eyeRects[r + 2] = (float) viewport.height / height;
+            eyeRects[r + 3] = (2.0f * (viewport.y - bottom) + viewport.height) / height - 1.0f;
+        }
+    }
+
+    public int getEyeCount() {
+        return eyeCount;
+    }
+
+    public Eye getEye(int index) {
+        return eyes[index];
+    }
+
+    /** @return view matrices of all eyes, eye i starts at offset 16 * i */
+    public float[] getViews() {
+        return views;
+    }
+
+    /** @return projection matrices of all eyes, eye i starts at offset 16 * i */
+    public float[] getProjections() {
+        return projections;
+    }
+
+    /** @return view-projection matrices of all eyes, eye i starts at offset 16 * i */
+    public float[] getViewProjections() {
+        return viewProjections;
+    }
+
+    /**
+     * Points viewport and scissor at one eye's half of the frame buffer, like GvrView does
+     * before calling onDrawEye. GL_SCISSOR_TEST must be enabled by the caller.
+     */
+    public void beginEye(int index) {
+        Viewport viewport = eyes[index].getViewport();
+        viewport.setGLViewport();
+        viewport.setGLScissor();
+    }
+
+    /**
+     * Points viewport and scissor at the part of the frame buffer around every eye, for drawing
+     * all eyes in one pass. GL_SCISSOR_TEST must be enabled by the caller.
+     */
+    public void beginEyes() {
+        GLES20.glViewport(left, bottom, width, height);
+        GLES20.glScissor(left, bottom, width, height);
+    }
+
+    /**
+     * Where each eye goes in the viewport {@link #beginEyes} sets, as a vec4[2] uniform. Eye i's
+     * clip-space position maps to x * scaleX + w * offsetX, y * scaleY + w * offsetY there;
+     * anything outside the eye's own -w to w must still be clipped, since the neighboring eye is
+     * drawn there.
+     *
+     * @return scaleX, offsetX, scaleY and offsetY of each eye, eye i starts at offset 4 * i
+     */
+    public float[] getEyeRects() {
+        return eyeRects;
+    }
+}
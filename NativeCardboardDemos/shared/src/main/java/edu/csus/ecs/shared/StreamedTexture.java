@@ -0,0 +1,191 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.csus.ecs.shared;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import java.nio.ByteBuffer;
+
+import edu.csus.ecs.core.texture.Ktx2File;
+
+/**
+ * A mip-mapped texture that is uploaded a level at a time, coarsest first, by a
+ * {@link TextureStreamer}.
+ *
+ * Only the coarsest level is loaded to begin with. Finer levels stream in once
+ * {@link #requestLevel} or {@link #requestPixels} asks for them, so a texture that never gets
+ * close to the viewer never takes up the memory of its full size. On ES 3.0 the texture's base
+ * level follows the finest level loaded, so it can be sampled all along. ES 2.0 has no base
+ * level and needs the whole chain, which is then loaded in one go.
+ */
+public class StreamedTexture {
+
+    private final String name;
+    private final Ktx2File file;
+    private int texture;
+    private boolean partialChains;
+    private int loadedLevel;   // finest level on the GPU, getLevelCount() while none is
+    private int requestedLevel;
+
+    private final int[] names = new int[1];
+
+    StreamedTexture(String name, Ktx2File file) {
+        this.name = name;
+        this.file = file;
+        loadedLevel = file.getLevelCount();
+        requestedLevel = file.getLevelCount() - 1;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getWidth() {
+        return file.getWidth();
+    }
+
+    public int getHeight() {
+        return file.getHeight();
+    }
+
+    public int getLevelCount() {
+        return file.getLevelCount();
+    }
+
+    /** @return the finest level on the GPU, or {@link #getLevelCount()} if none is */
+    public int getLoadedLevel() {
+        return loadedLevel;
+    }
+
+    /** @return whether the texture can be sampled */
+    public boolean isReady() {
+        return texture != 0 && loadedLevel < (partialChains ? file.getLevelCount() : 1);
+    }
+
+    /**
+     * Asks for the levels down to level to be loaded. Levels already loaded stay loaded.
+     */
+    public void requestLevel(int level) {
+        requestedLevel = Math.max(0, Math.min(file.getLevelCount() - 1, level));
+    }
+
+    /**
+     * Asks for the level that matches drawing the whole texture across this many pixels. Pass the
+     * largest size it is drawn at, which is where it needs the most detail.
+     */
+    public void requestPixels(float pixels) {
+        requestLevel(TextureStreamer.levelFor(Math.max(file.getWidth(), file.getHeight()),
+                pixels));
+    }
+
+    /**
+     * Binds the texture to a texture unit.
+     *
+     * @param unit 0 for GL_TEXTURE0 and so on
+     */
+    public void bind(int unit) {
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + unit);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+    }
+
+    /** Creates the GL texture with nothing loaded. */
+    void create(boolean partialChains) {
+        this.partialChains = partialChains;
+        GLES20.glGenTextures(1, names, 0);
+        texture = names[0];
+        loadedLevel = file.getLevelCount();
+
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S,
+                GLES20.GL_REPEAT);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T,
+                GLES20.GL_REPEAT);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER,
+                GLES20.GL_LINEAR);
+        // without a max level, ES 2.0 only mip-maps a chain that goes all the way to 1x1
+        int fullChain = 32 - Integer.numberOfLeadingZeros(Math.max(file.getWidth(),
+                file.getHeight()));
+        boolean mipmapped = file.getLevelCount() > 1
+                && (partialChains || file.getLevelCount() == fullChain);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER,
+                mipmapped ? GLES20.GL_LINEAR_MIPMAP_LINEAR : GLES20.GL_LINEAR);
+        if (partialChains) {
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES30.GL_TEXTURE_MAX_LEVEL,
+                    file.getLevelCount() - 1);
+        }
+    }
+
+    /** @return the next level to upload, or -1 if everything requested is loaded */
+    int nextLevel() {
+        if (texture == 0) {
+            return -1;
+        }
+        int target = partialChains ? requestedLevel : 0;
+        return loadedLevel > target ? loadedLevel - 1 : -1;
+    }
+
+    /** @return bytes of the level {@link #nextLevel} returns */
+    int getLevelSize(int level) {
+        return file.getLevelSize(level);
+    }
+
+    /** Uploads the next level and makes it the base level. */
+    void uploadLevel(int level, boolean es3) {
+        ByteBuffer data = file.getLevelData(level);
+        int width = file.getLevelWidth(level);
+        int height = file.getLevelHeight(level);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture);
+        if (file.isCompressed()) {
+            GLES20.glCompressedTexImage2D(GLES20.GL_TEXTURE_2D, level,
+                    file.getGlInternalFormat(), width, height, 0, data.remaining(), data);
+        } else {
+            // ES 2.0 only takes unsized formats, and no sRGB
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, level,
+                    es3 ? file.getGlInternalFormat() : GLES20.GL_RGBA, width, height, 0,
+                    GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, data);
+        }
+        loadedLevel = level;
+        if (partialChains) {
+            GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES30.GL_TEXTURE_BASE_LEVEL, level);
+        }
+    }
+
+    /** @return bytes of all levels on the GPU */
+    long getLoadedBytes() {
+        long bytes = 0;
+        for (int level = loadedLevel; level < file.getLevelCount(); level++) {
+            bytes += file.getLevelSize(level);
+        }
+        return bytes;
+    }
+
+    /** Drops the GL texture without deleting it, after the context went away. */
+    void forget() {
+        texture = 0;
+        loadedLevel = file.getLevelCount();
+    }
+
+    void delete() {
+        if (texture != 0) {
+            names[0] = texture;
+            GLES20.glDeleteTextures(1, names, 0);
+        }
+        forget();
+    }
+}
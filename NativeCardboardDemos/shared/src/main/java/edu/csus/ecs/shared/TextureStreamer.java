@@ -0,0 +1,218 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.csus.ecs.shared;
+
+import android.content.res.AssetManager;
+import android.util.Log;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import edu.csus.ecs.core.texture.Ktx2File;
+
+/**
+ * Loads KTX 2.0 textures in the best format the device decodes and streams their mip levels to
+ * the GPU within a per-frame time budget.
+ *
+ * A texture called "floor" is shipped as up to three assets, floor.astc.ktx2, floor.etc2.ktx2 and
+ * floor.rgba.ktx2; {@link #load} takes ASTC when the device has it, else ETC2 (every ES 3.0
+ * device), else the uncompressed fallback. Only the coarsest level is uploaded at once, see
+ * {@link StreamedTexture} for the rest; {@link #update} puts finer levels on the
+ * {@link UploadQueue} at low priority, coarser levels ahead of finer ones. Store the files
+ * uncompressed (aaptOptions.noCompress 'ktx2') so they are memory-mapped rather than read.
+ *
+ * Call everything on the render thread.
+ */
+public class TextureStreamer {
+
+    private static final String TAG = "TextureStreamer";
+
+    // asset suffixes by Ktx2File family, best first
+    private static final int[] FAMILIES_BY_PREFERENCE =
+            {Ktx2File.FAMILY_ASTC, Ktx2File.FAMILY_ETC2, Ktx2File.FAMILY_RGBA};
+    private static final String[] SUFFIXES = {".rgba.ktx2", ".etc2.ktx2", ".astc.ktx2"};
+
+    private final AssetManager assets;
+    private final UploadQueue uploads;
+    private final List<StreamedTexture> textures = new ArrayList<>();
+    // textures with a level on the upload queue, at most one each
+    private final Set<StreamedTexture> queued = new HashSet<>();
+    private GLCapabilities capabilities;
+
+    private long uploadedBytes;
+
+    public TextureStreamer(AssetManager assets, UploadQueue uploads) {
+        this.assets = assets;
+        this.uploads = uploads;
+    }
+
+    /**
+     * Call from onSurfaceCreated, before {@link #load}. Textures loaded for an earlier surface get
+     * a new GL texture and start over from their coarsest level.
+     */
+    public void onSurfaceCreated(GLCapabilities capabilities) {
+        this.capabilities = capabilities;
+        uploadedBytes = 0;
+        for (StreamedTexture texture : textures) {
+            texture.forget();
+            createWithCoarsestLevel(texture);
+        }
+    }
+
+    /**
+     * Picks the asset for a texture and uploads its coarsest level. Loading a texture again
+     * returns the one loaded before.
+     *
+     * @param name the asset name without format suffix and extension
+     * @return the texture, or null if there is no asset for it in a format the device can use
+     * @throws IOException if the asset can't be read or isn't a texture this class can load
+     */
+    public StreamedTexture load(String name) throws IOException {
+        if (capabilities == null) {
+            throw new IllegalStateException("load before onSurfaceCreated");
+        }
+        for (StreamedTexture texture : textures) {
+            if (texture.getName().equals(name)) {
+                return texture;
+            }
+        }
+        for (int family : FAMILIES_BY_PREFERENCE) {
+            if (!supports(family)) {
+                continue;
+            }
+            String asset = name + SUFFIXES[family];
+            Ktx2File file;
+            try {
+                file = Ktx2File.read(AssetBuffers.map(assets, asset));
+            } catch (FileNotFoundException e) {
+                continue;
+            }
+            if (file.getFamily() != family) {
+                throw new IOException(asset + " holds a different format than its name says");
+            }
+            StreamedTexture texture = new StreamedTexture(name, file);
+            textures.add(texture);
+            createWithCoarsestLevel(texture);
+            Log.i(TAG, "Loaded " + asset + ", " + file.getWidth() + "x" + file.getHeight()
+                    + " in " + file.getLevelCount() + " levels");
+            return texture;
+        }
+        return null;
+    }
+
+    private boolean supports(int family) {
+        switch (family) {
+            case Ktx2File.FAMILY_ASTC:
+                return capabilities.supportsAstc();
+            case Ktx2File.FAMILY_ETC2:
+                return capabilities.supportsEtc2();
+            default:
+                return true;
+        }
+    }
+
+    // The coarsest level is tiny and makes the texture usable right away on ES 3.0. ES 2.0 can't
+    // sample a partial chain, so there it all goes up now.
+    private void createWithCoarsestLevel(StreamedTexture texture) {
+        boolean es3 = capabilities.isGLES3();
+        texture.create(es3);
+        int level;
+        while ((level = texture.nextLevel()) >= 0) {
+            texture.uploadLevel(level, es3);
+            uploadedBytes += texture.getLevelSize(level);
+            if (es3) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Queues the next requested level of every texture that doesn't have one queued yet. Call
+     * once a frame, after the levels were requested; each level queues the next one once it's
+     * uploaded, so a texture can refine several levels in one frame if the budget allows.
+     */
+    public void update() {
+        for (int i = 0; i < textures.size(); i++) {
+            StreamedTexture texture = textures.get(i);
+            int level = texture.nextLevel();
+            if (level >= 0 && !queued.contains(texture)) {
+                enqueue(texture, level);
+            }
+        }
+    }
+
+    private void enqueue(final StreamedTexture texture, final int level) {
+        queued.add(texture);
+        final int bytes = texture.getLevelSize(level);
+        uploads.enqueue(UploadQueue.TEXTURE, UploadQueue.PRIORITY_LOW - level, bytes,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        queued.remove(texture);
+                        // destroyed, recreated on a new surface or no longer wanted since
+                        if (!textures.contains(texture) || texture.nextLevel() != level) {
+                            return;
+                        }
+                        texture.uploadLevel(level, capabilities.isGLES3());
+                        uploadedBytes += bytes;
+                        int next = texture.nextLevel();
+                        if (next >= 0) {
+                            enqueue(texture, next);
+                        }
+                    }
+                });
+    }
+
+    /** @return bytes uploaded since the surface was created */
+    public long getUploadedBytes() {
+        return uploadedBytes;
+    }
+
+    /** @return bytes of texture data on the GPU */
+    public long getLoadedBytes() {
+        long bytes = 0;
+        for (StreamedTexture texture : textures) {
+            bytes += texture.getLoadedBytes();
+        }
+        return bytes;
+    }
+
+    public void destroy() {
+        for (StreamedTexture texture : textures) {
+            texture.delete();
+        }
+        textures.clear();
+        queued.clear();
+    }
+
+    /**
+     * The mip level whose size best matches drawing a texture across a number of pixels: the
+     * coarsest one still at least as big as the pixels, so it is never magnified.
+     *
+     * @param textureSize the larger side of level 0
+     * @param pixels      the larger side of the texture on screen
+     */
+    public static int levelFor(int textureSize, float pixels) {
+        double level = Math.log(textureSize / Math.max(1.0f, pixels)) / Math.log(2.0);
+        return Math.max(0, (int) Math.floor(level));
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.csus.ecs.shared;
+
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * GPU work queued from any thread and run on the render thread, a slice of each frame at a time.
+ *
+ * Producers {@link #enqueue} buffer, texture and program uploads from whatever thread has the
+ * data ready. The render thread calls {@link #drain} at the start of each frame, which runs the
+ * work, lowest priority value first and in queueing order within a priority, until the budget is
+ * spent. Work that would run past the rest of the budget, judged by the measured cost per byte of
+ * its kind, waits for the next frame. The first piece of a frame always runs, so one bigger than
+ * the whole budget still goes up, alone, and is counted as an overrun.
+ *
+ * Queued work runs against whatever context is current when it is drained, so a new surface
+ * doesn't invalidate it; owners only queue again what the lost context took with it. The
+ * counters and {@link #dump} may be read from any thread.
+ */
+public class UploadQueue {
+
+    // kinds of work, each with its own measured cost per byte
+    public static final int BUFFER = 0;
+    public static final int TEXTURE = 1;
+    public static final int PROGRAM = 2;
+    private static final int KIND_COUNT = 3;
+
+    /** Work nothing can be drawn without, like programs. */
+    public static final int PRIORITY_HIGH = 0;
+    /** Work that makes something new show up, like scenery geometry. */
+    public static final int PRIORITY_NORMAL = 100;
+    /**
+     * Work that refines something already drawn, like finer mip levels. Add a small offset to
+     * order work within a band.
+     */
+    public static final int PRIORITY_LOW = 200;
+
+    private static final class Upload implements Comparable<Upload> {
+        final int kind;
+        final int priority;
+        final long sequence;
+        final int bytes;
+        final Runnable work;
+
+        Upload(int kind, int priority, long sequence, int bytes, Runnable work) {
+            this.kind = kind;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.bytes = bytes;
+            this.work = work;
+        }
+
+        @Override
+        public int compareTo(Upload other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : sequence == other.sequence ? 0 : 1;
+        }
+    }
+
+    private final PriorityBlockingQueue<Upload> queue = new PriorityBlockingQueue<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private volatile long budgetNanos;
+
+    // render thread only: measured cost of each kind, to keep work that won't fit for later
+    private final double[] nanosPerByte = new double[KIND_COUNT];
+
+    // written by the render thread only, so plain volatile increments are enough
+    private volatile long drainedBytes;
+    private volatile long drainedCount;
+    private volatile long busyFrames;
+    private volatile long overruns;
+    private volatile long maxDrainNanos;
+
+    /**
+     * @param budgetMicros time each {@link #drain} may spend
+     */
+    public UploadQueue(long budgetMicros) {
+        setBudgetMicros(budgetMicros);
+    }
+
+    public void setBudgetMicros(long budgetMicros) {
+        budgetNanos = budgetMicros * 1000L;
+    }
+
+    public long getBudgetMicros() {
+        return budgetNanos / 1000L;
+    }
+
+    /**
+     * Queues work for the render thread. Call from any thread.
+     *
+     * @param kind     {@link #BUFFER}, {@link #TEXTURE} or {@link #PROGRAM}
+     * @param priority lower runs first, see {@link #PRIORITY_HIGH} and the others
+     * @param bytes    how much data the work sends to the GPU, for programs their source length
+     * @param work     run on the render thread with the context current
+     */
+    public void enqueue(int kind, int priority, int bytes, Runnable work) {
+        if (kind < 0 || kind >= KIND_COUNT) {
+            throw new IllegalArgumentException("Unknown upload kind " + kind);
+        }
+        queuedBytes.addAndGet(bytes);
+        queue.add(new Upload(kind, priority, sequence.getAndIncrement(), bytes, work));
+    }
+
+    /**
+     * Runs queued work until the budget is spent. Call at the start of each frame on the render
+     * thread. Work queued by the work itself runs in the same drain if it fits.
+     *
+     * @return how many pieces of work ran
+     */
+    public int drain() {
+        long start = System.nanoTime();
+        long budget = budgetNanos;
+        int count = 0;
+        Upload upload;
+        while ((upload = queue.poll()) != null) {
+            long elapsed = System.nanoTime() - start;
+            if (count > 0
+                    && elapsed + (long) (upload.bytes * nanosPerByte[upload.kind]) > budget) {
+                queue.add(upload);
+                break;
+            }
+            queuedBytes.addAndGet(-upload.bytes);
+            long uploadStart = System.nanoTime();
+            upload.work.run();
+            count++;
+            drainedCount++;
+            drainedBytes += upload.bytes;
+
+            // a slow moving average, so one stall doesn't hold everything back for long
+            double measured = (double) (System.nanoTime() - uploadStart)
+                    / Math.max(1, upload.bytes);
+            double average = nanosPerByte[upload.kind];
+            nanosPerByte[upload.kind] = average == 0.0 ? measured
+                    : average * 0.75 + measured * 0.25;
+        }
+        if (count > 0) {
+            long spent = System.nanoTime() - start;
+            busyFrames++;
+            if (spent > budget) {
+                overruns++;
+            }
+            if (spent > maxDrainNanos) {
+                maxDrainNanos = spent;
+            }
+        }
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    /** @return pieces of work waiting */
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    /** @return bytes of work waiting */
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    /** @return bytes of work run so far */
+    public long getDrainedBytes() {
+        return drainedBytes;
+    }
+
+    /** @return pieces of work run so far */
+    public long getDrainedCount() {
+        return drainedCount;
+    }
+
+    /** @return drains that ran past the budget, out of {@link #getBusyFrames} */
+    public long getOverruns() {
+        return overruns;
+    }
+
+    /** @return drains that had work to run */
+    public long getBusyFrames() {
+        return busyFrames;
+    }
+
+    /** @return the longest drain so far */
+    public long getMaxDrainNanos() {
+        return maxDrainNanos;
+    }
+
+    /** Logs the counters at info level. */
+    public void dump(String tag) {
+        Log.i(tag, String.format(Locale.US,
+                "uploads: %d queued (%d bytes), %d run (%d bytes) over %d frames, "
+                        + "%d over the %d us budget, longest %.2f ms",
+                getQueuedCount(), getQueuedBytes(), drainedCount, drainedBytes, busyFrames,
+                overruns, getBudgetMicros(), maxDrainNanos / 1e6));
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.csus.ecs.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import edu.csus.ecs.core.gltf.Gltf;
+import edu.csus.ecs.core.math.Mat4;
+
+/**
+ * Converts an OBJ or glTF model into a mesh file the apps can map straight from their assets:
+ *
+ *   ./gradlew :tools:convert -Pmodel="cube.obj"
+ *
+ * The output goes next to the input as cube.mesh unless a second path is given. OBJ vertex colors
+ * ("v x y z r g b") and normals are kept. A glTF file's default scene is flattened into one mesh,
+ * each instance moved by its node transforms, with vertex colors multiplied by the material's base
+ * color factor. Missing normals are computed, see {@link MeshPacker}.
+ *
+ * Positions stay 32-bit floats: the shaders and the gaze picking work on model space positions and
+ * the models are small enough that the 8 bytes quantizing them would save aren't worth the error.
+ * Normals and colors are 8 bits per component.
+ */
+public final class ConvertMesh {
+
+    private ConvertMesh() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: ConvertMesh model.(obj|gltf|glb) [output.mesh]");
+            System.exit(1);
+        }
+        File input = new File(args[0]);
+        File output = args.length > 1 ? new File(args[1])
+                : new File(input.getAbsoluteFile().getParentFile(),
+                        input.getName().replaceFirst("\\.[^.]*$", "") + ".mesh");
+
+        MeshPacker packer = new MeshPacker();
+        String name = input.getName().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".obj")) {
+            addObj(packer, ObjMesh.read(input));
+        } else if (name.endsWith(".glb") || name.endsWith(".gltf")) {
+            addGltf(packer, readGltf(input));
+        } else {
+            throw new IOException("Don't know how to read " + input);
+        }
+
+        int vertexCount = packer.write(output);
+        int triangleCount = packer.getTriangleCount();
+        // WorldLayoutData style arrays: 10 floats per triangle corner
+        System.out.printf(Locale.ROOT, "%s: %d triangles, %d vertices, %d bytes"
+                        + " (%d as float arrays)%n", output, triangleCount, vertexCount,
+                output.length(), triangleCount * 3 * 10 * 4);
+    }
+
+    private static void addObj(MeshPacker packer, ObjMesh mesh) {
+        float[] positions = mesh.getPositions();
+        float[] colors = mesh.getColors();
+        int[] indices = mesh.getIndices();
+        float[] cornerPositions = new float[indices.length * 3];
+        float[] cornerColors = colors == null ? null : new float[indices.length * 4];
+        for (int i = 0; i < indices.length; i++) {
+            System.arraycopy(positions, indices[i] * 3, cornerPositions, i * 3, 3);
+            if (cornerColors != null) {
+                System.arraycopy(colors, indices[i] * 3, cornerColors, i * 4, 3);
+                cornerColors[i * 4 + 3] = 1.0f;
+            }
+        }
+        packer.add(cornerPositions, mesh.getNormals(), cornerColors);
+    }
+
+    private static Gltf readGltf(final File input) throws IOException {
+        Gltf.BufferLoader loader = new Gltf.BufferLoader() {
+            @Override
+            public ByteBuffer load(String uri) throws IOException {
+                // relative to the model, with %20 and friends undone
+                return map(new File(input.getAbsoluteFile().getParentFile(),
+                        URLDecoder.decode(uri.replace("+", "%2B"), "UTF-8")));
+            }
+        };
+        if (input.getName().toLowerCase(Locale.ROOT).endsWith(".glb")) {
+            return Gltf.readGlb(map(input), loader);
+        }
+        ByteBuffer json = map(input);
+        byte[] bytes = new byte[json.remaining()];
+        json.get(bytes);
+        return Gltf.readGltf(new String(bytes, StandardCharsets.UTF_8), loader);
+    }
+
+    private static ByteBuffer map(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            return in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void addGltf(MeshPacker packer, Gltf gltf) {
+        float[] transforms = gltf.getInstanceTransforms();
+        float[] normalMatrix = new float[16];
+        float[] scratch = new float[3];
+        for (int instance = 0; instance < gltf.getInstanceCount(); instance++) {
+            int world = instance * 16;
+            // normals go through the inverse transpose, and a mirroring transform flips winding
+            if (!Mat4.invertAffine(normalMatrix, 0, transforms, world)) {
+                continue;
+            }
+            boolean mirrored = determinant(transforms, world) < 0.0f;
+
+            for (Gltf.Primitive primitive : gltf.getPrimitives(gltf.getInstanceMesh(instance))) {
+                int[] corners = triangleCorners(primitive);
+                if (corners == null) {
+                    System.out.println("  skipping a primitive with mode " + primitive.mode);
+                    continue;
+                }
+                float[] positions = new float[corners.length * 3];
+                float[] normals = primitive.normals == null ? null : new float[corners.length * 3];
+                float[] colors = new float[corners.length * 4];
+                for (int i = 0; i < corners.length; i++) {
+                    // swapping the last two corners of each triangle reverses its winding
+                    int corner = mirrored && i % 3 != 0 ? corners[i % 3 == 1 ? i + 1 : i - 1]
+                            : corners[i];
+                    int v = corner * 3;
+                    Mat4.transformPoint(positions, i * 3, transforms, world,
+                            primitive.positions[v], primitive.positions[v + 1],
+                            primitive.positions[v + 2]);
+                    if (normals != null) {
+                        transformNormal(scratch, normalMatrix, primitive.normals[v],
+                                primitive.normals[v + 1], primitive.normals[v + 2]);
+                        System.arraycopy(scratch, 0, normals, i * 3, 3);
+                    }
+                    for (int c = 0; c < 4; c++) {
+                        float vertexColor = primitive.colors == null ? 1.0f
+                                : primitive.colors[corner * 4 + c];
+                        colors[i * 4 + c] = vertexColor * primitive.baseColor[c];
+                    }
+                }
+                packer.add(positions, normals, colors);
+            }
+        }
+    }
+
+    // the vertices of a primitive as a triangle list, or null if it isn't made of triangles
+    private static int[] triangleCorners(Gltf.Primitive primitive) {
+        int count = primitive.indices != null ? primitive.indices.length
+                : primitive.getVertexCount();
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = primitive.indices != null ? primitive.indices[i] : i;
+        }
+        switch (primitive.mode) {
+            case Gltf.TRIANGLES:
+                return count % 3 == 0 ? order : null;
+            case Gltf.TRIANGLE_STRIP:
+            case Gltf.TRIANGLE_FAN:
+                int triangles = Math.max(0, count - 2);
+                int[] list = new int[triangles * 3];
+                for (int t = 0; t < triangles; t++) {
+                    boolean fan = primitive.mode == Gltf.TRIANGLE_FAN;
+                    // every other strip triangle is wound the other way round
+                    boolean odd = t % 2 == 1;
+                    list[t * 3] = fan ? order[0] : order[odd ? t + 1 : t];
+                    list[t * 3 + 1] = fan ? order[t + 1] : order[odd ? t : t + 1];
+                    list[t * 3 + 2] = order[t + 2];
+                }
+                return list;
+            default:
+                return null;
+        }
+    }
+
+    // (x, y, z) times the transpose of the inverse's upper 3x3, normalized
+    private static void transformNormal(float[] result, float[] inverse, float x, float y,
+                                        float z) {
+        float nx = inverse[0] * x + inverse[1] * y + inverse[2] * z;
+        float ny = inverse[4] * x + inverse[5] * y + inverse[6] * z;
+        float nz = inverse[8] * x + inverse[9] * y + inverse[10] * z;
+        float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+        float scale = length > 0.0f ? 1.0f / length : 0.0f;
+        result[0] = nx * scale;
+        result[1] = ny * scale;
+        result[2] = nz * scale;
+    }
+
+    private static float determinant(float[] m, int offset) {
+        return m[offset] * (m[offset + 5] * m[offset + 10] - m[offset + 9] * m[offset + 6])
+                - m[offset + 4] * (m[offset + 1] * m[offset + 10] - m[offset + 9] * m[offset + 2])
+                + m[offset + 8] * (m[offset + 1] * m[offset + 6] - m[offset + 5] * m[offset + 2]);
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package edu.csus.ecs.tools;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.csus.ecs.core.mesh.MeshFile;
+
+/**
+ * Collects triangles and writes them as a {@link MeshFile} in the vertex layout of the shared
+ * module's IndexedMesh: position as 3 floats, normal as 4 signed normalized bytes and color as 4
+ * unsigned normalized bytes, 20 bytes in all, with 16-bit indices.
+ *
+ * Normals and colors are quantized before vertices are merged, so corners that only differ below
+ * 8-bit precision become one vertex. Triangles added without normals get them from the faces
+ * around each corner, smoothing across edges flatter than {@link #CREASE_DEGREES} and keeping
+ * sharper ones hard, so a cube stays a cube and a sphere stays round.
+ */
+final class MeshPacker {
+
+    static final float CREASE_DEGREES = 60.0f;
+
+    private static final int STRIDE = 20;
+    private static final int MAX_VERTICES = 65536; // 16-bit indices
+
+    private static final MeshFile.Attribute[] ATTRIBUTES = {
+            new MeshFile.Attribute(MeshFile.POSITION, 3, MeshFile.FLOAT, false, 0),
+            new MeshFile.Attribute(MeshFile.NORMAL, 3, MeshFile.BYTE, true, 12),
+            new MeshFile.Attribute(MeshFile.COLOR, 4, MeshFile.UNSIGNED_BYTE, true, 16),
+    };
+
+    // per corner, 3 corners per triangle; missing normals are NaN until pack() computes them
+    private float[] positions = new float[3 * 1024];
+    private float[] normals = new float[3 * 1024];
+    private float[] colors = new float[4 * 1024];
+    private int cornerCount;
+
+    /**
+     * Adds triangles given corner by corner, 3 corners per triangle.
+     *
+     * @param positions 3 floats per corner
+     * @param normals   3 floats per corner, or null to compute them
+     * @param colors    4 floats (RGBA, 0..1) per corner, or null for white
+     */
+    void add(float[] positions, float[] normals, float[] colors) {
+        int count = positions.length / 3;
+        if (count % 3 != 0) {
+            throw new IllegalArgumentException(count + " corners aren't whole triangles");
+        }
+        if (cornerCount + count > this.positions.length / 3) {
+            int capacity = Math.max(this.positions.length / 3 * 2, cornerCount + count);
+            this.positions = Arrays.copyOf(this.positions, capacity * 3);
+            this.normals = Arrays.copyOf(this.normals, capacity * 3);
+            this.colors = Arrays.copyOf(this.colors, capacity * 4);
+        }
+        System.arraycopy(positions, 0, this.positions, cornerCount * 3, count * 3);
+        if (normals != null) {
+            System.arraycopy(normals, 0, this.normals, cornerCount * 3, count * 3);
+        } else {
+            Arrays.fill(this.normals, cornerCount * 3, (cornerCount + count) * 3, Float.NaN);
+        }
+        if (colors != null) {
+            System.arraycopy(colors, 0, this.colors, cornerCount * 4, count * 4);
+        } else {
+            Arrays.fill(this.colors, cornerCount * 4, (cornerCount + count) * 4, 1.0f);
+        }
+        cornerCount += count;
+    }
+
+    int getTriangleCount() {
+        return cornerCount / 3;
+    }
+
+    /**
+     * Welds the triangles into indexed vertices and writes them.
+     *
+     * @return the number of vertices written
+     * @throws IOException if there are more vertices than 16-bit indices can address
+     */
+    int write(File file) throws IOException {
+        computeMissingNormals();
+
+        ByteBuffer vertices = ByteBuffer.allocate(cornerCount * STRIDE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer indices = ByteBuffer.allocate(cornerCount * 2).order(ByteOrder.LITTLE_ENDIAN);
+        float[] bounds = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE,
+                -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+        Map<List<Integer>, Integer> seen = new HashMap<>();
+        int unique = 0;
+        for (int i = 0; i < cornerCount; i++) {
+            int normal = pack(toSnorm(normals[i * 3]), toSnorm(normals[i * 3 + 1]),
+                    toSnorm(normals[i * 3 + 2]), 0);
+            int color = pack(toUnorm(colors[i * 4]), toUnorm(colors[i * 4 + 1]),
+                    toUnorm(colors[i * 4 + 2]), toUnorm(colors[i * 4 + 3]));
+            List<Integer> key = Arrays.asList(Float.floatToIntBits(positions[i * 3]),
+                    Float.floatToIntBits(positions[i * 3 + 1]),
+                    Float.floatToIntBits(positions[i * 3 + 2]), normal, color);
+            Integer index = seen.get(key);
+            if (index == null) {
+                if (unique == MAX_VERTICES) {
+                    throw new IOException("More than " + MAX_VERTICES + " vertices, split the"
+                            + " model into smaller meshes");
+                }
+                index = unique++;
+                seen.put(key, index);
+                for (int axis = 0; axis < 3; axis++) {
+                    float value = positions[i * 3 + axis];
+                    vertices.putFloat(value);
+                    bounds[axis] = Math.min(bounds[axis], value);
+                    bounds[axis + 3] = Math.max(bounds[axis + 3], value);
+                }
+                vertices.putInt(normal).putInt(color);
+            }
+            indices.putShort((short) index.intValue());
+        }
+        if (unique == 0) {
+            Arrays.fill(bounds, 0.0f);
+        }
+        vertices.flip();
+        indices.flip();
+
+        FileChannel out = new FileOutputStream(file).getChannel();
+        try {
+            MeshFile.write(out, unique, STRIDE, ATTRIBUTES, bounds, vertices,
+                    MeshFile.UNSIGNED_SHORT, indices);
+        } finally {
+            out.close();
+        }
+        return unique;
+    }
+
+    private void computeMissingNormals() {
+        int triangleCount = cornerCount / 3;
+        float[] faceNormals = new float[triangleCount * 3];
+        Map<List<Integer>, List<Integer>> trianglesAt = new HashMap<>();
+        for (int t = 0; t < triangleCount; t++) {
+            // not normalized, so bigger faces weigh more when they're averaged
+            int a = t * 9;
+            float e1x = positions[a + 3] - positions[a];
+            float e1y = positions[a + 4] - positions[a + 1];
+            float e1z = positions[a + 5] - positions[a + 2];
+            float e2x = positions[a + 6] - positions[a];
+            float e2y = positions[a + 7] - positions[a + 1];
+            float e2z = positions[a + 8] - positions[a + 2];
+            faceNormals[t * 3] = e1y * e2z - e1z * e2y;
+            faceNormals[t * 3 + 1] = e1z * e2x - e1x * e2z;
+            faceNormals[t * 3 + 2] = e1x * e2y - e1y * e2x;
+            for (int corner = t * 3; corner < t * 3 + 3; corner++) {
+                if (Float.isNaN(normals[corner * 3])) {
+                    List<Integer> key = positionKey(corner);
+                    List<Integer> triangles = trianglesAt.get(key);
+                    if (triangles == null) {
+                        triangles = new ArrayList<>();
+                        trianglesAt.put(key, triangles);
+                    }
+                    triangles.add(t);
+                }
+            }
+        }
+
+        float minCos = (float) Math.cos(Math.toRadians(CREASE_DEGREES));
+        for (int corner = 0; corner < cornerCount; corner++) {
+            if (!Float.isNaN(normals[corner * 3])) {
+                continue;
+            }
+            int own = corner / 3;
+            float ownLength = length(faceNormals, own);
+            float x = 0.0f, y = 0.0f, z = 0.0f;
+            for (int t : trianglesAt.get(positionKey(corner))) {
+                float dot = faceNormals[own * 3] * faceNormals[t * 3]
+                        + faceNormals[own * 3 + 1] * faceNormals[t * 3 + 1]
+                        + faceNormals[own * 3 + 2] * faceNormals[t * 3 + 2];
+                if (t == own || dot >= minCos * ownLength * length(faceNormals, t)) {
+                    x += faceNormals[t * 3];
+                    y += faceNormals[t * 3 + 1];
+                    z += faceNormals[t * 3 + 2];
+                }
+            }
+            float length = (float) Math.sqrt(x * x + y * y + z * z);
+            if (length > 0.0f) {
+                normals[corner * 3] = x / length;
+                normals[corner * 3 + 1] = y / length;
+                normals[corner * 3 + 2] = z / length;
+            } else {
+                // a degenerate face, any unit normal will do
+                normals[corner * 3] = 0.0f;
+                normals[corner * 3 + 1] = 1.0f;
+                normals[corner * 3 + 2] = 0.0f;
+            }
+        }
+    }
+
+    private List<Integer> positionKey(int corner) {
+        return Arrays.asList(Float.floatToIntBits(positions[corner * 3]),
+                Float.floatToIntBits(positions[corner * 3 + 1]),
+                Float.floatToIntBits(positions[corner * 3 + 2]));
+    }
+
+    private static float length(float[] v, int index) {
+        return (float) Math.sqrt(v[index * 3] * v[index * 3] + v[index * 3 + 1] * v[index * 3 + 1]
+                + v[index * 3 + 2] * v[index * 3 + 2]);
+    }
+
+    private static int toSnorm(float v) {
+        return Math.round(Math.max(-1.0f, Math.min(1.0f, v)) * 127.0f) & 0xFF;
+    }
+
+    private static int toUnorm(float v) {
+        return Math.round(Math.max(0.0f, Math.min(1.0f, v)) * 255.0f) & 0xFF;
+    }
+
+    // 4 bytes as a little-endian int, so they land in the file in the order given
+    private static int pack(int b0, int b1, int b2, int b3) {
+        return b0 | (b1 << 8) | (b2 << 16) | (b3 << 24);
+    }
+}
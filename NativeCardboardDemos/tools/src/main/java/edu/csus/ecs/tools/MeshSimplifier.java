@@ -0,0 +1,538 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.tools;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Reduces a triangle mesh by collapsing edges in order of quadric error (Garland and Heckbert,
+ * "Surface Simplification Using Quadric Error Metrics", 1997).
+ *
+ * Every vertex keeps the sum of the squared distances to the planes of its triangles, weighted by
+ * area. Collapsing an edge merges its two vertices into the point that minimizes the combined sum,
+ * and the cheapest edge goes first. Open edges add steep planes across them so the outline of an
+ * open mesh stays put, and a collapse is skipped if it would flip a triangle or pinch the surface
+ * into a non-manifold shape.
+ *
+ * {@link #simplify} can be called again with a smaller target to continue from the current
+ * result, which is how the levels of a model are made one after the other. Only positions are
+ * kept; normals are recomputed when the model is loaded.
+ */
+public final class MeshSimplifier {
+
+    private static final int QUADRIC = 11; // 10 coefficients and the area they came from
+    private static final double BOUNDARY_WEIGHT = 1000.0;
+
+    private final double[] positions;
+    private final double[] quadrics;
+    private final int[] triangles;
+    private final boolean[] removed;      // per triangle
+    private final boolean[] merged;       // per vertex, merged into another vertex
+    private final int[] stamps;           // per vertex, bumped on every change
+    private final int[][] vertexTriangles;
+    private final int[] vertexTriangleCounts;
+    private final int[] marks;            // per vertex, for neighbor sets
+    private int markGeneration;
+    private final PriorityQueue<Collapse> queue = new PriorityQueue<>();
+    private int triangleCount;
+    private double maxError;
+
+    /**
+     * @param positions 3 floats per vertex, duplicates are welded
+     * @param indices   3 vertex indices per triangle
+     */
+    public MeshSimplifier(float[] positions, int[] indices) {
+        // weld vertices at the same position, exporters often split them at seams
+        Map<PositionKey, Integer> welded = new HashMap<>();
+        int[] remap = new int[positions.length / 3];
+        double[] unique = new double[positions.length];
+        int vertexCount = 0;
+        for (int i = 0; i < remap.length; i++) {
+            PositionKey key = new PositionKey(positions[i * 3], positions[i * 3 + 1],
+                    positions[i * 3 + 2]);
+            Integer index = welded.get(key);
+            if (index == null) {
+                index = vertexCount++;
+                welded.put(key, index);
+                for (int c = 0; c < 3; c++) {
+                    unique[index * 3 + c] = positions[i * 3 + c];
+                }
+            }
+            remap[i] = index;
+        }
+        this.positions = Arrays.copyOf(unique, vertexCount * 3);
+
+        triangles = new int[indices.length];
+        for (int i = 0; i < indices.length; i += 3) {
+            int a = remap[indices[i]];
+            int b = remap[indices[i + 1]];
+            int c = remap[indices[i + 2]];
+            if (a != b && b != c && c != a) {
+                triangles[triangleCount * 3] = a;
+                triangles[triangleCount * 3 + 1] = b;
+                triangles[triangleCount * 3 + 2] = c;
+                triangleCount++;
+            }
+        }
+        removed = new boolean[triangleCount];
+        merged = new boolean[vertexCount];
+        stamps = new int[vertexCount];
+        marks = new int[vertexCount];
+        quadrics = new double[vertexCount * QUADRIC];
+
+        vertexTriangleCounts = new int[vertexCount];
+        for (int i = 0; i < triangleCount * 3; i++) {
+            vertexTriangleCounts[triangles[i]]++;
+        }
+        vertexTriangles = new int[vertexCount][];
+        for (int v = 0; v < vertexCount; v++) {
+            vertexTriangles[v] = new int[Math.max(4, vertexTriangleCounts[v])];
+            vertexTriangleCounts[v] = 0;
+        }
+        for (int t = 0; t < triangleCount; t++) {
+            for (int corner = 0; corner < 3; corner++) {
+                int v = triangles[t * 3 + corner];
+                vertexTriangles[v][vertexTriangleCounts[v]++] = t;
+            }
+        }
+
+        addQuadrics();
+        for (long edge : edgeUses().keySet()) {
+            enqueue((int) (edge >>> 32), (int) edge);
+        }
+    }
+
+    public int getTriangleCount() {
+        return triangleCount;
+    }
+
+    /**
+     * @return roughly how far, in model units, the surface has moved from the original, the
+     *         mean distance to the planes of the costliest collapse so far; single points can
+     *         be a few times farther
+     */
+    public double getError() {
+        return maxError;
+    }
+
+    /**
+     * Collapses edges until at most targetTriangles are left, or no edge can be collapsed without
+     * flipping or pinching the surface.
+     *
+     * @return the number of triangles left
+     */
+    public int simplify(int targetTriangles) {
+        Collapse collapse;
+        while (triangleCount > targetTriangles && (collapse = queue.poll()) != null) {
+            int a = collapse.a;
+            int b = collapse.b;
+            if (merged[a] || merged[b] || stamps[a] != collapse.stampA
+                    || stamps[b] != collapse.stampB) {
+                continue; // one of the vertices changed since this was queued
+            }
+            if (isManifoldAfter(a, b) && !flips(a, b, collapse) && !flips(b, a, collapse)) {
+                apply(collapse);
+            }
+        }
+        return triangleCount;
+    }
+
+    /** @return the current triangles with only the vertices they use */
+    public ObjMesh toMesh() {
+        int[] newIndex = new int[merged.length];
+        Arrays.fill(newIndex, -1);
+        float[] outPositions = new float[merged.length * 3];
+        int[] outIndices = new int[triangleCount * 3];
+        int vertexCount = 0;
+        int index = 0;
+        for (int t = 0; t < removed.length; t++) {
+            if (removed[t]) {
+                continue;
+            }
+            for (int corner = 0; corner < 3; corner++) {
+                int v = triangles[t * 3 + corner];
+                if (newIndex[v] < 0) {
+                    newIndex[v] = vertexCount;
+                    for (int c = 0; c < 3; c++) {
+                        outPositions[vertexCount * 3 + c] = (float) positions[v * 3 + c];
+                    }
+                    vertexCount++;
+                }
+                outIndices[index++] = newIndex[v];
+            }
+        }
+        return new ObjMesh(Arrays.copyOf(outPositions, vertexCount * 3), outIndices);
+    }
+
+    // Adds each triangle's plane to its corners, and a plane perpendicular to it along each open
+    // edge to that edge's ends.
+    private void addQuadrics() {
+        double[] normal = new double[3];
+        for (int t = 0; t < triangleCount; t++) {
+            double area = triangleNormal(t, normal) / 2.0;
+            if (area == 0.0) {
+                continue;
+            }
+            int first = triangles[t * 3];
+            double d = -dot(normal, positions, first);
+            for (int corner = 0; corner < 3; corner++) {
+                addPlane(triangles[t * 3 + corner], normal[0], normal[1], normal[2], d, area);
+                quadrics[triangles[t * 3 + corner] * QUADRIC + 10] += area;
+            }
+        }
+
+        Map<Long, Integer> uses = edgeUses();
+        double[] edge = new double[3];
+        for (int t = 0; t < triangleCount; t++) {
+            if (triangleNormal(t, normal) == 0.0) {
+                continue;
+            }
+            for (int corner = 0; corner < 3; corner++) {
+                int a = triangles[t * 3 + corner];
+                int b = triangles[t * 3 + (corner + 1) % 3];
+                if (uses.get(edgeKey(a, b)) != 1) {
+                    continue;
+                }
+                for (int c = 0; c < 3; c++) {
+                    edge[c] = positions[b * 3 + c] - positions[a * 3 + c];
+                }
+                double lengthSquared = edge[0] * edge[0] + edge[1] * edge[1] + edge[2] * edge[2];
+                // the plane through the edge that contains the triangle's normal
+                double nx = edge[1] * normal[2] - edge[2] * normal[1];
+                double ny = edge[2] * normal[0] - edge[0] * normal[2];
+                double nz = edge[0] * normal[1] - edge[1] * normal[0];
+                double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+                nx /= length;
+                ny /= length;
+                nz /= length;
+                double d = -(nx * positions[a * 3] + ny * positions[a * 3 + 1]
+                        + nz * positions[a * 3 + 2]);
+                double weight = BOUNDARY_WEIGHT * lengthSquared;
+                addPlane(a, nx, ny, nz, d, weight);
+                addPlane(b, nx, ny, nz, d, weight);
+            }
+        }
+    }
+
+    // how many triangles use each edge, keyed by edgeKey
+    private Map<Long, Integer> edgeUses() {
+        Map<Long, Integer> uses = new HashMap<>();
+        for (int t = 0; t < triangleCount; t++) {
+            for (int corner = 0; corner < 3; corner++) {
+                long key = edgeKey(triangles[t * 3 + corner], triangles[t * 3 + (corner + 1) % 3]);
+                Integer count = uses.get(key);
+                uses.put(key, count == null ? 1 : count + 1);
+            }
+        }
+        return uses;
+    }
+
+    private static long edgeKey(int a, int b) {
+        return ((long) Math.min(a, b) << 32) | Math.max(a, b);
+    }
+
+    private void addPlane(int vertex, double a, double b, double c, double d, double weight) {
+        int q = vertex * QUADRIC;
+        quadrics[q] += weight * a * a;
+        quadrics[q + 1] += weight * a * b;
+        quadrics[q + 2] += weight * a * c;
+        quadrics[q + 3] += weight * a * d;
+        quadrics[q + 4] += weight * b * b;
+        quadrics[q + 5] += weight * b * c;
+        quadrics[q + 6] += weight * b * d;
+        quadrics[q + 7] += weight * c * c;
+        quadrics[q + 8] += weight * c * d;
+        quadrics[q + 9] += weight * d * d;
+    }
+
+    // sum of weighted squared distances from (x, y, z) to the planes in q
+    private static double evaluate(double[] q, double x, double y, double z) {
+        return q[0] * x * x + 2 * q[1] * x * y + 2 * q[2] * x * z + 2 * q[3] * x
+                + q[4] * y * y + 2 * q[5] * y * z + 2 * q[6] * y
+                + q[7] * z * z + 2 * q[8] * z + q[9];
+    }
+
+    private void enqueue(int a, int b) {
+        double[] q = new double[QUADRIC];
+        for (int i = 0; i < QUADRIC; i++) {
+            q[i] = quadrics[a * QUADRIC + i] + quadrics[b * QUADRIC + i];
+        }
+        Collapse collapse = new Collapse(a, b, stamps[a], stamps[b]);
+
+        // the minimum is where the gradient is zero, unless the planes are (nearly) parallel
+        double det = det3(q[0], q[1], q[2], q[1], q[4], q[5], q[2], q[5], q[7]);
+        double scale = q[0] + q[4] + q[7];
+        if (Math.abs(det) > 1e-9 * scale * scale * scale) {
+            // Cramer's rule for A p = -g, A the symmetric 3x3 part and g the linear part
+            double x = det3(-q[3], q[1], q[2], -q[6], q[4], q[5], -q[8], q[5], q[7]) / det;
+            double y = det3(q[0], -q[3], q[2], q[1], -q[6], q[5], q[2], -q[8], q[7]) / det;
+            double z = det3(q[0], q[1], -q[3], q[1], q[4], -q[6], q[2], q[5], -q[8]) / det;
+            collapse.set(x, y, z, evaluate(q, x, y, z));
+        } else {
+            // fall back to the better of the ends and the midpoint
+            for (int i = 0; i < 3; i++) {
+                double t = i * 0.5;
+                double x = positions[a * 3] + t * (positions[b * 3] - positions[a * 3]);
+                double y = positions[a * 3 + 1] + t * (positions[b * 3 + 1] - positions[a * 3 + 1]);
+                double z = positions[a * 3 + 2] + t * (positions[b * 3 + 2] - positions[a * 3 + 2]);
+                double cost = evaluate(q, x, y, z);
+                if (i == 0 || cost < collapse.cost) {
+                    collapse.set(x, y, z, cost);
+                }
+            }
+        }
+        collapse.cost = Math.max(0.0, collapse.cost);
+        // area-weighted squared distance over the area gives a mean distance, in model units
+        collapse.error = q[10] > 0.0 ? Math.sqrt(collapse.cost / q[10]) : 0.0;
+        queue.add(collapse);
+    }
+
+    // determinant of the row-major 3x3 matrix
+    private static double det3(double m00, double m01, double m02, double m10, double m11,
+                               double m12, double m20, double m21, double m22) {
+        return m00 * (m11 * m22 - m12 * m21) - m01 * (m10 * m22 - m12 * m20)
+                + m02 * (m10 * m21 - m11 * m20);
+    }
+
+    // Collapsing an edge may only remove the triangles on it: the ends must not share any other
+    // neighbor, or the result would have an edge used by more than two triangles.
+    private boolean isManifoldAfter(int a, int b) {
+        int mark = nextMark();
+        for (int i = 0; i < vertexTriangleCounts[a]; i++) {
+            int t = vertexTriangles[a][i];
+            if (!removed[t]) {
+                for (int corner = 0; corner < 3; corner++) {
+                    marks[triangles[t * 3 + corner]] = mark;
+                }
+            }
+        }
+        int shared = 0;
+        int common = 0;
+        int counted = nextMark();
+        for (int i = 0; i < vertexTriangleCounts[b]; i++) {
+            int t = vertexTriangles[b][i];
+            if (removed[t]) {
+                continue;
+            }
+            boolean hasA = false;
+            for (int corner = 0; corner < 3; corner++) {
+                int v = triangles[t * 3 + corner];
+                if (v == a) {
+                    hasA = true;
+                } else if (v != b && marks[v] == mark) {
+                    marks[v] = counted;
+                    common++;
+                }
+            }
+            if (hasA) {
+                shared++;
+            }
+        }
+        return common == shared;
+    }
+
+    // Whether moving vertex to the collapse point turns any of its triangles, other than those
+    // on the edge to other, over or to nothing.
+    private boolean flips(int vertex, int other, Collapse collapse) {
+        double[] before = new double[3];
+        double[] after = new double[3];
+        for (int i = 0; i < vertexTriangleCounts[vertex]; i++) {
+            int t = vertexTriangles[vertex][i];
+            if (removed[t] || contains(t, other)) {
+                continue;
+            }
+            if (triangleNormal(t, before) == 0.0) {
+                continue;
+            }
+            double x = positions[vertex * 3];
+            double y = positions[vertex * 3 + 1];
+            double z = positions[vertex * 3 + 2];
+            setPosition(vertex, collapse.x, collapse.y, collapse.z);
+            double area = triangleNormal(t, after);
+            setPosition(vertex, x, y, z);
+            if (area == 0.0 || before[0] * after[0] + before[1] * after[1]
+                    + before[2] * after[2] < 0.2) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void apply(Collapse collapse) {
+        int a = collapse.a;
+        int b = collapse.b;
+        setPosition(a, collapse.x, collapse.y, collapse.z);
+        for (int i = 0; i < QUADRIC; i++) {
+            quadrics[a * QUADRIC + i] += quadrics[b * QUADRIC + i];
+        }
+        for (int i = 0; i < vertexTriangleCounts[b]; i++) {
+            int t = vertexTriangles[b][i];
+            if (removed[t]) {
+                continue;
+            }
+            if (contains(t, a)) {
+                removed[t] = true;
+                triangleCount--;
+            } else {
+                for (int corner = 0; corner < 3; corner++) {
+                    if (triangles[t * 3 + corner] == b) {
+                        triangles[t * 3 + corner] = a;
+                    }
+                }
+                addVertexTriangle(a, t);
+            }
+        }
+        merged[b] = true;
+        vertexTriangleCounts[b] = 0;
+        stamps[a]++;
+        maxError = Math.max(maxError, collapse.error);
+
+        // drop the removed triangles and queue the edges that now end at the moved vertex
+        int kept = 0;
+        int mark = nextMark();
+        marks[a] = mark;
+        for (int i = 0; i < vertexTriangleCounts[a]; i++) {
+            int t = vertexTriangles[a][i];
+            if (removed[t]) {
+                continue;
+            }
+            vertexTriangles[a][kept++] = t;
+            for (int corner = 0; corner < 3; corner++) {
+                int v = triangles[t * 3 + corner];
+                if (marks[v] != mark) {
+                    marks[v] = mark;
+                    enqueue(a, v);
+                }
+            }
+        }
+        vertexTriangleCounts[a] = kept;
+    }
+
+    private void addVertexTriangle(int vertex, int triangle) {
+        if (vertexTriangleCounts[vertex] == vertexTriangles[vertex].length) {
+            vertexTriangles[vertex] = Arrays.copyOf(vertexTriangles[vertex],
+                    vertexTriangles[vertex].length * 2);
+        }
+        vertexTriangles[vertex][vertexTriangleCounts[vertex]++] = triangle;
+    }
+
+    private boolean contains(int triangle, int vertex) {
+        return triangles[triangle * 3] == vertex || triangles[triangle * 3 + 1] == vertex
+                || triangles[triangle * 3 + 2] == vertex;
+    }
+
+    private int nextMark() {
+        return ++markGeneration;
+    }
+
+    private void setPosition(int vertex, double x, double y, double z) {
+        positions[vertex * 3] = x;
+        positions[vertex * 3 + 1] = y;
+        positions[vertex * 3 + 2] = z;
+    }
+
+    // unit normal of a triangle in normal, returns twice its area
+    private double triangleNormal(int triangle, double[] normal) {
+        int a = triangles[triangle * 3] * 3;
+        int b = triangles[triangle * 3 + 1] * 3;
+        int c = triangles[triangle * 3 + 2] * 3;
+        double ux = positions[b] - positions[a];
+        double uy = positions[b + 1] - positions[a + 1];
+        double uz = positions[b + 2] - positions[a + 2];
+        double vx = positions[c] - positions[a];
+        double vy = positions[c + 1] - positions[a + 1];
+        double vz = positions[c + 2] - positions[a + 2];
+        normal[0] = uy * vz - uz * vy;
+        normal[1] = uz * vx - ux * vz;
+        normal[2] = ux * vy - uy * vx;
+        double length = Math.sqrt(normal[0] * normal[0] + normal[1] * normal[1]
+                + normal[2] * normal[2]);
+        if (length > 0.0) {
+            normal[0] /= length;
+            normal[1] /= length;
+            normal[2] /= length;
+        }
+        return length;
+    }
+
+    private static double dot(double[] normal, double[] positions, int vertex) {
+        return normal[0] * positions[vertex * 3] + normal[1] * positions[vertex * 3 + 1]
+                + normal[2] * positions[vertex * 3 + 2];
+    }
+
+    private static final class Collapse implements Comparable<Collapse> {
+        final int a;
+        final int b;
+        final int stampA;
+        final int stampB;
+        double x;
+        double y;
+        double z;
+        double cost;
+        double error;
+
+        Collapse(int a, int b, int stampA, int stampB) {
+            this.a = a;
+            this.b = b;
+            this.stampA = stampA;
+            this.stampB = stampB;
+        }
+
+        void set(double x, double y, double z, double cost) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.cost = cost;
+        }
+
+        @Override
+        public int compareTo(Collapse other) {
+            return Double.compare(cost, other.cost);
+        }
+    }
+
+    private static final class PositionKey {
+        private final float x;
+        private final float y;
+        private final float z;
+
+        PositionKey(float x, float y, float z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PositionKey)) {
+                return false;
+            }
+            PositionKey other = (PositionKey) o;
+            return Float.compare(x, other.x) == 0 && Float.compare(y, other.y) == 0
+                    && Float.compare(z, other.z) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return (Float.floatToIntBits(x) * 31 + Float.floatToIntBits(y)) * 31
+                    + Float.floatToIntBits(z);
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The geometry of a Wavefront OBJ file: vertex positions and triangles, plus vertex colors and
+ * normals when the file has them.
+ *
+ * Only v, vn and f lines are read. Colors come from the common "v x y z r g b" extension. Faces
+ * with more than three corners are split into a fan, negative (relative) indices are resolved,
+ * and texture coordinates, groups and materials are skipped. Normals belong to face corners
+ * rather than vertices, since a vertex on a crease has a different one in each face, and are only
+ * kept if every corner has one.
+ */
+public final class ObjMesh {
+
+    private final float[] positions;
+    private final float[] colors;
+    private final int[] indices;
+    private final float[] normals;
+
+    public ObjMesh(float[] positions, int[] indices) {
+        this(positions, null, indices, null);
+    }
+
+    /**
+     * @param colors  3 floats (RGB, 0..1) per vertex, or null
+     * @param normals 3 floats per entry of indices, or null
+     */
+    public ObjMesh(float[] positions, float[] colors, int[] indices, float[] normals) {
+        this.positions = positions;
+        this.colors = colors;
+        this.indices = indices;
+        this.normals = normals;
+    }
+
+    /** @return 3 floats per vertex */
+    public float[] getPositions() {
+        return positions;
+    }
+
+    /** @return 3 floats (RGB, 0..1) per vertex, or null if the file has no colors */
+    public float[] getColors() {
+        return colors;
+    }
+
+    /** @return 3 zero-based vertex indices per triangle */
+    public int[] getIndices() {
+        return indices;
+    }
+
+    /** @return 3 floats per triangle corner, in the order of the indices, or null */
+    public float[] getNormals() {
+        return normals;
+    }
+
+    public int getVertexCount() {
+        return positions.length / 3;
+    }
+
+    public int getTriangleCount() {
+        return indices.length / 3;
+    }
+
+    public static ObjMesh read(File file) throws IOException {
+        float[] positions = new float[3 * 1024];
+        float[] colors = new float[3 * 1024];
+        int positionCount = 0;
+        boolean hasColors = false;
+        float[] normals = new float[3 * 1024];
+        int normalCount = 0;
+        int[] indices = new int[3 * 1024];
+        float[] cornerNormals = new float[3 * 3 * 1024];
+        int indexCount = 0;
+        boolean hasNormals = true;
+        int[] face = new int[16];
+        int[] faceNormals = new int[16];
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8));
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                String[] tokens = line.trim().split("\\s+");
+                if (tokens[0].equals("v")) {
+                    if (tokens.length < 4) {
+                        throw new IOException(file + ":" + lineNumber + ": vertex needs x y z");
+                    }
+                    if (positionCount + 3 > positions.length) {
+                        positions = Arrays.copyOf(positions, positions.length * 2);
+                        colors = Arrays.copyOf(colors, colors.length * 2);
+                    }
+                    boolean colored = tokens.length >= 7;
+                    hasColors |= colored;
+                    for (int i = 1; i <= 3; i++) {
+                        colors[positionCount] = colored ? Float.parseFloat(tokens[i + 3]) : 1.0f;
+                        positions[positionCount++] = Float.parseFloat(tokens[i]);
+                    }
+                } else if (tokens[0].equals("vn")) {
+                    if (tokens.length < 4) {
+                        throw new IOException(file + ":" + lineNumber + ": normal needs x y z");
+                    }
+                    if (normalCount + 3 > normals.length) {
+                        normals = Arrays.copyOf(normals, normals.length * 2);
+                    }
+                    for (int i = 1; i <= 3; i++) {
+                        normals[normalCount++] = Float.parseFloat(tokens[i]);
+                    }
+                } else if (tokens[0].equals("f")) {
+                    int corners = tokens.length - 1;
+                    if (corners < 3) {
+                        throw new IOException(file + ":" + lineNumber + ": face needs 3 corners");
+                    }
+                    if (corners > face.length) {
+                        face = new int[corners];
+                        faceNormals = new int[corners];
+                    }
+                    for (int i = 0; i < corners; i++) {
+                        // v, v/vt, v//vn or v/vt/vn, 1-based or negative from the end
+                        String[] parts = tokens[i + 1].split("/");
+                        face[i] = resolve(parts[0], positionCount / 3, file, lineNumber);
+                        if (parts.length >= 3 && !parts[2].isEmpty()) {
+                            faceNormals[i] = resolve(parts[2], normalCount / 3, file,
+                                    lineNumber);
+                        } else {
+                            hasNormals = false;
+                        }
+                    }
+                    if (indexCount + 3 * (corners - 2) > indices.length) {
+                        indices = Arrays.copyOf(indices,
+                                Math.max(indices.length * 2, indexCount + 3 * corners));
+                        cornerNormals = Arrays.copyOf(cornerNormals, indices.length * 3);
+                    }
+                    for (int i = 1; i < corners - 1; i++) {
+                        int[] triangle = {0, i, i + 1};
+                        for (int corner : triangle) {
+                            if (hasNormals) {
+                                System.arraycopy(normals, faceNormals[corner] * 3,
+                                        cornerNormals, indexCount * 3, 3);
+                            }
+                            indices[indexCount++] = face[corner];
+                        }
+                    }
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException(file + ": " + e.getMessage(), e);
+        } finally {
+            reader.close();
+        }
+        return new ObjMesh(Arrays.copyOf(positions, positionCount),
+                hasColors ? Arrays.copyOf(colors, positionCount) : null,
+                Arrays.copyOf(indices, indexCount),
+                hasNormals && indexCount > 0 ? Arrays.copyOf(cornerNormals, indexCount * 3) : null);
+    }
+
+    // a 1-based or negative index into count elements, made zero-based
+    private static int resolve(String token, int count, File file, int lineNumber)
+            throws IOException {
+        int index = Integer.parseInt(token);
+        index = index < 0 ? count + index : index - 1;
+        if (index < 0 || index >= count) {
+            throw new IOException(file + ":" + lineNumber + ": no element " + token);
+        }
+        return index;
+    }
+
+    public void write(File file) throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+        PrintWriter writer = new PrintWriter(out);
+        try {
+            for (int i = 0; i < positions.length; i += 3) {
+                writer.printf(Locale.ROOT, "v %.6f %.6f %.6f", positions[i],
+                        positions[i + 1], positions[i + 2]);
+                if (colors != null) {
+                    writer.printf(Locale.ROOT, " %.4f %.4f %.4f", colors[i], colors[i + 1],
+                            colors[i + 2]);
+                }
+                writer.println();
+            }
+
+            // each distinct normal once, the corners refer to them
+            int[] cornerNormals = null;
+            if (normals != null) {
+                cornerNormals = new int[indices.length];
+                Map<String, Integer> written = new HashMap<>();
+                for (int i = 0; i < indices.length; i++) {
+                    String normal = String.format(Locale.ROOT, "%.6f %.6f %.6f", normals[i * 3],
+                            normals[i * 3 + 1], normals[i * 3 + 2]);
+                    Integer index = written.get(normal);
+                    if (index == null) {
+                        index = written.size() + 1;
+                        written.put(normal, index);
+                        writer.println("vn " + normal);
+                    }
+                    cornerNormals[i] = index;
+                }
+            }
+            for (int i = 0; i < indices.length; i += 3) {
+                writer.print("f");
+                for (int corner = i; corner < i + 3; corner++) {
+                    writer.print(" " + (indices[corner] + 1));
+                    if (cornerNormals != null) {
+                        writer.print("//" + cornerNormals[corner]);
+                    }
+                }
+                writer.println();
+            }
+            if (writer.checkError()) {
+                throw new IOException("Can't write " + file);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
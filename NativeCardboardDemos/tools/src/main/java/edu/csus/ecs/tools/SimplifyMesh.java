@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package edu.csus.ecs.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Writes coarser levels of detail of an OBJ model for {@code LodMesh}.
+ *
+ *   ./gradlew :tools:simplify -Pmodel="cube.obj 0.5 0.25 0.1"
+ *
+ * Each ratio is a fraction of the original triangle count and becomes the next level, written as
+ * cube_lod1.obj, cube_lod2.obj and so on next to the input. Every level is simplified further from
+ * the one before it.
+ *
+ * For each level the tool also prints the switch size that goes before it in LodMesh: the
+ * fraction of the viewport height below which its error stays under a pixel. Those assume a
+ * viewport 1440 pixels high and the model's bounding sphere around its origin, like Scene uses;
+ * pass --height and --pixels to change the first and the tolerated error.
+ */
+public final class SimplifyMesh {
+
+    private SimplifyMesh() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        File input = null;
+        List<Float> ratios = new ArrayList<>();
+        int height = 1440;
+        float pixels = 1.0f;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--height") && i + 1 < args.length) {
+                height = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--pixels") && i + 1 < args.length) {
+                pixels = Float.parseFloat(args[++i]);
+            } else if (input == null) {
+                input = new File(args[i]);
+            } else {
+                float ratio = Float.parseFloat(args[i]);
+                if (ratio <= 0.0f || ratio >= 1.0f) {
+                    throw new IllegalArgumentException("Ratio " + ratio + " isn't in (0, 1)");
+                }
+                ratios.add(ratio);
+            }
+        }
+        if (input == null || ratios.isEmpty()) {
+            System.err.println("Usage: SimplifyMesh model.obj ratio... [--height pixels]"
+                    + " [--pixels error]");
+            System.exit(1);
+        }
+        Collections.sort(ratios, Collections.reverseOrder());
+
+        ObjMesh mesh = ObjMesh.read(input);
+        float radius = boundingRadius(mesh.getPositions());
+        String base = input.getName().replaceFirst("\\.[^.]*$", "");
+        System.out.printf(Locale.ROOT, "%s: %d triangles, radius %.4f%n", input,
+                mesh.getTriangleCount(), radius);
+
+        MeshSimplifier simplifier = new MeshSimplifier(mesh.getPositions(), mesh.getIndices());
+        for (int level = 1; level <= ratios.size(); level++) {
+            int target = Math.round(mesh.getTriangleCount() * ratios.get(level - 1));
+            int reached = simplifier.simplify(target);
+            File output = new File(input.getAbsoluteFile().getParentFile(),
+                    base + "_lod" + level + ".obj");
+            simplifier.toMesh().write(output);
+
+            // the error covers error / (2 * radius) of the sphere, so it's under the tolerated
+            // pixels while the sphere covers less than this fraction of the viewport height
+            double error = simplifier.getError();
+            String switchSize = error > 0.0
+                    ? String.format(Locale.ROOT, "%.4f", 2.0 * radius * pixels / (error * height))
+                    : "any";
+            System.out.printf(Locale.ROOT, "%s: %d triangles (asked for %d), error %.5f,"
+                    + " switch size %s%n", output.getName(), reached, target, error, switchSize);
+            if (reached > target) {
+                System.out.println("  no more edges can be collapsed without damaging the shape");
+            }
+        }
+    }
+
+    // distance of the farthest vertex from the origin
+    private static float boundingRadius(float[] positions) {
+        float radiusSquared = 0.0f;
+        for (int i = 0; i < positions.length; i += 3) {
+            radiusSquared = Math.max(radiusSquared, positions[i] * positions[i]
+                    + positions[i + 1] * positions[i + 1] + positions[i + 2] * positions[i + 2]);
+        }
+        return (float) Math.sqrt(radiusSquared);
+    }
+}
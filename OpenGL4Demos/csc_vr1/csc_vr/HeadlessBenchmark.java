@@ -0,0 +1,206 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package csc_vr;
+
+/* JOGL imports */
+import com.jogamp.opengl.*;
+
+import java.nio.*;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Renders MainFrame's scene offscreen, without a window, and times every frame. Made for build
+ * machines without a GPU: it runs on Mesa's llvmpipe software rasterizer (LIBGL_ALWAYS_SOFTWARE=1)
+ * under Xvfb, using the Linux natives in lib/jars. Run it from this directory, the shaders are
+ * read from the working directory like MainFrame's:
+ *
+ *   xvfb-run -s "-screen 0 640x480x24" java -cp "bin:lib/jars/*" csc_vr.MainFrame --bench
+ *       --triangles 10000 --frames 1000 --csv frames.csv
+ *
+ * Options, all optional:
+ *   --triangles N   triangles in the scene, spread over the frame (default 1)
+ *   --frames N      frames to time, after as many again untimed to warm up (default 500)
+ *   --width N, --height N   size of the offscreen buffer (default 700x500, MainFrame's)
+ *   --csv FILE      write frame,nanoseconds for every timed frame
+ *
+ * Each frame is timed from the start of display() until glFinish returns, so it includes the
+ * GPU's work; there is no swap interval to wait for offscreen.
+ *
+ * @author Cody Jackson
+ *
+ */
+public class HeadlessBenchmark implements GLEventListener {
+	private int triangles = 1;
+	private int frames = 500;
+	private int width = 700;
+	private int height = 500;
+	private String csvFile = null;
+
+	private int rendering_program; 						/* gl ID for rendering program */
+	private int tVertexArray[] = new int[1]; 			/* VAO array */
+	private int tVertexAttrib[] = new int[1];			/* vertex attrib (geom) */
+	private FloatBuffer bgColorBuffer;
+	private long[] frameNanos;
+	private int frame = 0;								/* frames drawn, warm-up included */
+
+	/* parse the command line; args[0] is --bench */
+	private HeadlessBenchmark(String[] args) {
+		for (int i = 1; i < args.length; i += 2) {
+			if (i + 1 >= args.length) {
+				throw new IllegalArgumentException("Missing value for " + args[i]);
+			}
+			String value = args[i + 1];
+			if (args[i].equals("--triangles")) {
+				triangles = Integer.parseInt(value);
+			} else if (args[i].equals("--frames")) {
+				frames = Integer.parseInt(value);
+			} else if (args[i].equals("--width")) {
+				width = Integer.parseInt(value);
+			} else if (args[i].equals("--height")) {
+				height = Integer.parseInt(value);
+			} else if (args[i].equals("--csv")) {
+				csvFile = value;
+			} else {
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		if (frames < 1) {
+			throw new IllegalArgumentException("--frames must be at least 1, got " + frames);
+		}
+		frameNanos = new long[frames];
+	}
+
+	/* same setup as MainFrame, with a grid of triangles instead of one */
+	public void init(GLAutoDrawable drawable) {
+		GL4 gl = (GL4)drawable.getGL();
+		System.out.println(gl.glGetString(GL.GL_RENDERER) + ", " + gl.glGetString(GL.GL_VERSION));
+		rendering_program = MainFrame.createShaderPrograms(drawable);
+		gl.glGenVertexArrays(tVertexArray.length, tVertexArray, 0);
+		gl.glBindVertexArray(tVertexArray[0]);
+		gl.glGenBuffers(tVertexAttrib.length, tVertexAttrib, 0);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, tVertexAttrib[0]);
+
+		bgColorBuffer = FloatBuffer.wrap(new float[] {0.2f, 0.2f, 0.2f, 1.0f});
+
+		FloatBuffer verts = FloatBuffer.wrap(gridOfTriangles(triangles));
+		gl.glBufferData(GL.GL_ARRAY_BUFFER, verts.capacity() * 4, verts, GL.GL_STATIC_DRAW);
+		int vertAttrPos = gl.glGetAttribLocation(rendering_program, "vs_pos");
+		gl.glVertexAttribPointer(vertAttrPos, 3, GL.GL_FLOAT, false, 0, 0);
+		gl.glEnableVertexAttribArray(vertAttrPos);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+	}
+
+	/* MainFrame's triangle, shrunk to fit a square grid of count cells over the frame */
+	private static float[] gridOfTriangles(int count) {
+		int side = (int)Math.ceil(Math.sqrt(count));
+		float cell = 2.0f / side;
+		float[] verts = new float[count * 9];
+		for (int i = 0; i < count; i++) {
+			float x = -1.0f + (i % side + 0.5f) * cell;	/* center of the cell */
+			float y = -1.0f + (i / side + 0.5f) * cell;
+			float r = cell * 0.25f;
+			float[] tri = { x + r, y - r, 0.5f,  x - r, y - r, 0.5f,  x + r, y + r, 0.5f };
+			System.arraycopy(tri, 0, verts, i * 9, 9);
+		}
+		return verts;
+	}
+
+	/* draw and time one frame */
+	public void display(GLAutoDrawable drawable) {
+		GL4 gl = (GL4)drawable.getGL();
+		long start = System.nanoTime();
+		gl.glClearBufferfv(GL4.GL_COLOR, 0, bgColorBuffer);
+		gl.glUseProgram(rendering_program);
+		gl.glDrawArrays(GL4.GL_TRIANGLES, 0, triangles * 3);
+		gl.glFinish();									/* wait for the GPU, or llvmpipe */
+		long end = System.nanoTime();
+		if (frame >= frames) {							/* the first frames are warm-up */
+			frameNanos[frame - frames] = end - start;
+		}
+		frame++;
+	}
+
+	public void reshape(GLAutoDrawable d, int x, int y, int w, int h) {}
+
+	public void dispose(GLAutoDrawable drawable) {
+		GL4 gl = (GL4)drawable.getGL();
+		gl.glDeleteVertexArrays(1, tVertexArray, 0);
+		gl.glDeleteBuffers(1, tVertexAttrib, 0);
+		gl.glDeleteProgram(rendering_program);
+	}
+
+	/* render every frame into an offscreen pbuffer or FBO, whichever the driver offers */
+	private void run() throws IOException {
+		GLProfile profile = GLProfile.get(GLProfile.GL4);
+		GLCapabilities caps = new GLCapabilities(profile);
+		caps.setOnscreen(false);
+		GLOffscreenAutoDrawable drawable = GLDrawableFactory.getFactory(profile)
+				.createOffscreenAutoDrawable(null, caps, null, width, height);
+		drawable.addGLEventListener(this);
+		try {
+			for (int i = 0; i < frames * 2; i++) {
+				drawable.display();
+			}
+		} finally {
+			drawable.destroy();
+		}
+		report();
+	}
+
+	/* CSV of every frame, then percentiles on stdout */
+	private void report() throws IOException {
+		if (csvFile != null) {
+			PrintWriter csv = new PrintWriter(new FileWriter(csvFile));
+			try {
+				csv.println("frame,nanoseconds");
+				for (int i = 0; i < frames; i++) {
+					csv.println(i + "," + frameNanos[i]);
+				}
+			} finally {
+				csv.close();
+			}
+		}
+		long[] sorted = frameNanos.clone();
+		Arrays.sort(sorted);
+		System.out.println(String.format(Locale.US,
+				"%d triangles, %d frames at %dx%d: p50 %.3f ms  p95 %.3f ms  p99 %.3f ms  max %.3f ms",
+				triangles, frames, width, height, percentile(sorted, 50) / 1e6,
+				percentile(sorted, 95) / 1e6, percentile(sorted, 99) / 1e6,
+				sorted[sorted.length - 1] / 1e6));
+	}
+
+	/* nearest-rank percentile of sorted values */
+	private static long percentile(long[] sorted, double percentile) {
+		int rank = (int)Math.ceil(percentile / 100.0 * sorted.length);
+		return sorted[Math.max(0, rank - 1)];
+	}
+
+	/* entry point, called by MainFrame.main for --bench */
+	public static void main(String args[]) {
+		try {
+			new HeadlessBenchmark(args).run();
+		} catch (IOException e) {
+			System.err.println("IOException writing frame times: " + e);
+			System.exit(1);
+		}
+	}
+}
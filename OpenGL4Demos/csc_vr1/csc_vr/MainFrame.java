@@ -25,10 +25,7 @@ import java.awt.event.*;
 import java.awt.*;
 import javax.swing.*;
 
-import java.io.File;
 import java.io.IOException;
-import java.util.Scanner;
-import java.util.Vector;
 
 /**
  * Terse OpenGL 4.0 demo
@@ -41,7 +38,9 @@ public class MainFrame extends JFrame implements GLEventListener, ActionListener
 	private final int FRAMES_PER_SECOND = 60; 				/* adjust this to vary framerate */
 	private GLCanvas myCanvas;
 	private Timer timer; 									/* Timer for animation */
-	private int rendering_program; 							/* gl ID for rendering program */
+	private int rendering_program; 							/* gl ID for rendering program, 0 until compiled */
+	private ShaderCompiler shaderCompiler;					/* compiles off the render thread */
+	private int shaderId;									/* our permutation in shaderCompiler */
 	private int tVertexArray[] = new int[1]; 				/* VAO array */	
 	private int tVertexAttrib[] = new int[1];				/* vertex attrib (geom) */
 	private FloatBuffer bgColorBuffer, vertBuffer;
@@ -67,7 +66,12 @@ public class MainFrame extends JFrame implements GLEventListener, ActionListener
 	/* set up OpenGL */
 	public void init(GLAutoDrawable drawable) {
 		gl = (GL4)drawable.getGL();	
-		rendering_program = createShaderPrograms(drawable); /* set up shader programs */
+		shaderCompiler = new ShaderCompiler(drawable);		/* shader programs compile in the background */
+		try {
+			shaderId = shaderCompiler.request("vert.shader", "frag.shader");
+		} catch (IOException e) {
+			System.err.println("IOException reading shader file: " + e);
+		}
 		gl.glGenVertexArrays(tVertexArray.length,tVertexArray, 0); 
 		gl.glBindVertexArray(tVertexArray[0]);				/* bind vao */
 		gl.glGenBuffers(tVertexAttrib.length, tVertexAttrib, 0);
@@ -77,7 +81,7 @@ public class MainFrame extends JFrame implements GLEventListener, ActionListener
 		bgColorBuffer.put(new float[] {0.2f, 0.2f, 0.2f, 1.0f});
 		bgColorBuffer.flip(); 								/* ready to read */
 		
-		int vertAttrPos = gl.glGetAttribLocation(rendering_program, "vs_pos");
+		int vertAttrPos = 0;								/* vs_pos, pinned in vert.shader */
 
 		vertBuffer = FloatBuffer.wrap(vertsArray);			/* wrap around our buffer */
 		
@@ -95,6 +99,12 @@ public class MainFrame extends JFrame implements GLEventListener, ActionListener
 	/* Update the canvas */
 	public void display(GLAutoDrawable drawable) {
 		gl.glClearBufferfv(GL4.GL_COLOR, 0, bgColorBuffer); /* clear bg */
+		if (rendering_program == 0) {
+			rendering_program = shaderCompiler.getProgram(shaderId);
+			if (rendering_program == 0) {
+				return;									/* still compiling, show the background */
+			}
+		}
 		gl.glUseProgram(rendering_program);	
 		gl.glDrawArrays(GL4.GL_TRIANGLES, 0, 3);
 	}
@@ -107,11 +117,14 @@ public class MainFrame extends JFrame implements GLEventListener, ActionListener
 			gl.glDeleteVertexArrays(1,tVertexArray, 0);
 			gl.glDeleteBuffers(1, tVertexAttrib, 0);
 			gl.glDeleteProgram(rendering_program);
+			shaderCompiler.dispose();
 	}
 	
 	/* Sets up vertex/fragment shader, compiles them, links them, 
-	   and runs the resulting program. From Dr. Gordon's code. */
-	private int createShaderPrograms(GLAutoDrawable drawable) {
+	   and runs the resulting program. From Dr. Gordon's code. 
+	   Compiles on the calling thread; used by HeadlessBenchmark, which
+	   times frames only after setup. */
+	static int createShaderPrograms(GLAutoDrawable drawable) {
 		GL4 gl = (GL4) drawable.getGL();
 
 		int[] vertCompiled = new int[1]; 				/* status flags */
@@ -121,16 +134,19 @@ public class MainFrame extends JFrame implements GLEventListener, ActionListener
 		ErrorChecker errorChecker = new ErrorChecker(drawable);
 		
 														/* read in the source for each shader */
-		String[] vShaderSource = readShaderSource("vert.shader");
-		String[] fShaderSource = readShaderSource("frag.shader");
-		
-		int lengths[] = new int[vShaderSource.length];	/* number of lines (to store len of each line) */
-		for (int i = 0; i < lengths.length; i++) { 		/* count length of each line */
-			lengths[i] = vShaderSource[i].length();
+		String[] vShaderSource;
+		String[] fShaderSource;
+		try {
+			ShaderSource sources = new ShaderSource();
+			vShaderSource = new String[] { sources.build("vert.shader") };
+			fShaderSource = new String[] { sources.build("frag.shader") };
+		} catch (IOException e) {
+			System.err.println("IOException reading shader file: " + e);
+			return 0;
 		}
 														/* compile shader */
 		int vShader = gl.glCreateShader(GL4.GL_VERTEX_SHADER);
-		gl.glShaderSource(vShader, vShaderSource.length, vShaderSource, lengths, 0);
+		gl.glShaderSource(vShader, vShaderSource.length, vShaderSource, null, 0);
 		gl.glCompileShader(vShader);
 	
 		errorChecker.checkOpenGLError();				/* print out errors */
@@ -143,14 +159,9 @@ public class MainFrame extends JFrame implements GLEventListener, ActionListener
 			errorChecker.printShaderLog(vShader);
 		}
 		
-		lengths = new int[fShaderSource.length];		/* number of lines (to store len of each line) */
-		
-		for (int i = 0; i < lengths.length; i++) {		/* count length of each line */
-			lengths[i] = fShaderSource[i].length();
-		}
 														/* compile fragment shader */
 		int fShader = gl.glCreateShader(GL4.GL_FRAGMENT_SHADER);
-		gl.glShaderSource(fShader, fShaderSource.length, fShaderSource, lengths, 0);
+		gl.glShaderSource(fShader, fShaderSource.length, fShaderSource, null, 0);
 		gl.glCompileShader(fShader);
 		
 		errorChecker.checkOpenGLError();				/* print out errors */
@@ -183,33 +194,12 @@ public class MainFrame extends JFrame implements GLEventListener, ActionListener
 		return vfProgram;
 	}
 	
-	/* Parse shader program from file. Dr. Gordon's code. */
-	private String[] readShaderSource(String filename) {
-		Vector<String> lines = new Vector<String>();
-		Scanner sc = null;
-		
-		try {
-			sc = new Scanner(new File(filename)); 		/* open file */
-		} catch (IOException e) {
-			System.err.println("IOException reading shader file: " + e);
-		}
-		
-		System.out.println("Reading " + filename + " for shader source...");
-		
-		/* read lines */
-		while (sc.hasNext()) {
-			lines.addElement(sc.nextLine());
-		}
-		
-		String[] program = new String[lines.size()]; 	/* make an array to hold program */
-		for (int i = 0; i < lines.size(); i++) { 		/* place program into string array */
-			program[i] = (String)lines.elementAt(i) + "\n";
-		}
-		return program;
-	}
-	
-	/* entry point */
+	/* entry point; --bench runs the headless benchmark instead, see HeadlessBenchmark */
 	public static void main(String args[]) {
+		if (args.length > 0 && args[0].equals("--bench")) {
+			HeadlessBenchmark.main(args);
+			return;
+		}
 		new MainFrame();
 	}
 }
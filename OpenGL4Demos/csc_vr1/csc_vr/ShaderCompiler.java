@@ -0,0 +1,225 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package csc_vr;
+
+/* JOGL imports */
+import com.jogamp.opengl.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Compiles and links shader permutations on a worker thread, so the render thread never waits on
+ * the driver's compiler. The worker has its own context sharing objects with the render
+ * context, and the programs it links are used by the render thread as they finish.
+ *
+ * With KHR_parallel_shader_compile (or the ARB version) every program in a batch is submitted
+ * before any is checked, the driver compiles them on its own threads, and each is handed over as
+ * soon as its COMPLETION_STATUS says so. Without it they are linked one after the other, still
+ * off the render thread.
+ *
+ * Permutations with the same sources, see ShaderSource, share one program. Call request and
+ * getProgram from the render thread.
+ *
+ * @author Cody Jackson
+ *
+ */
+public class ShaderCompiler {
+	private static final int GL_COMPLETION_STATUS = 0x91B1;	/* same value in the KHR and ARB versions */
+	private static final int MAX_PROGRAMS = 64;
+
+	private final ShaderSource sources = new ShaderSource();
+	private final GLDrawable drawable;						/* 1x1 offscreen, only for the context */
+	private final GLContext context;
+	private final Thread worker;
+	private final LinkedBlockingQueue<Job> jobs = new LinkedBlockingQueue<Job>();
+	private final AtomicIntegerArray programs = new AtomicIntegerArray(MAX_PROGRAMS);	/* 0 until linked */
+	private final Map<String, Integer> idsBySource = new HashMap<String, Integer>();
+	private volatile boolean running = true;
+
+	/* one program to link */
+	private static class Job {
+		final int id;
+		final String vertexSource;
+		final String fragmentSource;
+		int program;
+		int vertexShader;
+		int fragmentShader;
+
+		Job(int id, String vertexSource, String fragmentSource) {
+			this.id = id;
+			this.vertexSource = vertexSource;
+			this.fragmentSource = fragmentSource;
+		}
+	}
+
+	/* Call from init() of the drawable whose context should see the programs */
+	public ShaderCompiler(GLAutoDrawable shareWith) {
+		GLProfile profile = shareWith.getGLProfile();
+		GLCapabilities caps = new GLCapabilities(profile);
+		caps.setOnscreen(false);
+		drawable = GLDrawableFactory.getFactory(profile).createOffscreenDrawable(null, caps, null, 1, 1);
+		drawable.setRealized(true);
+		context = drawable.createContext(shareWith.getContext());
+
+		worker = new Thread(new Runnable() {
+			public void run() {
+				compileLoop();
+			}
+		}, "ShaderCompiler");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/* Queues a permutation and returns its id; the same sources give the same id */
+	public synchronized int request(String vertexFile, String fragmentFile, String... defines)
+			throws IOException {
+		String vertexSource = sources.build(vertexFile, defines);
+		String fragmentSource = sources.build(fragmentFile, defines);
+		String key = vertexSource + '\0' + fragmentSource;
+		Integer id = idsBySource.get(key);
+		if (id == null) {
+			if (idsBySource.size() == MAX_PROGRAMS) {
+				throw new IllegalStateException("More than " + MAX_PROGRAMS + " shader permutations");
+			}
+			id = idsBySource.size();
+			idsBySource.put(key, id);
+			jobs.add(new Job(id, vertexSource, fragmentSource));
+		}
+		return id;
+	}
+
+	/* The linked program, or 0 while it is still compiling (or if it failed, see the log) */
+	public int getProgram(int id) {
+		return programs.get(id);
+	}
+
+	/* Stops the worker and releases its context; the programs stay with the shared context */
+	public void dispose() {
+		running = false;
+		worker.interrupt();
+		try {
+			worker.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		context.destroy();
+		drawable.setRealized(false);
+	}
+
+	private void compileLoop() {
+		if (context.makeCurrent() == GLContext.CONTEXT_NOT_CURRENT) {
+			System.err.println("ShaderCompiler: can't make the shared context current");
+			return;
+		}
+		try {
+			GL4 gl = context.getGL().getGL4();
+			boolean parallel = gl.isExtensionAvailable("GL_KHR_parallel_shader_compile")
+					|| gl.isExtensionAvailable("GL_ARB_parallel_shader_compile");
+			System.out.println("ShaderCompiler: parallel compile " + (parallel ? "on" : "off"));
+			List<Job> batch = new ArrayList<Job>();
+			while (running) {
+				try {
+					batch.add(jobs.take());				/* wait for work */
+				} catch (InterruptedException e) {
+					break;
+				}
+				jobs.drainTo(batch);
+				for (Job job : batch) {					/* submit everything before checking anything */
+					submit(gl, job);
+				}
+				while (!batch.isEmpty() && running) {
+					for (int i = batch.size() - 1; i >= 0; i--) {
+						Job job = batch.get(i);
+						if (!parallel || isComplete(gl, job.program)) {
+							finish(gl, job);
+							batch.remove(i);
+						}
+					}
+					if (!batch.isEmpty()) {
+						Thread.yield();					/* still compiling on the driver's threads */
+					}
+				}
+			}
+		} finally {
+			context.release();
+		}
+	}
+
+	private static void submit(GL4 gl, Job job) {
+		job.vertexShader = gl.glCreateShader(GL4.GL_VERTEX_SHADER);
+		gl.glShaderSource(job.vertexShader, 1, new String[] { job.vertexSource }, null, 0);
+		gl.glCompileShader(job.vertexShader);
+		job.fragmentShader = gl.glCreateShader(GL4.GL_FRAGMENT_SHADER);
+		gl.glShaderSource(job.fragmentShader, 1, new String[] { job.fragmentSource }, null, 0);
+		gl.glCompileShader(job.fragmentShader);
+		job.program = gl.glCreateProgram();
+		gl.glAttachShader(job.program, job.vertexShader);
+		gl.glAttachShader(job.program, job.fragmentShader);
+		gl.glLinkProgram(job.program);
+	}
+
+	private static boolean isComplete(GL4 gl, int program) {
+		int[] status = new int[1];
+		gl.glGetProgramiv(program, GL_COMPLETION_STATUS, status, 0);
+		return status[0] != 0;
+	}
+
+	/* checks the result and hands a good program to the render thread */
+	private void finish(GL4 gl, Job job) {
+		int[] linked = new int[1];
+		gl.glGetProgramiv(job.program, GL4.GL_LINK_STATUS, linked, 0);
+		if (linked[0] == 1) {
+			gl.glDeleteShader(job.vertexShader);
+			gl.glDeleteShader(job.fragmentShader);
+			gl.glFinish();								/* done before the other context uses it */
+			programs.set(job.id, job.program);
+		} else {
+			System.out.println("Shader permutation " + job.id + " failed to link!");
+			printLog(gl, job.vertexShader, true);
+			printLog(gl, job.fragmentShader, true);
+			printLog(gl, job.program, false);
+			gl.glDeleteShader(job.vertexShader);
+			gl.glDeleteShader(job.fragmentShader);
+			gl.glDeleteProgram(job.program);
+		}
+	}
+
+	private static void printLog(GL4 gl, int object, boolean shader) {
+		int[] length = new int[1];
+		if (shader) {
+			gl.glGetShaderiv(object, GL4.GL_INFO_LOG_LENGTH, length, 0);
+		} else {
+			gl.glGetProgramiv(object, GL4.GL_INFO_LOG_LENGTH, length, 0);
+		}
+		if (length[0] <= 1) {
+			return;
+		}
+		byte[] log = new byte[length[0]];
+		if (shader) {
+			gl.glGetShaderInfoLog(object, log.length, length, 0, log, 0);
+		} else {
+			gl.glGetProgramInfoLog(object, log.length, length, 0, log, 0);
+		}
+		System.out.println(new String(log, 0, length[0]));
+	}
+}
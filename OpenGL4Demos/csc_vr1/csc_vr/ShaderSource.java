@@ -0,0 +1,133 @@
+/*
+ * Copyright 2017 Cody Jackson
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package csc_vr;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads shader files from the working directory and builds the source of one permutation.
+ *
+ * #include "file" pulls in another file, each file at most once per shader. Defines such as
+ * INSTANCED or GRID=2 pick the permutation; only defines the shader mentions are written into
+ * it, right after the #version line, so permutations that differ in defines a stage ignores get
+ * the same source for that stage and ShaderCompiler links them once. The defines are sorted by
+ * macro name, so the order they are passed in doesn't change the source. Same rules as
+ * ShaderPreprocessor in NativeCardboardDemos' core module, which this Eclipse project can't
+ * depend on.
+ *
+ * Files are read whole, once, and kept.
+ *
+ * @author Cody Jackson
+ *
+ */
+public class ShaderSource {
+	private static final Pattern INCLUDE = Pattern.compile("^\\s*#\\s*include\\s+\"([^\"]+)\"");
+	private static final Pattern VERSION = Pattern.compile("^\\s*#\\s*version\\b");
+
+	/* by macro name only, and stable, so a macro given twice keeps its order */
+	private static final Comparator<String> BY_MACRO = new Comparator<String>() {
+		public int compare(String a, String b) {
+			return macro(a).compareTo(macro(b));
+		}
+	};
+
+	private final Map<String, String> files = new HashMap<String, String>();	/* file name -> text */
+
+	/* the complete source of filename with the given defines, NAME or NAME=VALUE */
+	public synchronized String build(String filename, String... defines) throws IOException {
+		StringBuilder body = new StringBuilder();
+		expand(filename, body, new ArrayList<String>(), new HashSet<String>());
+		String text = body.toString();
+
+		int bodyStart = 0;								/* #version has to stay first */
+		int firstLineEnd = text.indexOf('\n');
+		if (firstLineEnd >= 0 && VERSION.matcher(text.substring(0, firstLineEnd)).find()) {
+			bodyStart = firstLineEnd + 1;
+		}
+
+		StringBuilder result = new StringBuilder(text.length() + 64);
+		result.append(text, 0, bodyStart);
+		String[] sorted = defines.clone();
+		Arrays.sort(sorted, BY_MACRO);
+		for (String define : sorted) {
+			int equals = define.indexOf('=');
+			String macro = macro(define);
+			if (Pattern.compile("\\b" + Pattern.quote(macro) + "\\b").matcher(text).find()) {
+				result.append("#define ").append(macro);
+				if (equals >= 0) {
+					result.append(' ').append(define.substring(equals + 1));
+				}
+				result.append('\n');
+			}
+		}
+		result.append(text, bodyStart, text.length());
+		return result.toString();
+	}
+
+	/* NAME of NAME or NAME=VALUE */
+	private static String macro(String define) {
+		int equals = define.indexOf('=');
+		return equals < 0 ? define : define.substring(0, equals);
+	}
+
+	/* appends filename to out with its includes expanded */
+	private void expand(String filename, StringBuilder out, List<String> stack, Set<String> included)
+			throws IOException {
+		if (stack.contains(filename)) {
+			throw new IOException("Shader include cycle: " + stack + " -> " + filename);
+		}
+		if (!included.add(filename)) {
+			return;										/* already in this shader */
+		}
+		stack.add(filename);
+		String text = files.get(filename);
+		if (text == null) {
+			System.out.println("Reading " + filename + " for shader source...");
+			text = new String(Files.readAllBytes(Paths.get(filename)), StandardCharsets.UTF_8);
+			files.put(filename, text);
+		}
+
+		for (String line : text.split("(?<=\n)")) {		/* keeps the line breaks */
+			Matcher include = INCLUDE.matcher(line);
+			if (include.find()) {
+				expand(include.group(1), out, stack, included);
+				if (out.length() > 0 && out.charAt(out.length() - 1) != '\n') {
+					out.append('\n');
+				}
+			} else {
+				out.append(line);
+			}
+		}
+		if (out.length() > 0 && out.charAt(out.length() - 1) != '\n') {
+			out.append('\n');							/* files may end without one */
+		}
+		stack.remove(stack.size() - 1);
+	}
+}
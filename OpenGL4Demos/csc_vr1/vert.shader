@@ -1,6 +1,6 @@
 #version 430 core
 
-in vec4 vs_pos; 				// vertex position
+layout (location = 0) in vec4 vs_pos; // vertex position, location fixed for MainFrame
 out vec4 vs_color; 				// output to fragmentation shader
 
 void main(void) {